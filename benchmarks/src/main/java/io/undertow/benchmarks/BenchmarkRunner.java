@@ -0,0 +1,54 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point for the shaded benchmark jar.
+ * <p>
+ * All benchmarks are run in throughput mode with the GC profiler attached, so each result reports
+ * both ops/s and the normalised allocation rate. Any arguments are treated as benchmark include
+ * regexps, if none are given all benchmarks are run. Results are also written to
+ * {@code undertow-benchmarks.json} so they can be compared between builds.
+ *
+ * @author agent
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException {
+        ChainedOptionsBuilder builder = new OptionsBuilder()
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result("undertow-benchmarks.json");
+        if (args.length == 0) {
+            builder.include(".*");
+        } else {
+            for (String arg : args) {
+                builder.include(arg);
+            }
+        }
+        new Runner(builder.build()).run();
+    }
+}
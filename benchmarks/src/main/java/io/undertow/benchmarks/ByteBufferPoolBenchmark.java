@@ -0,0 +1,92 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import io.undertow.connector.PooledByteBuffer;
+import io.undertow.server.DefaultByteBufferPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks allocate/free cycles on the {@link DefaultByteBufferPool}.
+ * <p>
+ * The pool is shared between all benchmark threads, so the multi threaded variants show contention
+ * on the shared queue once the thread local caches are exhausted.
+ *
+ * @author agent
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ByteBufferPoolBenchmark {
+
+    private DefaultByteBufferPool pool;
+
+    @Setup
+    public void setup() {
+        pool = new DefaultByteBufferPool(true, 16 * 1024, 1000, 12);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.close();
+    }
+
+    @Benchmark
+    public void allocateFree() {
+        PooledByteBuffer buffer = pool.allocate();
+        buffer.getBuffer().put((byte) 1);
+        buffer.close();
+    }
+
+    @Benchmark
+    public void allocateFreeNested() {
+        //more buffers than fit in the thread local cache
+        PooledByteBuffer[] buffers = new PooledByteBuffer[16];
+        for (int i = 0; i < buffers.length; ++i) {
+            buffers[i] = pool.allocate();
+        }
+        for (int i = 0; i < buffers.length; ++i) {
+            buffers[i].close();
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void allocateFreeContended() {
+        PooledByteBuffer buffer = pool.allocate();
+        buffer.getBuffer().put((byte) 1);
+        buffer.close();
+    }
+}
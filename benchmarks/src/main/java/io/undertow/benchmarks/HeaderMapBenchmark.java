@@ -0,0 +1,115 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import io.undertow.util.HeaderMap;
+import io.undertow.util.HeaderValues;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks the {@link HeaderMap} operations that are performed on every request.
+ *
+ * @author agent
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HeaderMapBenchmark {
+
+    private static final HttpString CUSTOM_HEADER = new HttpString("X-Custom-Header");
+
+    private HeaderMap populated;
+
+    @Setup
+    public void setup() {
+        populated = new HeaderMap();
+        populate(populated);
+    }
+
+    @Benchmark
+    public HeaderMap put() {
+        HeaderMap map = new HeaderMap();
+        populate(map);
+        return map;
+    }
+
+    @Benchmark
+    public void get(Blackhole blackhole) {
+        blackhole.consume(populated.getFirst(Headers.HOST));
+        blackhole.consume(populated.getFirst(Headers.CONTENT_TYPE));
+        blackhole.consume(populated.getFirst(Headers.ACCEPT_ENCODING));
+        blackhole.consume(populated.getFirst(CUSTOM_HEADER));
+        blackhole.consume(populated.getFirst(Headers.ORIGIN));
+    }
+
+    @Benchmark
+    public void getByString(Blackhole blackhole) {
+        blackhole.consume(populated.getFirst("Host"));
+        blackhole.consume(populated.getFirst("content-type"));
+        blackhole.consume(populated.getFirst("X-Custom-Header"));
+    }
+
+    @Benchmark
+    public void fastIterate(Blackhole blackhole) {
+        long it = populated.fastIterateNonEmpty();
+        while (it != -1) {
+            HeaderValues values = populated.fiCurrent(it);
+            blackhole.consume(values.getFirst());
+            it = populated.fiNextNonEmpty(it);
+        }
+    }
+
+    @Benchmark
+    public void iterate(Blackhole blackhole) {
+        for (HeaderValues values : populated) {
+            blackhole.consume(values.getFirst());
+        }
+    }
+
+    private static void populate(HeaderMap map) {
+        map.put(Headers.HOST, "localhost:8080");
+        map.put(Headers.USER_AGENT, "Mozilla/5.0 (X11; Linux x86_64; rv:40.0) Gecko/20100101 Firefox/40.0");
+        map.put(Headers.ACCEPT, "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8");
+        map.put(Headers.ACCEPT_LANGUAGE, "en-US,en;q=0.5");
+        map.put(Headers.ACCEPT_ENCODING, "gzip, deflate");
+        map.put(Headers.CONNECTION, "keep-alive");
+        map.put(Headers.CONTENT_TYPE, "text/plain");
+        map.put(Headers.CONTENT_LENGTH, 13);
+        map.add(Headers.COOKIE, "JSESSIONID=7bnSlD1z5nIbKL-n9y6oXr3nVxJHwNUwhPxtGfAV");
+        map.add(Headers.COOKIE, "theme=dark");
+        map.put(CUSTOM_HEADER, "some-custom-value");
+    }
+}
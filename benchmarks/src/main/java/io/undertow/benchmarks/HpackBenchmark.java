@@ -0,0 +1,111 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import io.undertow.protocols.http2.HpackDecoder;
+import io.undertow.protocols.http2.HpackEncoder;
+import io.undertow.protocols.http2.HpackException;
+import io.undertow.util.HeaderMap;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks HPACK encoding and decoding of a typical response header block.
+ * <p>
+ * The encoder and decoder are long lived, as they are per connection, so after the first iteration
+ * most headers will be resolved from the dynamic table, which is the common case for a busy connection.
+ *
+ * @author agent
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HpackBenchmark {
+
+    private static final HttpString STATUS = new HttpString(":status");
+    private static final int TABLE_SIZE = 4096;
+
+    private HpackEncoder encoder;
+    private HpackDecoder decoder;
+    private HeaderMap headers;
+    private ByteBuffer encodeTarget;
+    private ByteBuffer encoded;
+    private int decodedLength;
+
+    @Setup
+    public void setup() throws HpackException {
+        headers = new HeaderMap();
+        headers.put(STATUS, "200");
+        headers.put(Headers.CONTENT_TYPE, "application/json");
+        headers.put(Headers.CONTENT_LENGTH, 27);
+        headers.put(Headers.DATE, "Mon, 05 Oct 2015 10:00:00 GMT");
+        headers.put(Headers.SERVER, "Undertow");
+        headers.put(Headers.CACHE_CONTROL, "no-cache");
+        headers.put(Headers.SET_COOKIE, "JSESSIONID=7bnSlD1z5nIbKL-n9y6oXr3nVxJHwNUwhPxtGfAV; path=/");
+
+        encoder = new HpackEncoder(TABLE_SIZE);
+        encodeTarget = ByteBuffer.allocate(1024);
+
+        //create a single encoded block that can be decoded over and over
+        HpackEncoder blockEncoder = new HpackEncoder(0);
+        ByteBuffer block = ByteBuffer.allocate(1024);
+        blockEncoder.encode(headers, block);
+        block.flip();
+        encoded = block;
+
+        decoder = new HpackDecoder(TABLE_SIZE);
+        decoder.setHeaderEmitter(new HpackDecoder.HeaderEmitter() {
+            @Override
+            public void emitHeader(HttpString name, String value, boolean neverIndex) {
+                decodedLength += name.length() + value.length();
+            }
+        });
+    }
+
+    @Benchmark
+    public ByteBuffer encode() {
+        encodeTarget.clear();
+        encoder.encode(headers, encodeTarget);
+        return encodeTarget;
+    }
+
+    @Benchmark
+    public int decode() throws HpackException {
+        decodedLength = 0;
+        encoded.rewind();
+        decoder.decode(encoded);
+        return decodedLength;
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.benchmarks;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.undertow.Handlers;
+import io.undertow.Undertow;
+import io.undertow.UndertowOptions;
+import io.undertow.client.ClientCallback;
+import io.undertow.client.ClientConnection;
+import io.undertow.client.ClientExchange;
+import io.undertow.client.ClientRequest;
+import io.undertow.client.UndertowClient;
+import io.undertow.server.DefaultByteBufferPool;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import io.undertow.util.Methods;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xnio.ChannelListener;
+import org.xnio.IoUtils;
+import org.xnio.OptionMap;
+import org.xnio.Options;
+import org.xnio.Xnio;
+import org.xnio.XnioWorker;
+import org.xnio.channels.StreamSourceChannel;
+
+/**
+ * Measures the time to first byte of small HTTP2 responses, while bulk downloads are running on the same connection.
+ * <p>
+ * This shows how well the frame scheduler shares the connection. With a FIFO scheduler a small response has to wait
+ * behind whatever DATA frames the bulk streams have already queued, with weighted fair sharing it should be sent
+ * almost straight away. The {@code bulkStreams=0} result is the baseline with an idle connection.
+ *
+ * @author agent
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class Http2PriorityBenchmark {
+
+    private static final String HOST = "127.0.0.1";
+    private static final int PORT = 7778;
+
+    private static final ByteBuffer SMALL_BODY = ByteBuffer.allocateDirect(2 * 1024);
+    private static final ByteBuffer BULK_BODY = ByteBuffer.allocateDirect(8 * 1024 * 1024);
+
+    /**
+     * How long to wait for a small response before failing the iteration
+     */
+    private static final long TIMEOUT_SECONDS = 30;
+
+    @State(Scope.Benchmark)
+    public static class ConnectionState {
+
+        @Param({"0", "4"})
+        int bulkStreams;
+
+        Undertow server;
+        XnioWorker worker;
+        ClientConnection connection;
+        volatile boolean running;
+        /**
+         * The first failure of a bulk download, which fails the next iteration
+         */
+        final AtomicReference<IOException> bulkFailure = new AtomicReference<>();
+
+        @Setup
+        public void setup() throws Exception {
+            server = Undertow.builder()
+                    .addHttpListener(PORT, HOST)
+                    .setServerOption(UndertowOptions.ENABLE_HTTP2, true)
+                    .setHandler(Handlers.path()
+                            .addExactPath("/small", new FixedResponseHandler(SMALL_BODY))
+                            .addExactPath("/bulk", new FixedResponseHandler(BULK_BODY)))
+                    .build();
+            server.start();
+            worker = Xnio.getInstance().createWorker(OptionMap.create(Options.WORKER_IO_THREADS, 1));
+            connection = UndertowClient.getInstance().connect(new URI("h2c-prior://" + HOST + ":" + PORT), worker, new DefaultByteBufferPool(true, 16 * 1024), OptionMap.EMPTY).get();
+            running = true;
+            for (int i = 0; i < bulkStreams; ++i) {
+                startBulkDownload();
+            }
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            running = false;
+            IoUtils.safeClose(connection);
+            worker.shutdownNow();
+            server.stop();
+        }
+
+        /**
+         * Downloads the bulk response, and starts another download as soon as it is complete
+         */
+        private void startBulkDownload() {
+            sendRequest("/bulk", new ResponseListener() {
+                @Override
+                public void responseReceived() {
+                }
+
+                @Override
+                public void responseComplete() {
+                    if (running) {
+                        startBulkDownload();
+                    }
+                }
+
+                @Override
+                public void failed(IOException e) {
+                    if (running) {
+                        bulkFailure.compareAndSet(null, e);
+                    }
+                }
+            });
+        }
+
+        void sendRequest(final String path, final ResponseListener listener) {
+            ClientRequest request = new ClientRequest().setMethod(Methods.GET).setPath(path);
+            request.getRequestHeaders().put(Headers.HOST, HOST);
+            connection.sendRequest(request, new ClientCallback<ClientExchange>() {
+                @Override
+                public void completed(ClientExchange result) {
+                    result.setResponseListener(new ClientCallback<ClientExchange>() {
+                        @Override
+                        public void completed(ClientExchange result) {
+                            listener.responseReceived();
+                            drain(result.getResponseChannel(), listener);
+                        }
+
+                        @Override
+                        public void failed(IOException e) {
+                            listener.failed(e);
+                        }
+                    });
+                }
+
+                @Override
+                public void failed(IOException e) {
+                    listener.failed(e);
+                }
+            });
+        }
+    }
+
+    @Benchmark
+    public void smallResponse(ConnectionState state) throws Exception {
+        IOException bulkFailure = state.bulkFailure.get();
+        if (bulkFailure != null) {
+            throw bulkFailure;
+        }
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<IOException> failure = new AtomicReference<>();
+        state.sendRequest("/small", new ResponseListener() {
+            @Override
+            public void responseReceived() {
+                latch.countDown();
+            }
+
+            @Override
+            public void responseComplete() {
+            }
+
+            @Override
+            public void failed(IOException e) {
+                failure.compareAndSet(null, e);
+                latch.countDown();
+            }
+        });
+        if (!latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("No response received within " + TIMEOUT_SECONDS + " seconds");
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+
+    private static void drain(final StreamSourceChannel channel, final ResponseListener responseListener) {
+        ChannelListener<StreamSourceChannel> listener = new ChannelListener<StreamSourceChannel>() {
+
+            private final ByteBuffer buffer = ByteBuffer.allocate(16 * 1024);
+
+            @Override
+            public void handleEvent(StreamSourceChannel channel) {
+                try {
+                    int res;
+                    do {
+                        buffer.clear();
+                        res = channel.read(buffer);
+                    } while (res > 0);
+                    if (res == -1) {
+                        IoUtils.safeClose(channel);
+                        responseListener.responseComplete();
+                    } else {
+                        channel.resumeReads();
+                    }
+                } catch (IOException e) {
+                    IoUtils.safeClose(channel);
+                    responseListener.failed(e);
+                }
+            }
+        };
+        channel.getReadSetter().set(listener);
+        listener.handleEvent(channel);
+    }
+
+    interface ResponseListener {
+
+        /**
+         * Called when the response headers have been received
+         */
+        void responseReceived();
+
+        /**
+         * Called when the whole response body has been read
+         */
+        void responseComplete();
+
+        /**
+         * Called if the request could not be sent or the response could not be read
+         */
+        void failed(IOException e);
+    }
+
+    private static final class FixedResponseHandler implements HttpHandler {
+
+        private final ByteBuffer body;
+
+        private FixedResponseHandler(ByteBuffer body) {
+            this.body = body;
+        }
+
+        @Override
+        public void handleRequest(HttpServerExchange exchange) throws Exception {
+            exchange.getResponseHeaders().put(Headers.CONTENT_LENGTH, body.remaining());
+            exchange.getResponseSender().send(body.duplicate());
+        }
+    }
+}
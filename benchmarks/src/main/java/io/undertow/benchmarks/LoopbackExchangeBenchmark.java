@@ -0,0 +1,199 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import io.undertow.Handlers;
+import io.undertow.Undertow;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End to end benchmark that runs plaintext and JSON requests against an {@link Undertow} server over
+ * loopback, using persistent HTTP/1.1 connections.
+ * <p>
+ * The client is a deliberately minimal blocking socket client, so that as much of the measured cost as
+ * possible is on the server side. Note that the GC profiler numbers include both client and server
+ * allocations, as they run in the same JVM.
+ *
+ * @author agent
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoopbackExchangeBenchmark {
+
+    private static final String HOST = "127.0.0.1";
+    private static final int PORT = 7777;
+
+    private static final byte[] PLAINTEXT_REQUEST = ("GET /plaintext HTTP/1.1\r\nHost: localhost\r\nAccept: text/plain\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] JSON_REQUEST = ("GET /json HTTP/1.1\r\nHost: localhost\r\nAccept: application/json\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] CONTENT_LENGTH = "content-length:".getBytes(StandardCharsets.US_ASCII);
+
+    private static final ByteBuffer PLAINTEXT_BODY = ByteBuffer.wrap("Hello, World!".getBytes(StandardCharsets.US_ASCII));
+
+    @State(Scope.Benchmark)
+    public static class ServerState {
+
+        Undertow server;
+
+        @Setup
+        public void setup() {
+            server = Undertow.builder()
+                    .addHttpListener(PORT, HOST)
+                    .setHandler(Handlers.path()
+                            .addExactPath("/plaintext", new HttpHandler() {
+                                @Override
+                                public void handleRequest(HttpServerExchange exchange) throws Exception {
+                                    exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "text/plain");
+                                    exchange.getResponseSender().send(PLAINTEXT_BODY.duplicate());
+                                }
+                            })
+                            .addExactPath("/json", new HttpHandler() {
+                                @Override
+                                public void handleRequest(HttpServerExchange exchange) throws Exception {
+                                    exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
+                                    exchange.getResponseSender().send("{\"message\":\"Hello, World!\"}");
+                                }
+                            }))
+                    .build();
+            server.start();
+        }
+
+        @TearDown
+        public void tearDown() {
+            server.stop();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ClientState {
+
+        private final byte[] readBuffer = new byte[4096];
+        private Socket socket;
+        private InputStream in;
+        private OutputStream out;
+
+        @Setup
+        public void setup(ServerState serverState) throws IOException {
+            socket = new Socket(HOST, PORT);
+            socket.setTcpNoDelay(true);
+            in = socket.getInputStream();
+            out = socket.getOutputStream();
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            socket.close();
+        }
+
+        /**
+         * Sends the request and reads a single fixed length response.
+         *
+         * @return the number of bytes read
+         */
+        int execute(byte[] request) throws IOException {
+            out.write(request);
+            out.flush();
+            int read = 0;
+            int headerEnd = -1;
+            while (headerEnd == -1) {
+                int res = in.read(readBuffer, read, readBuffer.length - read);
+                if (res == -1) {
+                    throw new IOException("Connection closed");
+                }
+                read += res;
+                headerEnd = findHeaderEnd(readBuffer, read);
+            }
+            int contentLength = parseContentLength(readBuffer, headerEnd);
+            int total = headerEnd + contentLength;
+            while (read < total) {
+                int res = in.read(readBuffer, read, readBuffer.length - read);
+                if (res == -1) {
+                    throw new IOException("Connection closed");
+                }
+                read += res;
+            }
+            return read;
+        }
+
+        private static int findHeaderEnd(byte[] data, int length) {
+            for (int i = 3; i < length; ++i) {
+                if (data[i] == '\n' && data[i - 1] == '\r' && data[i - 2] == '\n' && data[i - 3] == '\r') {
+                    return i + 1;
+                }
+            }
+            return -1;
+        }
+
+        private static int parseContentLength(byte[] data, int headerEnd) throws IOException {
+            byte[] name = CONTENT_LENGTH;
+            outer:
+            for (int i = 0; i < headerEnd - name.length; ++i) {
+                for (int j = 0; j < name.length; ++j) {
+                    if (Character.toLowerCase(data[i + j]) != name[j]) {
+                        continue outer;
+                    }
+                }
+                int pos = i + name.length;
+                while (data[pos] == ' ') {
+                    ++pos;
+                }
+                int length = 0;
+                while (data[pos] >= '0' && data[pos] <= '9') {
+                    length = length * 10 + (data[pos++] - '0');
+                }
+                return length;
+            }
+            throw new IOException("No content length in response");
+        }
+    }
+
+    @Benchmark
+    public int plaintext(ClientState client) throws IOException {
+        return client.execute(PLAINTEXT_REQUEST);
+    }
+
+    @Benchmark
+    public int json(ClientState client) throws IOException {
+        return client.execute(JSON_REQUEST);
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import io.undertow.util.PathMatcher;
+import io.undertow.util.PathTemplateMatcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks {@link PathMatcher} and {@link PathTemplateMatcher} lookups against a moderately sized
+ * set of routes.
+ *
+ * @author agent
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PathMatcherBenchmark {
+
+    private static final int ROUTES = 50;
+
+    private final PathMatcher<String> pathMatcher = new PathMatcher<>("default");
+    private final PathTemplateMatcher<String> templateMatcher = new PathTemplateMatcher<>();
+
+    @Setup
+    public void setup() {
+        for (int i = 0; i < ROUTES; ++i) {
+            pathMatcher.addPrefixPath("/app" + i, "prefix" + i);
+            pathMatcher.addExactPath("/app" + i + "/index.html", "exact" + i);
+            templateMatcher.add("/api/resource" + i + "/{id}", "template" + i);
+            templateMatcher.add("/api/resource" + i + "/{id}/children/{child}", "child" + i);
+        }
+    }
+
+    @Benchmark
+    public PathMatcher.PathMatch<String> prefixMatch() {
+        return pathMatcher.match("/app25/some/nested/resource.css");
+    }
+
+    @Benchmark
+    public PathMatcher.PathMatch<String> exactMatch() {
+        return pathMatcher.match("/app25/index.html");
+    }
+
+    @Benchmark
+    public PathMatcher.PathMatch<String> defaultMatch() {
+        return pathMatcher.match("/unknown/path");
+    }
+
+    @Benchmark
+    public PathTemplateMatcher.PathMatchResult<String> templateMatch() {
+        return templateMatcher.match("/api/resource25/1234");
+    }
+
+    @Benchmark
+    public PathTemplateMatcher.PathMatchResult<String> nestedTemplateMatch() {
+        return templateMatcher.match("/api/resource25/1234/children/5678");
+    }
+
+    @Benchmark
+    public PathTemplateMatcher.PathMatchResult<String> templateMiss() {
+        return templateMatcher.match("/api/unknown/1234");
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.undertow.benchmarks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import io.undertow.websockets.core.protocol.version07.Masker;
+import io.undertow.websockets.core.protocol.version07.UTF8Checker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks unmasking and UTF-8 validation of received WebSocket frame payloads.
+ * <p>
+ * The version 08 and 13 channels use the same masker and UTF-8 checker as version 07, so these numbers apply to
+ * all three protocol versions.
+ *
+ * @author agent
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WebSocketFrameBenchmark {
+
+    @Param({"125", "4096", "65536"})
+    int payloadSize;
+
+    @Param({"true", "false"})
+    boolean direct;
+
+    private ByteBuffer payload;
+    private ByteBuffer asciiText;
+    private ByteBuffer mixedText;
+    private Masker masker;
+
+    @Setup
+    public void setup() throws IOException {
+        byte[] data = new byte[payloadSize];
+        new Random(1).nextBytes(data);
+        payload = allocate(data);
+        masker = new Masker(0x12345678);
+
+        StringBuilder ascii = new StringBuilder();
+        StringBuilder mixed = new StringBuilder();
+        while (ascii.length() < payloadSize) {
+            ascii.append("{\"name\":\"value\",\"id\":12345}");
+            mixed.append("{\"name\":\"v\u00e4lue\",\"id\":\"\u4e2d\u6587\"}");
+        }
+        asciiText = allocate(ascii.substring(0, payloadSize).getBytes("UTF-8"));
+        //the text is cut at a byte boundary so the payload size is the same, the last character may be incomplete
+        //but complete() is never called
+        byte[] mixedBytes = mixed.toString().getBytes("UTF-8");
+        byte[] truncated = new byte[payloadSize];
+        System.arraycopy(mixedBytes, 0, truncated, 0, payloadSize);
+        mixedText = allocate(truncated);
+    }
+
+    private ByteBuffer allocate(byte[] data) {
+        ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(data.length) : ByteBuffer.allocate(data.length);
+        buffer.put(data);
+        buffer.flip();
+        return buffer;
+    }
+
+    @Benchmark
+    public ByteBuffer unmask() {
+        //the key index is reset for each frame
+        masker.setMaskingKey(0x12345678);
+        masker.afterRead(payload, 0, payloadSize);
+        return payload;
+    }
+
+    @Benchmark
+    public UTF8Checker validateAscii() throws IOException {
+        UTF8Checker checker = new UTF8Checker();
+        checker.afterRead(asciiText, 0, payloadSize);
+        return checker;
+    }
+
+    @Benchmark
+    public UTF8Checker validateMixed() throws IOException {
+        UTF8Checker checker = new UTF8Checker();
+        checker.afterRead(mixedText, 0, payloadSize);
+        return checker;
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.protocol.http;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import io.undertow.server.HttpServerExchange;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xnio.OptionMap;
+
+/**
+ * Benchmarks the generated HTTP request parser.
+ * <p>
+ * This lives in the parser package as {@link ParseState} is package private.
+ *
+ * @author agent
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HttpRequestParserBenchmark {
+
+    private static final byte[] SIMPLE_REQUEST = ("GET /plaintext HTTP/1.1\r\n" +
+            "Host: localhost:8080\r\n" +
+            "Accept: text/plain\r\n" +
+            "Connection: keep-alive\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] BROWSER_REQUEST = ("GET /some/path/to/a/resource.html?param1=value1&param2=value%202 HTTP/1.1\r\n" +
+            "Host: www.example.com\r\n" +
+            "User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:40.0) Gecko/20100101 Firefox/40.0\r\n" +
+            "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8\r\n" +
+            "Accept-Language: en-US,en;q=0.5\r\n" +
+            "Accept-Encoding: gzip, deflate\r\n" +
+            "Referer: http://www.example.com/index.html\r\n" +
+            "Cookie: JSESSIONID=7bnSlD1z5nIbKL-n9y6oXr3nVxJHwNUwhPxtGfAV; theme=dark\r\n" +
+            "X-Custom-Header: some-custom-value\r\n" +
+            "Connection: keep-alive\r\n" +
+            "Cache-Control: max-age=0\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    private HttpRequestParser parser;
+    private ByteBuffer simpleRequest;
+    private ByteBuffer browserRequest;
+
+    @Setup
+    public void setup() {
+        parser = HttpRequestParser.instance(OptionMap.EMPTY);
+        simpleRequest = ByteBuffer.allocateDirect(SIMPLE_REQUEST.length);
+        simpleRequest.put(SIMPLE_REQUEST).flip();
+        browserRequest = ByteBuffer.allocateDirect(BROWSER_REQUEST.length);
+        browserRequest.put(BROWSER_REQUEST).flip();
+    }
+
+    @Benchmark
+    public HttpServerExchange parseSimpleRequest() {
+        return parse(simpleRequest);
+    }
+
+    @Benchmark
+    public HttpServerExchange parseBrowserRequest() {
+        return parse(browserRequest);
+    }
+
+    private HttpServerExchange parse(ByteBuffer request) {
+        request.rewind();
+        HttpServerExchange exchange = new HttpServerExchange(null);
+        parser.handle(request, new ParseState(), exchange);
+        return exchange;
+    }
+}
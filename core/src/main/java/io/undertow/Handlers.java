@@ -36,6 +36,7 @@ import io.undertow.server.handlers.HttpContinueReadHandler;
 import io.undertow.server.handlers.HttpTraceHandler;
 import io.undertow.server.handlers.IPAddressAccessControlHandler;
 import io.undertow.server.handlers.NameVirtualHostHandler;
+import io.undertow.server.handlers.OpenMetricsHandler;
 import io.undertow.server.handlers.PathHandler;
 import io.undertow.server.handlers.PathTemplateHandler;
 import io.undertow.server.handlers.PredicateContextHandler;
@@ -574,6 +575,16 @@ public class Handlers {
         return new LearningPushHandler(maxEntries, -1, next);
     }
 
+    /**
+     * Creates a handler that exposes statistics in the OpenMetrics text format. Statistics sources must be
+     * registered with the returned handler.
+     *
+     * @return A new OpenMetrics handler
+     */
+    public static OpenMetricsHandler openMetrics() {
+        return new OpenMetricsHandler();
+    }
+
     private Handlers() {
 
     }
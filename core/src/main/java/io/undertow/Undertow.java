@@ -18,6 +18,7 @@
 
 package io.undertow;
 
+import io.undertow.protocols.ssl.SslHandshakeStatistics;
 import io.undertow.protocols.ssl.UndertowXnioSsl;
 import io.undertow.server.DefaultByteBufferPool;
 import io.undertow.server.HttpHandler;
@@ -38,15 +39,21 @@ import org.xnio.Xnio;
 import org.xnio.XnioWorker;
 import org.xnio.channels.AcceptingChannel;
 import org.xnio.ssl.SslConnection;
-import org.xnio.ssl.XnioSsl;
+import org.xnio.ssl.JsseSslUtils;
 
 import javax.net.ssl.KeyManager;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
 import java.net.Inet4Address;
 import java.net.InetSocketAddress;
+import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Convenience class used to build an Undertow server.
@@ -66,9 +73,16 @@ public final class Undertow {
     private final OptionMap workerOptions;
     private final OptionMap socketOptions;
     private final OptionMap serverOptions;
+    private final ByteBufferPool byteBufferPool;
+    private final int sslHandshakeThreads;
+    private final int sslHandshakeQueueSize;
+    private final int sslSessionCacheSize;
+    private final int sslSessionTimeout;
 
     private XnioWorker worker;
+    private ThreadPoolExecutor sslHandshakeExecutor;
     private List<AcceptingChannel<? extends StreamConnection>> channels;
+    private List<UndertowXnioSsl> sslProviders;
     private Xnio xnio;
 
     private Undertow(Builder builder) {
@@ -82,6 +96,11 @@ public final class Undertow {
         this.workerOptions = builder.workerOptions.getMap();
         this.socketOptions = builder.socketOptions.getMap();
         this.serverOptions = builder.serverOptions.getMap();
+        this.byteBufferPool = builder.byteBufferPool;
+        this.sslHandshakeThreads = builder.sslHandshakeThreads;
+        this.sslHandshakeQueueSize = builder.sslHandshakeQueueSize;
+        this.sslSessionCacheSize = builder.sslSessionCacheSize;
+        this.sslSessionTimeout = builder.sslSessionTimeout;
     }
 
     /**
@@ -94,6 +113,7 @@ public final class Undertow {
     public synchronized void start() {
         xnio = Xnio.getInstance(Undertow.class.getClassLoader());
         channels = new ArrayList<>();
+        sslProviders = new ArrayList<>();
         try {
             worker = xnio.createWorker(OptionMap.builder()
                     .set(Options.WORKER_IO_THREADS, ioThreads)
@@ -117,7 +137,10 @@ public final class Undertow {
                     .getMap();
 
 
-            ByteBufferPool buffers = new DefaultByteBufferPool(directBuffers, bufferSize, -1, 4);
+            ByteBufferPool buffers = byteBufferPool;
+            if (buffers == null) {
+                buffers = new DefaultByteBufferPool(directBuffers, bufferSize, -1, 4);
+            }
 
             for (ListenerConfig listener : listeners) {
                 final HttpHandler rootHandler = listener.rootHandler != null ? listener.rootHandler : this.rootHandler;
@@ -163,12 +186,20 @@ public final class Undertow {
                             openListener = httpOpenListener;
                         }
                         ChannelListener<AcceptingChannel<StreamConnection>> acceptListener = ChannelListeners.openListenerAdapter(openListener);
-                        XnioSsl xnioSsl;
-                        if (listener.sslContext != null) {
-                            xnioSsl = new UndertowXnioSsl(xnio, OptionMap.create(Options.USE_DIRECT_BUFFERS, true), listener.sslContext);
-                        } else {
-                            xnioSsl = xnio.getSslProvider(listener.keyManagers, listener.trustManagers, OptionMap.create(Options.USE_DIRECT_BUFFERS, true));
+                        SSLContext sslContext = listener.sslContext;
+                        if (sslContext == null) {
+                            sslContext = JsseSslUtils.createSSLContext(listener.keyManagers, listener.trustManagers, new SecureRandom(), OptionMap.create(Options.USE_DIRECT_BUFFERS, true));
+                            //a context that was passed in may be shared, so its session cache is left as it was configured
+                            if (sslSessionCacheSize >= 0) {
+                                sslContext.getServerSessionContext().setSessionCacheSize(sslSessionCacheSize);
+                            }
+                            if (sslSessionTimeout >= 0) {
+                                sslContext.getServerSessionContext().setSessionTimeout(sslSessionTimeout);
+                            }
                         }
+                        UndertowXnioSsl xnioSsl = new UndertowXnioSsl(xnio, OptionMap.create(Options.USE_DIRECT_BUFFERS, true), sslContext);
+                        xnioSsl.setDelegatedTaskExecutor(getSslHandshakeExecutor());
+                        sslProviders.add(xnioSsl);
                         AcceptingChannel<SslConnection> sslServer = xnioSsl.createSslConnectionServer(worker, new InetSocketAddress(Inet4Address.getByName(listener.host), listener.port), (ChannelListener) acceptListener, socketOptions);
                         sslServer.resumeAccepts();
                         channels.add(sslServer);
@@ -187,11 +218,54 @@ public final class Undertow {
             IoUtils.safeClose(channel);
         }
         channels = null;
+        sslProviders = null;
         worker.shutdownNow();
         worker = null;
+        if (sslHandshakeExecutor != null) {
+            sslHandshakeExecutor.shutdownNow();
+            sslHandshakeExecutor = null;
+        }
         xnio = null;
     }
 
+    /**
+     * Returns the TLS handshake statistics of the HTTPS listeners, in the order the listeners were added.
+     *
+     * @return The handshake statistics, or an empty list if the server is not started or has no HTTPS listeners
+     */
+    public synchronized List<SslHandshakeStatistics> getSslHandshakeStatistics() {
+        List<SslHandshakeStatistics> ret = new ArrayList<>();
+        if (sslProviders != null) {
+            for (UndertowXnioSsl ssl : sslProviders) {
+                ret.add(ssl.getHandshakeStatistics());
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Lazily creates the bounded executor that delegated SSLEngine tasks are run in. If no handshake threads have
+     * been configured this returns null, and the tasks are run in the worker.
+     */
+    private ThreadPoolExecutor getSslHandshakeExecutor() {
+        if (sslHandshakeThreads <= 0) {
+            return null;
+        }
+        if (sslHandshakeExecutor == null) {
+            final AtomicInteger count = new AtomicInteger();
+            sslHandshakeExecutor = new ThreadPoolExecutor(sslHandshakeThreads, sslHandshakeThreads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(sslHandshakeQueueSize), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "ssl-handshake-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            sslHandshakeExecutor.allowCoreThreadTimeOut(true);
+        }
+        return sslHandshakeExecutor;
+    }
+
 
     public static enum ListenerType {
         HTTP,
@@ -238,6 +312,11 @@ public final class Undertow {
         private boolean directBuffers;
         private final List<ListenerConfig> listeners = new ArrayList<>();
         private HttpHandler handler;
+        private ByteBufferPool byteBufferPool;
+        private int sslHandshakeThreads = 0;
+        private int sslHandshakeQueueSize = 1024;
+        private int sslSessionCacheSize = -1;
+        private int sslSessionTimeout = -1;
 
         private final OptionMap.Builder workerOptions = OptionMap.builder();
         private final OptionMap.Builder socketOptions = OptionMap.builder();
@@ -348,6 +427,75 @@ public final class Undertow {
             return this;
         }
 
+        /**
+         * Sets the buffer pool to use for all listeners, such as a {@link io.undertow.server.SizeClassedByteBufferPool}.
+         * If this is set the buffer size and direct buffer settings are ignored.
+         *
+         * @param byteBufferPool The buffer pool
+         * @return this builder
+         */
+        public Builder setByteBufferPool(final ByteBufferPool byteBufferPool) {
+            this.byteBufferPool = byteBufferPool;
+            return this;
+        }
+
+        /**
+         * Sets the number of threads used to run delegated SSLEngine tasks for HTTPS listeners. These tasks perform
+         * the expensive parts of a TLS handshake, so running them in a dedicated pool stops a burst of new connections
+         * from competing with in flight requests for worker threads.
+         *
+         * If this is zero (the default) the tasks are run in the worker.
+         *
+         * @param sslHandshakeThreads The number of handshake threads
+         * @return this builder
+         */
+        public Builder setSslHandshakeThreads(final int sslHandshakeThreads) {
+            this.sslHandshakeThreads = sslHandshakeThreads;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of delegated SSLEngine tasks that can be queued for the handshake threads. Once the
+         * queue is full further tasks are run in the worker.
+         *
+         * @param sslHandshakeQueueSize The queue size
+         * @return this builder
+         */
+        public Builder setSslHandshakeQueueSize(final int sslHandshakeQueueSize) {
+            this.sslHandshakeQueueSize = sslHandshakeQueueSize;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of sessions in the server side TLS session cache of HTTPS listeners. A larger cache
+         * allows more clients to resume their session with an abbreviated handshake when they reconnect.
+         *
+         * This only applies to listeners that were added with key and trust managers. If a listener was added with an
+         * {@link SSLContext} its session cache is not modified, and should be configured through
+         * {@link SSLContext#getServerSessionContext()}.
+         *
+         * @param sslSessionCacheSize The cache size, or 0 for no limit
+         * @return this builder
+         */
+        public Builder setSslSessionCacheSize(final int sslSessionCacheSize) {
+            this.sslSessionCacheSize = sslSessionCacheSize;
+            return this;
+        }
+
+        /**
+         * Sets the time in seconds that cached TLS sessions of HTTPS listeners can be resumed for.
+         *
+         * Like {@link #setSslSessionCacheSize(int)} this only applies to listeners that were added with key and trust
+         * managers.
+         *
+         * @param sslSessionTimeout The timeout in seconds, or 0 for no limit
+         * @return this builder
+         */
+        public Builder setSslSessionTimeout(final int sslSessionTimeout) {
+            this.sslSessionTimeout = sslSessionTimeout;
+            return this;
+        }
+
         public Builder setHandler(final HttpHandler handler) {
             this.handler = handler;
             return this;
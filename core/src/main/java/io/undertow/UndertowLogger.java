@@ -326,4 +326,12 @@ public interface UndertowLogger extends BasicLogger {
     @Message(id = 5068, value = "Pattern was just empty or whitespace")
     void extendedAccessLogEmptyPattern();
 
+    @LogMessage(level = ERROR)
+    @Message(id = 5069, value = "Failed to activate passivated session %s, the session attributes have been lost")
+    void failedToActivateSession(String sessionId, @Cause Exception e);
+
+    @LogMessage(level = ERROR)
+    @Message(id = 5070, value = "Failed to invalidate expired session %s")
+    void failedToInvalidateSession(String sessionId, @Cause Exception e);
+
 }
@@ -422,4 +422,10 @@ public interface UndertowMessages {
 
     @Message(id = 131, value = "Buffer pool is closed")
     IllegalStateException poolIsClosed();
+
+    @Message(id = 132, value = "Host weight must be at least 1, was %s")
+    IllegalArgumentException invalidHostWeight(int weight);
+
+    @Message(id = 133, value = "Unknown host selector %s, must be one of %s")
+    IllegalArgumentException unknownHostSelector(String name, String known);
 }
@@ -230,6 +230,22 @@ public class UndertowOptions {
     public static final Option<Integer> HTTP2_SETTINGS_MAX_FRAME_SIZE = Option.simple(UndertowOptions.class, "HTTP2_SETTINGS_MAX_FRAME_SIZE", Integer.class);
     public static final Option<Integer> HTTP2_SETTINGS_MAX_HEADER_LIST_SIZE = Option.simple(UndertowOptions.class, "HTTP2_SETTINGS_MAX_HEADER_LIST_SIZE", Integer.class);
 
+    /**
+     * If the HTTP2 receive windows should be grown automatically to match the bandwidth delay product of the
+     * connection, which is measured using PING frames. This allows large uploads over high latency links to use all
+     * the available bandwidth.
+     *
+     * Defaults to false
+     */
+    public static final Option<Boolean> HTTP2_RECEIVE_WINDOW_AUTO_TUNING = Option.simple(UndertowOptions.class, "HTTP2_RECEIVE_WINDOW_AUTO_TUNING", Boolean.class);
+
+    /**
+     * The maximum size that automatically tuned HTTP2 receive windows can grow to.
+     *
+     * Defaults to 16MB
+     */
+    public static final Option<Integer> HTTP2_MAX_RECEIVE_WINDOW_SIZE = Option.simple(UndertowOptions.class, "HTTP2_MAX_RECEIVE_WINDOW_SIZE", Integer.class);
+
     /**
      * Undertow keeps a LRU cache of common huffman encodings. This sets the maximum size, setting this to 0 will disable the caching.
      *
@@ -0,0 +1,38 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.attribute;
+
+import io.undertow.server.HttpServerExchange;
+
+/**
+ * An exchange attribute that can append its value directly to a builder, without creating an intermediate String.
+ *
+ * @author agent
+ * @see CompiledExchangeAttribute
+ */
+public interface AppendingExchangeAttribute extends ExchangeAttribute {
+
+    /**
+     * Appends the attribute to the builder. If the attribute is not present nothing is appended.
+     *
+     * @param exchange The exchange
+     * @param builder  The builder to append to
+     */
+    void appendAttribute(final HttpServerExchange exchange, final StringBuilder builder);
+}
@@ -25,7 +25,7 @@ import io.undertow.server.HttpServerExchange;
  *
  * @author Filipe Ferraz
  */
-public class BytesSentAttribute implements ExchangeAttribute {
+public class BytesSentAttribute implements AppendingExchangeAttribute {
 
     public static final String BYTES_SENT_SHORT_UPPER = "%B";
     public static final String BYTES_SENT_SHORT_LOWER = "%b";
@@ -48,6 +48,16 @@ public class BytesSentAttribute implements ExchangeAttribute {
         }
     }
 
+    @Override
+    public void appendAttribute(final HttpServerExchange exchange, final StringBuilder builder) {
+        long bytesSent = exchange.getResponseBytesSent();
+        if (dashIfZero && bytesSent == 0) {
+            builder.append('-');
+        } else {
+            builder.append(bytesSent);
+        }
+    }
+
     @Override
     public void writeAttribute(final HttpServerExchange exchange, final String newValue) throws ReadOnlyAttributeException {
         throw new ReadOnlyAttributeException("Bytes sent", newValue);
@@ -0,0 +1,127 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.attribute;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.undertow.server.HttpServerExchange;
+
+/**
+ * A flattened form of an attribute, intended for attributes that are evaluated for every request such
+ * as access log patterns.
+ * <p>
+ * Nested {@link CompositeExchangeAttribute}s are flattened into a single sequence, adjacent constants are merged,
+ * and every part appends directly into a single builder. Attributes that do not implement
+ * {@link AppendingExchangeAttribute} are still supported, their value is simply appended once it has been read.
+ *
+ * @author agent
+ */
+public class CompiledExchangeAttribute implements AppendingExchangeAttribute {
+
+    private final AppendingExchangeAttribute[] parts;
+    private volatile int expectedLength = 64;
+
+    public CompiledExchangeAttribute(final ExchangeAttribute attribute) {
+        final List<AppendingExchangeAttribute> parts = new ArrayList<>();
+        final StringBuilder constant = new StringBuilder();
+        flatten(attribute, parts, constant);
+        if (constant.length() > 0) {
+            parts.add(new ConstantExchangeAttribute(constant.toString()));
+        }
+        this.parts = parts.toArray(new AppendingExchangeAttribute[parts.size()]);
+    }
+
+    private static void flatten(final ExchangeAttribute attribute, final List<AppendingExchangeAttribute> parts, final StringBuilder constant) {
+        if (attribute instanceof CompositeExchangeAttribute) {
+            for (ExchangeAttribute part : ((CompositeExchangeAttribute) attribute).getAttributes()) {
+                flatten(part, parts, constant);
+            }
+        } else if (attribute instanceof CompiledExchangeAttribute) {
+            for (AppendingExchangeAttribute part : ((CompiledExchangeAttribute) attribute).parts) {
+                flatten(part, parts, constant);
+            }
+        } else if (attribute instanceof ConstantExchangeAttribute) {
+            constant.append(attribute.readAttribute(null));
+        } else {
+            if (constant.length() > 0) {
+                parts.add(new ConstantExchangeAttribute(constant.toString()));
+                constant.setLength(0);
+            }
+            if (attribute instanceof AppendingExchangeAttribute) {
+                parts.add((AppendingExchangeAttribute) attribute);
+            } else {
+                parts.add(new ReadingAttribute(attribute));
+            }
+        }
+    }
+
+    @Override
+    public void appendAttribute(final HttpServerExchange exchange, final StringBuilder builder) {
+        for (int i = 0; i < parts.length; ++i) {
+            parts[i].appendAttribute(exchange, builder);
+        }
+    }
+
+    @Override
+    public String readAttribute(final HttpServerExchange exchange) {
+        final StringBuilder sb = new StringBuilder(expectedLength);
+        appendAttribute(exchange, sb);
+        if (sb.length() > expectedLength) {
+            //size the next builder so it does not need to grow
+            expectedLength = sb.length();
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public void writeAttribute(final HttpServerExchange exchange, final String newValue) throws ReadOnlyAttributeException {
+        throw new ReadOnlyAttributeException("compiled", newValue);
+    }
+
+    /**
+     * Adapter for attributes that can only produce a String
+     */
+    private static final class ReadingAttribute implements AppendingExchangeAttribute {
+
+        private final ExchangeAttribute attribute;
+
+        private ReadingAttribute(final ExchangeAttribute attribute) {
+            this.attribute = attribute;
+        }
+
+        @Override
+        public void appendAttribute(final HttpServerExchange exchange, final StringBuilder builder) {
+            final String val = attribute.readAttribute(exchange);
+            if (val != null) {
+                builder.append(val);
+            }
+        }
+
+        @Override
+        public String readAttribute(final HttpServerExchange exchange) {
+            return attribute.readAttribute(exchange);
+        }
+
+        @Override
+        public void writeAttribute(final HttpServerExchange exchange, final String newValue) throws ReadOnlyAttributeException {
+            attribute.writeAttribute(exchange, newValue);
+        }
+    }
+}
@@ -25,7 +25,7 @@ import io.undertow.server.HttpServerExchange;
  *
  * @author Stuart Douglas
  */
-public class CompositeExchangeAttribute implements ExchangeAttribute {
+public class CompositeExchangeAttribute implements AppendingExchangeAttribute {
 
     private final ExchangeAttribute[] attributes;
 
@@ -47,6 +47,24 @@ public class CompositeExchangeAttribute implements ExchangeAttribute {
         return sb.toString();
     }
 
+    @Override
+    public void appendAttribute(HttpServerExchange exchange, StringBuilder builder) {
+        for (int i = 0; i < attributes.length; ++i) {
+            if (attributes[i] instanceof AppendingExchangeAttribute) {
+                ((AppendingExchangeAttribute) attributes[i]).appendAttribute(exchange, builder);
+            } else {
+                final String val = attributes[i].readAttribute(exchange);
+                if (val != null) {
+                    builder.append(val);
+                }
+            }
+        }
+    }
+
+    ExchangeAttribute[] getAttributes() {
+        return attributes;
+    }
+
     @Override
     public void writeAttribute(HttpServerExchange exchange, String newValue) throws ReadOnlyAttributeException {
         throw new ReadOnlyAttributeException("combined", newValue);
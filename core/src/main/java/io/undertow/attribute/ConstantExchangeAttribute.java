@@ -25,7 +25,7 @@ import io.undertow.server.HttpServerExchange;
  *
  * @author Stuart Douglas
  */
-public class ConstantExchangeAttribute implements ExchangeAttribute {
+public class ConstantExchangeAttribute implements AppendingExchangeAttribute {
 
     private final String value;
 
@@ -38,6 +38,11 @@ public class ConstantExchangeAttribute implements ExchangeAttribute {
         return value;
     }
 
+    @Override
+    public void appendAttribute(final HttpServerExchange exchange, final StringBuilder builder) {
+        builder.append(value);
+    }
+
     @Override
     public void writeAttribute(final HttpServerExchange exchange, final String newValue) throws ReadOnlyAttributeException {
         throw new ReadOnlyAttributeException("constant", newValue);
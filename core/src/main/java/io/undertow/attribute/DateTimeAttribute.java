@@ -30,7 +30,7 @@ import io.undertow.util.DateUtils;
  *
  * @author Stuart Douglas
  */
-public class DateTimeAttribute implements ExchangeAttribute {
+public class DateTimeAttribute implements AppendingExchangeAttribute {
 
     public static final String DATE_TIME_SHORT = "%t";
     public static final String DATE_TIME = "%{DATE_TIME}";
@@ -66,13 +66,22 @@ public class DateTimeAttribute implements ExchangeAttribute {
     @Override
     public String readAttribute(final HttpServerExchange exchange) {
         if(dateFormat == null) {
-            return DateUtils.toCommonLogFormat(new Date());
+            return DateUtils.getCurrentCommonLogFormat();
         } else {
             final SimpleDateFormat dateFormat = this.cachedFormat.get();
             return dateFormat.format(new Date());
         }
     }
 
+    @Override
+    public void appendAttribute(final HttpServerExchange exchange, final StringBuilder builder) {
+        if(dateFormat == null) {
+            builder.append(DateUtils.getCurrentCommonLogFormat());
+        } else {
+            builder.append(readAttribute(exchange));
+        }
+    }
+
     @Override
     public void writeAttribute(final HttpServerExchange exchange, final String newValue) throws ReadOnlyAttributeException {
         throw new ReadOnlyAttributeException("Date time", newValue);
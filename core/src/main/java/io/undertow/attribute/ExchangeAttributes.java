@@ -115,6 +115,16 @@ public class ExchangeAttributes {
         return ThreadNameAttribute.INSTANCE;
     }
 
+    /**
+     * Creates a flattened form of the attribute, that can append its value without creating intermediate Strings
+     *
+     * @param attribute The attribute to compile
+     * @return The compiled attribute
+     */
+    public static CompiledExchangeAttribute compile(final ExchangeAttribute attribute) {
+        return new CompiledExchangeAttribute(attribute);
+    }
+
     public static ExchangeAttribute constant(String value) {
         return new ConstantExchangeAttribute(value);
     }
@@ -27,7 +27,7 @@ import io.undertow.server.HttpServerExchange;
  *
  * @author Stuart Douglas
  */
-public class LocalPortAttribute implements ExchangeAttribute {
+public class LocalPortAttribute implements AppendingExchangeAttribute {
 
     public static final String LOCAL_PORT_SHORT = "%p";
     public static final String LOCAL_PORT = "%{LOCAL_PORT}";
@@ -44,6 +44,12 @@ public class LocalPortAttribute implements ExchangeAttribute {
         return Integer.toString(localAddress.getPort());
     }
 
+    @Override
+    public void appendAttribute(final HttpServerExchange exchange, final StringBuilder builder) {
+        InetSocketAddress localAddress = (InetSocketAddress) exchange.getConnection().getLocalAddress();
+        builder.append(localAddress.getPort());
+    }
+
     @Override
     public void writeAttribute(final HttpServerExchange exchange, final String newValue) throws ReadOnlyAttributeException {
         throw new ReadOnlyAttributeException("Local port", newValue);
@@ -25,7 +25,7 @@ import io.undertow.server.HttpServerExchange;
  *
  * @author Stuart Douglas
  */
-public class QueryStringAttribute implements ExchangeAttribute {
+public class QueryStringAttribute implements AppendingExchangeAttribute {
 
     public static final String QUERY_STRING_SHORT = "%q";
     public static final String QUERY_STRING = "%{QUERY_STRING}";
@@ -45,6 +45,14 @@ public class QueryStringAttribute implements ExchangeAttribute {
         return '?' + qs;
     }
 
+    @Override
+    public void appendAttribute(final HttpServerExchange exchange, final StringBuilder builder) {
+        String qs = exchange.getQueryString();
+        if (!qs.isEmpty()) {
+            builder.append('?').append(qs);
+        }
+    }
+
     @Override
     public void writeAttribute(final HttpServerExchange exchange, final String newValue) throws ReadOnlyAttributeException {
         exchange.setQueryString(newValue);
@@ -25,7 +25,7 @@ import io.undertow.server.HttpServerExchange;
  *
  * @author Stuart Douglas
  */
-public class RequestLineAttribute implements ExchangeAttribute {
+public class RequestLineAttribute implements AppendingExchangeAttribute {
 
     public static final String REQUEST_LINE_SHORT = "%r";
     public static final String REQUEST_LINE = "%{REQUEST_LINE}";
@@ -38,17 +38,22 @@ public class RequestLineAttribute implements ExchangeAttribute {
 
     @Override
     public String readAttribute(final HttpServerExchange exchange) {
-        StringBuilder sb = new StringBuilder()
-                .append(exchange.getRequestMethod().toString())
+        StringBuilder sb = new StringBuilder();
+        appendAttribute(exchange, sb);
+        return sb.toString();
+    }
+
+    @Override
+    public void appendAttribute(final HttpServerExchange exchange, final StringBuilder builder) {
+        builder.append(exchange.getRequestMethod().toString())
                 .append(' ')
                 .append(exchange.getRequestURI());
         if (!exchange.getQueryString().isEmpty()) {
-            sb.append('?');
-            sb.append(exchange.getQueryString());
+            builder.append('?');
+            builder.append(exchange.getQueryString());
         }
-        sb.append(' ')
-                .append(exchange.getProtocol().toString()).toString();
-        return sb.toString();
+        builder.append(' ')
+                .append(exchange.getProtocol().toString());
     }
 
     @Override
@@ -27,7 +27,7 @@ import java.util.concurrent.TimeUnit;
  *
  * This will only work if {@link io.undertow.UndertowOptions#RECORD_REQUEST_START_TIME} has been set
  */
-public class ResponseTimeAttribute implements ExchangeAttribute {
+public class ResponseTimeAttribute implements AppendingExchangeAttribute {
 
     public static final String RESPONSE_TIME_MILLIS_SHORT = "%D";
     public static final String RESPONSE_TIME_SECONDS_SHORT = "%T";
@@ -49,20 +49,37 @@ public class ResponseTimeAttribute implements ExchangeAttribute {
         final long nanos = System.nanoTime() - requestStartTime;
         if(timeUnit == TimeUnit.SECONDS) {
             StringBuilder buf = new StringBuilder();
-            long milis = timeUnit.convert(nanos, TimeUnit.NANOSECONDS);
-            buf.append(Long.toString(milis / 1000));
-            buf.append('.');
-            int remains = (int) (milis % 1000);
-            buf.append(Long.toString(remains / 100));
-            remains = remains % 100;
-            buf.append(Long.toString(remains / 10));
-            buf.append(Long.toString(remains % 10));
+            appendSeconds(timeUnit.convert(nanos, TimeUnit.NANOSECONDS), buf);
             return buf.toString();
         } else {
             return String.valueOf(timeUnit.convert(nanos, TimeUnit.NANOSECONDS));
         }
     }
 
+    @Override
+    public void appendAttribute(HttpServerExchange exchange, StringBuilder builder) {
+        long requestStartTime = exchange.getRequestStartTime();
+        if(requestStartTime == -1) {
+            return;
+        }
+        final long nanos = System.nanoTime() - requestStartTime;
+        if(timeUnit == TimeUnit.SECONDS) {
+            appendSeconds(timeUnit.convert(nanos, TimeUnit.NANOSECONDS), builder);
+        } else {
+            builder.append(timeUnit.convert(nanos, TimeUnit.NANOSECONDS));
+        }
+    }
+
+    private static void appendSeconds(long milis, StringBuilder buf) {
+        buf.append(milis / 1000);
+        buf.append('.');
+        int remains = (int) (milis % 1000);
+        buf.append(remains / 100);
+        remains = remains % 100;
+        buf.append(remains / 10);
+        buf.append(remains % 10);
+    }
+
     @Override
     public void writeAttribute(HttpServerExchange exchange, String newValue) throws ReadOnlyAttributeException {
         throw new ReadOnlyAttributeException("Response Time", newValue);
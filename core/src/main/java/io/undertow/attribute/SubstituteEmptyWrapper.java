@@ -18,7 +18,7 @@ public class SubstituteEmptyWrapper implements ExchangeAttributeWrapper {
         return new SubstituteEmptyAttribute(attribute, substitute);
     }
 
-    public static class SubstituteEmptyAttribute implements ExchangeAttribute {
+    public static class SubstituteEmptyAttribute implements AppendingExchangeAttribute {
         private final ExchangeAttribute attribute;
         private final String substitute;
 
@@ -36,6 +36,22 @@ public class SubstituteEmptyWrapper implements ExchangeAttributeWrapper {
             return val;
         }
 
+        @Override
+        public void appendAttribute(HttpServerExchange exchange, StringBuilder builder) {
+            int start = builder.length();
+            if (attribute instanceof AppendingExchangeAttribute) {
+                ((AppendingExchangeAttribute) attribute).appendAttribute(exchange, builder);
+            } else {
+                String val = attribute.readAttribute(exchange);
+                if (val != null) {
+                    builder.append(val);
+                }
+            }
+            if (builder.length() == start) {
+                builder.append(substitute);
+            }
+        }
+
         @Override
         public void writeAttribute(HttpServerExchange exchange, String newValue) throws ReadOnlyAttributeException {
             attribute.writeAttribute(exchange, newValue);
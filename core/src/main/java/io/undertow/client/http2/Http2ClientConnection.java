@@ -44,6 +44,7 @@ import org.xnio.channels.StreamSinkChannel;
 
 import io.undertow.UndertowLogger;
 import io.undertow.UndertowMessages;
+import io.undertow.UndertowOptions;
 import io.undertow.client.ClientCallback;
 import io.undertow.client.ClientConnection;
 import io.undertow.client.ClientExchange;
@@ -77,12 +78,14 @@ public class Http2ClientConnection implements ClientConnection {
 
     private boolean initialUpgradeRequest;
     private final String defaultHost;
+    private final String scheme;
     private final ClientStatistics clientStatistics;
 
     public Http2ClientConnection(Http2Channel http2Channel, boolean initialUpgradeRequest, String defaultHost, ClientStatistics clientStatistics) {
 
         this.http2Channel = http2Channel;
         this.defaultHost = defaultHost;
+        this.scheme = http2Channel.getSslSession() == null ? "http" : "https";
         this.clientStatistics = clientStatistics;
         http2Channel.getReceiveSetter().set(new Http2ReceiveListener());
         http2Channel.resumeReceives();
@@ -98,7 +101,7 @@ public class Http2ClientConnection implements ClientConnection {
     @Override
     public void sendRequest(ClientRequest request, ClientCallback<ClientExchange> clientCallback) {
         request.getRequestHeaders().put(PATH, request.getPath());
-        request.getRequestHeaders().put(SCHEME, "https");
+        request.getRequestHeaders().put(SCHEME, scheme);
         request.getRequestHeaders().put(METHOD, request.getMethod().toString());
         final String host = request.getRequestHeaders().getFirst(Headers.HOST);
         if(host != null) {
@@ -273,13 +276,21 @@ public class Http2ClientConnection implements ClientConnection {
         http2Channel.sendGoAway(0);
     }
 
+    /**
+     * The only supported option is {@link UndertowOptions#HTTP2_SETTINGS_MAX_CONCURRENT_STREAMS}, which returns the
+     * limit the server has set on concurrent streams, or null if the server has not set a limit.
+     */
     @Override
     public boolean supportsOption(Option<?> option) {
-        return false;
+        return option == UndertowOptions.HTTP2_SETTINGS_MAX_CONCURRENT_STREAMS;
     }
 
     @Override
     public <T> T getOption(Option<T> option) throws IOException {
+        if (option == UndertowOptions.HTTP2_SETTINGS_MAX_CONCURRENT_STREAMS) {
+            int max = http2Channel.getSendMaxConcurrentStreams();
+            return max < 0 ? null : option.cast(max);
+        }
         return null;
     }
 
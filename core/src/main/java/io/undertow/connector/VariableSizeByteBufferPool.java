@@ -0,0 +1,43 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.undertow.connector;
+
+/**
+ * A buffer pool that can provide buffers of more than one size.
+ * <p>
+ * Code that knows how much data it is going to write should check if the pool implements this interface, and
+ * fall back to {@link #allocate()} if it does not.
+ *
+ * @author agent
+ */
+public interface VariableSizeByteBufferPool extends ByteBufferPool {
+
+    /**
+     * Allocates a buffer that is intended to hold {@code minSize} bytes.
+     * <p>
+     * The buffer comes from the smallest size class that can hold the requested amount of data, or from the
+     * largest size class if the request is larger than any of them, so callers must always check the remaining
+     * space in the returned buffer.
+     *
+     * @param minSize The amount of data the caller intends to write
+     * @return A pooled buffer
+     */
+    PooledByteBuffer allocate(int minSize);
+}
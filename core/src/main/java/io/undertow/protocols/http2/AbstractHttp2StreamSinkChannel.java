@@ -25,6 +25,12 @@ import io.undertow.server.protocol.framed.AbstractFramedStreamSinkChannel;
  */
 public class AbstractHttp2StreamSinkChannel extends AbstractFramedStreamSinkChannel<Http2Channel, AbstractHttp2StreamSourceChannel, AbstractHttp2StreamSinkChannel> {
 
+    /**
+     * The virtual start time of the DATA frame that is queued, or -1 if this is not a DATA frame. This is used by
+     * {@link Http2FramePriority} and is only accessed under the channel lock.
+     */
+    long scheduledStart = -1;
+
     AbstractHttp2StreamSinkChannel(Http2Channel channel) {
         super(channel);
     }
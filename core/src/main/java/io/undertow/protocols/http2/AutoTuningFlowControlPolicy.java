@@ -0,0 +1,108 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.protocols.http2;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A flow control policy that grows the receive windows to match the bandwidth delay product of the connection.
+ * <p>
+ * With a fixed window a single stream can never transfer more than one window per round trip, which limits uploads
+ * over high latency links no matter how much bandwidth is available. This policy sends a PING when data starts
+ * arriving and counts the bytes that are received until it is acknowledged, which is an estimate of the bandwidth
+ * delay product. If that is close to the current window then the window is what is limiting the transfer, so the
+ * window is grown to twice the estimate, up to a maximum.
+ *
+ * @author agent
+ */
+public class AutoTuningFlowControlPolicy extends FixedWindowFlowControlPolicy {
+
+    private static final byte[] PING_DATA = {'U', 'T', '-', 'B', 'D', 'P', 0, 0};
+
+    private final int maxWindowSize;
+    private volatile int windowSize;
+    private volatile long roundTripTime = -1;
+
+    /**
+     * The time the outstanding ping was sent, or -1 if there is none. Only accessed by the IO thread.
+     */
+    private long pingSent = -1;
+    private long bytesSincePing;
+
+    /**
+     * @param initialWindowSize The initial size of both the connection and the stream windows
+     * @param maxWindowSize     The size that the windows can grow to
+     */
+    public AutoTuningFlowControlPolicy(int initialWindowSize, int maxWindowSize) {
+        super(initialWindowSize);
+        if (maxWindowSize < initialWindowSize) {
+            throw new IllegalArgumentException("Max window size must not be smaller than the initial window size");
+        }
+        this.windowSize = initialWindowSize;
+        this.maxWindowSize = maxWindowSize;
+    }
+
+    @Override
+    public void dataReceived(Http2Channel channel, int length) {
+        if (pingSent != -1) {
+            bytesSincePing += length;
+        } else if (windowSize < maxWindowSize) {
+            pingSent = System.nanoTime();
+            bytesSincePing = length;
+            channel.sendPing(PING_DATA);
+        }
+    }
+
+    @Override
+    public void pingAcknowledged(Http2Channel channel, byte[] data) {
+        if (pingSent == -1 || !Arrays.equals(PING_DATA, data)) {
+            return;
+        }
+        roundTripTime = System.nanoTime() - pingSent;
+        pingSent = -1;
+        int current = windowSize;
+        //the peer sent most of a window in a round trip, so it was probably blocked by flow control
+        if (bytesSincePing * 3 >= current * 2L) {
+            windowSize = (int) Math.min(maxWindowSize, bytesSincePing * 2);
+        }
+    }
+
+    @Override
+    public int getConnectionWindowSize() {
+        return windowSize;
+    }
+
+    @Override
+    public int getStreamWindowSize() {
+        return windowSize;
+    }
+
+    public int getMaxWindowSize() {
+        return maxWindowSize;
+    }
+
+    /**
+     * @return The last measured round trip time in milliseconds, or -1 if it has not been measured yet
+     */
+    public long getRoundTripTime() {
+        long rtt = roundTripTime;
+        return rtt == -1 ? -1 : TimeUnit.NANOSECONDS.toMillis(rtt);
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.protocols.http2;
+
+/**
+ * A flow control policy with windows of a fixed size. Once a window has dropped below a threshold a single
+ * WINDOW_UPDATE restores it to its full size, so the updates for many small reads are coalesced.
+ *
+ * @author agent
+ */
+public class FixedWindowFlowControlPolicy implements Http2FlowControlPolicy {
+
+    private final int connectionWindowSize;
+    private final int streamWindowSize;
+    private final float updateThreshold;
+
+    /**
+     * Creates a policy that sends an update once half of a window has been consumed
+     *
+     * @param windowSize The size of both the connection and the stream windows
+     */
+    public FixedWindowFlowControlPolicy(int windowSize) {
+        this(windowSize, windowSize, 0.5f);
+    }
+
+    /**
+     * @param connectionWindowSize The size of the connection window
+     * @param streamWindowSize     The size of each stream window
+     * @param updateThreshold      The fraction of the window that must be left before an update is sent. Lower
+     *                             values send fewer, larger updates.
+     */
+    public FixedWindowFlowControlPolicy(int connectionWindowSize, int streamWindowSize, float updateThreshold) {
+        if (connectionWindowSize <= 0 || streamWindowSize <= 0) {
+            throw new IllegalArgumentException("Window sizes must be positive");
+        }
+        if (updateThreshold <= 0 || updateThreshold > 1) {
+            throw new IllegalArgumentException("Update threshold must be greater than 0 and at most 1");
+        }
+        this.connectionWindowSize = connectionWindowSize;
+        this.streamWindowSize = streamWindowSize;
+        this.updateThreshold = updateThreshold;
+    }
+
+    @Override
+    public int getWindowUpdate(int streamId, int window) {
+        int target = streamId == 0 ? getConnectionWindowSize() : getStreamWindowSize();
+        if (window < (int) (target * updateThreshold)) {
+            return target - window;
+        }
+        return 0;
+    }
+
+    @Override
+    public void dataReceived(Http2Channel channel, int length) {
+    }
+
+    @Override
+    public void pingAcknowledged(Http2Channel channel, byte[] data) {
+    }
+
+    public int getConnectionWindowSize() {
+        return connectionWindowSize;
+    }
+
+    public int getStreamWindowSize() {
+        return streamWindowSize;
+    }
+}
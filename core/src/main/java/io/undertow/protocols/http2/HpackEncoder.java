@@ -24,12 +24,8 @@ import io.undertow.util.Headers;
 import io.undertow.util.HttpString;
 
 import java.nio.ByteBuffer;
-import java.util.ArrayDeque;
-import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Deque;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 import static io.undertow.protocols.http2.Hpack.HeaderField;
@@ -65,20 +61,37 @@ public class HpackEncoder {
 
     };
 
+    private static final int INITIAL_TABLE_CAPACITY = 16;
+
     private long headersIterator = -1;
     private boolean firstPass = true;
 
     private HeaderMap currentHeaders;
 
-    private int entryPositionCounter;
-
     private int newMaxHeaderSize = -1; //if the max header size has been changed
     private int minNewMaxHeaderSize = -1; //records the smallest value of newMaxHeaderSize, as per section 4.1
 
     private static final Map<HttpString, TableEntry[]> ENCODING_STATIC_TABLE;
 
-    private final Deque<TableEntry> evictionQueue = new ArrayDeque<>();
-    private final Map<HttpString, List<TableEntry>> dynamicTable = new HashMap<>(); //TODO: use a custom data structure to reduce allocations
+    /**
+     * The dynamic table is a ring buffer. The newest entry is in the slot before {@link #tableHead}, and the oldest is
+     * {@link #tableCount} slots before that, so the HPACK index of an entry follows directly from its slot.
+     */
+    private HttpString[] tableNames = new HttpString[INITIAL_TABLE_CAPACITY];
+    private String[] tableValues = new String[INITIAL_TABLE_CAPACITY];
+    private int[] tableHashes = new int[INITIAL_TABLE_CAPACITY];
+    private int tableHead;
+    private int tableCount;
+
+    /**
+     * An open addressed index of the dynamic table, keyed by the hash of the name and value. Each element is a ring
+     * buffer slot plus one, or zero if it is empty. It uses linear probing with backward shift deletion, so evicted
+     * entries do not leave tombstones behind.
+     */
+    private int[] tableIndex = new int[INITIAL_TABLE_CAPACITY * 2];
+
+    private final HuffmanCache nameCache = new HuffmanCache();
+    private final HuffmanCache valueCache = new HuffmanCache();
 
     static {
         Map<HttpString, TableEntry[]> map = new HashMap<>();
@@ -155,7 +168,7 @@ public class HpackEncoder {
                     int required = 11 + headerName.length(); //we use 11 to make sure we have enough room for the variable length itegers
 
                     String val = values.get(i);
-                    TableEntry tableEntry = findInTable(headerName, val);
+                    int tableEntry = findInTable(headerName, val);
 
                     required += (1 + val.length());
 
@@ -164,36 +177,34 @@ public class HpackEncoder {
                         return State.UNDERFLOW;
                     }
                     boolean canIndex = hpackHeaderFunction.shouldUseIndexing(headerName, val) && (headerName.length() + val.length() + 32) < maxTableSize; //only index if it will fit
-                    if (tableEntry == null && canIndex) {
+                    if (tableEntry == 0 && canIndex) {
                         //add the entry to the dynamic table
                         target.put((byte) (1 << 6));
                         writeHuffmanEncodableName(target, headerName);
                         writeHuffmanEncodableValue(target, headerName, val);
                         addToDynamicTable(headerName, val);
-                    } else if (tableEntry == null) {
+                    } else if (tableEntry == 0) {
                         //literal never indexed
                         target.put((byte) (1 << 4));
                         writeHuffmanEncodableName(target, headerName);
                         writeHuffmanEncodableValue(target, headerName, val);
+                    } else if (tableEntry > 0) {
+                        //the whole thing is in the table
+                        target.put((byte) (1 << 7));
+                        encodeInteger(target, tableEntry, 7);
                     } else {
-                        //so we know something is already in the table
-                        if (val.equals(tableEntry.value)) {
-                            //the whole thing is in the table
-                            target.put((byte) (1 << 7));
-                            encodeInteger(target, tableEntry.getPosition(), 7);
+                        //only the name is in the table
+                        if (canIndex) {
+                            //add the entry to the dynamic table
+                            target.put((byte) (1 << 6));
+                            encodeInteger(target, -tableEntry, 6);
+                            writeHuffmanEncodableValue(target, headerName, val);
+                            addToDynamicTable(headerName, val);
+
                         } else {
-                            if (canIndex) {
-                                //add the entry to the dynamic table
-                                target.put((byte) (1 << 6));
-                                encodeInteger(target, tableEntry.getPosition(), 6);
-                                writeHuffmanEncodableValue(target, headerName, val);
-                                addToDynamicTable(headerName, val);
-
-                            } else {
-                                target.put((byte) (1 << 4));
-                                encodeInteger(target, tableEntry.getPosition(), 4);
-                                writeHuffmanEncodableValue(target, headerName, val);
-                            }
+                            target.put((byte) (1 << 4));
+                            encodeInteger(target, -tableEntry, 4);
+                            writeHuffmanEncodableValue(target, headerName, val);
                         }
                     }
 
@@ -212,7 +223,7 @@ public class HpackEncoder {
 
     private void writeHuffmanEncodableName(ByteBuffer target, HttpString headerName) {
         if (hpackHeaderFunction.shouldUseHuffman(headerName)) {
-            if(HPackHuffman.encode(target, headerName.toString(), true)) {
+            if(nameCache.encode(target, headerName, true)) {
                 return;
             }
         }
@@ -226,7 +237,7 @@ public class HpackEncoder {
 
     private void writeHuffmanEncodableValue(ByteBuffer target, HttpString headerName, String val) {
         if (hpackHeaderFunction.shouldUseHuffman(headerName, val)) {
-            if (!HPackHuffman.encode(target, val, false)) {
+            if (!valueCache.encode(target, val, false)) {
                 writeValueString(target, val);
             }
         } else {
@@ -243,72 +254,138 @@ public class HpackEncoder {
     }
 
     private void addToDynamicTable(HttpString headerName, String val) {
-        int pos = entryPositionCounter++;
-        DynamicTableEntry d = new DynamicTableEntry(headerName, val, -pos);
-        List<TableEntry> existing = dynamicTable.get(headerName);
-        if (existing == null) {
-            dynamicTable.put(headerName, existing = new ArrayList<>(1));
+        int size = entrySize(headerName, val);
+        while (currentTableSize + size > maxTableSize && tableCount > 0) {
+            evictOldest();
         }
-        existing.add(d);
-        evictionQueue.add(d);
-        currentTableSize += d.size;
-        runEvictionIfRequired();
-        if (entryPositionCounter == Integer.MAX_VALUE) {
-            //prevent rollover
-            preventPositionRollover();
+        if (tableCount == tableNames.length) {
+            growTable();
+        }
+        int mask = tableNames.length - 1;
+        int slot = tableHead;
+        int hash = hash(headerName, val);
+        tableNames[slot] = headerName;
+        tableValues[slot] = val;
+        tableHashes[slot] = hash;
+        tableHead = (slot + 1) & mask;
+        tableCount++;
+        currentTableSize += size;
+
+        int indexMask = tableIndex.length - 1;
+        int i = hash & indexMask;
+        while (tableIndex[i] != 0) {
+            i = (i + 1) & indexMask;
         }
+        tableIndex[i] = slot + 1;
+    }
 
+    private void runEvictionIfRequired() {
+        while (currentTableSize > maxTableSize && tableCount > 0) {
+            evictOldest();
+        }
     }
 
+    private void evictOldest() {
+        int mask = tableNames.length - 1;
+        int slot = (tableHead - tableCount) & mask;
+        currentTableSize -= entrySize(tableNames[slot], tableValues[slot]);
 
-    private void preventPositionRollover() {
-        //if the position counter is about to roll over we iterate all the table entries
-        //and set their position to their actual position
-        for (Map.Entry<HttpString, List<TableEntry>> entry : dynamicTable.entrySet()) {
-            for (TableEntry t : entry.getValue()) {
-                t.position = t.getPosition();
+        int indexMask = tableIndex.length - 1;
+        int i = tableHashes[slot] & indexMask;
+        while (tableIndex[i] != slot + 1) {
+            i = (i + 1) & indexMask;
+        }
+        //shift back any entries after the removed one that would no longer be reachable from their home position
+        int j = i;
+        for (;;) {
+            j = (j + 1) & indexMask;
+            int entry = tableIndex[j];
+            if (entry == 0) {
+                break;
+            }
+            int home = tableHashes[entry - 1] & indexMask;
+            boolean reachable = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+            if (!reachable) {
+                tableIndex[i] = entry;
+                i = j;
             }
         }
-        entryPositionCounter = 0;
-    }
+        tableIndex[i] = 0;
 
-    private void runEvictionIfRequired() {
+        tableNames[slot] = null;
+        tableValues[slot] = null;
+        tableCount--;
+    }
 
-        while (currentTableSize > maxTableSize) {
-            TableEntry next = evictionQueue.poll();
-            if (next == null) {
-                return;
-            }
-            currentTableSize -= next.size;
-            List<TableEntry> list = dynamicTable.get(next.name);
-            list.remove(next);
-            if (list.isEmpty()) {
-                dynamicTable.remove(next.name);
+    private void growTable() {
+        int oldMask = tableNames.length - 1;
+        int capacity = tableNames.length * 2;
+        HttpString[] names = new HttpString[capacity];
+        String[] values = new String[capacity];
+        int[] hashes = new int[capacity];
+        int[] index = new int[capacity * 2];
+        int indexMask = index.length - 1;
+        //copy oldest first, so the entries stay in order
+        for (int i = 0; i < tableCount; ++i) {
+            int old = (tableHead - tableCount + i) & oldMask;
+            names[i] = tableNames[old];
+            values[i] = tableValues[old];
+            hashes[i] = tableHashes[old];
+            int pos = hashes[i] & indexMask;
+            while (index[pos] != 0) {
+                pos = (pos + 1) & indexMask;
             }
+            index[pos] = i + 1;
         }
+        tableNames = names;
+        tableValues = values;
+        tableHashes = hashes;
+        tableIndex = index;
+        tableHead = tableCount;
     }
 
-    private TableEntry findInTable(HttpString headerName, String value) {
+    /**
+     * Finds the header in the static and dynamic tables.
+     *
+     * @return The index of an entry with the same name and value, or the negated index of an entry in the static
+     * table with the same name, or 0 if neither is found
+     */
+    private int findInTable(HttpString headerName, String value) {
         TableEntry[] staticTable = ENCODING_STATIC_TABLE.get(headerName);
         if (staticTable != null) {
             for (TableEntry st : staticTable) {
-                if (st.value != null && st.value.equals(value)) { //todo: some form of lookup?
-                    return st;
+                if (st.value != null && st.value.equals(value)) {
+                    return st.position;
                 }
             }
         }
-        List<TableEntry> dynamic = dynamicTable.get(headerName);
-        if (dynamic != null) {
-            for (TableEntry st : dynamic) {
-                if (st.value.equals(value)) { //todo: some form of lookup?
-                    return st;
+        if (tableCount > 0) {
+            int hash = hash(headerName, value);
+            int indexMask = tableIndex.length - 1;
+            int i = hash & indexMask;
+            int entry;
+            while ((entry = tableIndex[i]) != 0) {
+                int slot = entry - 1;
+                if (tableHashes[slot] == hash && tableNames[slot].equals(headerName) && tableValues[slot].equals(value)) {
+                    //the newest entry has the lowest index
+                    return STATIC_TABLE_LENGTH + 1 + ((tableHead - 1 - slot) & (tableNames.length - 1));
                 }
+                i = (i + 1) & indexMask;
             }
         }
         if (staticTable != null) {
-            return staticTable[0];
+            return -staticTable[0].position;
         }
-        return null;
+        return 0;
+    }
+
+    private static int entrySize(HttpString name, String value) {
+        return 32 + name.length() + value.length();
+    }
+
+    private static int hash(HttpString name, String value) {
+        int h = name.hashCode() * 31 + value.hashCode();
+        return h ^ (h >>> 16);
     }
 
     public void setMaxTableSize(int newSize) {
@@ -345,34 +422,66 @@ public class HpackEncoder {
     static class TableEntry {
         final HttpString name;
         final String value;
-        final int size;
-        int position;
+        final int position;
 
         TableEntry(HttpString name, String value, int position) {
             this.name = name;
             this.value = value;
             this.position = position;
-            if (value != null) {
-                this.size = 32 + name.length() + value.length();
-            } else {
-                this.size = -1;
-            }
-        }
-
-        public int getPosition() {
-            return position;
         }
     }
 
-    class DynamicTableEntry extends TableEntry {
+    /**
+     * A small direct mapped cache of huffman encoded strings. Each slot keeps its buffer when it is replaced, so once
+     * the cache is warm encoding a common name or value is just a copy, and a miss does not allocate unless the
+     * encoded form is longer than anything the slot has held before.
+     */
+    static final class HuffmanCache {
 
-        DynamicTableEntry(HttpString name, String value, int position) {
-            super(name, value, position);
-        }
+        private static final int SIZE = 64;
+        private static final int MAX_LENGTH = 256;
 
-        @Override
-        public int getPosition() {
-            return super.getPosition() + entryPositionCounter + STATIC_TABLE_LENGTH;
+        private final Object[] keys = new Object[SIZE];
+        private final byte[][] encoded = new byte[SIZE][];
+        /**
+         * The length of the encoded form
+         */
+        private final int[] lengths = new int[SIZE];
+
+        /**
+         * Writes the huffman encoded form of the key, including the length prefix.
+         *
+         * @return <code>false</code> if the huffman encoded form is not any smaller or does not fit in the target,
+         * in which case nothing is written
+         */
+        boolean encode(ByteBuffer target, Object key, boolean forceLowercase) {
+            int h = key.hashCode();
+            int slot = (h ^ (h >>> 16)) & (SIZE - 1);
+            if (key.equals(keys[slot])) {
+                int length = lengths[slot];
+                if (target.remaining() < length) {
+                    return false;
+                }
+                target.put(encoded[slot], 0, length);
+                return true;
+            }
+            String value = key.toString();
+            int start = target.position();
+            boolean result = HPackHuffman.encode(target, value, forceLowercase);
+            //a failure is not cached, as it may only mean that the target did not have enough space
+            if (result && value.length() <= MAX_LENGTH) {
+                int length = target.position() - start;
+                byte[] data = encoded[slot];
+                if (data == null || data.length < length) {
+                    encoded[slot] = data = new byte[Math.max(length, 32)];
+                }
+                ByteBuffer copy = target.duplicate();
+                copy.position(start);
+                copy.get(data, 0, length);
+                lengths[slot] = length;
+                keys[slot] = key;
+            }
+            return result;
         }
     }
 
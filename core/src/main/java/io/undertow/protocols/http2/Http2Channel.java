@@ -51,6 +51,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 /**
  * SPDY channel.
@@ -105,6 +106,7 @@ public class Http2Channel extends AbstractFramedChannel<Http2Channel, AbstractHt
     static final int CONTINUATION_FLAG_END_HEADERS = 0x4;
 
     static final int DEFAULT_INITIAL_WINDOW_SIZE = 65535;
+    static final int DEFAULT_MAX_RECEIVE_WINDOW_SIZE = 16 * 1024 * 1024;
 
     public static final byte[] PREFACE_BYTES = {
             0x50, 0x52, 0x49, 0x20, 0x2a, 0x20, 0x48, 0x54,
@@ -131,9 +133,18 @@ public class Http2Channel extends AbstractFramedChannel<Http2Channel, AbstractHt
     private int maxHeaderListSize = -1;
 
     /**
-     * How much data we have told the remote endpoint we are prepared to accept.
+     * The maximum number of concurrent streams the remote endpoint will accept, or -1 if it has not set a limit
      */
-    private volatile int receiveWindowSize = initialReceiveWindowSize;
+    private volatile int sendMaxConcurrentStreams = -1;
+
+    /**
+     * How much data we have told the remote endpoint we are prepared to accept. The connection window always starts
+     * at the default size, SETTINGS_INITIAL_WINDOW_SIZE only applies to streams.
+     */
+    private volatile int receiveWindowSize = DEFAULT_INITIAL_WINDOW_SIZE;
+    private static final AtomicIntegerFieldUpdater<Http2Channel> receiveWindowSizeUpdater = AtomicIntegerFieldUpdater.newUpdater(Http2Channel.class, "receiveWindowSize");
+
+    private volatile Http2FlowControlPolicy flowControlPolicy;
 
     /**
      * How much data we can send to the remote endpoint, at the connection level.
@@ -174,13 +185,19 @@ public class Http2Channel extends AbstractFramedChannel<Http2Channel, AbstractHt
     }
 
     public Http2Channel(StreamConnection connectedStreamChannel, String protocol, ByteBufferPool bufferPool, PooledByteBuffer data, boolean clientSide, boolean fromUpgrade, boolean prefaceRequired, ByteBuffer initialOtherSideSettings, OptionMap settings) {
-        super(connectedStreamChannel, bufferPool, Http2FramePriority.INSTANCE, data, settings);
+        super(connectedStreamChannel, bufferPool, new Http2FramePriority(clientSide ? null : new Http2PriorityTree()), data, settings);
         streamIdCounter = clientSide ? (fromUpgrade ? 3 : 1) : 2;
         pushEnabled = settings.get(UndertowOptions.HTTP2_SETTINGS_ENABLE_PUSH, true);
         this.protocol = protocol == null ? Http2OpenListener.HTTP2 : protocol;
 
         encoderHeaderTableSize = settings.get(UndertowOptions.HTTP2_SETTINGS_HEADER_TABLE_SIZE, Hpack.DEFAULT_TABLE_SIZE);
         receiveMaxFrameSize = settings.get(UndertowOptions.HTTP2_SETTINGS_MAX_FRAME_SIZE, DEFAULT_MAX_FRAME_SIZE);
+        initialReceiveWindowSize = settings.get(UndertowOptions.HTTP2_SETTINGS_INITIAL_WINDOW_SIZE, DEFAULT_INITIAL_WINDOW_SIZE);
+        if (settings.get(UndertowOptions.HTTP2_RECEIVE_WINDOW_AUTO_TUNING, false)) {
+            flowControlPolicy = new AutoTuningFlowControlPolicy(initialReceiveWindowSize, Math.max(initialReceiveWindowSize, settings.get(UndertowOptions.HTTP2_MAX_RECEIVE_WINDOW_SIZE, DEFAULT_MAX_RECEIVE_WINDOW_SIZE)));
+        } else {
+            flowControlPolicy = new FixedWindowFlowControlPolicy(initialReceiveWindowSize);
+        }
 
         this.decoder = new HpackDecoder(Hpack.DEFAULT_TABLE_SIZE);
         this.encoder = new HpackEncoder(encoderHeaderTableSize);
@@ -197,7 +214,7 @@ public class Http2Channel extends AbstractFramedChannel<Http2Channel, AbstractHt
             sendSettings();
             initialSettingsSent = true;
         }
-        priorityTree = clientSide ? null : new Http2PriorityTree();
+        priorityTree = ((Http2FramePriority) getFramePriority()).getPriorityTree();
         if (initialOtherSideSettings != null) {
             Http2SettingsParser parser = new Http2SettingsParser(initialOtherSideSettings.remaining());
             try {
@@ -220,6 +237,9 @@ public class Http2Channel extends AbstractFramedChannel<Http2Channel, AbstractHt
             settings.add(new Http2Setting(Http2Setting.SETTINGS_ENABLE_PUSH, pushEnabled ? 1 : 0));
         }
         settings.add(new Http2Setting(Http2Setting.SETTINGS_MAX_FRAME_SIZE, receiveMaxFrameSize));
+        if (initialReceiveWindowSize != DEFAULT_INITIAL_WINDOW_SIZE) {
+            settings.add(new Http2Setting(Http2Setting.SETTINGS_INITIAL_WINDOW_SIZE, initialReceiveWindowSize));
+        }
         Http2SettingsStreamSinkChannel stream = new Http2SettingsStreamSinkChannel(this, settings);
         flushChannel(stream);
     }
@@ -339,6 +359,8 @@ public class Http2Channel extends AbstractFramedChannel<Http2Channel, AbstractHt
                 channel = new Http2PingStreamSourceChannel(this, pingParser.getData(), ack);
                 if(!ack) { //not an ack from one of our pings, so send it back
                     sendPing(pingParser.getData(), null, true);
+                } else {
+                    flowControlPolicy.pingAcknowledged(this, pingParser.getData());
                 }
                 break;
             }
@@ -418,6 +440,9 @@ public class Http2Channel extends AbstractFramedChannel<Http2Channel, AbstractHt
             sendGoAway(ERROR_FRAME_SIZE_ERROR);
             throw UndertowMessages.MESSAGES.http2FrameTooLarge();
         }
+        if (frameParser.type == FRAME_TYPE_DATA) {
+            flowControlPolicy.dataReceived(this, frameParser.length);
+        }
         if (frameParser.getContinuationParser() != null) {
             this.continuationParser = frameParser.getContinuationParser();
             return null;
@@ -515,6 +540,8 @@ public class Http2Channel extends AbstractFramedChannel<Http2Channel, AbstractHt
                 sendMaxFrameSize = setting.getValue();
             } else if (setting.getId() == Http2Setting.SETTINGS_HEADER_TABLE_SIZE) {
                 encoder.setMaxTableSize(setting.getValue());
+            } else if (setting.getId() == Http2Setting.SETTINGS_MAX_CONCURRENT_STREAMS) {
+                sendMaxConcurrentStreams = setting.getValue();
             } else if (setting.getId() == Http2Setting.SETTINGS_ENABLE_PUSH) {
 
                 int result = setting.getValue();
@@ -629,20 +656,39 @@ public class Http2Channel extends AbstractFramedChannel<Http2Channel, AbstractHt
         return null;
     }
 
-    public synchronized void updateReceiveFlowControlWindow(int read) {
+    public void updateReceiveFlowControlWindow(int read) {
         if (read <= 0) {
             return;
         }
-        receiveWindowSize -= read;
-        //TODO: make this configurable, we should be able to set the policy that is used to determine when to update the window size
-        int initialWindowSize = this.initialReceiveWindowSize;
-        if (receiveWindowSize < (initialWindowSize / 2)) {
-            int delta = initialWindowSize - receiveWindowSize;
-            receiveWindowSize += delta;
+        //streams are read from different threads, so this is a CAS loop rather than a lock on the whole channel
+        final Http2FlowControlPolicy policy = this.flowControlPolicy;
+        int old;
+        int window;
+        int delta;
+        do {
+            old = receiveWindowSize;
+            window = old - read;
+            delta = policy.getWindowUpdate(0, window);
+        } while (!receiveWindowSizeUpdater.compareAndSet(this, old, window + delta));
+        if (delta > 0) {
             sendUpdateWindowSize(0, delta);
         }
     }
 
+    public Http2FlowControlPolicy getFlowControlPolicy() {
+        return flowControlPolicy;
+    }
+
+    /**
+     * Sets the policy that decides when window updates are sent. This should be set before any data has been received.
+     */
+    public void setFlowControlPolicy(Http2FlowControlPolicy flowControlPolicy) {
+        if (flowControlPolicy == null) {
+            throw UndertowMessages.MESSAGES.argumentCannotBeNull("flowControlPolicy");
+        }
+        this.flowControlPolicy = flowControlPolicy;
+    }
+
     /**
      * Creates a strema using a HEADERS frame
      *
@@ -698,8 +744,24 @@ public class Http2Channel extends AbstractFramedChannel<Http2Channel, AbstractHt
         outgoingStreams.put(synResponse.getStreamId(), synResponse);
     }
 
-    void removeStreamSink(int streamId) {
+    void removeStreamSink(final int streamId) {
         outgoingStreams.remove(streamId);
+        if(priorityTree != null) {
+            //the priority tree is only accessed under the channel lock, which we can't acquire here as the caller
+            //may hold the stream lock
+            if(Thread.holdsLock(this)) {
+                priorityTree.streamRemoved(streamId);
+            } else {
+                getIoThread().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (Http2Channel.this) {
+                            priorityTree.streamRemoved(streamId);
+                        }
+                    }
+                });
+            }
+        }
         if(isLastFrameReceived() && outgoingStreams.isEmpty()) {
             sendGoAway(ERROR_NO_ERROR);
         }
@@ -835,6 +897,13 @@ public class Http2Channel extends AbstractFramedChannel<Http2Channel, AbstractHt
         return sendMaxFrameSize;
     }
 
+    /**
+     * @return The maximum number of concurrent streams the remote endpoint will accept, or -1 if there is no limit
+     */
+    public int getSendMaxConcurrentStreams() {
+        return sendMaxConcurrentStreams;
+    }
+
     public String getProtocol() {
         return protocol;
     }
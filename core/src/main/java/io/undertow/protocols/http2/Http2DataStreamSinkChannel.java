@@ -57,7 +57,8 @@ public class Http2DataStreamSinkChannel extends Http2StreamSinkChannel implement
     @Override
     protected SendFrameHeader createFrameHeaderImpl() {
         //TODO: this is a mess WRT re-using between headers and push_promise, sort out a more reasonable abstraction
-        final int fcWindow = grabFlowControlBytes(getBuffer().remaining());
+        //a single frame is never larger than the max frame size, so a large write is sent over multiple turns
+        final int fcWindow = grabFlowControlBytes(Math.min(getBuffer().remaining(), getChannel().getSendMaxFrameSize()));
         if (fcWindow == 0 && getBuffer().hasRemaining()) {
             //flow control window is exhausted
             return new SendFrameHeader(getBuffer().remaining(), null);
@@ -181,6 +182,13 @@ public class Http2DataStreamSinkChannel extends Http2StreamSinkChannel implement
         return first;
     }
 
+    /**
+     * @return <code>true</code> if the next frame will contain the header block
+     */
+    boolean isHeaderBlockPending() {
+        return first;
+    }
+
     public HeaderMap getHeaders() {
         return headers;
     }
@@ -0,0 +1,56 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.protocols.http2;
+
+/**
+ * Decides when the receive side of a HTTP/2 connection sends WINDOW_UPDATE frames, and how large the windows are.
+ * <p>
+ * A policy is per connection. {@link #getWindowUpdate(int, int)} may be called concurrently by the threads that are
+ * reading from different streams, and may be called more than once for the same update, so it must not have side
+ * effects. The other methods are only called by the connection's IO thread.
+ *
+ * @author agent
+ */
+public interface Http2FlowControlPolicy {
+
+    /**
+     * Called after data has been consumed from a stream.
+     *
+     * @param streamId The stream id, or 0 for the connection window
+     * @param window   The amount of data the peer can still send before it is blocked
+     * @return The amount to increase the window by, or 0 if no WINDOW_UPDATE should be sent yet
+     */
+    int getWindowUpdate(int streamId, int window);
+
+    /**
+     * Called when a DATA frame is received, before its data has been consumed.
+     *
+     * @param channel The connection
+     * @param length  The length of the frame
+     */
+    void dataReceived(Http2Channel channel, int length);
+
+    /**
+     * Called when the peer acknowledges a PING frame.
+     *
+     * @param channel The connection
+     * @param data    The data of the ping
+     */
+    void pingAcknowledged(Http2Channel channel, byte[] data);
+}
@@ -21,19 +21,44 @@ package io.undertow.protocols.http2;
 import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
+import java.util.ListIterator;
 
 import io.undertow.UndertowLogger;
 import io.undertow.server.protocol.framed.FramePriority;
 import io.undertow.server.protocol.framed.SendFrameHeader;
 
 /**
- * TODO: real priority
+ * Decides the order that HTTP2 frames are written in.
+ * <p>
+ * Control frames and frames that contain a header block are sent ahead of any queued DATA frames, in the order that
+ * they were queued. Header blocks must be sent in the order they were encoded, as they share the HPACK state. RST_STREAM
+ * and GOAWAY frames are never overtaken. DATA frames are interleaved according to the start times assigned by the
+ * {@link Http2PriorityTree}, so streams share the connection in proportion to their weights. If there is no priority
+ * tree (i.e. on the client side) frames are sent in the order they are queued.
  *
  * @author Stuart Douglas
  */
 class Http2FramePriority implements FramePriority<Http2Channel, AbstractHttp2StreamSourceChannel, AbstractHttp2StreamSinkChannel> {
 
-    public static Http2FramePriority INSTANCE = new Http2FramePriority();
+    private final Http2PriorityTree priorityTree;
+
+    /**
+     * The start time of the DATA frame that is currently being sent
+     */
+    private long virtualTime;
+
+    /**
+     * The latest start time that has been assigned
+     */
+    private long maxStart;
+
+    Http2FramePriority(Http2PriorityTree priorityTree) {
+        this.priorityTree = priorityTree;
+    }
+
+    Http2PriorityTree getPriorityTree() {
+        return priorityTree;
+    }
 
     @Override
     public boolean insertFrame(AbstractHttp2StreamSinkChannel newFrame, List<AbstractHttp2StreamSinkChannel> pendingFrames) {
@@ -42,38 +67,91 @@ class Http2FramePriority implements FramePriority<Http2Channel, AbstractHttp2Str
             if(newFrame.isBroken()) {
                 return true; //just quietly drop the frame
             }
+            updateVirtualTime(pendingFrames);
             try {
-                SendFrameHeader header = ((Http2StreamSinkChannel) newFrame).generateSendFrameHeader();
-                //if no header is generated then flow control means we can't send anything
-                if (header.getByteBuffer() == null) {
-                    //we clear the header, as we want to generate a new real header when the flow control window is updated
-                    ((Http2StreamSinkChannel) newFrame).clearHeader();
+                if (!generateHeader((Http2StreamSinkChannel) newFrame)) {
                     return false;
                 }
             } catch (Exception e) {
                 UndertowLogger.REQUEST_LOGGER.debugf("Failed to generate header %s", newFrame);
             }
         }
-
-        pendingFrames.add(newFrame);
+        insert(newFrame, pendingFrames);
         return true;
     }
 
     @Override
     public void frameAdded(AbstractHttp2StreamSinkChannel addedFrame, List<AbstractHttp2StreamSinkChannel> pendingFrames, Deque<AbstractHttp2StreamSinkChannel> holdFrames) {
+        updateVirtualTime(pendingFrames);
         Iterator<AbstractHttp2StreamSinkChannel> it = holdFrames.iterator();
         while (it.hasNext()) {
             AbstractHttp2StreamSinkChannel pending = it.next();
             if (pending instanceof Http2StreamSinkChannel) {
-                SendFrameHeader header = ((Http2StreamSinkChannel) pending).generateSendFrameHeader();
-                if (header.getByteBuffer() != null) {
-                    pendingFrames.add(pending);
+                if (generateHeader((Http2StreamSinkChannel) pending)) {
+                    insert(pending, pendingFrames);
                     it.remove();
-                } else {
-                    //we clear the header, as we want to generate a new real header when the flow control window is updated
-                    ((Http2StreamSinkChannel) pending).clearHeader();
                 }
             }
         }
     }
+
+    /**
+     * Generates the frame header, and works out the start time if this is a DATA frame.
+     *
+     * @return <code>false</code> if flow control means that nothing can be sent
+     */
+    private boolean generateHeader(Http2StreamSinkChannel frame) {
+        frame.scheduledStart = -1;
+        boolean headerBlock = frame instanceof Http2DataStreamSinkChannel && ((Http2DataStreamSinkChannel) frame).isHeaderBlockPending();
+        SendFrameHeader header = frame.generateSendFrameHeader();
+        //if no header is generated then flow control means we can't send anything
+        if (header.getByteBuffer() == null) {
+            //we clear the header, as we want to generate a new real header when the flow control window is updated
+            frame.clearHeader();
+            return false;
+        }
+        if (priorityTree != null && !headerBlock) {
+            int length = frame.getBuffer() == null ? 0 : frame.getBuffer().remaining();
+            long start = priorityTree.scheduleData(frame.getStreamId(), length, virtualTime);
+            frame.scheduledStart = start;
+            maxStart = Math.max(maxStart, start);
+        }
+        return true;
+    }
+
+    private void insert(AbstractHttp2StreamSinkChannel frame, List<AbstractHttp2StreamSinkChannel> pendingFrames) {
+        if (priorityTree == null || frame instanceof Http2RstStreamSinkChannel || frame instanceof Http2GoAwayStreamSinkChannel) {
+            pendingFrames.add(frame);
+            return;
+        }
+        long start = frame.scheduledStart;
+        //walk back from the end, the first frame is never passed as it may already be partially written
+        ListIterator<AbstractHttp2StreamSinkChannel> it = pendingFrames.listIterator(pendingFrames.size());
+        while (it.previousIndex() > 0) {
+            AbstractHttp2StreamSinkChannel previous = it.previous();
+            //only DATA frames can be overtaken, and only by control frames or DATA frames that start earlier
+            if (previous.scheduledStart == -1 || (start != -1 && previous.scheduledStart <= start)) {
+                it.next();
+                break;
+            }
+        }
+        it.add(frame);
+    }
+
+    /**
+     * Advances the virtual time to the start time of the first DATA frame that is queued, or to the latest start time
+     * if there are none, which means every stream that starts sending now is treated the same.
+     */
+    private void updateVirtualTime(List<AbstractHttp2StreamSinkChannel> pendingFrames) {
+        if (priorityTree == null) {
+            return;
+        }
+        for (AbstractHttp2StreamSinkChannel frame : pendingFrames) {
+            if (frame.scheduledStart != -1) {
+                virtualTime = Math.max(virtualTime, frame.scheduledStart);
+                return;
+            }
+        }
+        virtualTime = maxStart;
+    }
 }
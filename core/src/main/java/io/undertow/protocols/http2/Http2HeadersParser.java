@@ -64,7 +64,7 @@ class Http2HeadersParser extends Http2HeaderBlockParser {
             dependentStreamId += (resource.get() & 0xFF) << 16;
             dependentStreamId += (resource.get() & 0xFF) << 8;
             dependentStreamId += (resource.get() & 0xFF);
-            weight = resource.get() & 0xFF;
+            weight = (resource.get() & 0xFF) + 1;
         }
         return true;
     }
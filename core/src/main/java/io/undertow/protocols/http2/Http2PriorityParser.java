@@ -50,7 +50,8 @@ class Http2PriorityParser extends Http2PushBackParser {
             exclusive = false;
             streamDependency = read;
         }
-        weight = resource.get();
+        //the weight is sent as one less than the actual weight
+        weight = (resource.get() & 0xFF) + 1;
     }
 
     public int getWeight() {
@@ -25,12 +25,25 @@ import java.util.Map;
 /**
  * A structure that represents HTTP2 priority information.
  *
+ * This is also used to schedule DATA frames using start time fair queuing. Each stream gets a share of the
+ * connection that is proportional to its weight relative to its siblings, and to the share of its parent. DATA frames
+ * are assigned a virtual start time, and are sent in order of start time. A stream that has just sent a frame has
+ * its next frame pushed back by an amount that is inversely proportional to its share, so a large download can
+ * not starve smaller streams, and a stream with frames waiting to be sent holds back the streams that depend on it.
+ *
  * Note that this structure is not thread safe, it is intended to be protected by an external lock
  *
  * @author Stuart Douglas
  */
 public class Http2PriorityTree {
 
+    static final int DEFAULT_WEIGHT = 16;
+
+    /**
+     * The smallest share a stream can have, this prevents deeply nested streams from being completely starved
+     */
+    private static final double MIN_PROPORTION = 1.0 / (1 << 20);
+
     private final Http2PriorityNode rootNode;
     private final Map<Integer, Http2PriorityNode> nodesByID = new HashMap<>();
 
@@ -58,17 +71,20 @@ public class Http2PriorityTree {
      * @param weighting The weighting. If no weighting is specified this should be 16
      */
     public void registerStream(int streamId, int dependency, int weighting, boolean exclusive) {
+        if(nodesByID.containsKey(streamId)) {
+            priorityFrame(streamId, dependency, weighting, exclusive);
+            return;
+        }
         final Http2PriorityNode node = new Http2PriorityNode(streamId, weighting);
+        Http2PriorityNode existing = nodesByID.get(dependency);
+        if(existing == null) {
+            //a dependency on a stream that is not in the tree results in the default priority
+            existing = rootNode;
+        }
         if(exclusive) {
-            Http2PriorityNode existing = nodesByID.get(dependency);
-            if(existing != null) {
-                existing.exclusive(node);
-            }
+            existing.exclusive(node);
         } else {
-            Http2PriorityNode existing = nodesByID.get(dependency);
-            if(existing != null) {
-                existing.addDependent(node);
-            }
+            existing.addDependent(node);
         }
         nodesByID.put(streamId, node);
     }
@@ -83,16 +99,25 @@ public class Http2PriorityTree {
         if(node == null) {
             return;
         }
+        if(node.dead) {
+            return;
+        }
         node.dead = true;
         if(!node.hasDependents()) {
             //add to eviction queue
             int toEvict = evictionQueue[evictionQueuePosition];
             evictionQueue[evictionQueuePosition++] = streamId;
-            Http2PriorityNode nodeToEvict = nodesByID.get(toEvict);
+            if(evictionQueuePosition == evictionQueue.length) {
+                evictionQueuePosition = 0;
+            }
+            Http2PriorityNode nodeToEvict = toEvict == 0 ? null : nodesByID.get(toEvict);
             //we don't remove the node if it has since got dependents since it was put into the queue
             //as this is the whole reason we maintain the queue in the first place
-            if(nodeToEvict != null && !nodeToEvict.hasDependents()) {
+            if(nodeToEvict != null && nodeToEvict.dead && !nodeToEvict.hasDependents()) {
                 nodesByID.remove(toEvict);
+                if(nodeToEvict.parent != null) {
+                    nodeToEvict.parent.removeDependent(nodeToEvict);
+                }
             }
         }
 
@@ -126,6 +151,34 @@ public class Http2PriorityTree {
             }
         };
     }
+
+    /**
+     * Assigns a virtual start time to a DATA frame, and advances the virtual finish time of the stream.
+     *
+     * @param streamId    The stream the frame belongs to
+     * @param length      The amount of data in the frame
+     * @param virtualTime The start time of the frame that is currently being sent
+     * @return The start time of the frame, frames should be sent in order of start time
+     */
+    public long scheduleData(int streamId, int length, long virtualTime) {
+        Http2PriorityNode node = nodesByID.get(streamId);
+        if(node == null) {
+            //streams we have no priority information for, such as pushed streams, get the default priority
+            registerStream(streamId, 0, DEFAULT_WEIGHT, false);
+            node = nodesByID.get(streamId);
+        }
+        long start = Math.max(virtualTime, node.finish);
+        //a stream only gets bandwidth when the streams it depends on have nothing to send
+        Http2PriorityNode parent = node.parent;
+        while (parent != null && parent != rootNode) {
+            start = Math.max(start, parent.finish);
+            parent = parent.parent;
+        }
+        double proportion = createWeightingProportion(node);
+        node.finish = start + (long) (Math.max(length, 1) / Math.max(proportion, MIN_PROPORTION));
+        return start;
+    }
+
     private double createWeightingProportion(Http2PriorityNode n1) {
         double ret = 1;
         Http2PriorityNode node = n1;
@@ -139,29 +192,45 @@ public class Http2PriorityTree {
         return ret;
     }
 
+    /**
+     * @param streamId The stream id
+     * @return The stream that the stream currently depends on, or -1 if the stream is not in the tree
+     */
+    int getDependency(int streamId) {
+        Http2PriorityNode node = nodesByID.get(streamId);
+        if(node == null || node.parent == null) {
+            return -1;
+        }
+        return node.parent.streamId;
+    }
+
     public void priorityFrame(int streamId, int streamDependency, int weight, boolean exlusive) {
         Http2PriorityNode existing = nodesByID.get(streamId);
-        if(existing == null) {
+        if(existing == null || existing == rootNode) {
             return;
         }
-        int dif = weight - existing.weighting;
-        existing.parent.totalWeights += dif;
+        Http2PriorityNode newParent = nodesByID.get(streamDependency);
+        if(newParent == null) {
+            newParent = rootNode;
+        }
+        //if the stream is made dependent on one of its own dependents then that dependent is first moved up to
+        //take the place of the stream, otherwise we would create a loop
+        for(Http2PriorityNode node = newParent.parent; node != null; node = node.parent) {
+            if(node == existing) {
+                newParent.parent.removeDependent(newParent);
+                existing.parent.addDependent(newParent);
+                break;
+            }
+        }
+        existing.parent.removeDependent(existing);
         existing.weighting = weight;
         if(exlusive) {
-            Http2PriorityNode newParent = nodesByID.get(streamDependency);
-            if(newParent != null) {
-                existing.parent.removeDependent(existing);
-                newParent.exclusive(existing);
-            }
-        } else if(existing.parent.streamId != streamDependency) {
-            Http2PriorityNode newParent = nodesByID.get(streamDependency);
-            if(newParent != null) {
-                newParent.addDependent(existing);
-            }
+            newParent.exclusive(existing);
+        } else {
+            newParent.addDependent(existing);
         }
     }
 
-
     private static class Http2PriorityNode {
 
         private Http2PriorityNode parent;
@@ -192,6 +261,11 @@ public class Http2PriorityTree {
 
         boolean dead = false;
 
+        /**
+         * The virtual time at which the last DATA frame scheduled for this stream finishes
+         */
+        long finish;
+
         Http2PriorityNode(int streamId, int weighting) {
             this.streamId = streamId;
             this.weighting = weighting;
@@ -202,23 +276,19 @@ public class Http2PriorityTree {
             if(dependents == null) {
                 return;
             }
-            totalWeights -= node.weighting;
-            boolean found = false;
             int i;
-            for(i = 0; i < dependents.length - 1; ++i ) {
+            for(i = 0; i < dependents.length; ++i) {
                 if(dependents[i] == node) {
-                    found = true;
-                }
-                if(found) {
-                    dependents[i] = dependents[i + i];
-                }
-                if(dependents[i] == null) {
                     break;
                 }
             }
-            if(found) {
-                dependents[i + 1] = null;
+            if(i == dependents.length) {
+                return;
             }
+            totalWeights -= node.weighting;
+            System.arraycopy(dependents, i + 1, dependents, i, dependents.length - i - 1);
+            dependents[dependents.length - 1] = null;
+            node.parent = null;
         }
 
         boolean hasDependents() {
@@ -242,26 +312,28 @@ public class Http2PriorityTree {
                 Http2PriorityNode[] old = dependents;
                 dependents = new Http2PriorityNode[dependents.length + 5];
                 System.arraycopy(old, 0, dependents, 0, old.length);
-                ++i;
             }
             dependents[i] = node;
             node.parent = this;
             totalWeights += node.weighting;
         }
 
+        /**
+         * Makes the node the only dependent of this node, all existing dependents become dependents of the node
+         */
         public void exclusive(Http2PriorityNode node) {
-            if(dependents == null) {
-                dependents = new Http2PriorityNode[5];
-            }
-
-            for(Http2PriorityNode i : dependents) {
-                node.addDependent(i);
-            }
-            dependents[0] = node;
-            for(int i = 1; i < dependents.length; ++ i) {
-                dependents[i] = null;
+            if(dependents != null) {
+                Http2PriorityNode[] old = dependents;
+                dependents = null;
+                totalWeights = 0;
+                for(Http2PriorityNode i : old) {
+                    if(i == null) {
+                        break;
+                    }
+                    node.addDependent(i);
+                }
             }
-            totalWeights = node.weighting;
+            addDependent(node);
         }
     }
 }
@@ -20,7 +20,9 @@ package io.undertow.protocols.http2;
 
 import java.nio.ByteBuffer;
 import java.util.List;
+import io.undertow.connector.ByteBufferPool;
 import io.undertow.connector.PooledByteBuffer;
+import io.undertow.connector.VariableSizeByteBufferPool;
 
 import io.undertow.server.protocol.framed.SendFrameHeader;
 
@@ -50,7 +52,8 @@ public class Http2SettingsStreamSinkChannel extends Http2StreamSinkChannel {
 
     @Override
     protected SendFrameHeader createFrameHeaderImpl() {
-        PooledByteBuffer pooled = getChannel().getBufferPool().allocate();
+        ByteBufferPool pool = getChannel().getBufferPool();
+        PooledByteBuffer pooled = pool instanceof VariableSizeByteBufferPool ? ((VariableSizeByteBufferPool) pool).allocate(9 + (settings == null ? 0 : settings.size() * 6)) : pool.allocate();
         ByteBuffer currentBuffer = pooled.getBuffer();
         if (settings != null) {
             int size = settings.size() * 6;
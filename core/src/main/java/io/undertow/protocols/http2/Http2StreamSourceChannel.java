@@ -139,12 +139,10 @@ public class Http2StreamSourceChannel extends AbstractHttp2StreamSourceChannel i
         }
         flowControlWindow -= read;
         //TODO: RST stream if flow control limits are exceeded?
-        //TODO: make this configurable, we should be able to set the policy that is used to determine when to update the window size
         Http2Channel spdyChannel = getHttp2Channel();
         spdyChannel.updateReceiveFlowControlWindow(read);
-        int initialWindowSize = spdyChannel.getInitialReceiveWindowSize();
-        if (flowControlWindow < (initialWindowSize / 2)) {
-            int delta = initialWindowSize - flowControlWindow;
+        int delta = spdyChannel.getFlowControlPolicy().getWindowUpdate(streamId, flowControlWindow);
+        if (delta > 0) {
             flowControlWindow += delta;
             spdyChannel.sendUpdateWindowSize(streamId, delta);
         }
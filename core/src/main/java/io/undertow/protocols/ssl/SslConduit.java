@@ -51,6 +51,8 @@ import java.nio.channels.ClosedChannelException;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 
 import static org.xnio.Bits.allAreClear;
@@ -123,9 +125,19 @@ public class SslConduit implements StreamSourceConduit, StreamSinkConduit {
     private final StreamSourceConduit source;
     private final ByteBufferPool bufferPool;
     private final Runnable handshakeCallback;
+    /**
+     * The executor that delegated SSLEngine tasks are run in. If this is null they are run in the worker.
+     */
+    private final Executor delegatedTaskExecutor;
+    private final SslHandshakeStatisticsImpl statistics;
 
     private int state = 0;
 
+    /**
+     * The time the current handshake was started, or -1 if there is no handshake in progress
+     */
+    private long handshakeStart = -1;
+
     private volatile int outstandingTasks = 0;
 
     /**
@@ -155,10 +167,12 @@ public class SslConduit implements StreamSourceConduit, StreamSinkConduit {
 
     private boolean invokingReadListenerHandshake = false;
 
-    SslConduit(UndertowSslConnection connection, StreamConnection delegate, SSLEngine engine, ByteBufferPool bufferPool, Runnable handshakeCallback) {
+    SslConduit(UndertowSslConnection connection, StreamConnection delegate, SSLEngine engine, ByteBufferPool bufferPool, Runnable handshakeCallback, Executor delegatedTaskExecutor, SslHandshakeStatisticsImpl statistics) {
         this.connection = connection;
         this.delegate = delegate;
         this.handshakeCallback = handshakeCallback;
+        this.delegatedTaskExecutor = delegatedTaskExecutor;
+        this.statistics = statistics;
         this.sink = delegate.getSinkChannel().getConduit();
         this.source = delegate.getSourceChannel().getConduit();
         this.engine = engine;
@@ -170,6 +184,7 @@ public class SslConduit implements StreamSourceConduit, StreamSinkConduit {
         } else {
             state = FLAG_IN_HANDSHAKE | FLAG_WRITE_REQUIRES_READ;
         }
+        handshakeStarted();
     }
 
     @Override
@@ -587,6 +602,16 @@ public class SslConduit implements StreamSourceConduit, StreamSinkConduit {
     public void startHandshake() throws SSLException {
         state |= FLAG_READ_REQUIRES_WRITE;
         engine.beginHandshake();
+        if(handshakeStart == -1) {
+            handshakeStarted();
+        }
+    }
+
+    private void handshakeStarted() {
+        handshakeStart = System.currentTimeMillis();
+        if(statistics != null) {
+            statistics.handshakeStarted();
+        }
     }
 
     public SSLSession getSslSession() {
@@ -877,6 +902,13 @@ public class SslConduit implements StreamSourceConduit, StreamSinkConduit {
             case FINISHED: {
                 if(anyAreSet(state, FLAG_IN_HANDSHAKE)) {
                     state &= ~FLAG_IN_HANDSHAKE;
+                    if(handshakeStart != -1) {
+                        if(statistics != null) {
+                            //if the session predates this handshake then it was resumed rather than negotiated
+                            statistics.handshakeCompleted(System.currentTimeMillis() - handshakeStart, engine.getSession().getCreationTime() < handshakeStart);
+                        }
+                        handshakeStart = -1;
+                    }
                     handshakeCallback.run();
                 }
             }
@@ -915,6 +947,10 @@ public class SslConduit implements StreamSourceConduit, StreamSinkConduit {
             return;
         }
         state |= FLAG_CLOSED | FLAG_DELEGATE_SINK_SHUTDOWN | FLAG_DELEGATE_SOURCE_SHUTDOWN | FLAG_WRITE_SHUTDOWN | FLAG_READ_SHUTDOWN;
+        if(handshakeStart != -1 && statistics != null) {
+            statistics.handshakeFailed();
+        }
+        handshakeStart = -1;
         notifyReadClosed();
         notifyWriteClosed();
         if(dataToUnwrap != null) {
@@ -943,7 +979,7 @@ public class SslConduit implements StreamSourceConduit, StreamSinkConduit {
     }
 
     /**
-     * Execute all the tasks in the worker
+     * Execute all the tasks in the handshake executor, or the worker if no handshake executor has been configured.
      *
      * Once they are complete we notify any waiting threads and wakeup reads/writes as appropriate
      */
@@ -960,44 +996,65 @@ public class SslConduit implements StreamSourceConduit, StreamSinkConduit {
 
         synchronized (this) {
             outstandingTasks += tasks.size();
-            for (final Runnable task : tasks) {
-                getWorker().execute(new Runnable() {
+        }
+        //tasks are submitted outside the lock, so a slow executor cannot block threads that are completing earlier tasks
+        for (final Runnable task : tasks) {
+            Runnable wrapper = new Runnable() {
+                @Override
+                public void run() {
+                    final long start = statistics == null ? 0 : System.nanoTime();
+                    try {
+                        task.run();
+                    } finally {
+                        if (statistics != null) {
+                            statistics.delegatedTaskRun(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                        }
+                        taskComplete();
+                    }
+                }
+            };
+            if (delegatedTaskExecutor == null) {
+                getWorker().execute(wrapper);
+            } else {
+                try {
+                    delegatedTaskExecutor.execute(wrapper);
+                } catch (RejectedExecutionException e) {
+                    //the handshake executor is saturated, fall back to the worker rather than failing the handshake
+                    if (statistics != null) {
+                        statistics.delegatedTaskRejected();
+                    }
+                    getWorker().execute(wrapper);
+                }
+            }
+        }
+    }
+
+    private void taskComplete() {
+        synchronized (this) {
+            if (outstandingTasks == 1) {
+                getWriteThread().execute(new Runnable() {
                     @Override
                     public void run() {
-                        try {
-                            task.run();
-                        } finally {
-                            synchronized (SslConduit.this) {
-                                if (outstandingTasks == 1) {
-                                    getWriteThread().execute(new Runnable() {
-                                        @Override
-                                        public void run() {
-                                            synchronized (SslConduit.this) {
-                                                SslConduit.this.notifyAll();
-
-                                                --outstandingTasks;
-                                                try {
-                                                    doHandshake();
-                                                } catch (IOException e) {
-                                                    IoUtils.safeClose(connection);
-                                                }
-                                                if (anyAreSet(state, FLAG_READS_RESUMED)) {
-                                                    wakeupReads(); //wakeup, because we need to run an unwrap even if there is no data to be read
-                                                }
-                                                if (anyAreSet(state, FLAG_WRITES_RESUMED)) {
-                                                    resumeWrites(); //we don't need to wakeup, as the channel should be writable
-                                                }
-                                            }
-                                        }
-                                    });
-                                } else {
-                                    outstandingTasks--;
-                                }
+                        synchronized (SslConduit.this) {
+                            SslConduit.this.notifyAll();
+
+                            --outstandingTasks;
+                            try {
+                                doHandshake();
+                            } catch (IOException e) {
+                                IoUtils.safeClose(connection);
+                            }
+                            if (anyAreSet(state, FLAG_READS_RESUMED)) {
+                                wakeupReads(); //wakeup, because we need to run an unwrap even if there is no data to be read
+                            }
+                            if (anyAreSet(state, FLAG_WRITES_RESUMED)) {
+                                resumeWrites(); //we don't need to wakeup, as the channel should be writable
                             }
                         }
-
                     }
                 });
+            } else {
+                outstandingTasks--;
             }
         }
     }
@@ -0,0 +1,88 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.undertow.protocols.ssl;
+
+/**
+ * TLS handshake statistics for connections created by a {@link UndertowXnioSsl} instance.
+ *
+ * @author agent
+ */
+public interface SslHandshakeStatistics {
+
+    /**
+     *
+     * @return The number of handshakes that have been started
+     */
+    long getHandshakesStarted();
+
+    /**
+     *
+     * @return The number of handshakes that completed successfully
+     */
+    long getHandshakesCompleted();
+
+    /**
+     *
+     * @return The number of completed handshakes that resumed an existing session rather than performing a full handshake
+     */
+    long getSessionsResumed();
+
+    /**
+     *
+     * @return The number of handshakes where the connection was closed before the handshake completed
+     */
+    long getHandshakesFailed();
+
+    /**
+     *
+     * @return The total time in milliseconds taken by all completed handshakes
+     */
+    long getHandshakeTime();
+
+    /**
+     *
+     * @return The time in milliseconds taken by the slowest handshake
+     */
+    long getMaxHandshakeTime();
+
+    /**
+     *
+     * @return The number of delegated SSLEngine tasks that have been run
+     */
+    long getDelegatedTaskCount();
+
+    /**
+     *
+     * @return The total time in milliseconds spent running delegated SSLEngine tasks
+     */
+    long getDelegatedTaskTime();
+
+    /**
+     *
+     * @return The number of delegated tasks that were rejected by the handshake executor and run in the worker instead
+     */
+    long getRejectedTaskCount();
+
+    /**
+     * Resets all values to zero
+     */
+    void reset();
+
+}
@@ -0,0 +1,138 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.undertow.protocols.ssl;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * @author agent
+ */
+class SslHandshakeStatisticsImpl implements SslHandshakeStatistics {
+
+    private static final AtomicLongFieldUpdater<SslHandshakeStatisticsImpl> handshakesStartedUpdater = AtomicLongFieldUpdater.newUpdater(SslHandshakeStatisticsImpl.class, "handshakesStarted");
+    private static final AtomicLongFieldUpdater<SslHandshakeStatisticsImpl> handshakesCompletedUpdater = AtomicLongFieldUpdater.newUpdater(SslHandshakeStatisticsImpl.class, "handshakesCompleted");
+    private static final AtomicLongFieldUpdater<SslHandshakeStatisticsImpl> sessionsResumedUpdater = AtomicLongFieldUpdater.newUpdater(SslHandshakeStatisticsImpl.class, "sessionsResumed");
+    private static final AtomicLongFieldUpdater<SslHandshakeStatisticsImpl> handshakesFailedUpdater = AtomicLongFieldUpdater.newUpdater(SslHandshakeStatisticsImpl.class, "handshakesFailed");
+    private static final AtomicLongFieldUpdater<SslHandshakeStatisticsImpl> handshakeTimeUpdater = AtomicLongFieldUpdater.newUpdater(SslHandshakeStatisticsImpl.class, "handshakeTime");
+    private static final AtomicLongFieldUpdater<SslHandshakeStatisticsImpl> maxHandshakeTimeUpdater = AtomicLongFieldUpdater.newUpdater(SslHandshakeStatisticsImpl.class, "maxHandshakeTime");
+    private static final AtomicLongFieldUpdater<SslHandshakeStatisticsImpl> delegatedTaskCountUpdater = AtomicLongFieldUpdater.newUpdater(SslHandshakeStatisticsImpl.class, "delegatedTaskCount");
+    private static final AtomicLongFieldUpdater<SslHandshakeStatisticsImpl> delegatedTaskTimeUpdater = AtomicLongFieldUpdater.newUpdater(SslHandshakeStatisticsImpl.class, "delegatedTaskTime");
+    private static final AtomicLongFieldUpdater<SslHandshakeStatisticsImpl> rejectedTaskCountUpdater = AtomicLongFieldUpdater.newUpdater(SslHandshakeStatisticsImpl.class, "rejectedTaskCount");
+
+    private volatile long handshakesStarted;
+    private volatile long handshakesCompleted;
+    private volatile long sessionsResumed;
+    private volatile long handshakesFailed;
+    private volatile long handshakeTime;
+    private volatile long maxHandshakeTime;
+    private volatile long delegatedTaskCount;
+    private volatile long delegatedTaskTime;
+    private volatile long rejectedTaskCount;
+
+    void handshakeStarted() {
+        handshakesStartedUpdater.incrementAndGet(this);
+    }
+
+    void handshakeCompleted(long elapsed, boolean resumed) {
+        handshakesCompletedUpdater.incrementAndGet(this);
+        if (resumed) {
+            sessionsResumedUpdater.incrementAndGet(this);
+        }
+        handshakeTimeUpdater.addAndGet(this, elapsed);
+        long oldMax;
+        do {
+            oldMax = maxHandshakeTimeUpdater.get(this);
+            if (oldMax >= elapsed) {
+                break;
+            }
+        } while (!maxHandshakeTimeUpdater.compareAndSet(this, oldMax, elapsed));
+    }
+
+    void handshakeFailed() {
+        handshakesFailedUpdater.incrementAndGet(this);
+    }
+
+    void delegatedTaskRun(long elapsed) {
+        delegatedTaskCountUpdater.incrementAndGet(this);
+        delegatedTaskTimeUpdater.addAndGet(this, elapsed);
+    }
+
+    void delegatedTaskRejected() {
+        rejectedTaskCountUpdater.incrementAndGet(this);
+    }
+
+    @Override
+    public long getHandshakesStarted() {
+        return handshakesStartedUpdater.get(this);
+    }
+
+    @Override
+    public long getHandshakesCompleted() {
+        return handshakesCompletedUpdater.get(this);
+    }
+
+    @Override
+    public long getSessionsResumed() {
+        return sessionsResumedUpdater.get(this);
+    }
+
+    @Override
+    public long getHandshakesFailed() {
+        return handshakesFailedUpdater.get(this);
+    }
+
+    @Override
+    public long getHandshakeTime() {
+        return handshakeTimeUpdater.get(this);
+    }
+
+    @Override
+    public long getMaxHandshakeTime() {
+        return maxHandshakeTimeUpdater.get(this);
+    }
+
+    @Override
+    public long getDelegatedTaskCount() {
+        return delegatedTaskCountUpdater.get(this);
+    }
+
+    @Override
+    public long getDelegatedTaskTime() {
+        return delegatedTaskTimeUpdater.get(this);
+    }
+
+    @Override
+    public long getRejectedTaskCount() {
+        return rejectedTaskCountUpdater.get(this);
+    }
+
+    @Override
+    public void reset() {
+        handshakesStartedUpdater.set(this, 0);
+        handshakesCompletedUpdater.set(this, 0);
+        sessionsResumedUpdater.set(this, 0);
+        handshakesFailedUpdater.set(this, 0);
+        handshakeTimeUpdater.set(this, 0);
+        maxHandshakeTimeUpdater.set(this, 0);
+        delegatedTaskCountUpdater.set(this, 0);
+        delegatedTaskTimeUpdater.set(this, 0);
+        rejectedTaskCountUpdater.set(this, 0);
+    }
+}
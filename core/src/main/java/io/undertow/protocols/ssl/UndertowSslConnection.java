@@ -32,6 +32,7 @@ import javax.net.ssl.SSLSession;
 import java.io.IOException;
 import java.net.SocketAddress;
 import java.util.Set;
+import java.util.concurrent.Executor;
 
 /**
  * @author Stuart Douglas
@@ -49,12 +50,14 @@ class UndertowSslConnection extends SslConnection {
      * Construct a new instance.
      *
      * @param delegate the underlying connection
+     * @param delegatedTaskExecutor the executor to run delegated SSLEngine tasks in, or null to use the worker
+     * @param statistics the handshake statistics to update, may be null
      */
-    UndertowSslConnection(StreamConnection delegate, SSLEngine engine, ByteBufferPool bufferPool) {
+    UndertowSslConnection(StreamConnection delegate, SSLEngine engine, ByteBufferPool bufferPool, Executor delegatedTaskExecutor, SslHandshakeStatisticsImpl statistics) {
         super(delegate.getIoThread());
         this.delegate = delegate;
         this.engine = engine;
-        sslConduit = new SslConduit(this, delegate, engine, bufferPool, new HandshakeCallback());
+        sslConduit = new SslConduit(this, delegate, engine, bufferPool, new HandshakeCallback(), delegatedTaskExecutor, statistics);
         setSourceConduit(sslConduit);
         setSinkConduit(sslConduit);
     }
@@ -50,6 +50,7 @@ import java.net.SocketAddress;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 
 import static org.xnio.IoUtils.safeClose;
@@ -62,7 +63,9 @@ public class UndertowXnioSsl extends XnioSsl {
     private static final ByteBufferPool DEFAULT_BUFFER_POOL = new DefaultByteBufferPool(true, 17 * 1024, -1, 12);
 
     private final ByteBufferPool bufferPool;
+    private final SslHandshakeStatisticsImpl handshakeStatistics = new SslHandshakeStatisticsImpl();
     private volatile SSLContext sslContext;
+    private volatile Executor delegatedTaskExecutor;
 
     /**
      * Construct a new instance.
@@ -180,7 +183,7 @@ public class UndertowXnioSsl extends XnioSsl {
     }
 
     public SslConnection wrapExistingConnection(StreamConnection connection, OptionMap optionMap) {
-        return new UndertowSslConnection(connection, JsseSslUtils.createSSLEngine(sslContext, optionMap, (InetSocketAddress) connection.getPeerAddress()), bufferPool);
+        return new UndertowSslConnection(connection, JsseSslUtils.createSSLEngine(sslContext, optionMap, (InetSocketAddress) connection.getPeerAddress()), bufferPool, delegatedTaskExecutor, handshakeStatistics);
     }
 
     private IoFuture<SslConnection> setupSslConnection(FutureResult<SslConnection> futureResult, IoFuture<StreamConnection> connection) {
@@ -293,6 +296,39 @@ public class UndertowXnioSsl extends XnioSsl {
         this.sslContext = context;
     }
 
+    /**
+     *
+     * @return The executor that delegated SSLEngine tasks are run in, or null if they are run in the worker
+     */
+    public Executor getDelegatedTaskExecutor() {
+        return delegatedTaskExecutor;
+    }
+
+    /**
+     * Sets the executor that is used to run delegated SSLEngine tasks, such as certificate validation and key exchange
+     * computations. Using a dedicated, bounded executor stops a burst of handshakes from competing with requests for
+     * worker threads. If the executor rejects a task it is run in the worker instead.
+     *
+     * This only affects connections created after this method is called.
+     *
+     * @param delegatedTaskExecutor The executor, or null to run delegated tasks in the worker
+     */
+    public void setDelegatedTaskExecutor(Executor delegatedTaskExecutor) {
+        this.delegatedTaskExecutor = delegatedTaskExecutor;
+    }
+
+    /**
+     *
+     * @return The handshake statistics for connections created by this instance
+     */
+    public SslHandshakeStatistics getHandshakeStatistics() {
+        return handshakeStatistics;
+    }
+
+    SslHandshakeStatisticsImpl getHandshakeStatisticsImpl() {
+        return handshakeStatistics;
+    }
+
     public AcceptingChannel<SslConnection> createSslConnectionServer(final XnioWorker worker, final InetSocketAddress bindAddress, final ChannelListener<? super AcceptingChannel<SslConnection>> acceptListener, final OptionMap optionMap) throws IOException {
         final UndertowAcceptingSslChannel server = new UndertowAcceptingSslChannel(this, worker.createStreamConnectionServer(bindAddress,  null,  optionMap), optionMap, bufferPool, false);
         if (acceptListener != null) server.getAcceptSetter().set(acceptListener);
@@ -313,7 +349,7 @@ public class UndertowXnioSsl extends XnioSsl {
         }
 
         public void handleEvent(final StreamConnection connection) {
-            final SslConnection wrappedConnection = new UndertowSslConnection(connection, JsseSslUtils.createSSLEngine(sslContext, optionMap, destination), bufferPool);
+            final SslConnection wrappedConnection = new UndertowSslConnection(connection, JsseSslUtils.createSSLEngine(sslContext, optionMap, destination), bufferPool, delegatedTaskExecutor, handshakeStatistics);
             if (! futureResult.setResult(wrappedConnection)) {
                 IoUtils.safeClose(connection);
             } else {
@@ -0,0 +1,93 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server;
+
+/**
+ * Buffer pool statistics.
+ * <p>
+ * Counters are updated without synchronization on the allocation path, so values read while the
+ * pool is under load are approximate.
+ *
+ * @author agent
+ */
+public interface ByteBufferPoolStatistics {
+
+    /**
+     *
+     * @return The total number of buffers that have been allocated from the pool
+     */
+    long getAllocations();
+
+    /**
+     *
+     * @return The number of allocations that were satisfied from the allocating thread's local cache
+     */
+    long getThreadLocalHits();
+
+    /**
+     *
+     * @return The number of allocations that were satisfied by buffers that were freed on another thread and returned to the allocating thread
+     */
+    long getReturnedHits();
+
+    /**
+     *
+     * @return The number of allocations that were satisfied from the shared pool
+     */
+    long getQueueHits();
+
+    /**
+     *
+     * @return The number of allocations that required a new buffer to be created
+     */
+    long getMisses();
+
+    /**
+     *
+     * Buffers that are leaked are only subtracted once they are collected, and only if they were sampled by leak
+     * detection, so with leak detection disabled leaked buffers are still counted.
+     *
+     * @return The number of direct bytes that have been created by this pool and not yet discarded, both in use and pooled
+     */
+    long getDirectBytesOutstanding();
+
+    /**
+     *
+     * @return The number of buffers that were garbage collected without being freed
+     */
+    long getLeakDetections();
+
+    /**
+     *
+     * @return The number of buffers in the shared pool
+     */
+    int getQueueSize();
+
+    /**
+     *
+     * @return The number of live thread local caches
+     */
+    int getThreadLocalCacheCount();
+
+    /**
+     * Resets all counters to zero. Values that represent the current state of the pool are not affected.
+     */
+    void reset();
+
+}
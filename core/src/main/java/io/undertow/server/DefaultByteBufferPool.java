@@ -22,16 +22,25 @@ import io.undertow.UndertowMessages;
 import io.undertow.connector.ByteBufferPool;
 import io.undertow.connector.PooledByteBuffer;
 
+import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
 /**
  * A byte buffer pool that supports reference counted pools.
+ * <p>
+ * Each thread that allocates from the pool gets a small local cache of buffers. Buffers remember the
+ * thread that allocated them, and if they are freed by a different thread (e.g. allocated on a worker
+ * thread and freed on the IO thread) they are handed back to the owning thread via a lock free queue,
+ * rather than building up in the cache of the freeing thread. The caches of threads that have died
+ * are evicted and their buffers returned to the shared pool.
  *
  * TODO: move this somewhere more appropriate
  *
@@ -54,6 +63,28 @@ public class DefaultByteBufferPool implements ByteBufferPool {
     private volatile int currentQueueLength = 0;
     private static final AtomicIntegerFieldUpdater<DefaultByteBufferPool> currentQueueLengthUpdater = AtomicIntegerFieldUpdater.newUpdater(DefaultByteBufferPool.class, "currentQueueLength");
 
+    @SuppressWarnings("unused")
+    private volatile long directBytesOutstanding = 0;
+    private static final AtomicLongFieldUpdater<DefaultByteBufferPool> directBytesOutstandingUpdater = AtomicLongFieldUpdater.newUpdater(DefaultByteBufferPool.class, "directBytesOutstanding");
+
+    @SuppressWarnings("unused")
+    private volatile long leakDetections = 0;
+    private static final AtomicLongFieldUpdater<DefaultByteBufferPool> leakDetectionsUpdater = AtomicLongFieldUpdater.newUpdater(DefaultByteBufferPool.class, "leakDetections");
+
+    @SuppressWarnings("unused")
+    private volatile long sharedAllocations = 0;
+    @SuppressWarnings("unused")
+    private volatile long sharedQueueHits = 0;
+    private static final AtomicLongFieldUpdater<DefaultByteBufferPool> sharedAllocationsUpdater = AtomicLongFieldUpdater.newUpdater(DefaultByteBufferPool.class, "sharedAllocations");
+    private static final AtomicLongFieldUpdater<DefaultByteBufferPool> sharedQueueHitsUpdater = AtomicLongFieldUpdater.newUpdater(DefaultByteBufferPool.class, "sharedQueueHits");
+
+    /**
+     * Counters from thread local caches that have been evicted, guarded by threadLocalDataList
+     */
+    private final ThreadLocalStats retiredStats = new ThreadLocalStats();
+
+    private final Statistics statistics = new Statistics();
+
     private volatile boolean closed;
 
 
@@ -67,7 +98,7 @@ public class DefaultByteBufferPool implements ByteBufferPool {
     /**
      * @param direct               If this implementation should use direct buffers
      * @param bufferSize           The buffer size to use
-     * @param maximumPoolSize      The maximum pool size, in number of buffers, it does not include buffers in thread local caches
+     * @param maximumPoolSize      The maximum pool size, in number of buffers, it does not include buffers in thread local caches. -1 means unbounded
      * @param threadLocalCacheSize The maximum number of buffers that can be stored in a thread local cache
      */
     public DefaultByteBufferPool(boolean direct, int bufferSize, int maximumPoolSize, int threadLocalCacheSize, int leakDecetionPercent) {
@@ -82,7 +113,7 @@ public class DefaultByteBufferPool implements ByteBufferPool {
     /**
      * @param direct               If this implementation should use direct buffers
      * @param bufferSize           The buffer size to use
-     * @param maximumPoolSize      The maximum pool size, in number of buffers, it does not include buffers in thread local caches
+     * @param maximumPoolSize      The maximum pool size, in number of buffers, it does not include buffers in thread local caches. -1 means unbounded
      * @param threadLocalCacheSize The maximum number of buffers that can be stored in a thread local cache
      */
     public DefaultByteBufferPool(boolean direct, int bufferSize, int maximumPoolSize, int threadLocalCacheSize) {
@@ -94,6 +125,14 @@ public class DefaultByteBufferPool implements ByteBufferPool {
         return bufferSize;
     }
 
+    /**
+     *
+     * @return The statistics for this pool
+     */
+    public ByteBufferPoolStatistics getStatistics() {
+        return statistics;
+    }
+
     @Override
     public PooledByteBuffer allocate() {
         if (closed) {
@@ -103,67 +142,165 @@ public class DefaultByteBufferPool implements ByteBufferPool {
         ThreadLocalData local = null;
         if(threadLocalCacheSize > 0) {
             local = threadLocalCache.get();
-            if (local != null) {
-                buffer = local.buffers.poll();
-                if (buffer != null) {
-                    currentQueueLengthUpdater.decrementAndGet(this);
-                }
-            } else {
+            if (local == null) {
                 local = new ThreadLocalData();
                 threadLocalCache.set(local);
-                threadLocalDataList.add(local);
+                registerThreadLocalData(local);
+            }
+            local.stats.increment(allocationsUpdater);
+            buffer = local.buffers.poll();
+            if (buffer != null) {
+                local.stats.increment(threadLocalHitsUpdater);
+            } else {
+                buffer = local.pollReturned();
+                if (buffer != null) {
+                    local.stats.increment(returnedHitsUpdater);
+                }
             }
+        } else {
+            sharedAllocationsUpdater.incrementAndGet(this);
         }
         if (buffer == null) {
             buffer = queue.poll();
+            if (buffer != null) {
+                currentQueueLengthUpdater.decrementAndGet(this);
+                if (local != null) {
+                    local.stats.increment(queueHitsUpdater);
+                } else {
+                    sharedQueueHitsUpdater.incrementAndGet(this);
+                }
+            }
         }
         if (buffer == null) {
             if (direct) {
                 buffer = ByteBuffer.allocateDirect(bufferSize);
+                directBytesOutstandingUpdater.addAndGet(this, bufferSize);
             } else {
                 buffer = ByteBuffer.allocate(bufferSize);
             }
         }
-        if(local != null) {
-            local.allocationDepth++;
-        }
         buffer.clear();
-        return new DefaultPooledBuffer(this, buffer, leakDectionPercent == 0 ? false : (++count % 100 > leakDectionPercent));
+        return new DefaultPooledBuffer(this, buffer, local, leakDectionPercent == 0 ? false : (++count % 100 > leakDectionPercent));
     }
 
-    private void freeInternal(ByteBuffer buffer) {
+    private void freeInternal(ByteBuffer buffer, ThreadLocalData owner) {
         if (closed) {
+            discard(buffer);
             return; //GC will take care of it
         }
-        ThreadLocalData local = threadLocalCache.get();
-        if(local != null) {
-            if(local.allocationDepth > 0) {
-                local.allocationDepth--;
+        if (owner != null) {
+            ThreadLocalData local = threadLocalCache.get();
+            if (local == owner) {
                 if (local.buffers.size() < threadLocalCacheSize) {
                     local.buffers.add(buffer);
                     return;
                 }
+            } else if (owner.isAlive()) {
+                //hand it back to the thread that allocated it
+                if (owner.offerReturned(buffer, threadLocalCacheSize)) {
+                    if (owner.dead) {
+                        //the owner was evicted while the buffer was being added, and the evicting thread may
+                        //already have drained the queue, so make sure the buffer is not stranded
+                        drainReturned(owner);
+                    }
+                    return;
+                }
+            } else if (!owner.dead) {
+                evictDeadThreadCaches();
             }
         }
+        offerToQueue(buffer);
+    }
+
+    private void drainReturned(ThreadLocalData owner) {
+        ByteBuffer returned = owner.returned.poll();
+        while (returned != null) {
+            offerToQueue(returned);
+            returned = owner.returned.poll();
+        }
+    }
+
+    private void offerToQueue(ByteBuffer buffer) {
         int size;
         do {
             size = currentQueueLength;
-            if(size > maximumPoolSize) {
+            if(maximumPoolSize >= 0 && size >= maximumPoolSize) {
+                discard(buffer);
                 return;
             }
-        } while (!currentQueueLengthUpdater.compareAndSet(this, size, currentQueueLength + 1));
+        } while (!currentQueueLengthUpdater.compareAndSet(this, size, size + 1));
         queue.add(buffer);
     }
 
+    private void discard(ByteBuffer buffer) {
+        if (buffer.isDirect()) {
+            directBytesOutstandingUpdater.addAndGet(this, -buffer.capacity());
+        }
+    }
+
+    private void registerThreadLocalData(ThreadLocalData local) {
+        //new threads are a good indication that old ones may have gone away
+        evictDeadThreadCaches();
+        threadLocalDataList.add(local);
+    }
+
+    /**
+     * Removes the caches of threads that are no longer alive, and moves their buffers into the shared pool
+     */
+    private void evictDeadThreadCaches() {
+        List<ByteBuffer> orphaned = null;
+        synchronized (threadLocalDataList) {
+            Iterator<ThreadLocalData> it = threadLocalDataList.iterator();
+            while (it.hasNext()) {
+                ThreadLocalData data = it.next();
+                if (!data.isAlive()) {
+                    it.remove();
+                    data.dead = true;
+                    retiredStats.add(data.stats);
+                    if (orphaned == null) {
+                        orphaned = new ArrayList<>();
+                    }
+                    //it is safe to touch the buffers as the owning thread is gone
+                    orphaned.addAll(data.buffers);
+                    data.buffers.clear();
+                    ByteBuffer returned = data.returned.poll();
+                    while (returned != null) {
+                        orphaned.add(returned);
+                        returned = data.returned.poll();
+                    }
+                }
+            }
+        }
+        if (orphaned != null) {
+            for (ByteBuffer buffer : orphaned) {
+                offerToQueue(buffer);
+            }
+        }
+    }
+
     @Override
     public void close() {
         if (closed) {
             return;
         }
         closed = true;
-        queue.clear();
-        for(ThreadLocalData local : threadLocalDataList) {
-            local.buffers.clear();
+        ByteBuffer buffer = queue.poll();
+        while (buffer != null) {
+            discard(buffer);
+            buffer = queue.poll();
+        }
+        synchronized (threadLocalDataList) {
+            for (ThreadLocalData local : threadLocalDataList) {
+                for (ByteBuffer b : local.buffers) {
+                    discard(b);
+                }
+                local.buffers.clear();
+                ByteBuffer returned = local.returned.poll();
+                while (returned != null) {
+                    discard(returned);
+                    returned = local.returned.poll();
+                }
+            }
         }
     }
 
@@ -177,6 +314,7 @@ public class DefaultByteBufferPool implements ByteBufferPool {
 
         private final DefaultByteBufferPool pool;
         private final LeakDetector leakDetector;
+        private final ThreadLocalData owner;
         private ByteBuffer buffer;
 
         private volatile int referenceCount = 1;
@@ -184,10 +322,11 @@ public class DefaultByteBufferPool implements ByteBufferPool {
 
 
 
-        public DefaultPooledBuffer(DefaultByteBufferPool pool, ByteBuffer buffer, boolean detectLeaks) {
+        public DefaultPooledBuffer(DefaultByteBufferPool pool, ByteBuffer buffer, ThreadLocalData owner, boolean detectLeaks) {
             this.pool = pool;
             this.buffer = buffer;
-            this.leakDetector = detectLeaks ? new LeakDetector() : null;
+            this.owner = owner;
+            this.leakDetector = detectLeaks ? new LeakDetector(pool, buffer.isDirect() ? buffer.capacity() : 0) : null;
         }
 
         @Override
@@ -204,7 +343,7 @@ public class DefaultByteBufferPool implements ByteBufferPool {
                 if(leakDetector != null) {
                     leakDetector.closed = true;
                 }
-                pool.freeInternal(buffer);
+                pool.freeInternal(buffer, owner);
                 this.buffer = null;
             }
         }
@@ -215,17 +354,100 @@ public class DefaultByteBufferPool implements ByteBufferPool {
         }
     }
 
-    private class ThreadLocalData {
-        ArrayDeque<ByteBuffer> buffers = new ArrayDeque<>(threadLocalCacheSize);
-        int allocationDepth = 0;
+    /**
+     * Counters for a thread local cache. These are only incremented by the owning thread, so they do not need
+     * atomic updates. They are written with ordered stores, which are cheaper than volatile stores on the
+     * allocation path, and read as volatile by the statistics.
+     */
+    private static final class ThreadLocalStats {
+        volatile long allocations;
+        volatile long threadLocalHits;
+        volatile long returnedHits;
+        volatile long queueHits;
+
+        /**
+         * Increments a counter, this must only be called by the owning thread.
+         */
+        void increment(AtomicLongFieldUpdater<ThreadLocalStats> updater) {
+            updater.lazySet(this, updater.get(this) + 1);
+        }
+
+        void add(ThreadLocalStats other) {
+            allocations += other.allocations;
+            threadLocalHits += other.threadLocalHits;
+            returnedHits += other.returnedHits;
+            queueHits += other.queueHits;
+        }
+
+        void reset() {
+            allocations = 0;
+            threadLocalHits = 0;
+            returnedHits = 0;
+            queueHits = 0;
+        }
+    }
+
+    private static final class ThreadLocalData {
+        final WeakReference<Thread> thread = new WeakReference<>(Thread.currentThread());
+        final ArrayDeque<ByteBuffer> buffers = new ArrayDeque<>();
+        final ThreadLocalStats stats = new ThreadLocalStats();
+
+        /**
+         * Buffers freed by other threads. Many threads may add to this queue, only the owning thread removes from it.
+         */
+        final ConcurrentLinkedQueue<ByteBuffer> returned = new ConcurrentLinkedQueue<>();
+        volatile int returnedCount = 0;
+        volatile boolean dead;
+
+        boolean isAlive() {
+            if (dead) {
+                return false;
+            }
+            Thread t = thread.get();
+            return t != null && t.isAlive();
+        }
+
+        boolean offerReturned(ByteBuffer buffer, int max) {
+            int size;
+            do {
+                size = returnedCount;
+                if (size >= max || dead) {
+                    return false;
+                }
+            } while (!returnedCountUpdater.compareAndSet(this, size, size + 1));
+            returned.add(buffer);
+            return true;
+        }
+
+        ByteBuffer pollReturned() {
+            if (returnedCount == 0) {
+                return null;
+            }
+            ByteBuffer buffer = returned.poll();
+            if (buffer != null) {
+                returnedCountUpdater.decrementAndGet(this);
+            }
+            return buffer;
+        }
     }
 
+    private static final AtomicLongFieldUpdater<ThreadLocalStats> allocationsUpdater = AtomicLongFieldUpdater.newUpdater(ThreadLocalStats.class, "allocations");
+    private static final AtomicLongFieldUpdater<ThreadLocalStats> threadLocalHitsUpdater = AtomicLongFieldUpdater.newUpdater(ThreadLocalStats.class, "threadLocalHits");
+    private static final AtomicLongFieldUpdater<ThreadLocalStats> returnedHitsUpdater = AtomicLongFieldUpdater.newUpdater(ThreadLocalStats.class, "returnedHits");
+    private static final AtomicLongFieldUpdater<ThreadLocalStats> queueHitsUpdater = AtomicLongFieldUpdater.newUpdater(ThreadLocalStats.class, "queueHits");
+
+    private static final AtomicIntegerFieldUpdater<ThreadLocalData> returnedCountUpdater = AtomicIntegerFieldUpdater.newUpdater(ThreadLocalData.class, "returnedCount");
+
     private static class LeakDetector {
 
         volatile boolean closed = false;
         private final Throwable allocationPoint;
+        private final DefaultByteBufferPool pool;
+        private final int directBytes;
 
-        private LeakDetector() {
+        private LeakDetector(DefaultByteBufferPool pool, int directBytes) {
+            this.pool = pool;
+            this.directBytes = directBytes;
             this.allocationPoint = new Throwable("Buffer leak detected");
         }
 
@@ -233,9 +455,101 @@ public class DefaultByteBufferPool implements ByteBufferPool {
         protected void finalize() throws Throwable {
             super.finalize();
             if(!closed) {
+                leakDetectionsUpdater.incrementAndGet(pool);
+                //the buffer never made it back to the pool, and is being collected
+                directBytesOutstandingUpdater.addAndGet(pool, -directBytes);
                 allocationPoint.printStackTrace();
             }
         }
     }
 
+    private class Statistics implements ByteBufferPoolStatistics {
+
+        @Override
+        public long getAllocations() {
+            long ret = sharedAllocations;
+            synchronized (threadLocalDataList) {
+                ret += retiredStats.allocations;
+                for (ThreadLocalData data : threadLocalDataList) {
+                    ret += data.stats.allocations;
+                }
+            }
+            return ret;
+        }
+
+        @Override
+        public long getThreadLocalHits() {
+            long ret = 0;
+            synchronized (threadLocalDataList) {
+                ret += retiredStats.threadLocalHits;
+                for (ThreadLocalData data : threadLocalDataList) {
+                    ret += data.stats.threadLocalHits;
+                }
+            }
+            return ret;
+        }
+
+        @Override
+        public long getReturnedHits() {
+            long ret = 0;
+            synchronized (threadLocalDataList) {
+                ret += retiredStats.returnedHits;
+                for (ThreadLocalData data : threadLocalDataList) {
+                    ret += data.stats.returnedHits;
+                }
+            }
+            return ret;
+        }
+
+        @Override
+        public long getQueueHits() {
+            long ret = sharedQueueHits;
+            synchronized (threadLocalDataList) {
+                ret += retiredStats.queueHits;
+                for (ThreadLocalData data : threadLocalDataList) {
+                    ret += data.stats.queueHits;
+                }
+            }
+            return ret;
+        }
+
+        @Override
+        public long getMisses() {
+            return Math.max(0, getAllocations() - getThreadLocalHits() - getReturnedHits() - getQueueHits());
+        }
+
+        @Override
+        public long getDirectBytesOutstanding() {
+            return directBytesOutstanding;
+        }
+
+        @Override
+        public long getLeakDetections() {
+            return leakDetections;
+        }
+
+        @Override
+        public int getQueueSize() {
+            return currentQueueLength;
+        }
+
+        @Override
+        public int getThreadLocalCacheCount() {
+            return threadLocalDataList.size();
+        }
+
+        @Override
+        public void reset() {
+            sharedAllocationsUpdater.set(DefaultByteBufferPool.this, 0);
+            sharedQueueHitsUpdater.set(DefaultByteBufferPool.this, 0);
+            leakDetectionsUpdater.set(DefaultByteBufferPool.this, 0);
+            synchronized (threadLocalDataList) {
+                retiredStats.reset();
+                for (ThreadLocalData data : threadLocalDataList) {
+                    data.stats.reset();
+                }
+            }
+        }
+    }
+
 }
@@ -1396,6 +1396,13 @@ public final class HttpServerExchange extends AbstractAttachable {
         return this;
     }
 
+    /**
+     * @return <code>true</code> if any response wrappers have been added to this exchange
+     */
+    public boolean isResponseWrapped() {
+        return responseWrapperCount > 0;
+    }
+
     /**
      * Calling this method puts the exchange in blocking mode, and creates a
      * {@link BlockingHttpExchange} object to store the streams.
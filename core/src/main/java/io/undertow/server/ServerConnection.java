@@ -162,6 +162,17 @@ public abstract class ServerConnection extends AbstractAttachable implements Con
      */
     public abstract void setSslSessionInfo(SSLSessionInfo sessionInfo);
 
+    /**
+     * Returns true if file data can be transferred directly to the underlying socket using
+     * {@link java.nio.channels.FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)},
+     * without being encrypted or framed by the connection.
+     *
+     * @return <code>true</code> if zero copy file transfer is supported by this connection
+     */
+    public boolean isZeroCopyTransferSupported() {
+        return false;
+    }
+
     /**
      * Adds a close listener, than will be invoked with the connection is closed
      *
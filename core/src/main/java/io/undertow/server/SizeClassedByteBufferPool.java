@@ -0,0 +1,349 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server;
+
+import io.undertow.UndertowMessages;
+import io.undertow.connector.PooledByteBuffer;
+import io.undertow.connector.VariableSizeByteBufferPool;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * A byte buffer pool that hands out buffers from a number of different size classes.
+ * <p>
+ * Buffers are carved out of large arenas, so a single (direct) allocation provides buffers for many
+ * connections. Each size class has its own global queue, and each thread has a small per class cache
+ * (magazine) of buffers, so the common allocate/free on the same IO thread does not touch any shared state.
+ * <p>
+ * {@link #allocate()} returns a buffer from the default size class, which is what {@link #getBufferSize()}
+ * reports, so this pool can be used anywhere a single size pool is expected. Code that knows how much
+ * data it is going to write can use {@link #allocate(int)} to get an appropriately sized buffer, which means
+ * small control frames do not tie up a large buffer, and large writes need fewer buffers.
+ * <p>
+ * Note that as buffers are slices of a larger arena the arena memory is only reclaimed once every buffer
+ * that was carved from it has been discarded.
+ *
+ * @author agent
+ */
+public class SizeClassedByteBufferPool implements VariableSizeByteBufferPool {
+
+    public static final int[] DEFAULT_SIZE_CLASSES = {512, 1024 * 4, 1024 * 16, 1024 * 64};
+
+    public static final int DEFAULT_ARENA_SIZE = 1024 * 1024;
+
+    private final ThreadLocal<Magazine[]> threadLocalCache = new ThreadLocal<>();
+
+    private final SizeClass[] sizeClasses;
+    private final SizeClass defaultSizeClass;
+    private final boolean direct;
+    private final int arenaSize;
+    private final int maximumPoolSize;
+    private final int threadLocalCacheSize;
+    private final int leakDetectionPercent;
+    private int count; //racily updated count used in leak detection
+
+    private volatile boolean closed;
+
+    /**
+     * Creates a pool using the {@link #DEFAULT_SIZE_CLASSES}.
+     *
+     * @param direct            If this implementation should use direct buffers
+     * @param defaultBufferSize The buffer size returned by {@link #allocate()}, must be one of the default size classes
+     */
+    public SizeClassedByteBufferPool(boolean direct, int defaultBufferSize) {
+        this(direct, DEFAULT_SIZE_CLASSES, defaultBufferSize, DEFAULT_ARENA_SIZE, -1, 12);
+    }
+
+    /**
+     * @param direct               If this implementation should use direct buffers
+     * @param sizeClasses          The buffer sizes this pool provides
+     * @param defaultBufferSize    The buffer size returned by {@link #allocate()}, must be one of the size classes
+     * @param arenaSize            The size of the arenas that buffers are carved out of
+     * @param maximumPoolSize      The maximum number of buffers held per size class, it does not include buffers in thread local caches
+     * @param threadLocalCacheSize The maximum number of default sized buffers that can be stored in a thread local cache
+     */
+    public SizeClassedByteBufferPool(boolean direct, int[] sizeClasses, int defaultBufferSize, int arenaSize, int maximumPoolSize, int threadLocalCacheSize) {
+        this(direct, sizeClasses, defaultBufferSize, arenaSize, maximumPoolSize, threadLocalCacheSize, 0);
+    }
+
+    /**
+     * @param direct               If this implementation should use direct buffers
+     * @param sizeClasses          The buffer sizes this pool provides
+     * @param defaultBufferSize    The buffer size returned by {@link #allocate()}, must be one of the size classes
+     * @param arenaSize            The size of the arenas that buffers are carved out of
+     * @param maximumPoolSize      The maximum number of buffers held per size class, it does not include buffers in thread local caches
+     * @param threadLocalCacheSize The maximum number of default sized buffers that can be stored in a thread local cache
+     * @param leakDetectionPercent The percentage of allocations that are tracked for leaks, 0 disables leak detection
+     */
+    public SizeClassedByteBufferPool(boolean direct, int[] sizeClasses, int defaultBufferSize, int arenaSize, int maximumPoolSize, int threadLocalCacheSize, int leakDetectionPercent) {
+        if (sizeClasses.length == 0) {
+            throw new IllegalArgumentException("At least one size class must be specified");
+        }
+        int[] sorted = Arrays.copyOf(sizeClasses, sizeClasses.length);
+        Arrays.sort(sorted);
+        this.direct = direct;
+        this.arenaSize = arenaSize;
+        this.maximumPoolSize = maximumPoolSize;
+        this.threadLocalCacheSize = threadLocalCacheSize;
+        this.leakDetectionPercent = leakDetectionPercent;
+        this.sizeClasses = new SizeClass[sorted.length];
+        SizeClass defaultClass = null;
+        for (int i = 0; i < sorted.length; ++i) {
+            int cacheSize = threadLocalCacheSize;
+            if (sorted[i] > defaultBufferSize) {
+                //keep roughly the same amount of memory in the cache for the large classes
+                cacheSize = Math.max(1, (int) ((long) threadLocalCacheSize * defaultBufferSize / sorted[i]));
+            }
+            this.sizeClasses[i] = new SizeClass(i, sorted[i], cacheSize);
+            if (sorted[i] == defaultBufferSize) {
+                defaultClass = this.sizeClasses[i];
+            }
+        }
+        if (defaultClass == null) {
+            throw new IllegalArgumentException("Default buffer size " + defaultBufferSize + " is not one of the size classes " + Arrays.toString(sorted));
+        }
+        this.defaultSizeClass = defaultClass;
+    }
+
+    @Override
+    public int getBufferSize() {
+        return defaultSizeClass.bufferSize;
+    }
+
+    /**
+     * @return The buffer sizes this pool provides, in ascending order
+     */
+    public int[] getSizeClasses() {
+        int[] ret = new int[sizeClasses.length];
+        for (int i = 0; i < ret.length; ++i) {
+            ret[i] = sizeClasses[i].bufferSize;
+        }
+        return ret;
+    }
+
+    @Override
+    public PooledByteBuffer allocate() {
+        return allocate(defaultSizeClass);
+    }
+
+    @Override
+    public PooledByteBuffer allocate(int minSize) {
+        for (SizeClass sizeClass : sizeClasses) {
+            if (sizeClass.bufferSize >= minSize) {
+                return allocate(sizeClass);
+            }
+        }
+        return allocate(sizeClasses[sizeClasses.length - 1]);
+    }
+
+    private PooledByteBuffer allocate(SizeClass sizeClass) {
+        if (closed) {
+            throw UndertowMessages.MESSAGES.poolIsClosed();
+        }
+        ByteBuffer buffer = null;
+        Magazine magazine = null;
+        if (threadLocalCacheSize > 0) {
+            Magazine[] magazines = threadLocalCache.get();
+            if (magazines == null) {
+                magazines = new Magazine[sizeClasses.length];
+                for (int i = 0; i < magazines.length; ++i) {
+                    magazines[i] = new Magazine(sizeClasses[i].threadLocalCacheSize);
+                }
+                threadLocalCache.set(magazines);
+            }
+            magazine = magazines[sizeClass.index];
+            buffer = magazine.buffers.poll();
+        }
+        if (buffer == null) {
+            buffer = sizeClass.poll();
+        }
+        if (buffer == null) {
+            buffer = sizeClass.carve();
+        }
+        if (magazine != null) {
+            magazine.allocationDepth++;
+        }
+        buffer.clear();
+        return new SizeClassedPooledBuffer(this, sizeClass, buffer, leakDetectionPercent == 0 ? false : (++count % 100 < leakDetectionPercent));
+    }
+
+    private void freeInternal(SizeClass sizeClass, ByteBuffer buffer) {
+        if (closed) {
+            return; //GC will take care of it
+        }
+        Magazine[] magazines = threadLocalCache.get();
+        if (magazines != null) {
+            Magazine magazine = magazines[sizeClass.index];
+            if (magazine.allocationDepth > 0) {
+                magazine.allocationDepth--;
+                if (magazine.buffers.size() < sizeClass.threadLocalCacheSize) {
+                    magazine.buffers.add(buffer);
+                    return;
+                }
+            }
+        }
+        sizeClass.offer(buffer);
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (SizeClass sizeClass : sizeClasses) {
+            sizeClass.queue.clear();
+        }
+    }
+
+    private final class SizeClass {
+
+        final int index;
+        final int bufferSize;
+        final int threadLocalCacheSize;
+        final ConcurrentLinkedQueue<ByteBuffer> queue = new ConcurrentLinkedQueue<>();
+
+        volatile int currentQueueLength = 0;
+
+        SizeClass(int index, int bufferSize, int threadLocalCacheSize) {
+            this.index = index;
+            this.bufferSize = bufferSize;
+            this.threadLocalCacheSize = threadLocalCacheSize;
+        }
+
+        ByteBuffer poll() {
+            ByteBuffer buffer = queue.poll();
+            if (buffer != null) {
+                currentQueueLengthUpdater.decrementAndGet(this);
+            }
+            return buffer;
+        }
+
+        void offer(ByteBuffer buffer) {
+            int size;
+            do {
+                size = currentQueueLength;
+                if (maximumPoolSize >= 0 && size >= maximumPoolSize) {
+                    return;
+                }
+            } while (!currentQueueLengthUpdater.compareAndSet(this, size, size + 1));
+            queue.add(buffer);
+        }
+
+        /**
+         * Allocates a new arena and slices it up into buffers. One buffer is returned to the caller and the
+         * rest are added to the shared queue. The arena is never larger than the space left in the queue, so
+         * slices are not allocated just to be discarded by {@link #offer(ByteBuffer)}.
+         */
+        ByteBuffer carve() {
+            int count = Math.max(1, arenaSize / bufferSize);
+            if (maximumPoolSize >= 0) {
+                count = Math.max(1, Math.min(count, maximumPoolSize - currentQueueLength + 1));
+            }
+            ByteBuffer arena = direct ? ByteBuffer.allocateDirect(count * bufferSize) : ByteBuffer.allocate(count * bufferSize);
+            ByteBuffer ret = null;
+            for (int i = 0; i < count; ++i) {
+                arena.limit((i + 1) * bufferSize);
+                arena.position(i * bufferSize);
+                ByteBuffer slice = arena.slice();
+                if (ret == null) {
+                    ret = slice;
+                } else {
+                    offer(slice);
+                }
+            }
+            return ret;
+        }
+    }
+
+    private static final AtomicIntegerFieldUpdater<SizeClass> currentQueueLengthUpdater = AtomicIntegerFieldUpdater.newUpdater(SizeClass.class, "currentQueueLength");
+
+    private static final class Magazine {
+        final ArrayDeque<ByteBuffer> buffers;
+        int allocationDepth = 0;
+
+        Magazine(int size) {
+            buffers = new ArrayDeque<>(size);
+        }
+    }
+
+    private static class SizeClassedPooledBuffer implements PooledByteBuffer {
+
+        private final SizeClassedByteBufferPool pool;
+        private final SizeClass sizeClass;
+        private final LeakDetector leakDetector;
+        private ByteBuffer buffer;
+
+        private volatile int referenceCount = 1;
+        private static final AtomicIntegerFieldUpdater<SizeClassedPooledBuffer> referenceCountUpdater = AtomicIntegerFieldUpdater.newUpdater(SizeClassedPooledBuffer.class, "referenceCount");
+
+        SizeClassedPooledBuffer(SizeClassedByteBufferPool pool, SizeClass sizeClass, ByteBuffer buffer, boolean detectLeaks) {
+            this.pool = pool;
+            this.sizeClass = sizeClass;
+            this.buffer = buffer;
+            this.leakDetector = detectLeaks ? new LeakDetector() : null;
+        }
+
+        @Override
+        public ByteBuffer getBuffer() {
+            if (referenceCount == 0) {
+                throw UndertowMessages.MESSAGES.bufferAlreadyFreed();
+            }
+            return buffer;
+        }
+
+        @Override
+        public void close() {
+            if (referenceCountUpdater.compareAndSet(this, 1, 0)) {
+                if (leakDetector != null) {
+                    leakDetector.closed = true;
+                }
+                pool.freeInternal(sizeClass, buffer);
+                this.buffer = null;
+            }
+        }
+
+        @Override
+        public boolean isOpen() {
+            return referenceCount > 0;
+        }
+    }
+
+    private static class LeakDetector {
+
+        volatile boolean closed = false;
+        private final Throwable allocationPoint;
+
+        private LeakDetector() {
+            this.allocationPoint = new Throwable("Buffer leak detected");
+        }
+
+        @Override
+        protected void finalize() throws Throwable {
+            super.finalize();
+            if (!closed) {
+                allocationPoint.printStackTrace();
+            }
+        }
+    }
+}
@@ -22,13 +22,26 @@ import io.undertow.server.ExchangeCompletionListener;
 import io.undertow.server.HandlerWrapper;
 import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
+import io.undertow.util.LatencyHistogram;
+import io.undertow.util.PathTemplateMatch;
 
+import java.util.Collections;
 import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
 /**
  * Handler that records some metrics
+ * <p>
+ * As well as the simple totals in {@link MetricResult} request latencies are recorded in
+ * {@link LatencyHistogram}s, for all requests, for each status class (2xx, 4xx etc) and for each
+ * route that was matched by a {@link io.undertow.server.RoutingHandler} or {@link PathTemplateHandler}.
+ * By default the histograms retain between 5 and 6 minutes of data, so snapshots can be taken over
+ * the last minute or the last five minutes.
  *
  * @author Stuart Douglas
  */
@@ -41,35 +54,125 @@ public class MetricsHandler implements HttpHandler {
         }
     };
 
+    /**
+     * The maximum number of distinct routes that are tracked, to prevent unbounded growth
+     */
+    private static final int MAX_ROUTES = 1000;
+
     private volatile MetricResult totalResult = new MetricResult(new Date());
     private final HttpHandler next;
+    private final long slotLength;
+    private final TimeUnit slotUnit;
+    private final int slots;
+    private final LatencyHistogram histogram;
+    private final LatencyHistogram[] statusClassHistograms = new LatencyHistogram[5];
+    private final ConcurrentMap<String, LatencyHistogram> routeHistograms = new ConcurrentHashMap<>();
 
     public MetricsHandler(HttpHandler next) {
+        this(next, 1, TimeUnit.MINUTES, 5);
+    }
+
+    /**
+     *
+     * @param next       The next handler
+     * @param slotLength The length of a histogram time slot
+     * @param slotUnit   The unit of the slot length
+     * @param slots      The number of slots that are retained
+     */
+    public MetricsHandler(HttpHandler next, long slotLength, TimeUnit slotUnit, int slots) {
         this.next = next;
+        this.slotLength = slotLength;
+        this.slotUnit = slotUnit;
+        this.slots = slots;
+        this.histogram = createHistogram();
+        for (int i = 0; i < statusClassHistograms.length; ++i) {
+            statusClassHistograms[i] = createHistogram();
+        }
     }
 
     @Override
     public void handleRequest(HttpServerExchange exchange) throws Exception {
-        final long start = System.currentTimeMillis();
+        final long start = System.nanoTime();
         exchange.addExchangeCompleteListener(new ExchangeCompletionListener() {
             @Override
             public void exchangeEvent(HttpServerExchange exchange, NextListener nextListener) {
-                long time = System.currentTimeMillis() - start;
-                totalResult.update((int)time);
+                long time = System.nanoTime() - start;
+                totalResult.update((int) TimeUnit.NANOSECONDS.toMillis(time));
+                histogram.record(time);
+                int statusClass = exchange.getStatusCode() / 100;
+                if (statusClass >= 1 && statusClass <= 5) {
+                    statusClassHistograms[statusClass - 1].record(time);
+                }
+                PathTemplateMatch match = exchange.getAttachment(PathTemplateMatch.ATTACHMENT_KEY);
+                if (match != null) {
+                    LatencyHistogram route = getOrCreateRouteHistogram(match.getMatchedTemplate());
+                    if (route != null) {
+                        route.record(time);
+                    }
+                }
                 nextListener.proceed();
             }
         });
         next.handleRequest(exchange);
     }
 
+    private LatencyHistogram getOrCreateRouteHistogram(String template) {
+        LatencyHistogram route = routeHistograms.get(template);
+        if (route == null) {
+            if (routeHistograms.size() >= MAX_ROUTES) {
+                return null;
+            }
+            route = createHistogram();
+            LatencyHistogram existing = routeHistograms.putIfAbsent(template, route);
+            if (existing != null) {
+                route = existing;
+            }
+        }
+        return route;
+    }
+
+    private LatencyHistogram createHistogram() {
+        return new LatencyHistogram(slotLength, slotUnit, slots);
+    }
+
     public void reset() {
         this.totalResult = new MetricResult(new Date());
+        histogram.reset();
+        for (LatencyHistogram h : statusClassHistograms) {
+            h.reset();
+        }
+        routeHistograms.clear();
     }
 
     public MetricResult getMetrics() {
         return new MetricResult(this.totalResult);
     }
 
+    /**
+     * @return The latency histogram for all requests
+     */
+    public LatencyHistogram getHistogram() {
+        return histogram;
+    }
+
+    /**
+     * @param statusClass The status class, from 1 (1xx) to 5 (5xx)
+     * @return The latency histogram for responses with the given status class
+     */
+    public LatencyHistogram getStatusClassHistogram(int statusClass) {
+        if (statusClass < 1 || statusClass > 5) {
+            throw new IllegalArgumentException("Invalid status class " + statusClass);
+        }
+        return statusClassHistograms[statusClass - 1];
+    }
+
+    /**
+     * @return The latency histograms for each route, keyed by the matched path template
+     */
+    public Map<String, LatencyHistogram> getRouteHistograms() {
+        return Collections.unmodifiableMap(routeHistograms);
+    }
+
     public static class MetricResult {
 
         private static final AtomicLongFieldUpdater<MetricResult> totalRequestTimeUpdater = AtomicLongFieldUpdater.newUpdater(MetricResult.class, "totalRequestTime");
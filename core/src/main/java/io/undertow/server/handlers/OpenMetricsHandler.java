@@ -0,0 +1,658 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers;
+
+import io.undertow.UndertowMessages;
+import io.undertow.client.ClientStatistics;
+import io.undertow.connector.ByteBufferPool;
+import io.undertow.connector.PooledByteBuffer;
+import io.undertow.io.IoCallback;
+import io.undertow.io.Sender;
+import io.undertow.server.ByteBufferPoolStatistics;
+import io.undertow.server.ConnectorStatistics;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.proxy.LoadBalancingProxyClient;
+import io.undertow.server.handlers.proxy.ProxyConnectionPool;
+import io.undertow.server.session.SessionManagerStatistics;
+import io.undertow.util.Headers;
+import io.undertow.util.LatencyHistogram;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Handler that exposes server statistics in the OpenMetrics text format, so they can be scraped by Prometheus
+ * and compatible systems.
+ * <p>
+ * Statistics sources are registered under a name, which is used as the value of a label that identifies the source.
+ * The response is rendered directly into buffers from the connection's buffer pool, without creating intermediate
+ * Strings, and is written asynchronously so a scrape never blocks the IO thread.
+ * <p>
+ * The latency histograms recorded by {@link MetricsHandler} only retain recent values, so they are exposed as
+ * gauge histograms rather than as cumulative histograms.
+ *
+ * @author agent
+ */
+public class OpenMetricsHandler implements HttpHandler {
+
+    public static final String CONTENT_TYPE = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+
+    /**
+     * The histogram bucket bounds, in nanoseconds
+     */
+    private static final long[] BUCKET_BOUNDS = {
+            TimeUnit.MICROSECONDS.toNanos(500),
+            TimeUnit.MILLISECONDS.toNanos(1),
+            TimeUnit.MICROSECONDS.toNanos(2500),
+            TimeUnit.MILLISECONDS.toNanos(5),
+            TimeUnit.MILLISECONDS.toNanos(10),
+            TimeUnit.MILLISECONDS.toNanos(25),
+            TimeUnit.MILLISECONDS.toNanos(50),
+            TimeUnit.MILLISECONDS.toNanos(100),
+            TimeUnit.MILLISECONDS.toNanos(250),
+            TimeUnit.MILLISECONDS.toNanos(500),
+            TimeUnit.SECONDS.toNanos(1),
+            TimeUnit.MILLISECONDS.toNanos(2500),
+            TimeUnit.SECONDS.toNanos(5),
+            TimeUnit.SECONDS.toNanos(10)};
+
+    private static final int NANOS_SCALE = 9;
+    private static final int MILLIS_SCALE = 3;
+
+    private static final Metric CONNECTOR_REQUESTS = new Metric("undertow_connector_requests", "counter", "Requests processed by the connector");
+    private static final Metric CONNECTOR_ERRORS = new Metric("undertow_connector_errors", "counter", "Requests that resulted in a server error");
+    private static final Metric CONNECTOR_SENT = new Metric("undertow_connector_sent_bytes", "counter", "Bytes sent by the connector");
+    private static final Metric CONNECTOR_RECEIVED = new Metric("undertow_connector_received_bytes", "counter", "Bytes received by the connector");
+    private static final Metric CONNECTOR_PROCESSING = new Metric("undertow_connector_processing_seconds", "counter", "Total time spent processing requests");
+    private static final Metric CONNECTOR_MAX_PROCESSING = new Metric("undertow_connector_max_processing_seconds", "gauge", "Longest time spent processing a single request");
+
+    private static final Metric SESSIONS_CREATED = new Metric("undertow_sessions_created", "counter", "Sessions created");
+    private static final Metric SESSIONS_EXPIRED = new Metric("undertow_sessions_expired", "counter", "Sessions that have expired");
+    private static final Metric SESSIONS_REJECTED = new Metric("undertow_sessions_rejected", "counter", "Sessions rejected because the maximum number of active sessions was reached");
+    private static final Metric SESSIONS_ACTIVE = new Metric("undertow_sessions_active", "gauge", "Sessions that are currently active");
+    private static final Metric SESSIONS_MAX_ACTIVE = new Metric("undertow_sessions_max_active", "gauge", "Highest number of concurrently active sessions");
+    private static final Metric SESSIONS_MAX_ALIVE = new Metric("undertow_sessions_max_alive_seconds", "gauge", "Longest time a session has been alive");
+    private static final Metric SESSIONS_AVERAGE_ALIVE = new Metric("undertow_sessions_average_alive_seconds", "gauge", "Average session lifetime");
+    private static final Metric SESSIONS_PASSIVATED = new Metric("undertow_sessions_passivated", "gauge", "Sessions whose attributes are currently passivated off heap");
+    private static final Metric SESSIONS_ACTIVATIONS = new Metric("undertow_sessions_activations", "counter", "Passivated sessions that have been activated");
+
+    private static final Metric PROXY_REQUESTS = new Metric("undertow_proxy_requests", "counter", "Requests sent on backend connections that have been closed");
+    private static final Metric PROXY_READ = new Metric("undertow_proxy_read_bytes", "counter", "Bytes read from backend connections that have been closed");
+    private static final Metric PROXY_WRITTEN = new Metric("undertow_proxy_written_bytes", "counter", "Bytes written to backend connections that have been closed");
+    private static final Metric PROXY_OPEN_CONNECTIONS = new Metric("undertow_proxy_open_connections", "gauge", "Open backend connections");
+
+    private static final Metric BUFFER_ALLOCATIONS = new Metric("undertow_buffer_pool_allocations", "counter", "Buffers allocated from the pool");
+    private static final Metric BUFFER_THREAD_LOCAL_HITS = new Metric("undertow_buffer_pool_thread_local_hits", "counter", "Allocations satisfied from a thread local cache");
+    private static final Metric BUFFER_RETURNED_HITS = new Metric("undertow_buffer_pool_returned_hits", "counter", "Allocations satisfied by buffers returned from another thread");
+    private static final Metric BUFFER_QUEUE_HITS = new Metric("undertow_buffer_pool_queue_hits", "counter", "Allocations satisfied from the shared pool");
+    private static final Metric BUFFER_MISSES = new Metric("undertow_buffer_pool_misses", "counter", "Allocations that required a new buffer");
+    private static final Metric BUFFER_LEAKS = new Metric("undertow_buffer_pool_leaks", "counter", "Buffers that were garbage collected without being freed");
+    private static final Metric BUFFER_DIRECT_BYTES = new Metric("undertow_buffer_pool_direct_bytes", "gauge", "Direct memory allocated by the pool");
+    private static final Metric BUFFER_QUEUE_SIZE = new Metric("undertow_buffer_pool_queue_size", "gauge", "Buffers in the shared pool");
+
+    private static final Metric HANDLER_REQUESTS = new Metric("undertow_handler_requests", "counter", "Requests processed by the handler");
+    private static final Metric HANDLER_REQUEST_TIME = new Metric("undertow_handler_request_seconds", "counter", "Total time spent processing requests");
+    private static final Metric REQUEST_DURATION = new Metric("undertow_request_duration_seconds", "gaugehistogram", "Recent request latencies");
+    private static final Metric STATUS_DURATION = new Metric("undertow_status_class_duration_seconds", "gaugehistogram", "Recent request latencies by response status class");
+    private static final Metric ROUTE_DURATION = new Metric("undertow_route_duration_seconds", "gaugehistogram", "Recent request latencies by route");
+
+    private static final byte[][] BUCKET_LABELS;
+    private static final byte[][] STATUS_CLASS_LABELS;
+    private static final byte[] INF_LABEL = ascii("le=\"+Inf\"");
+    private static final byte[] ROUTE_LABEL = ascii("route=\"");
+    private static final byte[] EOF = ascii("# EOF\n");
+
+    private static final long[] POWERS_OF_TEN = {1, 10, 100, 1000, 10000, 100000, 1000000, 10000000, 100000000, 1000000000};
+
+    static {
+        BUCKET_LABELS = new byte[BUCKET_BOUNDS.length][];
+        for (int i = 0; i < BUCKET_BOUNDS.length; ++i) {
+            BUCKET_LABELS[i] = ascii("le=\"" + BigDecimal.valueOf(BUCKET_BOUNDS[i], NANOS_SCALE).stripTrailingZeros().toPlainString() + "\"");
+        }
+        STATUS_CLASS_LABELS = new byte[5][];
+        for (int i = 0; i < 5; ++i) {
+            STATUS_CLASS_LABELS[i] = ascii("status_class=\"" + (i + 1) + "xx\"");
+        }
+    }
+
+    private final List<Source<ConnectorStatistics>> connectors = new CopyOnWriteArrayList<>();
+    private final List<Source<SessionManagerStatistics>> sessionManagers = new CopyOnWriteArrayList<>();
+    private final List<Source<ProxyConnectionPool>> connectionPools = new CopyOnWriteArrayList<>();
+    private final List<Source<LoadBalancingProxyClient>> proxyClients = new CopyOnWriteArrayList<>();
+    private final List<Source<ByteBufferPoolStatistics>> bufferPools = new CopyOnWriteArrayList<>();
+    private final List<Source<MetricsHandler>> metricsHandlers = new CopyOnWriteArrayList<>();
+
+    public OpenMetricsHandler addConnectorStatistics(String name, ConnectorStatistics statistics) {
+        connectors.add(new Source<>("connector", name, statistics));
+        return this;
+    }
+
+    public OpenMetricsHandler addSessionManagerStatistics(String name, SessionManagerStatistics statistics) {
+        sessionManagers.add(new Source<>("session_manager", name, statistics));
+        return this;
+    }
+
+    /**
+     * Adds a single proxy connection pool. The pool is labeled with both the given name and the backend URI.
+     */
+    public OpenMetricsHandler addProxyConnectionPool(String name, ProxyConnectionPool pool) {
+        connectionPools.add(new Source<>("proxy", name, pool));
+        return this;
+    }
+
+    /**
+     * Adds all the connection pools of a load balancing proxy client. Hosts that are added to or removed from the
+     * client after it has been registered are picked up automatically.
+     */
+    public OpenMetricsHandler addProxyClient(String name, LoadBalancingProxyClient client) {
+        proxyClients.add(new Source<>("proxy", name, client));
+        return this;
+    }
+
+    public OpenMetricsHandler addByteBufferPoolStatistics(String name, ByteBufferPoolStatistics statistics) {
+        bufferPools.add(new Source<>("buffer_pool", name, statistics));
+        return this;
+    }
+
+    public OpenMetricsHandler addMetricsHandler(String name, MetricsHandler handler) {
+        metricsHandlers.add(new Source<>("handler", name, handler));
+        return this;
+    }
+
+    @Override
+    public void handleRequest(HttpServerExchange exchange) throws Exception {
+        MetricsWriter writer = new MetricsWriter(exchange.getConnection().getByteBufferPool());
+        ByteBuffer[] data;
+        try {
+            writeMetrics(writer);
+            writer.put(EOF);
+            data = writer.finish();
+        } catch (RuntimeException | Error e) {
+            writer.free();
+            throw e;
+        }
+        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, CONTENT_TYPE);
+        exchange.setResponseContentLength(writer.length);
+        exchange.getResponseSender().send(data, writer);
+    }
+
+    private void writeMetrics(MetricsWriter writer) {
+        if (!connectors.isEmpty()) {
+            CONNECTOR_REQUESTS.writeHeader(writer);
+            for (Source<ConnectorStatistics> source : connectors) {
+                CONNECTOR_REQUESTS.writeSample(writer, source.label, source.value.getRequestCount());
+            }
+            CONNECTOR_ERRORS.writeHeader(writer);
+            for (Source<ConnectorStatistics> source : connectors) {
+                CONNECTOR_ERRORS.writeSample(writer, source.label, source.value.getErrorCount());
+            }
+            CONNECTOR_SENT.writeHeader(writer);
+            for (Source<ConnectorStatistics> source : connectors) {
+                CONNECTOR_SENT.writeSample(writer, source.label, source.value.getBytesSent());
+            }
+            CONNECTOR_RECEIVED.writeHeader(writer);
+            for (Source<ConnectorStatistics> source : connectors) {
+                CONNECTOR_RECEIVED.writeSample(writer, source.label, source.value.getBytesReceived());
+            }
+            CONNECTOR_PROCESSING.writeHeader(writer);
+            for (Source<ConnectorStatistics> source : connectors) {
+                CONNECTOR_PROCESSING.writeSample(writer, source.label, source.value.getProcessingTime(), MILLIS_SCALE);
+            }
+            CONNECTOR_MAX_PROCESSING.writeHeader(writer);
+            for (Source<ConnectorStatistics> source : connectors) {
+                CONNECTOR_MAX_PROCESSING.writeSample(writer, source.label, source.value.getMaxProcessingTime(), MILLIS_SCALE);
+            }
+        }
+
+        if (!sessionManagers.isEmpty()) {
+            SESSIONS_CREATED.writeHeader(writer);
+            for (Source<SessionManagerStatistics> source : sessionManagers) {
+                SESSIONS_CREATED.writeSample(writer, source.label, source.value.getCreatedSessionCount());
+            }
+            SESSIONS_EXPIRED.writeHeader(writer);
+            for (Source<SessionManagerStatistics> source : sessionManagers) {
+                SESSIONS_EXPIRED.writeSample(writer, source.label, source.value.getExpiredSessionCount());
+            }
+            SESSIONS_REJECTED.writeHeader(writer);
+            for (Source<SessionManagerStatistics> source : sessionManagers) {
+                SESSIONS_REJECTED.writeSample(writer, source.label, source.value.getRejectedSessions());
+            }
+            SESSIONS_ACTIVE.writeHeader(writer);
+            for (Source<SessionManagerStatistics> source : sessionManagers) {
+                SESSIONS_ACTIVE.writeSample(writer, source.label, source.value.getActiveSessionCount());
+            }
+            SESSIONS_MAX_ACTIVE.writeHeader(writer);
+            for (Source<SessionManagerStatistics> source : sessionManagers) {
+                SESSIONS_MAX_ACTIVE.writeSample(writer, source.label, source.value.getMaxActiveSessions());
+            }
+            SESSIONS_MAX_ALIVE.writeHeader(writer);
+            for (Source<SessionManagerStatistics> source : sessionManagers) {
+                SESSIONS_MAX_ALIVE.writeSample(writer, source.label, source.value.getMaxSessionAliveTime(), MILLIS_SCALE);
+            }
+            SESSIONS_AVERAGE_ALIVE.writeHeader(writer);
+            for (Source<SessionManagerStatistics> source : sessionManagers) {
+                SESSIONS_AVERAGE_ALIVE.writeSample(writer, source.label, source.value.getAverageSessionAliveTime(), MILLIS_SCALE);
+            }
+            SESSIONS_PASSIVATED.writeHeader(writer);
+            for (Source<SessionManagerStatistics> source : sessionManagers) {
+                SESSIONS_PASSIVATED.writeSample(writer, source.label, source.value.getPassivatedSessionCount());
+            }
+            SESSIONS_ACTIVATIONS.writeHeader(writer);
+            for (Source<SessionManagerStatistics> source : sessionManagers) {
+                SESSIONS_ACTIVATIONS.writeSample(writer, source.label, source.value.getSessionActivationCount());
+            }
+        }
+
+        if (!connectionPools.isEmpty() || !proxyClients.isEmpty()) {
+            PROXY_REQUESTS.writeHeader(writer);
+            writeProxyMetric(writer, PROXY_REQUESTS);
+            PROXY_READ.writeHeader(writer);
+            writeProxyMetric(writer, PROXY_READ);
+            PROXY_WRITTEN.writeHeader(writer);
+            writeProxyMetric(writer, PROXY_WRITTEN);
+            PROXY_OPEN_CONNECTIONS.writeHeader(writer);
+            writeProxyMetric(writer, PROXY_OPEN_CONNECTIONS);
+        }
+
+        if (!bufferPools.isEmpty()) {
+            BUFFER_ALLOCATIONS.writeHeader(writer);
+            for (Source<ByteBufferPoolStatistics> source : bufferPools) {
+                BUFFER_ALLOCATIONS.writeSample(writer, source.label, source.value.getAllocations());
+            }
+            BUFFER_THREAD_LOCAL_HITS.writeHeader(writer);
+            for (Source<ByteBufferPoolStatistics> source : bufferPools) {
+                BUFFER_THREAD_LOCAL_HITS.writeSample(writer, source.label, source.value.getThreadLocalHits());
+            }
+            BUFFER_RETURNED_HITS.writeHeader(writer);
+            for (Source<ByteBufferPoolStatistics> source : bufferPools) {
+                BUFFER_RETURNED_HITS.writeSample(writer, source.label, source.value.getReturnedHits());
+            }
+            BUFFER_QUEUE_HITS.writeHeader(writer);
+            for (Source<ByteBufferPoolStatistics> source : bufferPools) {
+                BUFFER_QUEUE_HITS.writeSample(writer, source.label, source.value.getQueueHits());
+            }
+            BUFFER_MISSES.writeHeader(writer);
+            for (Source<ByteBufferPoolStatistics> source : bufferPools) {
+                BUFFER_MISSES.writeSample(writer, source.label, source.value.getMisses());
+            }
+            BUFFER_LEAKS.writeHeader(writer);
+            for (Source<ByteBufferPoolStatistics> source : bufferPools) {
+                BUFFER_LEAKS.writeSample(writer, source.label, source.value.getLeakDetections());
+            }
+            BUFFER_DIRECT_BYTES.writeHeader(writer);
+            for (Source<ByteBufferPoolStatistics> source : bufferPools) {
+                BUFFER_DIRECT_BYTES.writeSample(writer, source.label, source.value.getDirectBytesOutstanding());
+            }
+            BUFFER_QUEUE_SIZE.writeHeader(writer);
+            for (Source<ByteBufferPoolStatistics> source : bufferPools) {
+                BUFFER_QUEUE_SIZE.writeSample(writer, source.label, source.value.getQueueSize());
+            }
+        }
+
+        if (!metricsHandlers.isEmpty()) {
+            HANDLER_REQUESTS.writeHeader(writer);
+            for (Source<MetricsHandler> source : metricsHandlers) {
+                HANDLER_REQUESTS.writeSample(writer, source.label, source.value.getMetrics().getTotalRequests());
+            }
+            HANDLER_REQUEST_TIME.writeHeader(writer);
+            for (Source<MetricsHandler> source : metricsHandlers) {
+                HANDLER_REQUEST_TIME.writeSample(writer, source.label, source.value.getMetrics().getTotalRequestTime(), MILLIS_SCALE);
+            }
+            REQUEST_DURATION.writeHeader(writer);
+            for (Source<MetricsHandler> source : metricsHandlers) {
+                writeHistogram(writer, REQUEST_DURATION, source.label, null, null, source.value.getHistogram().snapshot());
+            }
+            STATUS_DURATION.writeHeader(writer);
+            for (Source<MetricsHandler> source : metricsHandlers) {
+                for (int i = 1; i <= 5; ++i) {
+                    writeHistogram(writer, STATUS_DURATION, source.label, STATUS_CLASS_LABELS[i - 1], null, source.value.getStatusClassHistogram(i).snapshot());
+                }
+            }
+            ROUTE_DURATION.writeHeader(writer);
+            for (Source<MetricsHandler> source : metricsHandlers) {
+                for (Map.Entry<String, LatencyHistogram> route : source.value.getRouteHistograms().entrySet()) {
+                    writeHistogram(writer, ROUTE_DURATION, source.label, null, route.getKey(), route.getValue().snapshot());
+                }
+            }
+        }
+    }
+
+    private void writeProxyMetric(MetricsWriter writer, Metric metric) {
+        for (Source<ProxyConnectionPool> source : connectionPools) {
+            writeProxySample(writer, metric, source.label, source.value);
+        }
+        for (Source<LoadBalancingProxyClient> source : proxyClients) {
+            for (LoadBalancingProxyClient.Host host : source.value.getHosts()) {
+                writeProxySample(writer, metric, source.label, host.getConnectionPool());
+            }
+        }
+    }
+
+    private void writeProxySample(MetricsWriter writer, Metric metric, byte[] label, ProxyConnectionPool pool) {
+        long value;
+        if (metric == PROXY_OPEN_CONNECTIONS) {
+            value = pool.getOpenConnections();
+        } else {
+            ClientStatistics statistics = pool.getClientStatistics();
+            if (metric == PROXY_REQUESTS) {
+                value = statistics.getRequests();
+            } else if (metric == PROXY_READ) {
+                value = statistics.getRead();
+            } else {
+                value = statistics.getWritten();
+            }
+        }
+        writer.put(metric.sample);
+        writer.put(label);
+        writer.put(Metric.HOST_LABEL);
+        writer.putLabelValue(pool.getUri().toString());
+        writer.put((byte) '"');
+        writer.put(Metric.SAMPLE_END);
+        writer.putLong(value);
+        writer.put((byte) '\n');
+    }
+
+    private static void writeHistogram(MetricsWriter writer, Metric metric, byte[] label, byte[] extraLabel, String route, LatencyHistogram.Snapshot snapshot) {
+        long count = snapshot.getCount();
+        for (int i = 0; i < BUCKET_BOUNDS.length; ++i) {
+            writer.put(metric.bucket);
+            writeHistogramLabels(writer, label, extraLabel, route);
+            writer.put((byte) ',');
+            writer.put(BUCKET_LABELS[i]);
+            writer.put(Metric.SAMPLE_END);
+            //the snapshot is not atomic, so make sure the buckets never exceed the count
+            writer.putLong(Math.min(count, snapshot.getCountAtOrBelow(BUCKET_BOUNDS[i])));
+            writer.put((byte) '\n');
+        }
+        writer.put(metric.bucket);
+        writeHistogramLabels(writer, label, extraLabel, route);
+        writer.put((byte) ',');
+        writer.put(INF_LABEL);
+        writer.put(Metric.SAMPLE_END);
+        writer.putLong(count);
+        writer.put((byte) '\n');
+
+        writer.put(metric.gcount);
+        writeHistogramLabels(writer, label, extraLabel, route);
+        writer.put(Metric.SAMPLE_END);
+        writer.putLong(count);
+        writer.put((byte) '\n');
+
+        writer.put(metric.gsum);
+        writeHistogramLabels(writer, label, extraLabel, route);
+        writer.put(Metric.SAMPLE_END);
+        writer.putDecimal(snapshot.getTotal(), NANOS_SCALE);
+        writer.put((byte) '\n');
+    }
+
+    private static void writeHistogramLabels(MetricsWriter writer, byte[] label, byte[] extraLabel, String route) {
+        writer.put(label);
+        if (extraLabel != null) {
+            writer.put((byte) ',');
+            writer.put(extraLabel);
+        }
+        if (route != null) {
+            writer.put((byte) ',');
+            writer.put(ROUTE_LABEL);
+            writer.putLabelValue(route);
+            writer.put((byte) '"');
+        }
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * A registered statistics source, with its label already encoded
+     */
+    private static final class Source<T> {
+        final byte[] label;
+        final T value;
+
+        Source(String labelName, String name, T value) {
+            if (name == null) {
+                throw UndertowMessages.MESSAGES.argumentCannotBeNull("name");
+            }
+            if (value == null) {
+                throw UndertowMessages.MESSAGES.argumentCannotBeNull("statistics");
+            }
+            StringBuilder sb = new StringBuilder(labelName).append("=\"");
+            for (int i = 0; i < name.length(); ++i) {
+                char c = name.charAt(i);
+                if (c == '\\' || c == '"') {
+                    sb.append('\\').append(c);
+                } else if (c == '\n') {
+                    sb.append("\\n");
+                } else {
+                    sb.append(c);
+                }
+            }
+            this.label = sb.append('"').toString().getBytes(StandardCharsets.UTF_8);
+            this.value = value;
+        }
+    }
+
+    /**
+     * A metric family, with the header and sample name prefixes already encoded
+     */
+    private static final class Metric {
+
+        static final byte[] SAMPLE_END = ascii("} ");
+        static final byte[] HOST_LABEL = ascii(",host=\"");
+
+        final byte[] header;
+        final byte[] sample;
+        final byte[] bucket;
+        final byte[] gcount;
+        final byte[] gsum;
+
+        Metric(String name, String type, String help) {
+            this.header = ascii("# TYPE " + name + " " + type + "\n# HELP " + name + " " + help + ".\n");
+            this.sample = ascii(name + (type.equals("counter") ? "_total{" : "{"));
+            this.bucket = ascii(name + "_bucket{");
+            this.gcount = ascii(name + "_gcount{");
+            this.gsum = ascii(name + "_gsum{");
+        }
+
+        void writeHeader(MetricsWriter writer) {
+            writer.put(header);
+        }
+
+        void writeSample(MetricsWriter writer, byte[] label, long value) {
+            writer.put(sample);
+            writer.put(label);
+            writer.put(SAMPLE_END);
+            writer.putLong(value);
+            writer.put((byte) '\n');
+        }
+
+        void writeSample(MetricsWriter writer, byte[] label, long value, int scale) {
+            writer.put(sample);
+            writer.put(label);
+            writer.put(SAMPLE_END);
+            writer.putDecimal(value, scale);
+            writer.put((byte) '\n');
+        }
+    }
+
+    /**
+     * Writes the response into a chain of pooled buffers. The buffers are freed once the response has been sent.
+     */
+    private static final class MetricsWriter implements IoCallback {
+
+        private final ByteBufferPool pool;
+        private final byte[] digits = new byte[20];
+        private PooledByteBuffer[] pooled = new PooledByteBuffer[4];
+        private int count;
+        private ByteBuffer current;
+        long length;
+
+        MetricsWriter(ByteBufferPool pool) {
+            this.pool = pool;
+        }
+
+        void put(byte b) {
+            if (current == null || !current.hasRemaining()) {
+                nextBuffer();
+            }
+            current.put(b);
+        }
+
+        void put(byte[] data) {
+            put(data, 0, data.length);
+        }
+
+        void put(byte[] data, int offset, int length) {
+            int end = offset + length;
+            while (offset < end) {
+                if (current == null || !current.hasRemaining()) {
+                    nextBuffer();
+                }
+                int toWrite = Math.min(current.remaining(), end - offset);
+                current.put(data, offset, toWrite);
+                offset += toWrite;
+            }
+        }
+
+        void putLong(long value) {
+            //work with negative numbers, so Long.MIN_VALUE does not need special handling
+            if (value < 0) {
+                put((byte) '-');
+            } else {
+                value = -value;
+            }
+            int pos = digits.length;
+            do {
+                digits[--pos] = (byte) ('0' - value % 10);
+                value /= 10;
+            } while (value != 0);
+            put(digits, pos, digits.length - pos);
+        }
+
+        /**
+         * Writes <code>value / 10^scale</code> as a decimal number, without trailing zeros
+         */
+        void putDecimal(long value, int scale) {
+            if (value < 0) {
+                put((byte) '-');
+                value = -value;
+            }
+            long divisor = POWERS_OF_TEN[scale];
+            long fraction = value % divisor;
+            putLong(value / divisor);
+            if (fraction == 0) {
+                return;
+            }
+            put((byte) '.');
+            int fractionDigits = scale;
+            while (fraction % 10 == 0) {
+                fraction /= 10;
+                --fractionDigits;
+            }
+            int pos = digits.length;
+            for (int i = 0; i < fractionDigits; ++i) {
+                digits[--pos] = (byte) ('0' + fraction % 10);
+                fraction /= 10;
+            }
+            put(digits, pos, digits.length - pos);
+        }
+
+        /**
+         * Writes an escaped label value as UTF-8
+         */
+        void putLabelValue(String value) {
+            for (int i = 0; i < value.length(); ++i) {
+                char c = value.charAt(i);
+                if (c == '\\' || c == '"') {
+                    put((byte) '\\');
+                    put((byte) c);
+                } else if (c == '\n') {
+                    put((byte) '\\');
+                    put((byte) 'n');
+                } else if (c < 0x80) {
+                    put((byte) c);
+                } else if (c < 0x800) {
+                    put((byte) (0xC0 | (c >> 6)));
+                    put((byte) (0x80 | (c & 0x3F)));
+                } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, value.charAt(++i));
+                    put((byte) (0xF0 | (cp >> 18)));
+                    put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                    put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                    put((byte) (0x80 | (cp & 0x3F)));
+                } else {
+                    put((byte) (0xE0 | (c >> 12)));
+                    put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                    put((byte) (0x80 | (c & 0x3F)));
+                }
+            }
+        }
+
+        private void nextBuffer() {
+            if (count == pooled.length) {
+                pooled = Arrays.copyOf(pooled, count * 2);
+            }
+            PooledByteBuffer buffer = pool.allocate();
+            pooled[count++] = buffer;
+            current = buffer.getBuffer();
+            current.clear();
+        }
+
+        ByteBuffer[] finish() {
+            ByteBuffer[] result = new ByteBuffer[count];
+            for (int i = 0; i < count; ++i) {
+                ByteBuffer buffer = pooled[i].getBuffer();
+                buffer.flip();
+                length += buffer.remaining();
+                result[i] = buffer;
+            }
+            return result;
+        }
+
+        void free() {
+            for (int i = 0; i < count; ++i) {
+                pooled[i].close();
+                pooled[i] = null;
+            }
+            count = 0;
+            current = null;
+        }
+
+        @Override
+        public void onComplete(HttpServerExchange exchange, Sender sender) {
+            free();
+            IoCallback.END_EXCHANGE.onComplete(exchange, sender);
+        }
+
+        @Override
+        public void onException(HttpServerExchange exchange, Sender sender, IOException exception) {
+            free();
+            IoCallback.END_EXCHANGE.onException(exchange, sender, exception);
+        }
+    }
+}
@@ -23,6 +23,7 @@ import java.util.Collections;
 import java.util.Map;
 import java.util.Set;
 
+import io.undertow.attribute.CompiledExchangeAttribute;
 import io.undertow.attribute.ExchangeAttribute;
 import io.undertow.attribute.ExchangeAttributes;
 import io.undertow.attribute.SubstituteEmptyWrapper;
@@ -84,15 +85,31 @@ import io.undertow.server.handlers.builder.HandlerBuilder;
  * <li><code>%{r,xxx}</code> xxx is an attribute in the ServletRequest
  * <li><code>%{s,xxx}</code> xxx is an attribute in the HttpSession
  * </ul>
+ * <p>
+ * The format is compiled into a flat sequence of attributes that append directly into a reused thread local builder.
+ * If the receiver is a {@link CharSequenceAccessLogReceiver} the builder is passed to it directly, so formatting a
+ * message does not need to allocate a String at all.
  *
  * @author Stuart Douglas
  */
 public class AccessLogHandler implements HttpHandler {
 
+    /**
+     * Builders larger than this are not retained, so one unusually large message does not pin memory
+     */
+    private static final int MAX_RETAINED_BUILDER_SIZE = 4096;
+
+    private static final ThreadLocal<StringBuilder> BUILDERS = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(256);
+        }
+    };
+
     private final HttpHandler next;
     private final AccessLogReceiver accessLogReceiver;
     private final String formatString;
-    private final ExchangeAttribute tokens;
+    private final CompiledExchangeAttribute tokens;
     private final ExchangeCompletionListener exchangeCompletionListener = new AccessLogCompletionListener();
     private final Predicate predicate;
 
@@ -105,7 +122,7 @@ public class AccessLogHandler implements HttpHandler {
         this.accessLogReceiver = accessLogReceiver;
         this.predicate = predicate;
         this.formatString = handleCommonNames(formatString);
-        this.tokens = ExchangeAttributes.parser(classLoader, new SubstituteEmptyWrapper("-")).parse(this.formatString);
+        this.tokens = ExchangeAttributes.compile(ExchangeAttributes.parser(classLoader, new SubstituteEmptyWrapper("-")).parse(this.formatString));
     }
 
     public AccessLogHandler(final HttpHandler next, final AccessLogReceiver accessLogReceiver, String formatString, final ExchangeAttribute attribute) {
@@ -117,7 +134,7 @@ public class AccessLogHandler implements HttpHandler {
         this.accessLogReceiver = accessLogReceiver;
         this.predicate = predicate;
         this.formatString = handleCommonNames(formatString);
-        this.tokens = attribute;
+        this.tokens = ExchangeAttributes.compile(attribute);
     }
 
 
@@ -138,12 +155,29 @@ public class AccessLogHandler implements HttpHandler {
         next.handleRequest(exchange);
     }
 
+    private void logMessage(final HttpServerExchange exchange) {
+        StringBuilder builder = BUILDERS.get();
+        builder.setLength(0);
+        try {
+            tokens.appendAttribute(exchange, builder);
+            if (accessLogReceiver instanceof CharSequenceAccessLogReceiver) {
+                ((CharSequenceAccessLogReceiver) accessLogReceiver).logMessage(builder);
+            } else {
+                accessLogReceiver.logMessage(builder.toString());
+            }
+        } finally {
+            if (builder.capacity() > MAX_RETAINED_BUILDER_SIZE) {
+                BUILDERS.remove();
+            }
+        }
+    }
+
     private class AccessLogCompletionListener implements ExchangeCompletionListener {
         @Override
         public void exchangeEvent(final HttpServerExchange exchange, final NextListener nextListener) {
             try {
                 if(predicate == null || predicate.resolve(exchange)) {
-                    accessLogReceiver.logMessage(tokens.readAttribute(exchange));
+                    logMessage(exchange);
                 }
             } finally {
                 nextListener.proceed();
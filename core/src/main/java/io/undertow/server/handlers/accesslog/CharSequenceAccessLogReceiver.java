@@ -0,0 +1,33 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers.accesslog;
+
+/**
+ * An access log receiver that can accept a message without it first being converted into a String.
+ * <p>
+ * The message is only valid for the duration of the call, and will be reused by the caller once the method
+ * returns, so implementations must not retain a reference to it.
+ *
+ * @author agent
+ */
+public interface CharSequenceAccessLogReceiver extends AccessLogReceiver {
+
+    void logMessage(final CharSequence message);
+
+}
@@ -22,6 +22,9 @@ import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.Writer;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -34,10 +37,21 @@ import java.util.Deque;
 import java.util.List;
 import java.util.Locale;
 import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 
 import io.undertow.UndertowLogger;
+import org.xnio.XnioIoThread;
+import org.xnio.XnioWorker;
 
 /**
  * Log Receiver that stores logs in a directory under the specified file name, and rotates them after
@@ -46,12 +60,28 @@ import io.undertow.UndertowLogger;
  * Web threads do not touch the log file, but simply queue messages to be written later by a worker thread.
  * A lightweight CAS based locking mechanism is used to ensure than only 1 thread is active writing messages at
  * any given time
+ * <p/>
+ * In batched mode messages are not queued individually. Instead each thread encodes its messages directly into a
+ * thread local byte buffer, and full buffers are handed to the writer through a bounded lock free ring. The writer
+ * is only woken when a buffer fills or when the flush interval expires, at which point it also collects partially
+ * filled buffers, so messages are delayed by at most the flush interval when traffic is light. Everything it has
+ * collected is written with a single gathering write. If the ring is full messages are either dropped or the
+ * logging thread waits for space, depending on configuration. IO threads never wait, messages they log while the
+ * ring is full are always dropped.
+ * <p/>
+ * As well as the daily rotation logs can also be rotated once they reach a maximum size.
  *
  * @author Stuart Douglas
  */
-public class DefaultAccessLogReceiver implements AccessLogReceiver, Runnable, Closeable {
+public class DefaultAccessLogReceiver implements CharSequenceAccessLogReceiver, Runnable, Closeable {
     private static final String DEFAULT_LOG_SUFFIX = ".log";
 
+    public static final int DEFAULT_BATCH_BUFFER_SIZE = 8192;
+    public static final int DEFAULT_BATCH_QUEUE_SIZE = 64;
+    public static final long DEFAULT_FLUSH_INTERVAL = 1000;
+
+    private static final long BLOCK_WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
     private final Executor logWriteExecutor;
 
     private final Deque<String> pendingMessages;
@@ -63,6 +93,11 @@ public class DefaultAccessLogReceiver implements AccessLogReceiver, Runnable, Cl
     private volatile int state = 0;
 
     private static final AtomicIntegerFieldUpdater<DefaultAccessLogReceiver> stateUpdater = AtomicIntegerFieldUpdater.newUpdater(DefaultAccessLogReceiver.class, "state");
+    @SuppressWarnings("unused")
+    private volatile int flushScheduled = 0;
+
+    private static final AtomicIntegerFieldUpdater<DefaultAccessLogReceiver> flushScheduledUpdater = AtomicIntegerFieldUpdater.newUpdater(DefaultAccessLogReceiver.class, "flushScheduled");
+    private static final AtomicLongFieldUpdater<DefaultAccessLogReceiver> droppedMessagesUpdater = AtomicLongFieldUpdater.newUpdater(DefaultAccessLogReceiver.class, "droppedMessages");
 
     private long changeOverPoint;
     private String currentDateString;
@@ -80,6 +115,29 @@ public class DefaultAccessLogReceiver implements AccessLogReceiver, Runnable, Cl
     private boolean initialRun = true;
     private final boolean rotate;
     private final LogFileHeaderGenerator fileHeaderGenerator;
+    private final long maxFileSize;
+
+    private final boolean batched;
+    private final int batchBufferSize;
+    private final boolean blockWhenQueueFull;
+    private final long flushInterval;
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flushScheduled = 0;
+            if (stateUpdater.compareAndSet(DefaultAccessLogReceiver.this, 0, 1)) {
+                logWriteExecutor.execute(DefaultAccessLogReceiver.this);
+            }
+        }
+    };
+    private final ThreadLocal<LogBuffer> localBuffers;
+    private final List<LogBuffer> allLocalBuffers = new CopyOnWriteArrayList<>();
+    private final BufferRing fullBuffers;
+    private final AtomicReferenceArray<ByteBuffer> freeBuffers;
+    private final ByteBuffer[] batch;
+    private FileChannel channel = null;
+    private long currentFileSize;
+    private volatile long droppedMessages;
 
     public DefaultAccessLogReceiver(final Executor logWriteExecutor, final File outputDirectory, final String logBaseName) {
         this(logWriteExecutor, outputDirectory.toPath(), logBaseName, null);
@@ -106,6 +164,14 @@ public class DefaultAccessLogReceiver implements AccessLogReceiver, Runnable, Cl
     }
 
     private DefaultAccessLogReceiver(final Executor logWriteExecutor, final Path outputDirectory, final String logBaseName, final String logNameSuffix, boolean rotate, LogFileHeaderGenerator fileHeader) {
+        this(logWriteExecutor, outputDirectory, logBaseName, logNameSuffix, rotate, fileHeader, -1, false, DEFAULT_BATCH_BUFFER_SIZE, DEFAULT_BATCH_QUEUE_SIZE, false, DEFAULT_FLUSH_INTERVAL);
+    }
+
+    private DefaultAccessLogReceiver(final Executor logWriteExecutor, final Path outputDirectory, final String logBaseName, final String logNameSuffix, boolean rotate, LogFileHeaderGenerator fileHeader,
+                                     long maxFileSize, boolean batched, int batchBufferSize, int batchQueueSize, boolean blockWhenQueueFull, long flushInterval) {
+        if (batched && (batchBufferSize <= 0 || batchQueueSize <= 0)) {
+            throw new IllegalArgumentException("Batch buffer size and queue size must be positive");
+        }
         this.logWriteExecutor = logWriteExecutor;
         this.outputDirectory = outputDirectory;
         this.logBaseName = logBaseName;
@@ -114,6 +180,33 @@ public class DefaultAccessLogReceiver implements AccessLogReceiver, Runnable, Cl
         this.logNameSuffix = (logNameSuffix != null) ? logNameSuffix : DEFAULT_LOG_SUFFIX;
         this.pendingMessages = new ConcurrentLinkedDeque<>();
         this.defaultLogFile = outputDirectory.resolve(logBaseName + this.logNameSuffix);
+        this.maxFileSize = maxFileSize;
+        this.batched = batched;
+        this.batchBufferSize = batchBufferSize;
+        this.blockWhenQueueFull = blockWhenQueueFull;
+        this.flushInterval = flushInterval;
+        if (batched) {
+            int queueSize = Integer.highestOneBit(batchQueueSize);
+            if (queueSize < batchQueueSize) {
+                queueSize <<= 1;
+            }
+            this.fullBuffers = new BufferRing(queueSize);
+            this.freeBuffers = new AtomicReferenceArray<>(queueSize * 2);
+            this.batch = new ByteBuffer[queueSize * 2];
+            this.localBuffers = new ThreadLocal<LogBuffer>() {
+                @Override
+                protected LogBuffer initialValue() {
+                    LogBuffer buffer = new LogBuffer(takeFreeBuffer());
+                    allLocalBuffers.add(buffer);
+                    return buffer;
+                }
+            };
+        } else {
+            this.fullBuffers = null;
+            this.freeBuffers = null;
+            this.batch = null;
+            this.localBuffers = null;
+        }
         calculateChangeOverPoint();
     }
 
@@ -130,7 +223,20 @@ public class DefaultAccessLogReceiver implements AccessLogReceiver, Runnable, Cl
 
     @Override
     public void logMessage(final String message) {
-        this.pendingMessages.add(message);
+        logMessage((CharSequence) message);
+    }
+
+    @Override
+    public void logMessage(final CharSequence message) {
+        if (batched) {
+            if (!logBatched(message)) {
+                //nothing is ready to be written yet, so leave the writer alone until the flush interval expires
+                scheduleFlush();
+                return;
+            }
+        } else {
+            this.pendingMessages.add(message.toString());
+        }
         int state = stateUpdater.get(this);
         if (state == 0) {
             if (stateUpdater.compareAndSet(this, 0, 1)) {
@@ -139,6 +245,168 @@ public class DefaultAccessLogReceiver implements AccessLogReceiver, Runnable, Cl
         }
     }
 
+    /**
+     * @return <code>true</code> if a buffer was handed to the writer
+     */
+    private boolean logBatched(final CharSequence message) {
+        LogBuffer local = localBuffers.get();
+        local.lock.lock();
+        try {
+            if (encode(message, local.buffer)) {
+                local.lines++;
+                return false;
+            }
+            if (local.lines > 0) {
+                publish(local.buffer, local.lines);
+                local.buffer = takeFreeBuffer();
+                local.lines = 0;
+                if (encode(message, local.buffer)) {
+                    local.lines++;
+                    return true;
+                }
+            }
+            //larger than the batch buffer size, so it gets a buffer of its own
+            ByteBuffer large = ByteBuffer.allocate(encodedLength(message) + 1);
+            encode(message, large);
+            publish(large, 1);
+            return true;
+        } finally {
+            local.lock.unlock();
+        }
+    }
+
+    /**
+     * Hands a buffer to the writer. This is called while holding the lock for the thread local buffer, which
+     * guarantees that all buffers from a single thread are written in order.
+     * <p>
+     * IO threads are never parked, even if configured to block, as that would stall every connection they own.
+     */
+    private void publish(final ByteBuffer buffer, final int lines) {
+        buffer.flip();
+        while (!fullBuffers.offer(buffer)) {
+            if (!blockWhenQueueFull || closed || Thread.currentThread() instanceof XnioIoThread) {
+                droppedMessagesUpdater.addAndGet(this, lines);
+                recycle(buffer);
+                return;
+            }
+            if (stateUpdater.compareAndSet(this, 0, 1)) {
+                logWriteExecutor.execute(this);
+            }
+            LockSupport.parkNanos(BLOCK_WAIT_NANOS);
+        }
+    }
+
+    /**
+     * Makes sure the writer will run within the flush interval to collect partially filled buffers. If there is
+     * no way to schedule a task the writer is woken straight away.
+     */
+    private void scheduleFlush() {
+        if (flushScheduled != 0 || !flushScheduledUpdater.compareAndSet(this, 0, 1)) {
+            return;
+        }
+        if (flushInterval > 0) {
+            try {
+                Thread thread = Thread.currentThread();
+                if (thread instanceof XnioIoThread) {
+                    ((XnioIoThread) thread).executeAfter(flushTask, flushInterval, TimeUnit.MILLISECONDS);
+                    return;
+                } else if (logWriteExecutor instanceof XnioWorker) {
+                    ((XnioWorker) logWriteExecutor).getIoThread().executeAfter(flushTask, flushInterval, TimeUnit.MILLISECONDS);
+                    return;
+                } else if (logWriteExecutor instanceof ScheduledExecutorService) {
+                    ((ScheduledExecutorService) logWriteExecutor).schedule(flushTask, flushInterval, TimeUnit.MILLISECONDS);
+                    return;
+                }
+            } catch (RejectedExecutionException e) {
+                //shutting down, just write the messages now
+            }
+        }
+        flushTask.run();
+    }
+
+    private ByteBuffer takeFreeBuffer() {
+        for (int i = 0; i < freeBuffers.length(); ++i) {
+            ByteBuffer buffer = freeBuffers.get(i);
+            if (buffer != null && freeBuffers.compareAndSet(i, buffer, null)) {
+                return buffer;
+            }
+        }
+        return ByteBuffer.allocate(batchBufferSize);
+    }
+
+    private void recycle(final ByteBuffer buffer) {
+        if (buffer.capacity() != batchBufferSize) {
+            return;
+        }
+        buffer.clear();
+        for (int i = 0; i < freeBuffers.length(); ++i) {
+            if (freeBuffers.get(i) == null && freeBuffers.compareAndSet(i, null, buffer)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Encodes the message and a trailing newline as UTF-8.
+     *
+     * @return <code>false</code> if the message did not fit, in which case the buffer is not modified
+     */
+    static boolean encode(final CharSequence message, final ByteBuffer buffer) {
+        final int length = message.length();
+        final int remaining = buffer.remaining();
+        if (length * 3 + 1 > remaining && encodedLength(message) + 1 > remaining) {
+            return false;
+        }
+        final byte[] data = buffer.array();
+        int pos = buffer.arrayOffset() + buffer.position();
+        for (int i = 0; i < length; ++i) {
+            char c = message.charAt(i);
+            if (c < 0x80) {
+                data[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                data[pos++] = (byte) (0xC0 | (c >> 6));
+                data[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(message.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, message.charAt(++i));
+                data[pos++] = (byte) (0xF0 | (cp >> 18));
+                data[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                data[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                data[pos++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                //unpaired surrogate, replaced in the same way as the JDK encoder
+                data[pos++] = '?';
+            } else {
+                data[pos++] = (byte) (0xE0 | (c >> 12));
+                data[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                data[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        data[pos++] = '\n';
+        buffer.position(pos - buffer.arrayOffset());
+        return true;
+    }
+
+    static int encodedLength(final CharSequence message) {
+        final int length = message.length();
+        int result = 0;
+        for (int i = 0; i < length; ++i) {
+            char c = message.charAt(i);
+            if (c < 0x80) {
+                result += 1;
+            } else if (c < 0x800) {
+                result += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(message.charAt(i + 1))) {
+                result += 4;
+                ++i;
+            } else if (Character.isSurrogate(c)) {
+                result += 1;
+            } else {
+                result += 3;
+            }
+        }
+        return result;
+    }
+
     /**
      * processes all queued log messages
      */
@@ -165,33 +433,38 @@ public class DefaultAccessLogReceiver implements AccessLogReceiver, Runnable, Cl
             }
         }
         initialRun = false;
-        List<String> messages = new ArrayList<>();
-        String msg;
-        //only grab at most 1000 messages at a time
-        for (int i = 0; i < 1000; ++i) {
-            msg = pendingMessages.poll();
-            if (msg == null) {
-                break;
-            }
-            messages.add(msg);
-        }
         try {
-            if (!messages.isEmpty()) {
-                writeMessage(messages);
+            if (batched) {
+                writeBatch();
+            } else {
+                List<String> messages = new ArrayList<>();
+                String msg;
+                //only grab at most 1000 messages at a time
+                for (int i = 0; i < 1000; ++i) {
+                    msg = pendingMessages.poll();
+                    if (msg == null) {
+                        break;
+                    }
+                    messages.add(msg);
+                }
+                if (!messages.isEmpty()) {
+                    writeMessage(messages);
+                }
             }
         } finally {
             stateUpdater.set(this, 0);
             //check to see if there is still more messages
             //if so then run this again
-            if (!pendingMessages.isEmpty() || forceLogRotation) {
+            if (hasMessagesToWriteNow() || forceLogRotation) {
                 if (stateUpdater.compareAndSet(this, 0, 1)) {
                     logWriteExecutor.execute(this);
                 }
+            } else if (batched && hasPendingMessages()) {
+                //partially filled buffers that were busy, or filled while we were writing
+                scheduleFlush();
             } else if (closed) {
                 try {
-                    writer.flush();
-                    writer.close();
-                    writer = null;
+                    closeFile();
                 } catch (IOException e) {
                     UndertowLogger.ROOT_LOGGER.errorWritingAccessLog(e);
                 }
@@ -199,6 +472,135 @@ public class DefaultAccessLogReceiver implements AccessLogReceiver, Runnable, Cl
         }
     }
 
+    /**
+     * @return <code>true</code> if there are messages that should be written without waiting for the flush interval
+     */
+    private boolean hasMessagesToWriteNow() {
+        if (batched && !closed) {
+            return !fullBuffers.isEmpty();
+        }
+        return hasPendingMessages();
+    }
+
+    private boolean hasPendingMessages() {
+        if (!batched) {
+            return !pendingMessages.isEmpty();
+        }
+        if (!fullBuffers.isEmpty()) {
+            return true;
+        }
+        for (LogBuffer local : allLocalBuffers) {
+            if (local.lines > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Collects full buffers from the ring and partially filled thread local buffers, and writes them with
+     * a single gathering write
+     */
+    private void writeBatch() {
+        int count = drainFullBuffers(0, batch.length);
+        for (LogBuffer local : allLocalBuffers) {
+            if (count == batch.length) {
+                break;
+            }
+            if (local.lines == 0) {
+                if (local.isOwnerDead()) {
+                    allLocalBuffers.remove(local);
+                }
+                continue;
+            }
+            //never wait for a logging thread, if it is busy the buffer will be picked up on the next run
+            if (local.lock.tryLock()) {
+                try {
+                    //anything this thread has already published must be written first
+                    count = drainFullBuffers(count, batch.length - 1);
+                    if (local.lines > 0 && fullBuffers.isEmpty()) {
+                        ByteBuffer data = local.buffer;
+                        data.flip();
+                        batch[count++] = data;
+                        local.buffer = takeFreeBuffer();
+                        local.lines = 0;
+                    }
+                } finally {
+                    local.lock.unlock();
+                }
+            }
+        }
+        if (count == 0) {
+            return;
+        }
+        if (System.currentTimeMillis() > changeOverPoint) {
+            doRotate();
+        }
+        try {
+            if (channel == null) {
+                channel = FileChannel.open(defaultLogFile, StandardOpenOption.APPEND, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                currentFileSize = channel.size();
+                if (currentFileSize == 0 && fileHeaderGenerator != null) {
+                    String header = fileHeaderGenerator.generateHeader();
+                    if (header != null) {
+                        ByteBuffer headerBuffer = ByteBuffer.wrap((header + "\n").getBytes(StandardCharsets.UTF_8));
+                        currentFileSize += headerBuffer.remaining();
+                        while (headerBuffer.hasRemaining()) {
+                            channel.write(headerBuffer);
+                        }
+                    }
+                }
+            }
+            long total = 0;
+            for (int i = 0; i < count; ++i) {
+                total += batch[i].remaining();
+            }
+            long written = 0;
+            while (written < total) {
+                written += channel.write(batch, 0, count);
+            }
+            currentFileSize += written;
+        } catch (IOException e) {
+            UndertowLogger.ROOT_LOGGER.errorWritingAccessLog(e);
+        } finally {
+            for (int i = 0; i < count; ++i) {
+                recycle(batch[i]);
+                batch[i] = null;
+            }
+        }
+        if (maxFileSize > 0 && currentFileSize >= maxFileSize) {
+            rotateFile();
+        }
+    }
+
+    private int drainFullBuffers(int count, int max) {
+        ByteBuffer buffer;
+        while (count < max && (buffer = fullBuffers.poll()) != null) {
+            batch[count++] = buffer;
+        }
+        return count;
+    }
+
+    private void closeFile() throws IOException {
+        if (writer != null) {
+            writer.flush();
+            writer.close();
+            writer = null;
+        }
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     *
+     * @return The number of messages that were dropped because the batch queue was full
+     */
+    public long getDroppedMessages() {
+        return droppedMessages;
+    }
+
     /**
      * For tests only. Blocks the current thread until all messages are written
      * Just does a busy wait.
@@ -206,7 +608,7 @@ public class DefaultAccessLogReceiver implements AccessLogReceiver, Runnable, Cl
      * DO NOT USE THIS OUTSIDE OF A TEST
      */
     void awaitWrittenForTest() throws InterruptedException {
-        while (!pendingMessages.isEmpty() || forceLogRotation) {
+        while (hasPendingMessages() || forceLogRotation) {
             Thread.sleep(10);
         }
         while (state != 0) {
@@ -236,6 +638,9 @@ public class DefaultAccessLogReceiver implements AccessLogReceiver, Runnable, Cl
                 writer.write('\n');
             }
             writer.flush();
+            if (maxFileSize > 0 && Files.size(defaultLogFile) >= maxFileSize) {
+                rotateFile();
+            }
         } catch (IOException e) {
             UndertowLogger.ROOT_LOGGER.errorWritingAccessLog(e);
         }
@@ -246,12 +651,12 @@ public class DefaultAccessLogReceiver implements AccessLogReceiver, Runnable, Cl
         if (!rotate) {
             return;
         }
+        rotateFile();
+    }
+
+    private void rotateFile() {
         try {
-            if (writer != null) {
-                writer.flush();
-                writer.close();
-                writer = null;
-            }
+            closeFile();
             if (!Files.exists(defaultLogFile)) {
                 return;
             }
@@ -299,6 +704,12 @@ public class DefaultAccessLogReceiver implements AccessLogReceiver, Runnable, Cl
         private String logNameSuffix;
         private boolean rotate;
         private LogFileHeaderGenerator logFileHeaderGenerator;
+        private long maxFileSize = -1;
+        private boolean batched;
+        private int batchBufferSize = DEFAULT_BATCH_BUFFER_SIZE;
+        private int batchQueueSize = DEFAULT_BATCH_QUEUE_SIZE;
+        private boolean blockWhenQueueFull;
+        private long flushInterval = DEFAULT_FLUSH_INTERVAL;
 
         public Executor getLogWriteExecutor() {
             return logWriteExecutor;
@@ -354,8 +765,148 @@ public class DefaultAccessLogReceiver implements AccessLogReceiver, Runnable, Cl
             return this;
         }
 
+        public long getMaxFileSize() {
+            return maxFileSize;
+        }
+
+        /**
+         * Sets the size at which the log file is rotated. A value of -1 disables size based rotation.
+         */
+        public Builder setMaxFileSize(long maxFileSize) {
+            this.maxFileSize = maxFileSize;
+            return this;
+        }
+
+        public boolean isBatched() {
+            return batched;
+        }
+
+        /**
+         * If this is true messages are encoded into thread local buffers, which are written in batches
+         */
+        public Builder setBatched(boolean batched) {
+            this.batched = batched;
+            return this;
+        }
+
+        public int getBatchBufferSize() {
+            return batchBufferSize;
+        }
+
+        public Builder setBatchBufferSize(int batchBufferSize) {
+            this.batchBufferSize = batchBufferSize;
+            return this;
+        }
+
+        public int getBatchQueueSize() {
+            return batchQueueSize;
+        }
+
+        /**
+         * Sets the maximum number of full buffers that can be waiting to be written. This is rounded up to a power of two.
+         */
+        public Builder setBatchQueueSize(int batchQueueSize) {
+            this.batchQueueSize = batchQueueSize;
+            return this;
+        }
+
+        public boolean isBlockWhenQueueFull() {
+            return blockWhenQueueFull;
+        }
+
+        /**
+         * If this is true a thread that fills a buffer while the queue is full will wait for space, otherwise
+         * the messages in the buffer are dropped. IO threads never wait, so messages they log while the queue
+         * is full are dropped regardless of this setting.
+         */
+        public Builder setBlockWhenQueueFull(boolean blockWhenQueueFull) {
+            this.blockWhenQueueFull = blockWhenQueueFull;
+            return this;
+        }
+
+        public long getFlushInterval() {
+            return flushInterval;
+        }
+
+        /**
+         * Sets the maximum time in milliseconds that a message can wait in a partially filled batch buffer before
+         * it is written. A value of 0 wakes the writer for every message.
+         */
+        public Builder setFlushInterval(long flushInterval) {
+            this.flushInterval = flushInterval;
+            return this;
+        }
+
         public DefaultAccessLogReceiver build() {
-            return new DefaultAccessLogReceiver(logWriteExecutor, outputDirectory, logBaseName, logNameSuffix, rotate, logFileHeaderGenerator);
+            return new DefaultAccessLogReceiver(logWriteExecutor, outputDirectory, logBaseName, logNameSuffix, rotate, logFileHeaderGenerator,
+                    maxFileSize, batched, batchBufferSize, batchQueueSize, blockWhenQueueFull, flushInterval);
+        }
+    }
+
+    /**
+     * The buffer that a single thread encodes messages into. The lock is only contended when the writer collects
+     * a partially filled buffer.
+     */
+    private static final class LogBuffer {
+        final ReentrantLock lock = new ReentrantLock();
+        final WeakReference<Thread> owner = new WeakReference<>(Thread.currentThread());
+        ByteBuffer buffer;
+        volatile int lines;
+
+        LogBuffer(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        boolean isOwnerDead() {
+            Thread thread = owner.get();
+            return thread == null || !thread.isAlive();
+        }
+    }
+
+    /**
+     * A bounded multi producer, single consumer ring of full buffers
+     */
+    private static final class BufferRing {
+        private final AtomicReferenceArray<ByteBuffer> slots;
+        private final int mask;
+        private final AtomicLong tail = new AtomicLong();
+        private volatile long head;
+
+        BufferRing(int size) {
+            this.slots = new AtomicReferenceArray<>(size);
+            this.mask = size - 1;
+        }
+
+        boolean offer(ByteBuffer buffer) {
+            for (;;) {
+                long tail = this.tail.get();
+                if (tail - head >= slots.length()) {
+                    return false;
+                }
+                if (this.tail.compareAndSet(tail, tail + 1)) {
+                    slots.set((int) tail & mask, buffer);
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Must only be called by the writer
+         */
+        ByteBuffer poll() {
+            int index = (int) head & mask;
+            ByteBuffer buffer = slots.get(index);
+            if (buffer == null) {
+                //either empty, or a producer has claimed the slot but not yet filled it
+                return null;
+            }
+            slots.set(index, null);
+            head = head + 1;
+            return buffer;
+        }
+
+        boolean isEmpty() {
+            return tail.get() == head;
         }
     }
 }
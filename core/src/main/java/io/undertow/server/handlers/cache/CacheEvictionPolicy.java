@@ -0,0 +1,70 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers.cache;
+
+/**
+ * The policy that decides which entries are evicted from {@link LRUCache} and {@link DirectBufferCache}.
+ * <p>
+ * When an entry is added to a cache the policy returns a handle, which the cache stores with the entry
+ * and passes back on every access and on removal. When the cache needs to make room it asks the policy
+ * for a victim, and then removes that entry through its normal remove path.
+ * <p>
+ * Implementations must be thread safe, and {@link #onAccess(Object)} in particular is called on every
+ * cache hit so must never block.
+ *
+ * @author agent
+ */
+public interface CacheEvictionPolicy<K> {
+
+    /**
+     * Called when a new entry has been added to the cache.
+     *
+     * @param key The key of the new entry
+     * @return A handle that must be passed to {@link #onAccess(Object)} and {@link #onRemove(Object)}
+     */
+    Object onAdd(K key);
+
+    /**
+     * Records a cache hit.
+     *
+     * @param handle The handle returned from {@link #onAdd(Object)}
+     */
+    void onAccess(Object handle);
+
+    /**
+     * Called when an entry has been removed from the cache. This may be called more than once for the same handle.
+     *
+     * @param handle The handle returned from {@link #onAdd(Object)}
+     */
+    void onRemove(Object handle);
+
+    /**
+     * Selects the entry that should be evicted next. This does not remove the entry from the policy, the cache is
+     * expected to remove it which will result in a call to {@link #onRemove(Object)}.
+     *
+     * @param exclude A key that must not be selected, may be null
+     * @return The key of the entry to evict, or null if there is nothing that can be evicted
+     */
+    K selectVictim(K exclude);
+
+    /**
+     * Removes all entries
+     */
+    void clear();
+}
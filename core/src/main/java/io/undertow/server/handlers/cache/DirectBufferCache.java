@@ -28,7 +28,6 @@ import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.util.concurrent.ConcurrentHashMap;
 
-import io.undertow.util.ConcurrentDirectDeque;
 import org.xnio.BufferAllocator;
 
 /**
@@ -36,9 +35,9 @@ import org.xnio.BufferAllocator;
  * subsequence of blocks in a fixed large direct buffer. An ideal application is
  * a file system cache, where the path corresponds to a file location.
  *
- * <p>To reduce contention, entry allocation and eviction execute in a sampling
- * fashion (entry hits modulo N). Eviction follows an LRU approach (oldest sampled
- * entries are removed first) when the cache is out of capacity</p>
+ * <p>To reduce contention, entry allocation executes in a sampling fashion (entry
+ * hits modulo N). When the cache is out of capacity entries are evicted according
+ * to a {@link CacheEvictionPolicy}, which defaults to {@link LRUEvictionPolicy}.</p>
  *
  * <p>In order to expedite reclamation, cache entries are reference counted as
  * opposed to garbage collected.</p>
@@ -50,7 +49,7 @@ public class DirectBufferCache {
 
     private final LimitedBufferSlicePool pool;
     private final ConcurrentMap<Object, CacheEntry> cache;
-    private final ConcurrentDirectDeque<CacheEntry> accessQueue;
+    private final CacheEvictionPolicy<Object> evictionPolicy;
     private final int sliceSize;
     private final int maxAge;
 
@@ -63,10 +62,14 @@ public class DirectBufferCache {
     }
 
     public DirectBufferCache(int sliceSize, int slicesPerPage, int maxMemory, final BufferAllocator<ByteBuffer> bufferAllocator, int maxAge) {
+        this(sliceSize, slicesPerPage, maxMemory, bufferAllocator, maxAge, new LRUEvictionPolicy<Object>());
+    }
+
+    public DirectBufferCache(int sliceSize, int slicesPerPage, int maxMemory, final BufferAllocator<ByteBuffer> bufferAllocator, int maxAge, CacheEvictionPolicy<Object> evictionPolicy) {
         this.sliceSize = sliceSize;
         this.pool = new LimitedBufferSlicePool(bufferAllocator, sliceSize, sliceSize * slicesPerPage, maxMemory / (sliceSize * slicesPerPage));
         this.cache = new ConcurrentHashMap<>(16);
-        this.accessQueue = ConcurrentDirectDeque.newInstance();
+        this.evictionPolicy = evictionPolicy;
         this.maxAge = maxAge;
     }
 
@@ -82,7 +85,11 @@ public class DirectBufferCache {
             if (result != null) {
                 value = result;
             } else {
-                bumpAccess(value);
+                value.policyHandle = evictionPolicy.onAdd(key);
+                if (cache.get(key) != value) {
+                    //removed concurrently before the policy knew about it
+                    evictionPolicy.onRemove(value.policyHandle);
+                }
             }
         }
 
@@ -103,27 +110,28 @@ public class DirectBufferCache {
             }
         }
 
-        if (cacheEntry.hit() % SAMPLE_INTERVAL == 0) {
+        Object handle = cacheEntry.policyHandle;
+        if (handle != null) {
+            evictionPolicy.onAccess(handle);
+        }
 
-            bumpAccess(cacheEntry);
+        if (cacheEntry.buffers().length == 0 && cacheEntry.hit() % SAMPLE_INTERVAL == 0) {
 
             if (! cacheEntry.allocate()) {
                 // Try and make room
                 int reclaimSize = cacheEntry.size();
-                for (CacheEntry oldest : accessQueue) {
-                    if (oldest == cacheEntry) {
-                        continue;
+                int maxVictims = cache.size();
+                for (int i = 0; i < maxVictims && reclaimSize > 0; ++i) {
+                    Object victimKey = evictionPolicy.selectVictim(cacheEntry.key());
+                    if (victimKey == null) {
+                        break;
                     }
-
-                    if (oldest.buffers().length > 0) {
-                        reclaimSize -= oldest.size();
+                    CacheEntry victim = cache.get(victimKey);
+                    if (victim != null && victim.buffers().length > 0) {
+                        reclaimSize -= victim.size();
                     }
 
-                    this.remove(oldest.key());
-
-                    if (reclaimSize <= 0) {
-                        break;
-                    }
+                    this.remove(victimKey);
                 }
 
                 // Maybe lucky?
@@ -144,33 +152,12 @@ public class DirectBufferCache {
         return new HashSet<>(cache.keySet());
     }
 
-    private void bumpAccess(CacheEntry cacheEntry) {
-        Object prevToken = cacheEntry.claimToken();
-        if (prevToken != Boolean.FALSE) {
-            if (prevToken != null) {
-                accessQueue.removeToken(prevToken);
-            }
-
-            Object token = null;
-            try {
-                token = accessQueue.offerLastAndReturnToken(cacheEntry);
-            } catch (Throwable t) {
-                // In case of disaster (OOME), we need to release the claim, so leave it aas null
-            }
-
-            if (! cacheEntry.setToken(token) && token != null) { // Always set if null
-                accessQueue.removeToken(token);
-            }
-        }
-    }
-
-
     public void remove(Object key) {
         CacheEntry remove = cache.remove(key);
         if (remove != null) {
-            Object old = remove.clearToken();
-            if (old != null) {
-                accessQueue.removeToken(old);
+            Object handle = remove.policyHandle;
+            if (handle != null) {
+                evictionPolicy.onRemove(handle);
             }
             remove.dereference();
         }
@@ -179,14 +166,12 @@ public class DirectBufferCache {
     public static final class CacheEntry {
         private static final PooledByteBuffer[] EMPTY_BUFFERS = new PooledByteBuffer[0];
         private static final PooledByteBuffer[] INIT_BUFFERS = new PooledByteBuffer[0];
-        private static final Object CLAIM_TOKEN = new Object();
 
         private static final AtomicIntegerFieldUpdater<CacheEntry> hitsUpdater = AtomicIntegerFieldUpdater.newUpdater(CacheEntry.class, "hits");
         private static final AtomicIntegerFieldUpdater<CacheEntry> refsUpdater = AtomicIntegerFieldUpdater.newUpdater(CacheEntry.class, "refs");
         private static final AtomicIntegerFieldUpdater<CacheEntry> enabledUpdator = AtomicIntegerFieldUpdater.newUpdater(CacheEntry.class, "enabled");
 
         private static final AtomicReferenceFieldUpdater<CacheEntry, PooledByteBuffer[]> bufsUpdater = AtomicReferenceFieldUpdater.newUpdater(CacheEntry.class, PooledByteBuffer[].class, "buffers");
-        private static final AtomicReferenceFieldUpdater<CacheEntry, Object> tokenUpdator = AtomicReferenceFieldUpdater.newUpdater(CacheEntry.class, Object.class, "accessToken");
 
         private final Object key;
         private final int size;
@@ -195,7 +180,7 @@ public class DirectBufferCache {
         private volatile PooledByteBuffer[] buffers = INIT_BUFFERS;
         private volatile int refs = 1;
         private volatile int hits = 1;
-        private volatile Object accessToken;
+        volatile Object policyHandle;
         private volatile int enabled;
         private volatile long expires = -1;
 
@@ -326,28 +311,6 @@ public class DirectBufferCache {
             }
         }
 
-        Object claimToken() {
-            for (;;) {
-                Object current = this.accessToken;
-                if (current == CLAIM_TOKEN) {
-                    return Boolean.FALSE;
-                }
-
-                if (tokenUpdator.compareAndSet(this, current, CLAIM_TOKEN)) {
-                    return current;
-                }
-            }
-        }
-
-        boolean setToken(Object token) {
-            return tokenUpdator.compareAndSet(this, CLAIM_TOKEN, token);
-        }
-
-        Object clearToken() {
-            Object old = tokenUpdator.getAndSet(this, null);
-            return old == CLAIM_TOKEN ? null : old;
-        }
-
         long getExpires() {
             return expires;
         }
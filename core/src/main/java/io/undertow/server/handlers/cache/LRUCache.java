@@ -18,26 +18,23 @@
 
 package io.undertow.server.handlers.cache;
 
-import io.undertow.util.ConcurrentDirectDeque;
-
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
-import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 /**
  * A non-blocking cache where entries are indexed by a key.
  * <p>
- * <p>To reduce contention, entry allocation and eviction execute in a sampling
- * fashion (entry hits modulo N). Eviction follows an LRU approach (oldest sampled
- * entries are removed first) when the cache is out of capacity.</p>
+ * <p>When the cache is out of capacity entries are evicted according to a {@link CacheEvictionPolicy}.
+ * By default this is {@link LRUEvictionPolicy}, which approximates LRU in a sampling fashion
+ * (entry hits modulo N). {@link WindowTinyLFUEvictionPolicy} can be used instead for workloads
+ * that contain scans of entries that are only accessed once.</p>
  * <p>
  *
  * @author Jason T. Greene
  * @author Stuart Douglas
  */
 public class LRUCache<K, V> {
-    private static final int SAMPLE_INTERVAL = 5;
 
     /**
      * Max active entries that are present in the cache.
@@ -45,16 +42,20 @@ public class LRUCache<K, V> {
     private final int maxEntries;
 
     private final ConcurrentMap<K, CacheEntry<K, V>> cache;
-    private final ConcurrentDirectDeque<CacheEntry<K, V>> accessQueue;
+    private final CacheEvictionPolicy<K> evictionPolicy;
     /**
      * How long an item can stay in the cache in milliseconds
      */
     private final int maxAge;
 
     public LRUCache(int maxEntries, final int maxAge) {
+        this(maxEntries, maxAge, new LRUEvictionPolicy<K>());
+    }
+
+    public LRUCache(int maxEntries, final int maxAge, CacheEvictionPolicy<K> evictionPolicy) {
         this.maxAge = maxAge;
         this.cache = new ConcurrentHashMap<>(16);
-        this.accessQueue = ConcurrentDirectDeque.newInstance();
+        this.evictionPolicy = evictionPolicy;
         this.maxEntries = maxEntries;
     }
 
@@ -70,15 +71,19 @@ public class LRUCache<K, V> {
             value = new CacheEntry<>(key, newValue, expires);
             CacheEntry result = cache.putIfAbsent(key, value);
             if (result != null) {
-                value = result;
-                value.setValue(newValue);
+                result.setValue(newValue);
+                return;
+            }
+            value.policyHandle = evictionPolicy.onAdd(key);
+            if (cache.get(key) != value) {
+                //removed concurrently before the policy knew about it
+                evictionPolicy.onRemove(value.policyHandle);
+                return;
             }
-            bumpAccess(value);
             if (cache.size() > maxEntries) {
-                //remove the oldest
-                CacheEntry<K, V> oldest = accessQueue.poll();
-                if (oldest != value) {
-                    this.remove(oldest.key());
+                K victim = evictionPolicy.selectVictim(key);
+                if (victim != null) {
+                    this.remove(victim);
                 }
             }
         }
@@ -97,39 +102,20 @@ public class LRUCache<K, V> {
             }
         }
 
-        if (cacheEntry.hit() % SAMPLE_INTERVAL == 0) {
-            bumpAccess(cacheEntry);
+        Object handle = cacheEntry.policyHandle;
+        if (handle != null) {
+            evictionPolicy.onAccess(handle);
         }
 
         return cacheEntry.getValue();
     }
 
-    private void bumpAccess(CacheEntry<K, V> cacheEntry) {
-        Object prevToken = cacheEntry.claimToken();
-        if (prevToken != Boolean.FALSE) {
-            if (prevToken != null) {
-                accessQueue.removeToken(prevToken);
-            }
-
-            Object token = null;
-            try {
-                token = accessQueue.offerLastAndReturnToken(cacheEntry);
-            } catch (Throwable t) {
-                // In case of disaster (OOME), we need to release the claim, so leave it aas null
-            }
-
-            if (!cacheEntry.setToken(token) && token != null) { // Always set if null
-                accessQueue.removeToken(token);
-            }
-        }
-    }
-
     public V remove(K key) {
         CacheEntry<K, V> remove = cache.remove(key);
         if (remove != null) {
-            Object old = remove.clearToken();
-            if (old != null) {
-                accessQueue.removeToken(old);
+            Object handle = remove.policyHandle;
+            if (handle != null) {
+                evictionPolicy.onRemove(handle);
             }
             return remove.getValue();
         } else {
@@ -139,22 +125,18 @@ public class LRUCache<K, V> {
 
     public void clear() {
         cache.clear();
-        accessQueue.clear();
+        evictionPolicy.clear();
     }
 
     public static final class CacheEntry<K, V> {
 
-        private static final Object CLAIM_TOKEN = new Object();
-
         private static final AtomicIntegerFieldUpdater<CacheEntry> hitsUpdater = AtomicIntegerFieldUpdater.newUpdater(CacheEntry.class, "hits");
 
-        private static final AtomicReferenceFieldUpdater<CacheEntry, Object> tokenUpdator = AtomicReferenceFieldUpdater.newUpdater(CacheEntry.class, Object.class, "accessToken");
-
         private final K key;
         private volatile V value;
         private final long expires;
         private volatile int hits = 1;
-        private volatile Object accessToken;
+        volatile Object policyHandle;
 
         private CacheEntry(K key, V value, final long expires) {
             this.key = key;
@@ -185,28 +167,6 @@ public class LRUCache<K, V> {
             return key;
         }
 
-        Object claimToken() {
-            for (; ; ) {
-                Object current = this.accessToken;
-                if (current == CLAIM_TOKEN) {
-                    return Boolean.FALSE;
-                }
-
-                if (tokenUpdator.compareAndSet(this, current, CLAIM_TOKEN)) {
-                    return current;
-                }
-            }
-        }
-
-        boolean setToken(Object token) {
-            return tokenUpdator.compareAndSet(this, CLAIM_TOKEN, token);
-        }
-
-        Object clearToken() {
-            Object old = tokenUpdator.getAndSet(this, null);
-            return old == CLAIM_TOKEN ? null : old;
-        }
-
         public long getExpires() {
             return expires;
         }
@@ -0,0 +1,149 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers.cache;
+
+import io.undertow.util.ConcurrentDirectDeque;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * The default eviction policy, which approximates LRU.
+ * <p>
+ * To reduce contention recency is only updated in a sampling fashion (entry hits modulo N), the oldest
+ * sampled entries are evicted first.
+ *
+ * @author Jason T. Greene
+ * @author agent
+ */
+public class LRUEvictionPolicy<K> implements CacheEvictionPolicy<K> {
+
+    private static final int SAMPLE_INTERVAL = 5;
+
+    private final ConcurrentDirectDeque<Node<K>> accessQueue = ConcurrentDirectDeque.newInstance();
+
+    @Override
+    public Object onAdd(K key) {
+        Node<K> node = new Node<>(key);
+        bumpAccess(node);
+        return node;
+    }
+
+    @Override
+    public void onAccess(Object handle) {
+        Node<K> node = (Node<K>) handle;
+        if (node.hit() % SAMPLE_INTERVAL == 0) {
+            bumpAccess(node);
+        }
+    }
+
+    @Override
+    public void onRemove(Object handle) {
+        Node<K> node = (Node<K>) handle;
+        Object old = node.clearToken();
+        if (old != null) {
+            accessQueue.removeToken(old);
+        }
+    }
+
+    @Override
+    public K selectVictim(K exclude) {
+        for (Node<K> oldest : accessQueue) {
+            if (exclude == null || !exclude.equals(oldest.key)) {
+                return oldest.key;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void clear() {
+        accessQueue.clear();
+    }
+
+    private void bumpAccess(Node<K> node) {
+        Object prevToken = node.claimToken();
+        if (prevToken != Boolean.FALSE) {
+            if (prevToken != null) {
+                accessQueue.removeToken(prevToken);
+            }
+
+            Object token = null;
+            try {
+                token = accessQueue.offerLastAndReturnToken(node);
+            } catch (Throwable t) {
+                // In case of disaster (OOME), we need to release the claim, so leave it aas null
+            }
+
+            if (!node.setToken(token) && token != null) { // Always set if null
+                accessQueue.removeToken(token);
+            }
+        }
+    }
+
+    private static final class Node<K> {
+
+        private static final Object CLAIM_TOKEN = new Object();
+
+        private static final AtomicIntegerFieldUpdater<Node> hitsUpdater = AtomicIntegerFieldUpdater.newUpdater(Node.class, "hits");
+
+        private static final AtomicReferenceFieldUpdater<Node, Object> tokenUpdator = AtomicReferenceFieldUpdater.newUpdater(Node.class, Object.class, "accessToken");
+
+        private final K key;
+        private volatile int hits = 1;
+        private volatile Object accessToken;
+
+        private Node(K key) {
+            this.key = key;
+        }
+
+        int hit() {
+            for (; ; ) {
+                int i = hits;
+
+                if (hitsUpdater.weakCompareAndSet(this, i, ++i)) {
+                    return i;
+                }
+
+            }
+        }
+
+        Object claimToken() {
+            for (; ; ) {
+                Object current = this.accessToken;
+                if (current == CLAIM_TOKEN) {
+                    return Boolean.FALSE;
+                }
+
+                if (tokenUpdator.compareAndSet(this, current, CLAIM_TOKEN)) {
+                    return current;
+                }
+            }
+        }
+
+        boolean setToken(Object token) {
+            return tokenUpdator.compareAndSet(this, CLAIM_TOKEN, token);
+        }
+
+        Object clearToken() {
+            Object old = tokenUpdator.getAndSet(this, null);
+            return old == CLAIM_TOKEN ? null : old;
+        }
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers.cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache of read only memory mapped files.
+ * <p>
+ * This is intended for files that are too large to be copied into a {@link DirectBufferCache}. Each file is mapped
+ * once and the mapping is shared between all exchanges that serve it, so the data is written straight from the page
+ * cache to the connection without being copied into pooled buffers.
+ * <p>
+ * Entries are reference counted, the cache itself holds one reference and every exchange that is using the mapping
+ * holds another. A mapping is released when the entry has been removed from the cache and all exchanges are done
+ * with it. The JDK provides no way to explicitly unmap a buffer, so the address space is actually returned when the
+ * buffer is garbage collected.
+ * <p>
+ * Mapped files must not be modified in place while they are being served, as truncating a mapped file will result
+ * in an error when the missing pages are accessed. Files should be replaced by moving a new file over the top
+ * of the old one instead.
+ *
+ * @author agent
+ */
+public class MappedFileCache {
+
+    private final long minFileSize;
+    private final long maxFileSize;
+    private final long maxMemory;
+    private final ConcurrentMap<Object, MappedEntry> cache = new ConcurrentHashMap<>(16);
+    private final CacheEvictionPolicy<Object> evictionPolicy;
+    private final AtomicLong mappedBytes = new AtomicLong();
+
+    /**
+     * @param minFileSize The smallest file that will be mapped
+     * @param maxFileSize The largest file that will be mapped, must be less than 2GB
+     * @param maxMemory   The maximum total size of all mapped files
+     */
+    public MappedFileCache(long minFileSize, long maxFileSize, long maxMemory) {
+        this(minFileSize, maxFileSize, maxMemory, new LRUEvictionPolicy<Object>());
+    }
+
+    public MappedFileCache(long minFileSize, long maxFileSize, long maxMemory, CacheEvictionPolicy<Object> evictionPolicy) {
+        if (maxFileSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("maxFileSize must be less than " + Integer.MAX_VALUE);
+        }
+        if (minFileSize > maxFileSize) {
+            throw new IllegalArgumentException("minFileSize must not be larger than maxFileSize");
+        }
+        this.minFileSize = minFileSize;
+        this.maxFileSize = maxFileSize;
+        this.maxMemory = maxMemory;
+        this.evictionPolicy = evictionPolicy;
+    }
+
+    /**
+     * @param size The file size
+     * @return <code>true</code> if a file of the given size can be mapped by this cache
+     */
+    public boolean isEligible(long size) {
+        return size >= minFileSize && size <= maxFileSize && size <= maxMemory;
+    }
+
+    /**
+     * Gets an existing mapping. If an entry is returned it has already been referenced, and the caller must call
+     * {@link MappedEntry#dereference()} once it is done with the buffer.
+     *
+     * @param key          The cache key
+     * @param expectedSize The current size of the file, if this does not match the mapped size the mapping is discarded
+     * @return The referenced entry, or null if the file has not been mapped
+     */
+    public MappedEntry get(Object key, long expectedSize) {
+        MappedEntry entry = cache.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.size != expectedSize) {
+            //the file has changed since it was mapped
+            remove(key, entry);
+            return null;
+        }
+        if (!entry.reference()) {
+            return null;
+        }
+        Object handle = entry.policyHandle;
+        if (handle != null) {
+            evictionPolicy.onAccess(handle);
+        }
+        return entry;
+    }
+
+    /**
+     * Gets an existing mapping or maps the file. This performs blocking IO so must not be called from an IO thread.
+     * If an entry is returned it has already been referenced, and the caller must call {@link MappedEntry#dereference()}
+     * once it is done with the buffer.
+     *
+     * @param key          The cache key
+     * @param file         The file to map
+     * @param expectedSize The size of the file
+     * @return The referenced entry, or null if the file could not be mapped
+     */
+    public MappedEntry map(Object key, Path file, long expectedSize) throws IOException {
+        MappedEntry existing = get(key, expectedSize);
+        if (existing != null) {
+            return existing;
+        }
+        if (!isEligible(expectedSize) || !reserve(key, expectedSize)) {
+            return null;
+        }
+        MappedByteBuffer buffer = null;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() == expectedSize) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, expectedSize);
+                //fault the pages in now, so IO threads do not block on disk reads when writing the buffer
+                buffer.load();
+            }
+        } finally {
+            if (buffer == null) {
+                mappedBytes.addAndGet(-expectedSize);
+            }
+        }
+        if (buffer == null) {
+            return null;
+        }
+        MappedEntry entry = new MappedEntry(key, buffer, expectedSize, this);
+        MappedEntry result = cache.putIfAbsent(key, entry);
+        if (result != null) {
+            //someone else mapped it first
+            entry.dereference();
+            return get(key, expectedSize);
+        }
+        entry.policyHandle = evictionPolicy.onAdd(key);
+        if (cache.get(key) != entry) {
+            //removed concurrently before the policy knew about it
+            evictionPolicy.onRemove(entry.policyHandle);
+        }
+        return entry.reference() ? entry : null;
+    }
+
+    /**
+     * Reserves space for a new mapping, evicting existing mappings if required
+     */
+    private boolean reserve(Object key, long size) {
+        int attempts = cache.size();
+        for (;;) {
+            long current = mappedBytes.get();
+            if (current + size <= maxMemory) {
+                if (mappedBytes.compareAndSet(current, current + size)) {
+                    return true;
+                }
+                continue;
+            }
+            //entries that are still in use do not release their memory immediately, so we don't keep going forever
+            if (attempts-- <= 0) {
+                return false;
+            }
+            Object victim = evictionPolicy.selectVictim(key);
+            if (victim == null) {
+                return false;
+            }
+            remove(victim);
+        }
+    }
+
+    public void remove(Object key) {
+        MappedEntry entry = cache.remove(key);
+        if (entry != null) {
+            release(entry);
+        }
+    }
+
+    private void remove(Object key, MappedEntry entry) {
+        if (cache.remove(key, entry)) {
+            release(entry);
+        }
+    }
+
+    private void release(MappedEntry entry) {
+        Object handle = entry.policyHandle;
+        if (handle != null) {
+            evictionPolicy.onRemove(handle);
+        }
+        entry.dereference();
+    }
+
+    /**
+     * Returns a set of all the keys in the cache. This is a copy of the
+     * key set at the time of method invocation.
+     *
+     * @return all the keys in this cache
+     */
+    public Set<Object> getAllKeys() {
+        return new HashSet<>(cache.keySet());
+    }
+
+    /**
+     * @return The total size of all files that are currently mapped, including mappings that have been evicted but are still in use
+     */
+    public long getMappedBytes() {
+        return mappedBytes.get();
+    }
+
+    public static final class MappedEntry {
+
+        private static final AtomicIntegerFieldUpdater<MappedEntry> refsUpdater = AtomicIntegerFieldUpdater.newUpdater(MappedEntry.class, "refs");
+
+        private final Object key;
+        private final long size;
+        private final MappedFileCache cache;
+        private volatile MappedByteBuffer buffer;
+        private volatile int refs = 1;
+        volatile Object policyHandle;
+
+        private MappedEntry(Object key, MappedByteBuffer buffer, long size, MappedFileCache cache) {
+            this.key = key;
+            this.buffer = buffer;
+            this.size = size;
+            this.cache = cache;
+        }
+
+        public Object key() {
+            return key;
+        }
+
+        public long size() {
+            return size;
+        }
+
+        /**
+         * Returns a new view of the mapped file. This must only be called while holding a reference.
+         *
+         * @return A read only buffer containing the file contents
+         */
+        public ByteBuffer buffer() {
+            return buffer.asReadOnlyBuffer();
+        }
+
+        public boolean reference() {
+            for (;;) {
+                int refs = this.refs;
+                if (refs < 1) {
+                    return false; // destroying
+                }
+
+                if (refsUpdater.compareAndSet(this, refs++, refs)) {
+                    return true;
+                }
+            }
+        }
+
+        public boolean dereference() {
+            for (;;) {
+                int refs = this.refs;
+                if (refs < 1) {
+                    return false;  // destroying
+                }
+
+                if (refsUpdater.compareAndSet(this, refs--, refs)) {
+                    if (refs == 0) {
+                        destroy();
+                    }
+                    return true;
+                }
+            }
+        }
+
+        private void destroy() {
+            this.buffer = null;
+            cache.mappedBytes.addAndGet(-size);
+        }
+    }
+}
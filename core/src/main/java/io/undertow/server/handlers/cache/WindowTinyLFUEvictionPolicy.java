@@ -0,0 +1,416 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A W-TinyLFU eviction policy.
+ * <p>
+ * New entries are placed in a small LRU admission window. Entries that fall out of the window move to the
+ * probation segment of the main segmented LRU, and entries that are accessed while on probation are promoted
+ * to the protected segment. When the cache needs to evict, the newest probation entry competes with the oldest
+ * one, and the one with the lowest estimated access frequency (according to a count-min sketch) is evicted.
+ * This means that a scan of entries that are only accessed once will not flush frequently used entries
+ * out of the cache.
+ * <p>
+ * Cache hits do not touch any shared policy state. Instead they are appended to one of a number of striped
+ * ring buffers, which are drained in batches by whichever thread manages to acquire the policy lock. If a
+ * buffer is full the access is simply dropped, as the policy only needs an approximation of the access pattern.
+ *
+ * @author agent
+ */
+public class WindowTinyLFUEvictionPolicy<K> implements CacheEvictionPolicy<K> {
+
+    private static final int READ_BUFFER_SIZE = 32;
+    private static final int READ_BUFFER_MASK = READ_BUFFER_SIZE - 1;
+    private static final int READ_BUFFER_DRAIN_THRESHOLD = READ_BUFFER_SIZE / 2;
+    private static final int MAX_READ_BUFFERS = 64;
+
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final ReadBuffer[] readBuffers;
+    private final int readBufferMask;
+    private final FrequencySketch sketch;
+
+    private final int maxWindow;
+    private final int maxProtected;
+
+    //the segments are circular lists, head.next is the least recently used entry. All guarded by evictionLock
+    private final Node<K> window = new Node<>(null);
+    private final Node<K> probation = new Node<>(null);
+    private final Node<K> protectedSegment = new Node<>(null);
+    private int windowSize;
+    private int protectedSize;
+
+    /**
+     * @param maximumSize The expected maximum number of entries in the cache, used to size the segments and the frequency sketch
+     */
+    public WindowTinyLFUEvictionPolicy(int maximumSize) {
+        int size = Math.max(maximumSize, 1);
+        this.maxWindow = Math.max(1, size / 100);
+        this.maxProtected = Math.max(1, (int) ((size - maxWindow) * 0.8));
+        this.sketch = new FrequencySketch(size);
+        int buffers = Math.min(MAX_READ_BUFFERS, ceilingPowerOfTwo(Runtime.getRuntime().availableProcessors() * 4));
+        this.readBuffers = new ReadBuffer[buffers];
+        for (int i = 0; i < buffers; ++i) {
+            readBuffers[i] = new ReadBuffer();
+        }
+        this.readBufferMask = buffers - 1;
+        clearSegments();
+    }
+
+    @Override
+    public Object onAdd(K key) {
+        Node<K> node = new Node<>(key);
+        evictionLock.lock();
+        try {
+            drainReadBuffers();
+            sketch.increment(key.hashCode());
+            node.segment = WINDOW;
+            linkLast(window, node);
+            windowSize++;
+            while (windowSize > maxWindow) {
+                Node<K> oldest = window.next;
+                unlink(oldest);
+                windowSize--;
+                oldest.segment = PROBATION;
+                linkLast(probation, oldest);
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+        return node;
+    }
+
+    @Override
+    public void onAccess(Object handle) {
+        Node<K> node = (Node<K>) handle;
+        ReadBuffer buffer = readBuffers[((int) Thread.currentThread().getId()) & readBufferMask];
+        int pending = buffer.offer(node);
+        if (pending >= READ_BUFFER_DRAIN_THRESHOLD && evictionLock.tryLock()) {
+            try {
+                drainReadBuffers();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public void onRemove(Object handle) {
+        Node<K> node = (Node<K>) handle;
+        evictionLock.lock();
+        try {
+            if (node.removed) {
+                return;
+            }
+            node.removed = true;
+            unlink(node);
+            if (node.segment == WINDOW) {
+                windowSize--;
+            } else if (node.segment == PROTECTED) {
+                protectedSize--;
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    @Override
+    public K selectVictim(K exclude) {
+        evictionLock.lock();
+        try {
+            drainReadBuffers();
+            Node<K> victim = firstEligible(probation, exclude);
+            if (victim != null) {
+                Node<K> candidate = lastEligible(probation, exclude);
+                if (candidate != victim && sketch.frequency(candidate.key.hashCode()) <= sketch.frequency(victim.key.hashCode())) {
+                    //the new arrival is not used more often than the entry it would replace, so do not admit it
+                    return candidate.key;
+                }
+                return victim.key;
+            }
+            victim = firstEligible(protectedSegment, exclude);
+            if (victim != null) {
+                return victim.key;
+            }
+            victim = firstEligible(window, exclude);
+            if (victim != null) {
+                return victim.key;
+            }
+            return null;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        evictionLock.lock();
+        try {
+            drainReadBuffers();
+            markRemoved(window);
+            markRemoved(probation);
+            markRemoved(protectedSegment);
+            clearSegments();
+            sketch.clear();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private void clearSegments() {
+        window.next = window.prev = window;
+        probation.next = probation.prev = probation;
+        protectedSegment.next = protectedSegment.prev = protectedSegment;
+        windowSize = 0;
+        protectedSize = 0;
+    }
+
+    private void drainReadBuffers() {
+        for (ReadBuffer buffer : readBuffers) {
+            buffer.drain(this);
+        }
+    }
+
+    /**
+     * Applies a buffered access, must be called with the eviction lock held
+     */
+    private void onAccessLocked(Node<K> node) {
+        if (node.removed) {
+            return;
+        }
+        sketch.increment(node.key.hashCode());
+        switch (node.segment) {
+            case WINDOW:
+                unlink(node);
+                linkLast(window, node);
+                break;
+            case PROBATION:
+                unlink(node);
+                node.segment = PROTECTED;
+                linkLast(protectedSegment, node);
+                protectedSize++;
+                while (protectedSize > maxProtected) {
+                    Node<K> demoted = protectedSegment.next;
+                    unlink(demoted);
+                    protectedSize--;
+                    demoted.segment = PROBATION;
+                    linkLast(probation, demoted);
+                }
+                break;
+            default:
+                unlink(node);
+                linkLast(protectedSegment, node);
+        }
+    }
+
+    private static <K> Node<K> firstEligible(Node<K> head, K exclude) {
+        for (Node<K> node = head.next; node != head; node = node.next) {
+            if (exclude == null || !exclude.equals(node.key)) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    private static <K> Node<K> lastEligible(Node<K> head, K exclude) {
+        for (Node<K> node = head.prev; node != head; node = node.prev) {
+            if (exclude == null || !exclude.equals(node.key)) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    private static <K> void markRemoved(Node<K> head) {
+        for (Node<K> node = head.next; node != head; node = node.next) {
+            node.removed = true;
+        }
+    }
+
+    private static <K> void linkLast(Node<K> head, Node<K> node) {
+        Node<K> last = head.prev;
+        node.prev = last;
+        node.next = head;
+        last.next = node;
+        head.prev = node;
+    }
+
+    private static <K> void unlink(Node<K> node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev = null;
+        node.next = null;
+    }
+
+    private static int ceilingPowerOfTwo(int x) {
+        return 1 << (32 - Integer.numberOfLeadingZeros(Math.max(x, 2) - 1));
+    }
+
+    private static final class Node<K> {
+        final K key;
+        //guarded by the eviction lock
+        Node<K> prev;
+        Node<K> next;
+        int segment;
+        boolean removed;
+
+        Node(K key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * A bounded ring buffer of accesses. Any thread may add to the buffer, it is only drained under the eviction lock.
+     */
+    private static final class ReadBuffer {
+
+        private final AtomicReferenceArray<Node<?>> buffer = new AtomicReferenceArray<>(READ_BUFFER_SIZE);
+        private final AtomicLong writeCounter = new AtomicLong();
+        private volatile long readCounter;
+
+        /**
+         * @return The number of pending entries in the buffer, if this is larger than the threshold the buffer should be drained
+         */
+        int offer(Node<?> node) {
+            long head = readCounter;
+            long tail = writeCounter.get();
+            long size = tail - head;
+            if (size >= READ_BUFFER_SIZE) {
+                //full, just drop the access
+                return READ_BUFFER_SIZE;
+            }
+            if (writeCounter.compareAndSet(tail, tail + 1)) {
+                buffer.lazySet((int) (tail & READ_BUFFER_MASK), node);
+                return (int) size + 1;
+            }
+            //contended, drop the access
+            return (int) size;
+        }
+
+        <K> void drain(WindowTinyLFUEvictionPolicy<K> policy) {
+            long head = readCounter;
+            long tail = writeCounter.get();
+            while (head < tail) {
+                int index = (int) (head & READ_BUFFER_MASK);
+                Node<K> node = (Node<K>) buffer.get(index);
+                if (node == null) {
+                    //the write has not been published yet
+                    break;
+                }
+                buffer.lazySet(index, null);
+                policy.onAccessLocked(node);
+                head++;
+            }
+            readCounter = head;
+        }
+    }
+
+    /**
+     * A count-min sketch of 4 bit counters that estimates the access frequency of keys. Counters are halved
+     * periodically so that the sketch reflects recent history. Guarded by the eviction lock.
+     */
+    private static final class FrequencySketch {
+
+        private static final long[] SEED = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+        private static final long RESET_MASK = 0x7777777777777777L;
+        private static final long ONE_MASK = 0x1111111111111111L;
+
+        private final long[] table;
+        private final int tableMask;
+        private final int sampleSize;
+        private int size;
+
+        FrequencySketch(int maximumSize) {
+            int length = ceilingPowerOfTwo(maximumSize);
+            table = new long[length];
+            tableMask = length - 1;
+            sampleSize = 10 * maximumSize;
+        }
+
+        int frequency(int hashCode) {
+            int hash = spread(hashCode);
+            int start = (hash & 3) << 2;
+            int frequency = Integer.MAX_VALUE;
+            for (int i = 0; i < 4; i++) {
+                int index = indexOf(hash, i);
+                int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+                frequency = Math.min(frequency, count);
+            }
+            return frequency;
+        }
+
+        void increment(int hashCode) {
+            int hash = spread(hashCode);
+            int start = (hash & 3) << 2;
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                added |= incrementAt(indexOf(hash, i), start + i);
+            }
+            if (added && ++size >= sampleSize) {
+                reset();
+            }
+        }
+
+        void clear() {
+            for (int i = 0; i < table.length; ++i) {
+                table[i] = 0;
+            }
+            size = 0;
+        }
+
+        private boolean incrementAt(int i, int j) {
+            int offset = j << 2;
+            long mask = 0xfL << offset;
+            if ((table[i] & mask) != mask) {
+                table[i] += 1L << offset;
+                return true;
+            }
+            return false;
+        }
+
+        private void reset() {
+            int count = 0;
+            for (int i = 0; i < table.length; i++) {
+                count += Long.bitCount(table[i] & ONE_MASK);
+                table[i] = (table[i] >>> 1) & RESET_MASK;
+            }
+            size = (size >>> 1) - (count >>> 2);
+        }
+
+        private int indexOf(int item, int i) {
+            long hash = (item + SEED[i]) * SEED[i];
+            hash += hash >>> 32;
+            return ((int) hash) & tableMask;
+        }
+
+        private static int spread(int x) {
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            return (x >>> 16) ^ x;
+        }
+    }
+}
@@ -34,23 +34,43 @@ import org.xnio.conduits.StreamSinkConduit;
 import org.xnio.conduits.WriteReadyHandler;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Class that provides a way of serving pre-encoded resources.
+ * <p>
+ * By default a resource is encoded on the request path the first time it is requested. If a compression executor
+ * is provided then gzip and deflate encoded versions are instead created in the background, and the resource is
+ * served without pre-encoding until the encoded version is ready. Small encoded resources can be served from
+ * memory by providing a {@link CachingResourceManager} that has a data cache.
  *
  * @author Stuart Douglas
  */
 public class ContentEncodedResourceManager {
 
+    private static final String ENCODED_SUFFIX = ".undertow.encoding.";
+    private static final String GZIP = "gzip";
+    private static final String GZIP_EXTENSION = ".gz";
+
 
     private final Path encodedResourcesRoot;
     private final CachingResourceManager encoded;
@@ -58,16 +78,30 @@ public class ContentEncodedResourceManager {
     private final int minResourceSize;
     private final int maxResourceSize;
     private final Predicate encodingAllowed;
+    private final Executor compressionExecutor;
+    private final int maxPendingCompressions;
 
     private final ConcurrentMap<LockKey, Object> fileLocks = new ConcurrentHashMap<>();
+    private final AtomicInteger pendingCompressions = new AtomicInteger();
 
     public ContentEncodedResourceManager(Path encodedResourcesRoot, CachingResourceManager encodedResourceManager, ContentEncodingRepository contentEncodingRepository, int minResourceSize, int maxResourceSize, Predicate encodingAllowed) {
+        this(encodedResourcesRoot, encodedResourceManager, contentEncodingRepository, minResourceSize, maxResourceSize, encodingAllowed, null, 0);
+    }
+
+    /**
+     *
+     * @param compressionExecutor    The executor that is used to encode resources in the background, if this is null resources are encoded on the request path
+     * @param maxPendingCompressions The maximum number of resources that can be waiting to be encoded, if this is exceeded the resource will be encoded by a later request
+     */
+    public ContentEncodedResourceManager(Path encodedResourcesRoot, CachingResourceManager encodedResourceManager, ContentEncodingRepository contentEncodingRepository, int minResourceSize, int maxResourceSize, Predicate encodingAllowed, Executor compressionExecutor, int maxPendingCompressions) {
         this.encodedResourcesRoot = encodedResourcesRoot;
         this.encoded = encodedResourceManager;
         this.contentEncodingRepository = contentEncodingRepository;
         this.minResourceSize = minResourceSize;
         this.maxResourceSize = maxResourceSize;
         this.encodingAllowed = encodingAllowed;
+        this.compressionExecutor = compressionExecutor;
+        this.maxPendingCompressions = maxPendingCompressions;
     }
 
     /**
@@ -99,7 +133,7 @@ public class ContentEncodedResourceManager {
         if (encoding == null || encoding.getName().equals(ContentEncodingRepository.IDENTITY)) {
             return null;
         }
-        String newPath = path + ".undertow.encoding." + encoding.getName();
+        String newPath = path + ENCODED_SUFFIX + encoding.getName();
         Resource preCompressed = encoded.getResource(newPath);
         if (preCompressed != null) {
             return new ContentEncodedResource(preCompressed, encoding.getName());
@@ -110,6 +144,11 @@ public class ContentEncodedResourceManager {
             //we don't do anything fancy here, just return and serve non-compressed content
             return null;
         }
+        if (compressionExecutor != null && isBackgroundCompressionSupported(encoding.getEncoding())) {
+            scheduleCompression(key, file, newPath, encoding.getEncoding());
+            //serve non-compressed content until the compression is done
+            return null;
+        }
         FileChannel targetFileChannel = null;
         FileChannel sourceFileChannel = null;
         try {
@@ -152,6 +191,116 @@ public class ContentEncodedResourceManager {
         }
     }
 
+    /**
+     * Registers pre-compressed files that were created at build time. For every file under the given root that
+     * has a <code>.gz</code> sibling (e.g. <code>app.js</code> and <code>app.js.gz</code>) the sibling is used
+     * as the gzip encoded version of the file, as long as it is not older than the original.
+     * <p>
+     * This should be called at startup, before the resources are requested.
+     *
+     * @param resourceRoot The root of the resources that are being served, paths are resolved relative to this
+     * @return The number of pre-compressed files that were registered
+     */
+    public int registerPrecompressedFiles(final Path resourceRoot) throws IOException {
+        final AtomicInteger count = new AtomicInteger();
+        Files.walkFileTree(resourceRoot, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                String name = file.getFileName().toString();
+                if (!name.endsWith(GZIP_EXTENSION) || name.contains(ENCODED_SUFFIX)) {
+                    return FileVisitResult.CONTINUE;
+                }
+                Path original = file.resolveSibling(name.substring(0, name.length() - GZIP_EXTENSION.length()));
+                if (!Files.isRegularFile(original) || Files.getLastModifiedTime(original).compareTo(attrs.lastModifiedTime()) > 0) {
+                    return FileVisitResult.CONTINUE;
+                }
+                String newPath = resourceRoot.relativize(original).toString().replace(file.getFileSystem().getSeparator(), "/") + ENCODED_SUFFIX + GZIP;
+                Path target = encodedResourcesRoot.resolve(newPath);
+                Path parent = target.getParent();
+                if (parent != null) {
+                    Files.createDirectories(parent);
+                }
+                Files.copy(file, target, StandardCopyOption.REPLACE_EXISTING);
+                encoded.invalidate(newPath);
+                count.incrementAndGet();
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return count.get();
+    }
+
+    /**
+     * @return The number of resources that are queued or currently being encoded in the background
+     */
+    public int getPendingCompressions() {
+        return pendingCompressions.get();
+    }
+
+    private void scheduleCompression(final LockKey key, final Path source, final String newPath, final ContentEncodingProvider provider) {
+        if (pendingCompressions.incrementAndGet() > maxPendingCompressions) {
+            //the queue is full, a later request will try again
+            pendingCompressions.decrementAndGet();
+            fileLocks.remove(key);
+            return;
+        }
+        try {
+            compressionExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        compress(source, newPath, provider);
+                    } catch (IOException e) {
+                        UndertowLogger.REQUEST_IO_LOGGER.ioException(e);
+                    } finally {
+                        pendingCompressions.decrementAndGet();
+                        fileLocks.remove(key);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pendingCompressions.decrementAndGet();
+            fileLocks.remove(key);
+        }
+    }
+
+    private void compress(final Path source, final String newPath, final ContentEncodingProvider provider) throws IOException {
+        final Path finalTarget = encodedResourcesRoot.resolve(newPath);
+        final Path tempTarget = finalTarget.resolveSibling(finalTarget.getFileName() + ".tmp");
+        Path parent = finalTarget.getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        boolean gzip = provider.getClass() == GzipEncodingProvider.class;
+        Deflater deflater = gzip ? null : new Deflater(Deflater.DEFLATED, true);
+        boolean ok = false;
+        try (InputStream in = Files.newInputStream(source);
+             OutputStream out = gzip ? new GZIPOutputStream(Files.newOutputStream(tempTarget)) : new DeflaterOutputStream(Files.newOutputStream(tempTarget), deflater)) {
+            byte[] buffer = new byte[8192];
+            int res;
+            while ((res = in.read(buffer)) != -1) {
+                out.write(buffer, 0, res);
+            }
+            ok = true;
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+            }
+            if (!ok) {
+                Files.deleteIfExists(tempTarget);
+            }
+        }
+        Files.move(tempTarget, finalTarget, StandardCopyOption.REPLACE_EXISTING);
+        encoded.invalidate(newPath);
+    }
+
+    /**
+     * Background compression does not have an exchange, so it cannot use the response wrapper. Instead it is only
+     * supported for the built in encodings, and produces the same output using the JDK compression streams.
+     */
+    private static boolean isBackgroundCompressionSupported(final ContentEncodingProvider provider) {
+        return provider.getClass() == GzipEncodingProvider.class || provider.getClass() == DeflateEncodingProvider.class;
+    }
+
     private final class LockKey {
         private final String path;
         private final String encoding;
@@ -0,0 +1,419 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers.proxy;
+
+import io.undertow.UndertowLogger;
+import io.undertow.client.ClientCallback;
+import io.undertow.client.ClientConnection;
+import io.undertow.client.ClientExchange;
+import io.undertow.client.ClientRequest;
+import io.undertow.client.ClientResponse;
+import io.undertow.client.UndertowClient;
+import io.undertow.connector.ByteBufferPool;
+import io.undertow.util.Headers;
+import io.undertow.util.Methods;
+import org.xnio.ChannelExceptionHandler;
+import org.xnio.ChannelListener;
+import org.xnio.ChannelListeners;
+import org.xnio.IoFuture;
+import org.xnio.IoUtils;
+import org.xnio.OptionMap;
+import org.xnio.Options;
+import org.xnio.StreamConnection;
+import org.xnio.XnioExecutor;
+import org.xnio.XnioIoThread;
+import org.xnio.channels.StreamSinkChannel;
+import org.xnio.channels.StreamSourceChannel;
+import org.xnio.ssl.SslConnection;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An active health check for the hosts of a {@link LoadBalancingProxyClient}.
+ * <p>
+ * The hosts are probed periodically, either with a HTTP GET request or by just opening a TCP connection. A host that
+ * fails enough consecutive probes is taken out of service until enough consecutive probes succeed, so a backend that
+ * has gone away is detected without any user requests having to fail first.
+ *
+ * @author agent
+ */
+public class HostHealthCheck {
+
+    /**
+     * A checker that considers any 2xx or 3xx response to be healthy
+     */
+    public static final ResponseChecker SUCCESS_STATUS = new ResponseChecker() {
+        @Override
+        public boolean isHealthy(ClientResponse response) {
+            int code = response.getResponseCode();
+            return code >= 200 && code < 400;
+        }
+    };
+
+    private final String path;
+    private final long interval;
+    private volatile long timeout;
+    private volatile int unhealthyThreshold = 2;
+    private volatile int healthyThreshold = 1;
+    private volatile ResponseChecker responseChecker = SUCCESS_STATUS;
+
+    private HostHealthCheck(String path, long interval) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Health check interval must be positive");
+        }
+        this.path = path;
+        this.interval = interval;
+        this.timeout = interval;
+    }
+
+    /**
+     * Creates a health check that sends a GET request to the given path of each host.
+     *
+     * @param path     The path to request, relative to the host
+     * @param interval The time between probes
+     * @param unit     The unit of the interval
+     * @return The health check
+     */
+    public static HostHealthCheck http(String path, long interval, TimeUnit unit) {
+        if (path == null) {
+            throw new IllegalArgumentException("Health check path cannot be null");
+        }
+        return new HostHealthCheck(path, unit.toMillis(interval));
+    }
+
+    /**
+     * Creates a health check that only checks that a TCP connection can be opened to each host.
+     *
+     * @param interval The time between probes
+     * @param unit     The unit of the interval
+     * @return The health check
+     */
+    public static HostHealthCheck tcp(long interval, TimeUnit unit) {
+        return new HostHealthCheck(null, unit.toMillis(interval));
+    }
+
+    /**
+     * @return The path that is requested, or <code>null</code> if this is a TCP check
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @return The time between probes, in milliseconds
+     */
+    public long getInterval() {
+        return interval;
+    }
+
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Sets the time after which a probe that has not completed is considered to have failed. Defaults to the interval.
+     */
+    public HostHealthCheck setTimeout(long timeout, TimeUnit unit) {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("Health check timeout must be positive");
+        }
+        this.timeout = unit.toMillis(timeout);
+        return this;
+    }
+
+    public int getUnhealthyThreshold() {
+        return unhealthyThreshold;
+    }
+
+    /**
+     * Sets the number of consecutive failed probes before a host is taken out of service. Defaults to 2.
+     */
+    public HostHealthCheck setUnhealthyThreshold(int unhealthyThreshold) {
+        this.unhealthyThreshold = Math.max(1, unhealthyThreshold);
+        return this;
+    }
+
+    public int getHealthyThreshold() {
+        return healthyThreshold;
+    }
+
+    /**
+     * Sets the number of consecutive successful probes before an unhealthy host is returned to service. Defaults to 1.
+     */
+    public HostHealthCheck setHealthyThreshold(int healthyThreshold) {
+        this.healthyThreshold = Math.max(1, healthyThreshold);
+        return this;
+    }
+
+    public ResponseChecker getResponseChecker() {
+        return responseChecker;
+    }
+
+    /**
+     * Sets the checker that decides if a HTTP probe response is healthy. Defaults to {@link #SUCCESS_STATUS}.
+     */
+    public HostHealthCheck setResponseChecker(ResponseChecker responseChecker) {
+        if (responseChecker == null) {
+            throw new IllegalArgumentException("Response checker cannot be null");
+        }
+        this.responseChecker = responseChecker;
+        return this;
+    }
+
+    /**
+     * Probes a single host. All callbacks happen in the given IO thread.
+     */
+    void probe(final LoadBalancingProxyClient.Host host, final XnioIoThread ioThread, final UndertowClient client, final ByteBufferPool bufferPool, final ProbeCallback callback) {
+        final ProbeTask task = new ProbeTask(callback);
+        task.timeoutKey = ioThread.executeAfter(new Runnable() {
+            @Override
+            public void run() {
+                task.done(false);
+            }
+        }, timeout, TimeUnit.MILLISECONDS);
+        if (path == null) {
+            probeTcp(host, ioThread, task);
+        } else {
+            probeHttp(host, ioThread, client, bufferPool, task);
+        }
+    }
+
+    private void probeTcp(final LoadBalancingProxyClient.Host host, final XnioIoThread ioThread, final ProbeTask task) {
+        final URI uri = host.getUri();
+        final boolean secure = uri.getScheme().equals("https");
+        final InetSocketAddress destination = new InetSocketAddress(uri.getHost(), uri.getPort() != -1 ? uri.getPort() : (secure ? 443 : 80));
+        try {
+            if (secure && host.ssl != null) {
+                //a TLS backend is only healthy if the handshake completes, not just the TCP connection
+                final OptionMap tlsOptions = OptionMap.builder().addAll(host.options).set(Options.SSL_STARTTLS, true).getMap();
+                final IoFuture<SslConnection> future;
+                if (host.bindAddress == null) {
+                    future = host.ssl.openSslConnection(ioThread, destination, ChannelListeners.<SslConnection>closingChannelListener(), tlsOptions);
+                } else {
+                    future = host.ssl.openSslConnection(ioThread, host.bindAddress, destination, ChannelListeners.<SslConnection>closingChannelListener(), tlsOptions);
+                }
+                future.addNotifier(new ProbeNotifier<SslConnection>(task) {
+                    @Override
+                    public void handleDone(SslConnection connection, Void attachment) {
+                        handshake(connection, task);
+                    }
+                }, null);
+            } else {
+                final IoFuture<StreamConnection> future;
+                if (host.bindAddress == null) {
+                    future = ioThread.openStreamConnection(destination, ChannelListeners.closingChannelListener(), host.options);
+                } else {
+                    future = ioThread.openStreamConnection(host.bindAddress, destination, ChannelListeners.closingChannelListener(), null, host.options);
+                }
+                future.addNotifier(new ProbeNotifier<StreamConnection>(task) {
+                    @Override
+                    public void handleDone(StreamConnection connection, Void attachment) {
+                        IoUtils.safeClose(connection);
+                        task.done(true);
+                    }
+                }, null);
+            }
+        } catch (Exception e) {
+            task.done(false);
+        }
+    }
+
+    /**
+     * Drives the TLS handshake of a TCP probe. The probe succeeds once the handshake has completed.
+     */
+    private static void handshake(final SslConnection connection, final ProbeTask task) {
+        if (task.isDone()) {
+            IoUtils.safeClose(connection);
+            return;
+        }
+        task.connection = connection;
+        connection.getHandshakeSetter().set(new ChannelListener<SslConnection>() {
+            @Override
+            public void handleEvent(SslConnection channel) {
+                task.done(true);
+            }
+        });
+        try {
+            connection.startHandshake();
+            //the handshake only makes progress while the connection is being read from and written to
+            final StreamSourceChannel source = connection.getSourceChannel();
+            source.getReadSetter().set(new ChannelListener<StreamSourceChannel>() {
+                private final ByteBuffer buffer = ByteBuffer.allocate(1);
+
+                @Override
+                public void handleEvent(StreamSourceChannel channel) {
+                    try {
+                        buffer.clear();
+                        if (channel.read(buffer) == -1) {
+                            task.done(false);
+                        }
+                    } catch (IOException e) {
+                        task.done(false);
+                    }
+                }
+            });
+            source.resumeReads();
+            final StreamSinkChannel sink = connection.getSinkChannel();
+            if (!sink.flush()) {
+                sink.getWriteSetter().set(ChannelListeners.flushingChannelListener(null, new ChannelExceptionHandler<StreamSinkChannel>() {
+                    @Override
+                    public void handleException(StreamSinkChannel channel, IOException exception) {
+                        task.done(false);
+                    }
+                }));
+                sink.resumeWrites();
+            }
+        } catch (IOException e) {
+            task.done(false);
+        }
+    }
+
+    private void probeHttp(final LoadBalancingProxyClient.Host host, final XnioIoThread ioThread, final UndertowClient client, final ByteBufferPool bufferPool, final ProbeTask task) {
+        final URI uri = host.getUri();
+        final ClientRequest request = new ClientRequest();
+        request.setMethod(Methods.GET);
+        request.setPath(path);
+        request.getRequestHeaders().put(Headers.HOST, uri.getPort() == -1 ? uri.getHost() : uri.getHost() + ":" + uri.getPort());
+        request.getRequestHeaders().put(Headers.USER_AGENT, "Undertow health check");
+        client.connect(new ClientCallback<ClientConnection>() {
+            @Override
+            public void completed(final ClientConnection connection) {
+                if (task.isDone()) {
+                    IoUtils.safeClose(connection);
+                    return;
+                }
+                task.connection = connection;
+                connection.sendRequest(request, new ClientCallback<ClientExchange>() {
+                    @Override
+                    public void completed(ClientExchange result) {
+                        result.setResponseListener(new ClientCallback<ClientExchange>() {
+                            @Override
+                            public void completed(ClientExchange result) {
+                                //the connection is closed straight away, so there is no need to read the body
+                                task.done(responseChecker.isHealthy(result.getResponse()));
+                            }
+
+                            @Override
+                            public void failed(IOException e) {
+                                task.done(false);
+                            }
+                        });
+                        try {
+                            StreamSinkChannel requestChannel = result.getRequestChannel();
+                            requestChannel.shutdownWrites();
+                            if (!requestChannel.flush()) {
+                                requestChannel.getWriteSetter().set(ChannelListeners.flushingChannelListener(null, new ChannelExceptionHandler<StreamSinkChannel>() {
+                                    @Override
+                                    public void handleException(StreamSinkChannel channel, IOException exception) {
+                                        task.done(false);
+                                    }
+                                }));
+                                requestChannel.resumeWrites();
+                            }
+                        } catch (IOException e) {
+                            task.done(false);
+                        }
+                    }
+
+                    @Override
+                    public void failed(IOException e) {
+                        task.done(false);
+                    }
+                });
+            }
+
+            @Override
+            public void failed(IOException e) {
+                UndertowLogger.PROXY_REQUEST_LOGGER.debugf(e, "Health check failed to connect to %s", uri);
+                task.done(false);
+            }
+        }, host.bindAddress, uri, ioThread, host.ssl, bufferPool, host.options);
+    }
+
+    /**
+     * Decides whether the response to a HTTP probe means that the host is healthy
+     */
+    public interface ResponseChecker {
+
+        boolean isHealthy(ClientResponse response);
+    }
+
+    interface ProbeCallback {
+
+        void probeCompleted(boolean healthy);
+    }
+
+    /**
+     * Fails the probe if a connection cannot be opened
+     */
+    private abstract static class ProbeNotifier<T> extends IoFuture.HandlingNotifier<T, Void> {
+
+        private final ProbeTask task;
+
+        ProbeNotifier(ProbeTask task) {
+            this.task = task;
+        }
+
+        @Override
+        public void handleCancelled(Void attachment) {
+            task.done(false);
+        }
+
+        @Override
+        public void handleFailed(IOException exception, Void attachment) {
+            task.done(false);
+        }
+    }
+
+    /**
+     * Makes sure the callback is only invoked once, whichever of the probe and the timeout finishes first.
+     */
+    private static final class ProbeTask {
+
+        private final ProbeCallback callback;
+        private XnioExecutor.Key timeoutKey;
+        private Closeable connection;
+        private boolean done;
+
+        private ProbeTask(ProbeCallback callback) {
+            this.callback = callback;
+        }
+
+        boolean isDone() {
+            return done;
+        }
+
+        void done(boolean healthy) {
+            if (done) {
+                return;
+            }
+            done = true;
+            if (timeoutKey != null) {
+                timeoutKey.remove();
+            }
+            IoUtils.safeClose(connection);
+            callback.probeCompleted(healthy);
+        }
+    }
+}
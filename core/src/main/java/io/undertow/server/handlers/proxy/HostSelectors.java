@@ -0,0 +1,234 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers.proxy;
+
+import io.undertow.UndertowMessages;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The host selectors that are available for a {@link LoadBalancingProxyClient}.
+ * <p>
+ * The load aware selectors use the statistics that the proxy client maintains for each
+ * {@link LoadBalancingProxyClient.Host}, so a backend that is slow but not failing will receive less traffic.
+ *
+ * @author agent
+ */
+public class HostSelectors {
+
+    public static final String ROUND_ROBIN = "round-robin";
+    public static final String LEAST_OUTSTANDING_REQUESTS = "least-outstanding-requests";
+    public static final String PEAK_EWMA = "peak-ewma";
+    public static final String WEIGHTED = "weighted";
+
+    private HostSelectors() {
+    }
+
+    /**
+     * @return A selector that sends requests to each host in turn
+     */
+    public static LoadBalancingProxyClient.HostSelector roundRobin() {
+        return new LoadBalancingProxyClient.RoundRobinHostSelector();
+    }
+
+    /**
+     * @return A selector that sends requests to the host with the fewest requests in progress
+     */
+    public static LoadBalancingProxyClient.HostSelector leastOutstandingRequests() {
+        return new LeastOutstandingRequestsHostSelector();
+    }
+
+    /**
+     * @return A power of two choices selector, that uses the default decay time for the latency average
+     * @see #peakEwma(long, java.util.concurrent.TimeUnit)
+     */
+    public static LoadBalancingProxyClient.HostSelector peakEwma() {
+        return new PeakEwmaHostSelector(LoadBalancingProxyClient.LATENCY_DECAY);
+    }
+
+    /**
+     * Returns a selector that picks two hosts at random, and sends the request to the one with the lowest
+     * cost. The cost is the peak moving average of the host response latency multiplied by the number of requests
+     * that are in progress on the host. The peak average jumps to any sample that is higher than it, so a host
+     * that slows down is avoided straight away, and only comes back down gradually as faster responses arrive.
+     * <p>
+     * The latency average decays over time, so a host that has been avoided because it was slow will
+     * eventually be tried again.
+     *
+     * @param decay The time it takes for the latency average to decay
+     * @param unit  The unit of the decay time
+     * @return The selector
+     */
+    public static LoadBalancingProxyClient.HostSelector peakEwma(long decay, TimeUnit unit) {
+        if (decay <= 0) {
+            throw new IllegalArgumentException("Decay time must be positive");
+        }
+        return new PeakEwmaHostSelector(unit.toNanos(decay));
+    }
+
+    /**
+     * @return A selector that distributes requests in proportion to the host weights
+     * @see LoadBalancingProxyClient#addHost(java.net.URI, int)
+     */
+    public static LoadBalancingProxyClient.HostSelector weighted() {
+        return new WeightedHostSelector();
+    }
+
+    /**
+     * Returns a selector by name, as used by the <code>reverse-proxy</code> handler.
+     *
+     * @param name The selector name
+     * @return The selector
+     */
+    public static LoadBalancingProxyClient.HostSelector forName(String name) {
+        switch (name) {
+            case ROUND_ROBIN:
+                return roundRobin();
+            case LEAST_OUTSTANDING_REQUESTS:
+                return leastOutstandingRequests();
+            case PEAK_EWMA:
+                return peakEwma();
+            case WEIGHTED:
+                return weighted();
+            default:
+                throw UndertowMessages.MESSAGES.unknownHostSelector(name, ROUND_ROBIN + ", " + LEAST_OUTSTANDING_REQUESTS + ", " + PEAK_EWMA + ", " + WEIGHTED);
+        }
+    }
+
+    static final class LeastOutstandingRequestsHostSelector implements LoadBalancingProxyClient.HostSelector {
+
+        /**
+         * Used to rotate the start of the search, so ties are not always resolved in favour of the first host
+         */
+        private final AtomicInteger start = new AtomicInteger();
+
+        @Override
+        public int selectHost(LoadBalancingProxyClient.Host[] availableHosts) {
+            int length = availableHosts.length;
+            int offset = (start.incrementAndGet() & Integer.MAX_VALUE) % length;
+            int selected = offset;
+            int min = Integer.MAX_VALUE;
+            for (int i = 0; i < length; ++i) {
+                int index = (offset + i) % length;
+                int outstanding = availableHosts[index].getOutstandingRequests();
+                if (outstanding < min) {
+                    min = outstanding;
+                    selected = index;
+                    if (outstanding == 0) {
+                        break;
+                    }
+                }
+            }
+            return selected;
+        }
+    }
+
+    static final class PeakEwmaHostSelector implements LoadBalancingProxyClient.HostSelector {
+
+        private final long decay;
+
+        PeakEwmaHostSelector(long decay) {
+            this.decay = decay;
+        }
+
+        @Override
+        public int selectHost(LoadBalancingProxyClient.Host[] availableHosts) {
+            int length = availableHosts.length;
+            if (length == 1) {
+                return 0;
+            }
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int first = random.nextInt(length);
+            //pick a second host that is guaranteed to be different to the first
+            int second = (first + 1 + random.nextInt(length - 1)) % length;
+            return cost(availableHosts[second]) < cost(availableHosts[first]) ? second : first;
+        }
+
+        private double cost(LoadBalancingProxyClient.Host host) {
+            //the +1 on the latency means that outstanding requests still count when there is no latency data yet
+            return (host.getLatencyEwma(decay) + 1.0) * (host.getOutstandingRequests() + 1);
+        }
+    }
+
+    /**
+     * A smooth weighted round robin selector. The order in which hosts are selected is calculated once for each
+     * set of hosts, so that the hosts are interleaved rather than selected in runs. As the host array is replaced
+     * whenever a host is added or removed the schedule is rebuilt whenever it changes.
+     */
+    static final class WeightedHostSelector implements LoadBalancingProxyClient.HostSelector {
+
+        private final AtomicInteger current = new AtomicInteger();
+        private volatile Schedule schedule;
+
+        @Override
+        public int selectHost(LoadBalancingProxyClient.Host[] availableHosts) {
+            Schedule schedule = this.schedule;
+            if (schedule == null || schedule.hosts != availableHosts) {
+                //racing threads may both build the schedule, which is harmless
+                this.schedule = schedule = new Schedule(availableHosts);
+            }
+            int[] order = schedule.order;
+            return order[(current.incrementAndGet() & Integer.MAX_VALUE) % order.length];
+        }
+
+        private static final class Schedule {
+
+            private final LoadBalancingProxyClient.Host[] hosts;
+            private final int[] order;
+
+            Schedule(LoadBalancingProxyClient.Host[] hosts) {
+                this.hosts = hosts;
+                int divisor = 0;
+                for (LoadBalancingProxyClient.Host host : hosts) {
+                    divisor = gcd(divisor, host.getWeight());
+                }
+                int[] weights = new int[hosts.length];
+                int total = 0;
+                for (int i = 0; i < hosts.length; ++i) {
+                    weights[i] = hosts[i].getWeight() / divisor;
+                    total += weights[i];
+                }
+                int[] currentWeights = new int[hosts.length];
+                order = new int[total];
+                for (int i = 0; i < total; ++i) {
+                    int selected = 0;
+                    for (int j = 0; j < hosts.length; ++j) {
+                        currentWeights[j] += weights[j];
+                        if (currentWeights[j] > currentWeights[selected]) {
+                            selected = j;
+                        }
+                    }
+                    currentWeights[selected] -= total;
+                    order[i] = selected;
+                }
+            }
+
+            private static int gcd(int a, int b) {
+                while (b != 0) {
+                    int t = a % b;
+                    a = b;
+                    b = t;
+                }
+                return a;
+            }
+        }
+    }
+}
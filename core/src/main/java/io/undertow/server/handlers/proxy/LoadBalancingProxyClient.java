@@ -19,23 +19,36 @@
 package io.undertow.server.handlers.proxy;
 
 import io.undertow.UndertowLogger;
+import io.undertow.UndertowMessages;
 import io.undertow.client.ClientConnection;
 import io.undertow.client.UndertowClient;
+import io.undertow.connector.ByteBufferPool;
+import io.undertow.server.ExchangeCompletionListener;
 import io.undertow.server.HttpServerExchange;
+import io.undertow.server.ResponseCommitListener;
 import io.undertow.server.ServerConnection;
 import io.undertow.server.handlers.Cookie;
 import io.undertow.util.AttachmentKey;
 import io.undertow.util.CopyOnWriteMap;
+import io.undertow.util.StatusCodes;
 import org.xnio.OptionMap;
+import org.xnio.XnioExecutor;
+import org.xnio.XnioIoThread;
 import org.xnio.ssl.XnioSsl;
 
+import java.io.Closeable;
 import java.net.InetSocketAddress;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
 import static io.undertow.server.handlers.proxy.ProxyConnectionPool.AvailabilityType.*;
 import static org.xnio.IoUtils.safeClose;
@@ -47,7 +60,25 @@ import static org.xnio.IoUtils.safeClose;
  *
  * @author Stuart Douglas
  */
-public class LoadBalancingProxyClient implements ProxyClient {
+public class LoadBalancingProxyClient implements ProxyClient, Closeable {
+
+    private static final AtomicIntegerFieldUpdater<Host> OUTSTANDING_UPDATER = AtomicIntegerFieldUpdater.newUpdater(Host.class, "outstandingRequests");
+    private static final AtomicLongFieldUpdater<Host> LATENCY_UPDATER = AtomicLongFieldUpdater.newUpdater(Host.class, "latencyEwma");
+    private static final AtomicIntegerFieldUpdater<Host> FAILURES_UPDATER = AtomicIntegerFieldUpdater.newUpdater(Host.class, "consecutiveFailures");
+    private static final AtomicIntegerFieldUpdater<Host> HEALTH_STATE_UPDATER = AtomicIntegerFieldUpdater.newUpdater(Host.class, "healthState");
+
+    private static final int HEALTH_PROBE_ACTIVE = 1;
+    private static final int HEALTH_UNHEALTHY = 1 << 1;
+
+    /**
+     * The maximum multiple of the base ejection time that a host that is repeatedly ejected will be ejected for
+     */
+    private static final int MAX_EJECTION_MULTIPLIER = 10;
+
+    /**
+     * The decay time of the latency moving average, in nanoseconds
+     */
+    static final long LATENCY_DECAY = TimeUnit.SECONDS.toNanos(10);
 
     /**
      * The attachment key that is used to attach the proxy connection to the exchange.
@@ -56,6 +87,12 @@ public class LoadBalancingProxyClient implements ProxyClient {
      */
     private final AttachmentKey<ExclusiveConnectionHolder> exclusiveConnectionKey = AttachmentKey.create(ExclusiveConnectionHolder.class);
 
+    /**
+     * The attachment key that is used to track which hosts are serving the exchange, so the per host
+     * load statistics can be updated when the response starts and the exchange completes.
+     */
+    private final AttachmentKey<HostRequestTrackers> hostRequestKey = AttachmentKey.create(HostRequestTrackers.class);
+
 
     /**
      * Time in seconds between retries for problem servers
@@ -72,6 +109,23 @@ public class LoadBalancingProxyClient implements ProxyClient {
     private volatile int softMaxConnectionsPerThread = 5;
     private volatile int ttl = -1;
 
+    private volatile HostHealthCheck healthCheck;
+    private final Map<XnioIoThread, HealthCheckTask> healthCheckTasks = new CopyOnWriteMap<>();
+    private volatile boolean closed;
+
+    /**
+     * The number of consecutive failed responses that cause a host to be ejected, or 0 if passive ejection is disabled
+     */
+    private volatile int ejectionFailures = 0;
+    /**
+     * The response latency above which a response counts as failed, in nanoseconds, or 0 to only count 5xx responses
+     */
+    private volatile long ejectionSlowResponse = 0;
+    /**
+     * The base time a host is ejected for, in nanoseconds
+     */
+    private volatile long ejectionTime = TimeUnit.SECONDS.toNanos(30);
+
     /**
      * The hosts list.
      */
@@ -161,6 +215,52 @@ public class LoadBalancingProxyClient implements ProxyClient {
         return this;
     }
 
+    /**
+     * Sets the active health check that is used to probe the hosts. The probes are scheduled on each IO thread once
+     * it has handled a request, and each host is probed by only one thread per interval. A host that fails the check
+     * is only used if no healthy host is available.
+     *
+     * @param healthCheck The health check, or <code>null</code> to disable active health checking
+     * @return this
+     */
+    public synchronized LoadBalancingProxyClient setHealthCheck(HostHealthCheck healthCheck) {
+        this.healthCheck = healthCheck;
+        cancelHealthChecks();
+        for (Host host : hosts) {
+            //the results of the old check no longer apply
+            host.clearHealthState(HEALTH_UNHEALTHY);
+        }
+        return this;
+    }
+
+    public HostHealthCheck getHealthCheck() {
+        return healthCheck;
+    }
+
+    /**
+     * Enables passive outlier ejection. A host that returns the given number of consecutive failed responses is
+     * ejected from the load balancer for the ejection time, without waiting for the connection pool to report an
+     * error. A response is failed if it has a 5xx status code, or if it took longer than the slow response time to
+     * start. A host that is ejected again after being re-admitted is ejected for a multiple of the ejection time.
+     * <p>
+     * An ejected host is re-admitted early if it passes an active health check.
+     *
+     * @param consecutiveFailures The number of consecutive failures that cause an ejection, or 0 to disable ejection
+     * @param slowResponseTime    The time after which a response counts as failed, or 0 to only count 5xx responses
+     * @param ejectionTime        The base time a host is ejected for
+     * @param unit                The unit of the slow response and ejection times
+     * @return this
+     */
+    public LoadBalancingProxyClient setOutlierEjection(int consecutiveFailures, long slowResponseTime, long ejectionTime, TimeUnit unit) {
+        if (consecutiveFailures < 0 || slowResponseTime < 0 || ejectionTime <= 0) {
+            throw new IllegalArgumentException("Invalid outlier ejection parameters");
+        }
+        this.ejectionSlowResponse = unit.toNanos(slowResponseTime);
+        this.ejectionTime = unit.toNanos(ejectionTime);
+        this.ejectionFailures = consecutiveFailures;
+        return this;
+    }
+
     public synchronized LoadBalancingProxyClient addHost(final URI host) {
         return addHost(host, null, null);
     }
@@ -175,17 +275,19 @@ public class LoadBalancingProxyClient implements ProxyClient {
 
 
     public synchronized LoadBalancingProxyClient addHost(final URI host, String jvmRoute, XnioSsl ssl) {
+        return addHost(null, host, jvmRoute, ssl, OptionMap.EMPTY, 1);
+    }
 
-        Host h = new Host(jvmRoute, null, host, ssl, OptionMap.EMPTY);
-        Host[] existing = hosts;
-        Host[] newHosts = new Host[existing.length + 1];
-        System.arraycopy(existing, 0, newHosts, 0, existing.length);
-        newHosts[existing.length] = h;
-        this.hosts = newHosts;
-        if (jvmRoute != null) {
-            this.routes.put(jvmRoute, h);
-        }
-        return this;
+    /**
+     * Adds a host with the given weight. The weight is only used by selectors that take it into account, such as
+     * {@link HostSelectors#weighted()}.
+     *
+     * @param host   The host URI
+     * @param weight The relative weight of the host, must be at least 1
+     * @return this
+     */
+    public synchronized LoadBalancingProxyClient addHost(final URI host, int weight) {
+        return addHost(null, host, null, null, OptionMap.EMPTY, weight);
     }
 
 
@@ -195,7 +297,14 @@ public class LoadBalancingProxyClient implements ProxyClient {
 
 
     public synchronized LoadBalancingProxyClient addHost(final InetSocketAddress bindAddress, final URI host, String jvmRoute, XnioSsl ssl, OptionMap options) {
-        Host h = new Host(jvmRoute, bindAddress, host, ssl, options);
+        return addHost(bindAddress, host, jvmRoute, ssl, options, 1);
+    }
+
+    public synchronized LoadBalancingProxyClient addHost(final InetSocketAddress bindAddress, final URI host, String jvmRoute, XnioSsl ssl, OptionMap options, int weight) {
+        if (weight < 1) {
+            throw UndertowMessages.MESSAGES.invalidHostWeight(weight);
+        }
+        Host h = new Host(jvmRoute, bindAddress, host, ssl, options, weight);
         Host[] existing = hosts;
         Host[] newHosts = new Host[existing.length + 1];
         System.arraycopy(existing, 0, newHosts, 0, existing.length);
@@ -225,6 +334,10 @@ public class LoadBalancingProxyClient implements ProxyClient {
         System.arraycopy(existing, 0, newHosts, 0, found);
         System.arraycopy(existing, found + 1, newHosts, found, existing.length - found - 1);
         this.hosts = newHosts;
+        //the health check tasks only probe the current hosts, so once there are none left they can stop
+        if (newHosts.length == 0) {
+            cancelHealthChecks();
+        }
         removedHost.connectionPool.close();
         if (removedHost.jvmRoute != null) {
             routes.remove(removedHost.jvmRoute);
@@ -232,6 +345,26 @@ public class LoadBalancingProxyClient implements ProxyClient {
         return this;
     }
 
+    /**
+     * Stops the health checks and closes the connection pools of all hosts. The client cannot be used after it has
+     * been closed.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        cancelHealthChecks();
+        for (Host host : hosts) {
+            host.connectionPool.close();
+        }
+    }
+
+    private void cancelHealthChecks() {
+        for (HealthCheckTask task : healthCheckTasks.values()) {
+            task.cancel();
+        }
+        healthCheckTasks.clear();
+    }
+
     @Override
     public ProxyTarget findTarget(HttpServerExchange exchange) {
         return PROXY_TARGET;
@@ -246,10 +379,16 @@ public class LoadBalancingProxyClient implements ProxyClient {
             return;
         }
 
+        final HostHealthCheck healthCheck = this.healthCheck;
+        if (healthCheck != null && !closed) {
+            scheduleHealthCheck(healthCheck, exchange);
+        }
+
         final Host host = selectHost(exchange);
         if (host == null) {
             callback.couldNotResolveBackend(exchange);
         } else {
+            trackRequest(exchange, host, callback);
             if (holder != null || (exclusivityChecker != null && exclusivityChecker.isExclusivityRequired(exchange))) {
                 // If we have a holder, even if the connection was closed we now exclusivity was already requested so our client
                 // may be assuming it still exists.
@@ -300,6 +439,14 @@ public class LoadBalancingProxyClient implements ProxyClient {
         }
     }
 
+    /**
+     *
+     * @return A copy of the current hosts
+     */
+    public Host[] getHosts() {
+        return hosts.clone();
+    }
+
     protected Host selectHost(HttpServerExchange exchange) {
         Host[] hosts = this.hosts;
         if (hosts.length == 0) {
@@ -311,13 +458,21 @@ public class LoadBalancingProxyClient implements ProxyClient {
         }
         int host = hostSelector.selectHost(hosts);
 
+        //if the request is being retried or hedged then it should go to a different host if possible
+        final HostRequestTrackers trackers = exchange.getAttachment(hostRequestKey);
+
         final int startHost = host; //if the all hosts have problems we come back to this one
         Host full = null;
         Host problem = null;
         do {
             Host selected = hosts[host];
             ProxyConnectionPool.AvailabilityType available = selected.connectionPool.available();
-            if (available == AVAILABLE) {
+            if ((trackers != null && trackers.hasTried(selected) && hosts.length > 1) || !selected.isHealthy()) {
+                //unhealthy hosts are only used as a last resort, so a failure of every host does not take down the proxy
+                if (available != CLOSED && problem == null) {
+                    problem = selected;
+                }
+            } else if (available == AVAILABLE) {
                 return selected;
             } else if (available == FULL && full == null) {
                 full = selected;
@@ -336,6 +491,47 @@ public class LoadBalancingProxyClient implements ProxyClient {
         return null;
     }
 
+    private void trackRequest(HttpServerExchange exchange, Host host, ProxyCallback<ProxyConnection> callback) {
+        HostRequestTrackers trackers = exchange.getAttachment(hostRequestKey);
+        if (trackers == null) {
+            trackers = new HostRequestTrackers();
+            exchange.putAttachment(hostRequestKey, trackers);
+            exchange.addResponseCommitListener(trackers);
+            exchange.addExchangeCompleteListener(trackers);
+        }
+        trackers.start(host, callback);
+    }
+
+    /**
+     * Releases the load that an attempt placed on its host without recording a latency or a response for it. This is
+     * used when an attempt loses to a hedged request, or fails and is retried elsewhere, so the load and latency
+     * statistics only reflect the attempt that actually served the exchange.
+     *
+     * @param exchange The exchange
+     * @param callback The callback that was passed to {@link #getConnection} for the attempt
+     */
+    void attemptAbandoned(HttpServerExchange exchange, ProxyCallback<ProxyConnection> callback) {
+        HostRequestTrackers trackers = exchange.getAttachment(hostRequestKey);
+        if (trackers != null) {
+            trackers.abandon(callback);
+        }
+    }
+
+    private void scheduleHealthCheck(HostHealthCheck healthCheck, HttpServerExchange exchange) {
+        final XnioIoThread ioThread = exchange.getIoThread();
+        if (healthCheckTasks.containsKey(ioThread)) {
+            return;
+        }
+        final HealthCheckTask task = new HealthCheckTask(healthCheck, ioThread, exchange.getConnection().getByteBufferPool());
+        if (healthCheckTasks.putIfAbsent(ioThread, task) == null) {
+            task.cancelKey = ioThread.executeAtInterval(task, healthCheck.getInterval(), TimeUnit.MILLISECONDS);
+            if (closed || healthCheckTasks.get(ioThread) != task) {
+                //cancelled while it was being scheduled
+                task.cancel();
+            }
+        }
+    }
+
     protected Host findStickyHost(HttpServerExchange exchange) {
         Map<String, Cookie> cookies = exchange.getRequestCookies();
         for (String cookieName : sessionCookieNames) {
@@ -362,12 +558,226 @@ public class LoadBalancingProxyClient implements ProxyClient {
         final String jvmRoute;
         final URI uri;
         final XnioSsl ssl;
-
-        private Host(String jvmRoute, InetSocketAddress bindAddress, URI uri, XnioSsl ssl, OptionMap options) {
+        final InetSocketAddress bindAddress;
+        final OptionMap options;
+        final int weight;
+
+        /**
+         * The number of requests that have been sent to this host and have not completed yet
+         */
+        volatile int outstandingRequests;
+
+        /**
+         * The peak exponentially weighted moving average of the time until the response starts, in nanoseconds. A
+         * sample that is higher than the average replaces it, lower samples are averaged in.
+         */
+        volatile long latencyEwma;
+
+        /**
+         * The time the last latency sample was recorded, as given by {@link System#nanoTime()}
+         */
+        private volatile long lastLatencySample;
+
+        /**
+         * The number of consecutive failed responses, used for passive outlier ejection
+         */
+        volatile int consecutiveFailures;
+        private volatile int ejections;
+        private volatile long ejectedUntil;
+
+        /**
+         * The active health check state, a combination of the HEALTH_* flags
+         */
+        volatile int healthState;
+        private volatile long lastProbe;
+        //only accessed by the thread that holds the HEALTH_PROBE_ACTIVE flag
+        private int probeSuccesses;
+        private int probeFailures;
+
+        private Host(String jvmRoute, InetSocketAddress bindAddress, URI uri, XnioSsl ssl, OptionMap options, int weight) {
             this.connectionPool = new ProxyConnectionPool(this, bindAddress, uri, ssl, client, options);
             this.jvmRoute = jvmRoute;
             this.uri = uri;
             this.ssl = ssl;
+            this.bindAddress = bindAddress;
+            this.options = options;
+            this.weight = weight;
+        }
+
+        /**
+         * @return <code>false</code> if this host has failed its active health check, or has been ejected because of
+         * failed responses
+         */
+        public boolean isHealthy() {
+            if ((healthState & HEALTH_UNHEALTHY) != 0) {
+                return false;
+            }
+            long until = ejectedUntil;
+            return until == 0 || System.nanoTime() - until >= 0;
+        }
+
+        /**
+         * @return The relative weight of this host
+         */
+        public int getWeight() {
+            return weight;
+        }
+
+        /**
+         * @return The number of requests that have been sent to this host and have not completed yet
+         */
+        public int getOutstandingRequests() {
+            return outstandingRequests;
+        }
+
+        /**
+         * Returns the peak moving average of the time it takes this host to start a response. A slow response is
+         * reflected straight away, while the average only comes down gradually as faster responses arrive. As the
+         * average decays over time a host that has not received any requests recently will eventually look fast
+         * again, which means it gets another chance once it has recovered.
+         *
+         * @param decay The decay time of the average, in nanoseconds
+         * @return The average latency in nanoseconds, decayed to the current time
+         */
+        public long getLatencyEwma(long decay) {
+            long ewma = latencyEwma;
+            if (ewma == 0) {
+                return 0;
+            }
+            long elapsed = System.nanoTime() - lastLatencySample;
+            if (elapsed <= 0) {
+                return ewma;
+            }
+            return (long) (ewma * Math.exp(-(double) elapsed / decay));
+        }
+
+        void requestStarted() {
+            OUTSTANDING_UPDATER.incrementAndGet(this);
+        }
+
+        void requestCompleted() {
+            OUTSTANDING_UPDATER.decrementAndGet(this);
+        }
+
+        void recordLatency(long nanos) {
+            long now = System.nanoTime();
+            long last = lastLatencySample;
+            long ewma;
+            long updated;
+            do {
+                ewma = latencyEwma;
+                if (ewma == 0 || nanos > ewma) {
+                    //a host that has become slow is penalised straight away, rather than once enough samples arrive
+                    updated = Math.max(1, nanos);
+                } else {
+                    //the older the current value the less it counts, so the average adapts quickly after a quiet period
+                    double w = Math.exp(-(double) Math.max(0, now - last) / LATENCY_DECAY);
+                    updated = Math.max(1, (long) (ewma * w + nanos * (1 - w)));
+                }
+            } while (!LATENCY_UPDATER.compareAndSet(this, ewma, updated));
+            //racing updates may leave this slightly out of step with the average, which does not matter for load balancing
+            lastLatencySample = now;
+        }
+
+        /**
+         * Records the outcome of a response for passive outlier ejection.
+         */
+        void responseCompleted(long latency, int statusCode) {
+            final int threshold = ejectionFailures;
+            if (threshold <= 0) {
+                return;
+            }
+            final long slow = ejectionSlowResponse;
+            if (statusCode < 500 && (slow == 0 || latency <= slow)) {
+                if (consecutiveFailures != 0) {
+                    consecutiveFailures = 0;
+                }
+                if (ejections != 0 && isHealthy()) {
+                    ejections = 0;
+                }
+                return;
+            }
+            if (FAILURES_UPDATER.incrementAndGet(this) >= threshold) {
+                consecutiveFailures = 0;
+                long now = System.nanoTime();
+                long until = ejectedUntil;
+                if (until == 0 || now - until >= 0) {
+                    //failures from requests that were already in progress do not extend an ejection
+                    int count = Math.min(MAX_EJECTION_MULTIPLIER, ++ejections);
+                    ejectedUntil = now + ejectionTime * count;
+                    UndertowLogger.PROXY_REQUEST_LOGGER.debugf("Ejecting host %s after %s consecutive failed responses", uri, threshold);
+                }
+            }
+        }
+
+        void probeIfDue(final HostHealthCheck healthCheck, XnioIoThread ioThread, ByteBufferPool bufferPool) {
+            final long now = System.nanoTime();
+            final long last = lastProbe;
+            if (last != 0 && now - last < TimeUnit.MILLISECONDS.toNanos(healthCheck.getInterval())) {
+                //another IO thread has already probed this host in the current interval
+                return;
+            }
+            if (!setHealthState(HEALTH_PROBE_ACTIVE)) {
+                return;
+            }
+            if (lastProbe != last) {
+                //a probe by another thread completed in the meantime
+                clearHealthState(HEALTH_PROBE_ACTIVE);
+                return;
+            }
+            lastProbe = now;
+            healthCheck.probe(this, ioThread, client, bufferPool, new HostHealthCheck.ProbeCallback() {
+                @Override
+                public void probeCompleted(boolean healthy) {
+                    probeResult(healthCheck, healthy);
+                }
+            });
+        }
+
+        private void probeResult(HostHealthCheck healthCheck, boolean healthy) {
+            try {
+                if (healthy) {
+                    probeFailures = 0;
+                    if (ejectedUntil != 0) {
+                        ejectedUntil = 0;
+                    }
+                    if ((healthState & HEALTH_UNHEALTHY) != 0 && ++probeSuccesses >= healthCheck.getHealthyThreshold()) {
+                        probeSuccesses = 0;
+                        clearHealthState(HEALTH_UNHEALTHY);
+                        UndertowLogger.PROXY_REQUEST_LOGGER.debugf("Host %s passed health check, returning to service", uri);
+                    }
+                } else {
+                    probeSuccesses = 0;
+                    if ((healthState & HEALTH_UNHEALTHY) == 0 && ++probeFailures >= healthCheck.getUnhealthyThreshold()) {
+                        probeFailures = 0;
+                        setHealthState(HEALTH_UNHEALTHY);
+                        UndertowLogger.PROXY_REQUEST_LOGGER.debugf("Host %s failed health check, removing from service", uri);
+                    }
+                }
+            } finally {
+                clearHealthState(HEALTH_PROBE_ACTIVE);
+            }
+        }
+
+        private boolean setHealthState(int flag) {
+            int old;
+            do {
+                old = healthState;
+                if ((old & flag) != 0) {
+                    return false;
+                }
+            } while (!HEALTH_STATE_UPDATER.compareAndSet(this, old, old | flag));
+            return true;
+        }
+
+        void clearHealthState(int flag) {
+            int old;
+            do {
+                old = healthState;
+                if ((old & flag) == 0) {
+                    return;
+                }
+            } while (!HEALTH_STATE_UPDATER.compareAndSet(this, old, old & ~flag));
         }
 
         @Override
@@ -403,6 +813,138 @@ public class LoadBalancingProxyClient implements ProxyClient {
         public URI getUri() {
             return uri;
         }
+
+        public ProxyConnectionPool getConnectionPool() {
+            return connectionPool;
+        }
+    }
+
+    /**
+     * Updates the load statistics of the hosts that are serving an exchange. There is a tracker for each attempt to send
+     * the request, as a hedged request is in progress on more than one host at once. All these callbacks happen in the
+     * IO thread of the exchange, so the trackers need no synchronization.
+     */
+    private static final class HostRequestTrackers implements ResponseCommitListener, ExchangeCompletionListener {
+
+        private final List<HostRequestTracker> active = new ArrayList<>(2);
+        private final List<Host> tried = new ArrayList<>(2);
+        private boolean responseStarted;
+
+        void start(Host host, ProxyCallback<ProxyConnection> callback) {
+            //the same callback being used again means the previous attempt failed and is being retried
+            abandon(callback);
+            active.add(new HostRequestTracker(host, callback));
+            if (!tried.contains(host)) {
+                tried.add(host);
+            }
+        }
+
+        void abandon(ProxyCallback<ProxyConnection> callback) {
+            Iterator<HostRequestTracker> it = active.iterator();
+            while (it.hasNext()) {
+                HostRequestTracker tracker = it.next();
+                if (tracker.callback == callback) {
+                    it.remove();
+                    tracker.host.requestCompleted();
+                }
+            }
+        }
+
+        boolean hasTried(Host host) {
+            return tried.contains(host);
+        }
+
+        /**
+         * @return The most recent attempt that has not been abandoned, which is the one serving the response
+         */
+        private HostRequestTracker current() {
+            return active.isEmpty() ? null : active.get(active.size() - 1);
+        }
+
+        @Override
+        public void beforeCommit(HttpServerExchange exchange) {
+            if (!responseStarted) {
+                responseStarted = true;
+                HostRequestTracker tracker = current();
+                if (tracker != null) {
+                    long latency = System.nanoTime() - tracker.start;
+                    tracker.host.recordLatency(latency);
+                    tracker.host.responseCompleted(latency, exchange.getStatusCode());
+                }
+            }
+        }
+
+        @Override
+        public void exchangeEvent(HttpServerExchange exchange, NextListener nextListener) {
+            try {
+                HostRequestTracker tracker = current();
+                if (!responseStarted && tracker != null) {
+                    //the backend never started a response, so count the whole exchange against it
+                    responseStarted = true;
+                    long latency = System.nanoTime() - tracker.start;
+                    tracker.host.recordLatency(latency);
+                    tracker.host.responseCompleted(latency, StatusCodes.INTERNAL_SERVER_ERROR);
+                }
+                for (HostRequestTracker t : active) {
+                    t.host.requestCompleted();
+                }
+                active.clear();
+            } finally {
+                nextListener.proceed();
+            }
+        }
+    }
+
+    private static final class HostRequestTracker {
+
+        private final Host host;
+        private final ProxyCallback<ProxyConnection> callback;
+        private final long start;
+
+        private HostRequestTracker(Host host, ProxyCallback<ProxyConnection> callback) {
+            this.host = host;
+            this.callback = callback;
+            this.start = System.nanoTime();
+            host.requestStarted();
+        }
+    }
+
+    /**
+     * Runs the active health check on a single IO thread. The hosts are shared between all the tasks, and each
+     * probe is claimed by whichever task runs first, so the probes are spread across the IO threads.
+     */
+    private final class HealthCheckTask implements Runnable {
+
+        private final HostHealthCheck healthCheck;
+        private final XnioIoThread ioThread;
+        private final ByteBufferPool bufferPool;
+        private volatile XnioExecutor.Key cancelKey;
+
+        private HealthCheckTask(HostHealthCheck healthCheck, XnioIoThread ioThread, ByteBufferPool bufferPool) {
+            this.healthCheck = healthCheck;
+            this.ioThread = ioThread;
+            this.bufferPool = bufferPool;
+        }
+
+        @Override
+        public void run() {
+            if (closed || healthCheck != LoadBalancingProxyClient.this.healthCheck) {
+                //the client has been closed or the health check replaced since this task was scheduled
+                cancel();
+                healthCheckTasks.remove(ioThread, this);
+                return;
+            }
+            for (Host host : hosts) {
+                host.probeIfDue(healthCheck, ioThread, bufferPool);
+            }
+        }
+
+        void cancel() {
+            XnioExecutor.Key key = cancelKey;
+            if (key != null) {
+                key.remove();
+            }
+        }
     }
 
     private static class ExclusiveConnectionHolder {
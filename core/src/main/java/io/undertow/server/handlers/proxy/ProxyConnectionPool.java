@@ -20,6 +20,7 @@ package io.undertow.server.handlers.proxy;
 
 import io.undertow.UndertowLogger;
 import io.undertow.UndertowMessages;
+import io.undertow.UndertowOptions;
 import io.undertow.client.ClientCallback;
 import io.undertow.client.ClientConnection;
 import io.undertow.client.ClientStatistics;
@@ -39,7 +40,9 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.URI;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Deque;
+import java.util.List;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -52,6 +55,11 @@ import java.util.concurrent.atomic.AtomicLong;
  *
  * In this case the caller is responsible for closing any connections.
  *
+ * If the target supports a multiplexed protocol such as HTTP/2 then a connection is shared between multiple requests, up to
+ * the smaller of {@link UndertowOptions#MAX_CONCURRENT_REQUESTS_PER_CONNECTION} and the stream limit advertised by the
+ * target. New connections are only opened once all existing connections are at this limit. A multiplexed connection
+ * with no active requests is closed once it has been idle for the time to live, in the same way as other idle connections.
+ *
  * @author Stuart Douglas
  */
 public class ProxyConnectionPool implements Closeable {
@@ -94,6 +102,17 @@ public class ProxyConnectionPool implements Closeable {
      */
     private final int coreCachedConnections;
 
+    /**
+     * The maximum number of requests that will be sent concurrently over a multiplexed connection
+     */
+    private final int maxRequestsPerConnection;
+
+    /**
+     * Set once a multiplexed connection has been established to the target. Once this is known requests wait for a
+     * connection that is being opened, rather than all opening their own connection.
+     */
+    private volatile boolean multiplexed;
+
     /**
      * The timeout for idle connections. Note that if {@code #coreCachedConnections} is set then once the pool is down
      * to the core size no more connections will be timed out.
@@ -120,6 +139,8 @@ public class ProxyConnectionPool implements Closeable {
 
     private final ConcurrentMap<XnioIoThread, HostThreadData> hostThreadData = new CopyOnWriteMap<>();
 
+    private static final int DEFAULT_MAX_REQUESTS_PER_CONNECTION = 100;
+
     public ProxyConnectionPool(ConnectionPoolManager connectionPoolManager, URI uri, UndertowClient client, OptionMap options) {
         this(connectionPoolManager, uri, null, client, options);
     }
@@ -143,6 +164,7 @@ public class ProxyConnectionPool implements Closeable {
         this.ssl = ssl;
         this.client = client;
         this.options = options;
+        this.maxRequestsPerConnection = Math.max(options.get(UndertowOptions.MAX_CONCURRENT_REQUESTS_PER_CONNECTION, DEFAULT_MAX_REQUESTS_PER_CONNECTION), 1);
     }
 
     public URI getUri() {
@@ -160,6 +182,12 @@ public class ProxyConnectionPool implements Closeable {
             if (holder != null) {
                 IoUtils.safeClose(holder.clientConnection);
             }
+            //this is not the IO thread of the connections, so take a copy to iterate
+            for (ConnectionHolder multiplexedHolder : new ArrayList<>(data.multiplexedConnections)) {
+                if (multiplexedHolder.activeRequests == 0) {
+                    IoUtils.safeClose(multiplexedHolder.clientConnection);
+                }
+            }
         }
     }
 
@@ -180,6 +208,10 @@ public class ProxyConnectionPool implements Closeable {
         }
 
         HostThreadData hostData = getData();
+        if (connectionHolder.multiplexed) {
+            returnMultiplexedConnection(hostData, connectionHolder);
+            return;
+        }
         if (closed) {
             //the host has been closed
             IoUtils.safeClose(connectionHolder.clientConnection);
@@ -242,10 +274,113 @@ public class ProxyConnectionPool implements Closeable {
         }
     }
 
+    private void returnMultiplexedConnection(final HostThreadData hostData, final ConnectionHolder connectionHolder) {
+        connectionHolder.activeRequests--;
+        final ClientConnection connection = connectionHolder.clientConnection;
+        if (closed) {
+            if (connectionHolder.activeRequests == 0) {
+                IoUtils.safeClose(connection);
+            }
+            redistributeQueued(hostData);
+            return;
+        }
+        if (connection.isOpen()) {
+            //the stream that just finished can be used by a queued request
+            serveQueued(hostData, connectionHolder);
+            if (connectionHolder.activeRequests == 0 && timeToLive > 0) {
+                connectionHolder.timeout = System.currentTimeMillis() + timeToLive;
+                if (hostData.multiplexedTimeoutKey == null) {
+                    hostData.multiplexedTimeoutKey = connection.getIoThread().executeAfter(hostData.multiplexedTimeoutTask, timeToLive, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes multiplexed connections that have had no active requests for the time to live. As with other idle
+     * connections at least {@link #coreCachedConnections} are kept open.
+     *
+     * @param currentTime    the current time
+     * @param data           the local host thread data
+     */
+    private void timeoutMultiplexedConnections(final long currentTime, final HostThreadData data) {
+        data.multiplexedTimeoutKey = null;
+        int open = data.multiplexedConnections.size();
+        ConnectionHolder next = null;
+        //closing a connection removes it from the list, so iterate over a copy
+        for (ConnectionHolder holder : new ArrayList<>(data.multiplexedConnections)) {
+            if (holder.activeRequests > 0 || !holder.clientConnection.isOpen()) {
+                continue;
+            }
+            if (currentTime >= holder.timeout) {
+                if (open > coreCachedConnections) {
+                    open--;
+                    IoUtils.safeClose(holder.clientConnection);
+                }
+            } else if (next == null || holder.timeout < next.timeout) {
+                next = holder;
+            }
+        }
+        if (next != null && !closed) {
+            final long remaining = next.timeout - currentTime + 1;
+            data.multiplexedTimeoutKey = next.clientConnection.getIoThread().executeAfter(data.multiplexedTimeoutTask, remaining, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Hands a multiplexed connection to queued requests until it is at its concurrency limit
+     */
+    private void serveQueued(final HostThreadData hostData, final ConnectionHolder connectionHolder) {
+        while (connectionHolder.activeRequests < getMaxRequests(connectionHolder)) {
+            CallbackHolder callback = hostData.awaitingConnections.poll();
+            while (callback != null && callback.isCancelled()) {
+                callback = hostData.awaitingConnections.poll();
+            }
+            if (callback == null) {
+                return;
+            }
+            if (callback.getTimeoutKey() != null) {
+                callback.getTimeoutKey().remove();
+            }
+            connectionReady(connectionHolder, callback.getCallback(), callback.getExchange(), false);
+        }
+    }
+
+    private int getMaxRequests(final ConnectionHolder connectionHolder) {
+        int max = maxRequestsPerConnection;
+        try {
+            //the target may advertise a lower limit on concurrent streams, this can change during the life of the connection
+            Integer streams = connectionHolder.clientConnection.getOption(UndertowOptions.HTTP2_SETTINGS_MAX_CONCURRENT_STREAMS);
+            if (streams != null && streams < max) {
+                max = Math.max(streams, 1);
+            }
+        } catch (IOException e) {
+            UndertowLogger.REQUEST_IO_LOGGER.ioException(e);
+        }
+        return max;
+    }
+
+    /**
+     * @return The open multiplexed connection with the fewest active requests that can accept another request, or null
+     */
+    private ConnectionHolder selectMultiplexedConnection(final HostThreadData hostData) {
+        ConnectionHolder selected = null;
+        for (ConnectionHolder holder : hostData.multiplexedConnections) {
+            if (holder.clientConnection.isOpen() && holder.activeRequests < getMaxRequests(holder)
+                    && (selected == null || holder.activeRequests < selected.activeRequests)) {
+                selected = holder;
+            }
+        }
+        return selected;
+    }
+
     private void handleClosedConnection(HostThreadData hostData, final ConnectionHolder connection) {
         openConnections.decrementAndGet();
         int connections = --hostData.connections;
         hostData.availableConnections.remove(connection);
+        if (connection.multiplexed) {
+            hostData.multiplexedConnections.remove(connection);
+        }
         if (connections < maxConnections) {
             CallbackHolder task = hostData.awaitingConnections.poll();
             while (task != null && task.isCancelled()) {
@@ -260,6 +395,7 @@ public class ProxyConnectionPool implements Closeable {
     private void openConnection(final HttpServerExchange exchange, final ProxyCallback<ProxyConnection> callback, final HostThreadData data, final boolean exclusive) {
         if (!exclusive) {
             data.connections++;
+            data.connecting++;
         }
         client.connect(new ClientCallback<ClientConnection>() {
             @Override
@@ -267,25 +403,39 @@ public class ProxyConnectionPool implements Closeable {
                 openConnections.incrementAndGet();
                 final ConnectionHolder connectionHolder = new ConnectionHolder(result);
                 if (!exclusive) {
+                    data.connecting--;
                     result.getCloseSetter().set(new ChannelListener<ClientConnection>() {
                         @Override
                         public void handleEvent(ClientConnection channel) {
                             handleClosedConnection(data, connectionHolder);
                         }
                     });
+                    if (result.isMultiplexingSupported()) {
+                        multiplexed = true;
+                        connectionHolder.multiplexed = true;
+                        data.multiplexedConnections.add(connectionHolder);
+                    }
                 }
                 connectionReady(connectionHolder, callback, exchange, exclusive);
+                if (connectionHolder.multiplexed) {
+                    //requests that were waiting for this connection to open can now share it
+                    serveQueued(data, connectionHolder);
+                }
             }
 
             @Override
             public void failed(IOException e) {
                 if (!exclusive) {
                     data.connections--;
+                    data.connecting--;
                 }
                 UndertowLogger.REQUEST_LOGGER.debug("Failed to connect", e);
                 if (!connectionPoolManager.handleError()) {
                     redistributeQueued(getData());
                     scheduleFailedHostRetry(exchange);
+                } else if (multiplexed && !exclusive && data.connecting == 0) {
+                    //requests may have been waiting for this connection, rather than for a connection to be returned
+                    redistributeQueued(data);
                 }
                 callback.failed(exchange);
             }
@@ -311,6 +461,9 @@ public class ProxyConnectionPool implements Closeable {
     }
 
     private void connectionReady(final ConnectionHolder result, final ProxyCallback<ProxyConnection> callback, final HttpServerExchange exchange, final boolean exclusive) {
+        if (result.multiplexed) {
+            result.activeRequests++;
+        }
         exchange.addExchangeCompleteListener(new ExchangeCompletionListener() {
             @Override
             public void exchangeEvent(HttpServerExchange exchange, NextListener nextListener) {
@@ -335,6 +488,9 @@ public class ProxyConnectionPool implements Closeable {
         if (data.connections < maxConnections) {
             return AvailabilityType.AVAILABLE;
         }
+        if (selectMultiplexedConnection(data) != null) {
+            return AvailabilityType.AVAILABLE;
+        }
         if (!data.availableConnections.isEmpty()) {
             return AvailabilityType.AVAILABLE;
         }
@@ -499,11 +655,22 @@ public class ProxyConnectionPool implements Closeable {
      */
     public void connect(ProxyClient.ProxyTarget proxyTarget, HttpServerExchange exchange, ProxyCallback<ProxyConnection> callback, final long timeout, final TimeUnit timeUnit, boolean exclusive) {
         HostThreadData data = getData();
+        if (!exclusive) {
+            ConnectionHolder multiplexedHolder = selectMultiplexedConnection(data);
+            if (multiplexedHolder != null) {
+                connectionReady(multiplexedHolder, callback, exchange, false);
+                return;
+            }
+        }
         ConnectionHolder connectionHolder = data.availableConnections.poll();
         while (connectionHolder != null && !connectionHolder.clientConnection.isOpen()) {
             connectionHolder = data.availableConnections.poll();
         }
-        if (connectionHolder != null) {
+        if (!exclusive && connectionHolder == null && multiplexed && data.connecting > 0
+                && data.awaitingConnections.size() < data.connecting * maxRequestsPerConnection) {
+            //a multiplexed connection is already being opened, so wait for it rather than opening another one
+            addToQueue(proxyTarget, exchange, callback, timeout, timeUnit, data);
+        } else if (connectionHolder != null) {
             if (exclusive) {
                 data.connections--;
             }
@@ -516,26 +683,38 @@ public class ProxyConnectionPool implements Closeable {
                 callback.queuedRequestFailed(exchange);
                 return;
             }
-            CallbackHolder holder;
-            if (timeout > 0) {
-                long time = System.currentTimeMillis();
-                holder = new CallbackHolder(proxyTarget, callback, exchange, time + timeUnit.toMillis(timeout));
-                holder.setTimeoutKey(exchange.getIoThread().executeAfter(holder, timeout, timeUnit));
-            } else {
-                holder = new CallbackHolder(proxyTarget, callback, exchange, -1);
-            }
-            data.awaitingConnections.add(holder);
+            addToQueue(proxyTarget, exchange, callback, timeout, timeUnit, data);
+        }
+    }
+
+    private void addToQueue(ProxyClient.ProxyTarget proxyTarget, HttpServerExchange exchange, ProxyCallback<ProxyConnection> callback, long timeout, TimeUnit timeUnit, HostThreadData data) {
+        CallbackHolder holder;
+        if (timeout > 0) {
+            long time = System.currentTimeMillis();
+            holder = new CallbackHolder(proxyTarget, callback, exchange, time + timeUnit.toMillis(timeout));
+            holder.setTimeoutKey(exchange.getIoThread().executeAfter(holder, timeout, timeUnit));
+        } else {
+            holder = new CallbackHolder(proxyTarget, callback, exchange, -1);
         }
+        data.awaitingConnections.add(holder);
     }
 
     private final class HostThreadData {
 
         int connections = 0;
+        /**
+         * The number of connections that are currently being opened
+         */
+        int connecting = 0;
         XnioIoThread.Key timeoutKey;
         long nextTimeout = -1;
 
         final Deque<ConnectionHolder> availableConnections = new ArrayDeque<>();
         final Deque<CallbackHolder> awaitingConnections = new ArrayDeque<>();
+        /**
+         * Open multiplexed connections, these are shared between requests and are never in {@link #availableConnections}
+         */
+        final List<ConnectionHolder> multiplexedConnections = new ArrayList<>();
         final Runnable timeoutTask = new Runnable() {
             @Override
             public void run() {
@@ -543,6 +722,14 @@ public class ProxyConnectionPool implements Closeable {
                 timeoutConnections(currentTime, HostThreadData.this);
             }
         };
+        XnioIoThread.Key multiplexedTimeoutKey;
+        final Runnable multiplexedTimeoutTask = new Runnable() {
+            @Override
+            public void run() {
+                final long currentTime = System.currentTimeMillis();
+                timeoutMultiplexedConnections(currentTime, HostThreadData.this);
+            }
+        };
 
     }
 
@@ -550,6 +737,11 @@ public class ProxyConnectionPool implements Closeable {
 
         private long timeout;
         private final ClientConnection clientConnection;
+        private boolean multiplexed;
+        /**
+         * The number of exchanges that are currently using this connection
+         */
+        private int activeRequests;
 
         private ConnectionHolder(ClientConnection clientConnection) {
             this.clientConnection = clientConnection;
@@ -19,6 +19,7 @@
 package io.undertow.server.handlers.proxy;
 
 import io.undertow.UndertowLogger;
+import io.undertow.UndertowMessages;
 import io.undertow.UndertowOptions;
 import io.undertow.attribute.ExchangeAttribute;
 import io.undertow.attribute.ExchangeAttributes;
@@ -30,6 +31,7 @@ import io.undertow.client.ClientResponse;
 import io.undertow.client.ContinueNotification;
 import io.undertow.client.ProxiedRequestAttachments;
 import io.undertow.client.PushCallback;
+import io.undertow.client.UndertowClient;
 import io.undertow.io.IoCallback;
 import io.undertow.io.Sender;
 import io.undertow.server.ExchangeCompletionListener;
@@ -50,6 +52,8 @@ import io.undertow.util.HeaderMap;
 import io.undertow.util.HeaderValues;
 import io.undertow.util.Headers;
 import io.undertow.util.HttpString;
+import io.undertow.util.LatencyHistogram;
+import io.undertow.util.Methods;
 import io.undertow.util.SameThreadExecutor;
 import io.undertow.util.StatusCodes;
 import io.undertow.util.Transfer;
@@ -58,6 +62,7 @@ import org.xnio.ChannelExceptionHandler;
 import org.xnio.ChannelListener;
 import org.xnio.ChannelListeners;
 import org.xnio.IoUtils;
+import org.xnio.OptionMap;
 import org.xnio.StreamConnection;
 import org.xnio.XnioExecutor;
 import org.xnio.channels.StreamSinkChannel;
@@ -101,6 +106,11 @@ public final class ProxyHandler implements HttpHandler {
     private static final Logger log = Logger.getLogger(ProxyHandler.class.getPackage().getName());
 
     public static final String UTF_8 = StandardCharsets.UTF_8.name();
+
+    /**
+     * The URI scheme for backends that are connected to with HTTP/2 prior knowledge
+     */
+    private static final String HTTP2_PRIOR_KNOWLEDGE = "h2c-prior";
     private final ProxyClient proxyClient;
     private final int maxRequestTime;
 
@@ -117,6 +127,21 @@ public final class ProxyHandler implements HttpHandler {
 
     private final boolean rewriteHostHeader;
     private final boolean reuseXForwarded;
+    private final int maxRetryAttempts;
+
+    private volatile RetryBudget retryBudget = new RetryBudget();
+
+    /**
+     * The percentile of the backend latency after which a request is hedged, or a negative number if hedging is disabled
+     */
+    private volatile double hedgePercentile = -1;
+    private volatile long minHedgeDelay;
+    private volatile long hedgeDelay = -1;
+    private volatile long hedgeDelayExpires;
+    private final LatencyHistogram latencies = new LatencyHistogram(1, TimeUnit.SECONDS, HEDGE_WINDOW);
+
+    private static final int HEDGE_WINDOW = 30;
+    private static final int MIN_HEDGE_SAMPLES = 100;
 
     public ProxyHandler(ProxyClient proxyClient, int maxRequestTime, HttpHandler next) {
         this(proxyClient, maxRequestTime, next, false, false);
@@ -131,11 +156,26 @@ public final class ProxyHandler implements HttpHandler {
    * @param reuseXForwarded should any existing X-Forwarded-For header be used or should it be overwritten.
    */
     public ProxyHandler(ProxyClient proxyClient, int maxRequestTime, HttpHandler next, boolean rewriteHostHeader, boolean reuseXForwarded) {
+        this(proxyClient, maxRequestTime, next, rewriteHostHeader, reuseXForwarded, 0);
+    }
+
+  /**
+   *
+   * @param proxyClient the client to use to make the proxy call
+   * @param maxRequestTime the maximum amount of time to allow the request to be processed
+   * @param next the next handler in line
+   * @param rewriteHostHeader should the HOST header be rewritten to use the target host of the call.
+   * @param reuseXForwarded should any existing X-Forwarded-For header be used or should it be overwritten.
+   * @param maxRetryAttempts the number of times a request will be retried. Requests are always retried if a connection
+   *                         could not be established, but are only retried after being sent if they are idempotent and do not have a body.
+   */
+    public ProxyHandler(ProxyClient proxyClient, int maxRequestTime, HttpHandler next, boolean rewriteHostHeader, boolean reuseXForwarded, int maxRetryAttempts) {
         this.proxyClient = proxyClient;
         this.maxRequestTime = maxRequestTime;
         this.next = next;
         this.rewriteHostHeader = rewriteHostHeader;
         this.reuseXForwarded = reuseXForwarded;
+        this.maxRetryAttempts = maxRetryAttempts;
     }
 
 
@@ -150,7 +190,6 @@ public final class ProxyHandler implements HttpHandler {
             next.handleRequest(exchange);
             return;
         }
-        final int maxRetryAttempts = 0; // TODO make this configurable, or just take from the error policy?
         final long timeout = maxRequestTime > 0 ? System.currentTimeMillis() + maxRequestTime : 0;
         final ProxyClientHandler clientHandler = new ProxyClientHandler(exchange, target, timeout, maxRetryAttempts);
         if (timeout > 0) {
@@ -243,60 +282,249 @@ public final class ProxyHandler implements HttpHandler {
         return proxyClient;
     }
 
-    private final class ProxyClientHandler implements ProxyCallback<ProxyConnection>, Runnable {
+    public int getMaxRetryAttempts() {
+        return maxRetryAttempts;
+    }
+
+    /**
+     * Sets the budget that limits retried and hedged requests. The budget can be shared between handlers, to
+     * limit the retries to a group of backends.
+     *
+     * @param retryBudget The retry budget
+     * @return this
+     */
+    public ProxyHandler setRetryBudget(final RetryBudget retryBudget) {
+        if (retryBudget == null) {
+            throw UndertowMessages.MESSAGES.argumentCannotBeNull("retryBudget");
+        }
+        this.retryBudget = retryBudget;
+        return this;
+    }
+
+    public RetryBudget getRetryBudget() {
+        return retryBudget;
+    }
+
+    /**
+     * Enables hedged requests. If the backend has not started a response once the given percentile of recent
+     * response times has passed then the request is sent to a second backend, and whichever response arrives
+     * first is used. The other request is cancelled by closing its connection.
+     * <p>
+     * Only idempotent requests without a body are hedged, and every hedged request is taken from the
+     * {@link #setRetryBudget(RetryBudget) retry budget}.
+     *
+     * @param percentile The latency percentile after which to hedge, for example 95. A value of zero or less disables hedging.
+     * @param minDelay   The minimum time to wait before a request is hedged
+     * @param unit       The unit of the minimum delay
+     * @return this
+     */
+    public ProxyHandler setHedging(final double percentile, final long minDelay, final TimeUnit unit) {
+        this.minHedgeDelay = unit.toNanos(minDelay);
+        this.hedgeDelayExpires = 0;
+        this.hedgePercentile = percentile;
+        return this;
+    }
+
+    /**
+     * @return The current delay before a request is hedged in nanoseconds, or -1 if requests are not being hedged
+     */
+    long getHedgeDelay() {
+        double percentile = hedgePercentile;
+        if (percentile <= 0) {
+            return -1;
+        }
+        long time = System.nanoTime();
+        if (time - hedgeDelayExpires >= 0) {
+            //taking a snapshot is not free, so the delay is only recalculated once a second
+            LatencyHistogram.Snapshot snapshot = latencies.snapshot(HEDGE_WINDOW, TimeUnit.SECONDS);
+            if (snapshot.getCount() < MIN_HEDGE_SAMPLES) {
+                //not enough data to know what a slow request looks like
+                hedgeDelay = -1;
+            } else {
+                hedgeDelay = Math.max(minHedgeDelay, snapshot.getValueAtPercentile(percentile));
+            }
+            hedgeDelayExpires = time + TimeUnit.SECONDS.toNanos(1);
+        }
+        return hedgeDelay;
+    }
+
+    /**
+     * Abandons a request to a backend. A multiplexed connection is shared with other requests, so rather than closing
+     * the connection only the streams that belong to the request are closed.
+     */
+    private static void abandonRequest(final ClientConnection connection, final ClientExchange clientExchange) {
+        if (!connection.isMultiplexingSupported()) {
+            IoUtils.safeClose(connection);
+        } else if (clientExchange != null) {
+            IoUtils.safeClose(clientExchange.getRequestChannel(), clientExchange.getResponseChannel());
+        }
+    }
+
+    /**
+     * A request can be retried after it has been sent if it is idempotent, and has no body. Requests with a body are not
+     * retried as the body has already been consumed by the first attempt.
+     * <p>
+     * The request is only known to have no body once the request channel has been terminated. The headers are not
+     * enough, as HTTP/2 and AJP requests may have a body without a content length.
+     */
+    private static boolean isRetryable(final HttpServerExchange exchange) {
+        final HttpString method = exchange.getRequestMethod();
+        if (!(method.equals(Methods.GET) || method.equals(Methods.HEAD) || method.equals(Methods.OPTIONS)
+                || method.equals(Methods.TRACE) || method.equals(Methods.PUT) || method.equals(Methods.DELETE))) {
+            return false;
+        }
+        if (exchange.isUpgrade() || HttpContinue.requiresContinueResponse(exchange)) {
+            return false;
+        }
+        return exchange.isRequestComplete();
+    }
+
+    private final class ProxyClientHandler implements Runnable {
 
         private int tries;
 
         private final long timeout;
         private final int maxRetryAttempts;
         private final HttpServerExchange exchange;
+        private final boolean retryable;
         private ProxyClient.ProxyTarget target;
 
+        /**
+         * The attempts that are currently in progress. There will only be more than one if the request has been hedged.
+         */
+        private final List<Attempt> attempts = new ArrayList<>(2);
+        private Attempt winner;
+        private boolean done;
+        private XnioExecutor.Key hedgeKey;
+
         ProxyClientHandler(HttpServerExchange exchange, ProxyClient.ProxyTarget target, long timeout, int maxRetryAttempts) {
             this.exchange = exchange;
             this.timeout = timeout;
             this.maxRetryAttempts = maxRetryAttempts;
             this.target = target;
+            //the body is only skipped if the request can actually be sent again
+            this.retryable = (maxRetryAttempts > 0 || hedgePercentile > 0) && isRetryable(exchange);
         }
 
         @Override
         public void run() {
-            proxyClient.getConnection(target, exchange, this, -1, TimeUnit.MILLISECONDS);
+            if (maxRetryAttempts > 0 || hedgePercentile > 0) {
+                //the budget only needs to be fed if requests can actually be retried or hedged
+                retryBudget.requestStarted();
+            }
+            startAttempt(-1);
+            final long hedgeDelay = retryable ? getHedgeDelay() : -1;
+            if (hedgeDelay > 0 && winner == null && !done) {
+                hedgeKey = exchange.getIoThread().executeAfter(new Runnable() {
+                    @Override
+                    public void run() {
+                        hedgeKey = null;
+                        hedge();
+                    }
+                }, hedgeDelay, TimeUnit.NANOSECONDS);
+            }
         }
 
-        @Override
-        public void completed(final HttpServerExchange exchange, final ProxyConnection connection) {
-            exchange.putAttachment(CONNECTION, connection);
-            exchange.dispatch(SameThreadExecutor.INSTANCE, new ProxyAction(connection, exchange, requestHeaders, rewriteHostHeader, reuseXForwarded));
+        private void startAttempt(long remaining) {
+            final Attempt attempt = new Attempt(this);
+            attempts.add(attempt);
+            proxyClient.getConnection(target, exchange, attempt, remaining, TimeUnit.MILLISECONDS);
         }
 
-        @Override
-        public void failed(final HttpServerExchange exchange) {
+        private void hedge() {
+            if (winner != null || done || attempts.isEmpty() || exchange.isResponseStarted()) {
+                return;
+            }
             final long time = System.currentTimeMillis();
-            if (tries++ < maxRetryAttempts) {
-                if (timeout > 0 && time > timeout) {
-                    cancel(exchange);
-                } else {
-                    target = proxyClient.findTarget(exchange);
-                    if (target != null) {
-                        final long remaining = timeout > 0 ? timeout - time : -1;
-                        proxyClient.getConnection(target, exchange, this, remaining, TimeUnit.MILLISECONDS);
-                    } else {
-                        couldNotResolveBackend(exchange); // The context was registered when we started, so return 503
-                    }
+            if (timeout > 0 && time > timeout) {
+                return;
+            }
+            if (!retryBudget.tryRetry()) {
+                return;
+            }
+            final ProxyClient.ProxyTarget hedgeTarget = proxyClient.findTarget(exchange);
+            if (hedgeTarget != null) {
+                log.debugf("Hedging request for exchange %s", exchange);
+                target = hedgeTarget;
+                startAttempt(timeout > 0 ? timeout - time : -1);
+            }
+        }
+
+        /**
+         * Invoked when an attempt fails before a response has been received.
+         *
+         * @return <code>true</code> if the failure has been dealt with, either because the request was retried or because another attempt is still in progress
+         */
+        boolean attemptFailed(final Attempt attempt, final boolean requestSent) {
+            attempts.remove(attempt);
+            if (winner != null || done) {
+                //this attempt was cancelled
+                attempt.release();
+                return true;
+            }
+            if (!attempts.isEmpty()) {
+                //a hedged request is still in progress
+                attempt.release();
+                return true;
+            }
+            if (exchange.isResponseStarted() || (requestSent && !retryable) || tries >= maxRetryAttempts) {
+                return false;
+            }
+            final long time = System.currentTimeMillis();
+            if (timeout > 0 && time > timeout) {
+                cancel(exchange);
+                return true;
+            }
+            if (!retryBudget.tryRetry()) {
+                log.debugf("Not retrying request for exchange %s as the retry budget has been exhausted", exchange);
+                return false;
+            }
+            final ProxyClient.ProxyTarget retryTarget = proxyClient.findTarget(exchange);
+            if (retryTarget == null) {
+                return false;
+            }
+            tries++;
+            log.debugf("Retrying request for exchange %s, attempt %s", exchange, tries);
+            attempt.release();
+            target = retryTarget;
+            startAttempt(timeout > 0 ? timeout - time : -1);
+            return true;
+        }
+
+        /**
+         * Invoked when a response has been received. The first attempt to get a response wins, and any others are cancelled.
+         *
+         * @return <code>true</code> if the response should be sent to the client
+         */
+        boolean responseReceived(final Attempt attempt) {
+            if (winner != null || done) {
+                return false;
+            }
+            winner = attempt;
+            if (hedgeKey != null) {
+                hedgeKey.remove();
+                hedgeKey = null;
+            }
+            if (hedgePercentile > 0) {
+                latencies.record(System.nanoTime() - attempt.start);
+            }
+            for (Attempt other : attempts) {
+                if (other != attempt) {
+                    other.cancel();
+                    other.release();
                 }
-            } else {
-                couldNotResolveBackend(exchange);
             }
+            attempts.clear();
+            attempts.add(attempt);
+            exchange.putAttachment(CONNECTION, attempt.connection);
+            return true;
         }
 
-        @Override
-        public void queuedRequestFailed(HttpServerExchange exchange) {
-            failed(exchange);
+        boolean isActive(final Attempt attempt) {
+            return !done && (winner == null || winner == attempt);
         }
 
-        @Override
-        public void couldNotResolveBackend(HttpServerExchange exchange) {
+        void couldNotResolveBackend(HttpServerExchange exchange) {
             if (exchange.isResponseStarted()) {
                 IoUtils.safeClose(exchange.getConnection());
             } else {
@@ -306,14 +534,26 @@ public final class ProxyHandler implements HttpHandler {
         }
 
         void cancel(final HttpServerExchange exchange) {
+            done = true;
+            if (hedgeKey != null) {
+                hedgeKey.remove();
+                hedgeKey = null;
+            }
             final ProxyConnection connectionAttachment = exchange.getAttachment(CONNECTION);
             if (connectionAttachment != null) {
                 ClientConnection clientConnection = connectionAttachment.getConnection();
                 UndertowLogger.REQUEST_LOGGER.timingOutRequest(clientConnection.getPeerAddress() + "" + exchange.getRequestURI());
-                IoUtils.safeClose(clientConnection);
+                if (!clientConnection.isMultiplexingSupported()) {
+                    IoUtils.safeClose(clientConnection);
+                }
             } else {
                 UndertowLogger.REQUEST_LOGGER.timingOutRequest(exchange.getRequestURI());
             }
+            for (Attempt attempt : attempts) {
+                //multiplexed connections are shared, so only the streams that belong to this exchange are closed
+                attempt.cancel();
+            }
+            attempts.clear();
             if (exchange.isResponseStarted()) {
                 IoUtils.safeClose(exchange.getConnection());
             } else {
@@ -324,15 +564,119 @@ public final class ProxyHandler implements HttpHandler {
 
     }
 
+    /**
+     * A single attempt to send a request to a backend. A request may be sent more than once if it is retried or hedged.
+     * All methods are invoked in the IO thread of the exchange.
+     */
+    private final class Attempt implements ProxyCallback<ProxyConnection> {
+
+        private final ProxyClientHandler handler;
+        private final long start = System.nanoTime();
+        private ProxyConnection connection;
+        private ClientExchange clientExchange;
+        private boolean cancelled;
+
+        Attempt(ProxyClientHandler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public void completed(final HttpServerExchange exchange, final ProxyConnection connection) {
+            this.connection = connection;
+            if (cancelled || !handler.isActive(this)) {
+                handler.attempts.remove(this);
+                release();
+                if (exchange.isComplete()) {
+                    //the connection will never be returned to the pool by the exchange completion listener
+                    IoUtils.safeClose(connection.getConnection());
+                }
+                return;
+            }
+            for (Attempt other : handler.attempts) {
+                if (other != this && other.connection != null && other.connection.getConnection() == connection.getConnection()
+                        && !connection.getConnection().isMultiplexingSupported()) {
+                    //an exclusive connection is already in use by another attempt, so it cannot be used to hedge
+                    handler.attempts.remove(this);
+                    release();
+                    return;
+                }
+            }
+            exchange.putAttachment(CONNECTION, connection);
+            exchange.dispatch(SameThreadExecutor.INSTANCE, new ProxyAction(connection, exchange, requestHeaders, rewriteHostHeader, reuseXForwarded, this));
+        }
+
+        @Override
+        public void failed(final HttpServerExchange exchange) {
+            if (!handler.attemptFailed(this, false)) {
+                handler.couldNotResolveBackend(exchange);
+            }
+        }
+
+        @Override
+        public void queuedRequestFailed(HttpServerExchange exchange) {
+            failed(exchange);
+        }
+
+        @Override
+        public void couldNotResolveBackend(HttpServerExchange exchange) {
+            handler.attempts.remove(this);
+            if (handler.isActive(this) && handler.attempts.isEmpty()) {
+                handler.couldNotResolveBackend(exchange);
+            }
+        }
+
+        /**
+         * @return <code>true</code> if the failure has been dealt with, and no response should be sent
+         */
+        boolean requestFailed() {
+            if (connection != null) {
+                abandonRequest(connection.getConnection(), clientExchange);
+            }
+            return handler.attemptFailed(this, true);
+        }
+
+        boolean responseReceived() {
+            return handler.responseReceived(this);
+        }
+
+        boolean isRetryable() {
+            return handler.retryable;
+        }
+
+        void cancel() {
+            cancelled = true;
+            if (connection != null) {
+                abandonRequest(connection.getConnection(), clientExchange);
+            }
+        }
+
+        /**
+         * Tells a load balancing client that this attempt did not serve the exchange, so the load it placed on its
+         * host is released and its latency is not recorded against that host.
+         */
+        void release() {
+            if (proxyClient instanceof LoadBalancingProxyClient) {
+                ((LoadBalancingProxyClient) proxyClient).attemptAbandoned(handler.exchange, this);
+            }
+        }
+    }
+
     private static class ProxyAction implements Runnable {
         private final ProxyConnection clientConnection;
         private final HttpServerExchange exchange;
         private final Map<HttpString, ExchangeAttribute> requestHeaders;
         private final boolean rewriteHostHeader;
         private final boolean reuseXForwarded;
+        private final Attempt attempt;
 
         public ProxyAction(final ProxyConnection clientConnection, final HttpServerExchange exchange, Map<HttpString, ExchangeAttribute> requestHeaders,
                            boolean rewriteHostHeader, boolean reuseXForwarded) {
+            this(clientConnection, exchange, requestHeaders, rewriteHostHeader, reuseXForwarded, null);
+        }
+
+        ProxyAction(final ProxyConnection clientConnection, final HttpServerExchange exchange, Map<HttpString, ExchangeAttribute> requestHeaders,
+                           boolean rewriteHostHeader, boolean reuseXForwarded, Attempt attempt) {
+            this.attempt = attempt;
             this.clientConnection = clientConnection;
             this.exchange = exchange;
             this.requestHeaders = requestHeaders;
@@ -506,6 +850,9 @@ public final class ProxyHandler implements HttpHandler {
                         log.debugf("Sent request %s to target %s for exchange %s", request, remoteHost, exchange);
                     }
                     result.putAttachment(EXCHANGE, exchange);
+                    if (attempt != null) {
+                        attempt.clientExchange = result;
+                    }
 
                     boolean requiresContinueResponse = HttpContinue.requiresContinueResponse(exchange);
                     if (requiresContinueResponse) {
@@ -560,8 +907,13 @@ public final class ProxyHandler implements HttpHandler {
                     }
 
 
-                    result.setResponseListener(new ResponseCallback(exchange));
+                    result.setResponseListener(new ResponseCallback(exchange, attempt));
                     final IoExceptionHandler handler = new IoExceptionHandler(exchange, clientConnection.getConnection());
+                    if (attempt != null && attempt.isRetryable()) {
+                        //there is no request body, and the request channel may already have been taken by a previous attempt
+                        new HTTPTrailerChannelListener(exchange, result).handleEvent(result.getRequestChannel());
+                        return;
+                    }
                     if(requiresContinueResponse) {
                         try {
                             if(!result.getRequestChannel().flush()) {
@@ -585,6 +937,10 @@ public final class ProxyHandler implements HttpHandler {
 
                 @Override
                 public void failed(IOException e) {
+                    if (attempt != null && attempt.requestFailed()) {
+                        log.debugf(e, "Failed to send request for exchange %s", exchange);
+                        return;
+                    }
                     UndertowLogger.PROXY_REQUEST_LOGGER.proxyRequestFailed(exchange.getRequestURI(), e);
                     if (!exchange.isResponseStarted()) {
                         exchange.setStatusCode(StatusCodes.SERVICE_UNAVAILABLE);
@@ -602,13 +958,20 @@ public final class ProxyHandler implements HttpHandler {
     private static final class ResponseCallback implements ClientCallback<ClientExchange> {
 
         private final HttpServerExchange exchange;
+        private final Attempt attempt;
 
-        private ResponseCallback(HttpServerExchange exchange) {
+        private ResponseCallback(HttpServerExchange exchange, Attempt attempt) {
             this.exchange = exchange;
+            this.attempt = attempt;
         }
 
         @Override
         public void completed(final ClientExchange result) {
+            if (attempt != null && !attempt.responseReceived()) {
+                //another attempt has already won
+                abandonRequest(result.getConnection(), result);
+                return;
+            }
 
             final ClientResponse response = result.getResponse();
 
@@ -649,6 +1012,10 @@ public final class ProxyHandler implements HttpHandler {
 
         @Override
         public void failed(IOException e) {
+            if (attempt != null && attempt.requestFailed()) {
+                log.debugf(e, "Failed to receive response for exchange %s", exchange);
+                return;
+            }
             UndertowLogger.PROXY_REQUEST_LOGGER.proxyRequestFailed(exchange.getRequestURI(), e);
             if (!exchange.isResponseStarted()) {
                 exchange.setStatusCode(StatusCodes.INTERNAL_SERVER_ERROR);
@@ -798,6 +1165,14 @@ public final class ProxyHandler implements HttpHandler {
             Map<String, Class<?>> params = new HashMap<>();
             params.put("hosts", String[].class);
             params.put("rewrite-host-header", Boolean.class);
+            params.put("host-selector", String.class);
+            params.put("weights", Integer[].class);
+            params.put("max-retries", Integer.class);
+            params.put("hedge-percentile", Double.class);
+            params.put("hedge-min-delay", Long.class);
+            params.put("http2", Boolean.class);
+            params.put("health-check", String.class);
+            params.put("health-check-interval", Long.class);
             return params;
         }
 
@@ -814,16 +1189,44 @@ public final class ProxyHandler implements HttpHandler {
         @Override
         public HandlerWrapper build(Map<String, Object> config) {
             String[] hosts = (String[]) config.get("hosts");
+            Boolean http2 = (Boolean) config.get("http2");
             List<URI> uris = new ArrayList<>();
             for(String host : hosts) {
                 try {
-                    uris.add(new URI(host));
+                    URI uri = new URI(host);
+                    if (http2 != null && http2 && uri.getScheme().equals("http")) {
+                        //plain text backends are assumed to support HTTP/2 with prior knowledge
+                        uri = new URI(HTTP2_PRIOR_KNOWLEDGE, uri.getUserInfo(), uri.getHost(), uri.getPort(), uri.getPath(), uri.getQuery(), uri.getFragment());
+                    }
+                    uris.add(uri);
                 } catch (URISyntaxException e) {
                     throw new RuntimeException(e);
                 }
             }
             Boolean rewriteHostHeader = (Boolean) config.get("rewrite-host-header");
-            return new Wrapper(uris, rewriteHostHeader);
+            String hostSelector = (String) config.get("host-selector");
+            if (hostSelector != null) {
+                //fail fast on an unknown name, rather than when the handler is wrapped
+                HostSelectors.forName(hostSelector);
+            }
+            Integer[] weights = (Integer[]) config.get("weights");
+            if (weights != null && weights.length != hosts.length) {
+                throw new IllegalArgumentException("The number of weights must match the number of hosts");
+            }
+            Integer maxRetries = (Integer) config.get("max-retries");
+            Double hedgePercentile = (Double) config.get("hedge-percentile");
+            Long hedgeMinDelay = (Long) config.get("hedge-min-delay");
+            String healthCheckPath = (String) config.get("health-check");
+            Long healthCheckInterval = (Long) config.get("health-check-interval");
+            HostHealthCheck healthCheck = null;
+            if (healthCheckPath != null) {
+                //the value is either a path to request, or "tcp" to just check that a connection can be opened
+                long interval = healthCheckInterval == null ? 10000 : healthCheckInterval;
+                healthCheck = healthCheckPath.equals("tcp") ? HostHealthCheck.tcp(interval, TimeUnit.MILLISECONDS) : HostHealthCheck.http(healthCheckPath, interval, TimeUnit.MILLISECONDS);
+            }
+            return new Wrapper(uris, rewriteHostHeader, hostSelector, weights, maxRetries == null ? 0 : maxRetries,
+                    hedgePercentile == null ? -1 : hedgePercentile, hedgeMinDelay == null ? 0 : hedgeMinDelay,
+                    http2 != null && http2 ? OptionMap.create(UndertowOptions.ENABLE_HTTP2, true) : OptionMap.EMPTY, healthCheck);
         }
 
     }
@@ -832,26 +1235,43 @@ public final class ProxyHandler implements HttpHandler {
 
         private final List<URI> uris;
         private final boolean rewriteHostHeader;
-
-        private Wrapper(List<URI> uris, Boolean rewriteHostHeader) {
+        private final String hostSelector;
+        private final Integer[] weights;
+        private final int maxRetries;
+        private final double hedgePercentile;
+        private final long hedgeMinDelay;
+        private final OptionMap hostOptions;
+        private final HostHealthCheck healthCheck;
+
+        private Wrapper(List<URI> uris, Boolean rewriteHostHeader, String hostSelector, Integer[] weights, int maxRetries, double hedgePercentile, long hedgeMinDelay, OptionMap hostOptions, HostHealthCheck healthCheck) {
+            this.hostOptions = hostOptions;
+            this.healthCheck = healthCheck;
             this.uris = uris;
             this.rewriteHostHeader = rewriteHostHeader != null && rewriteHostHeader;
+            this.hostSelector = hostSelector;
+            this.weights = weights;
+            this.maxRetries = maxRetries;
+            this.hedgePercentile = hedgePercentile;
+            this.hedgeMinDelay = hedgeMinDelay;
         }
 
         @Override
         public HttpHandler wrap(HttpHandler handler) {
 
             final ProxyClient proxyClient;
-            if (uris.size() == 1) {
+            if (uris.size() == 1 && hostOptions.size() == 0) {
+                //the simple client cannot take host options, so a single HTTP/2 host still goes through the load balancer
                 proxyClient = new SimpleProxyClientProvider(uris.get(0));
             } else {
-                final LoadBalancingProxyClient loadBalancingProxyClient = new LoadBalancingProxyClient();
-                for (URI url : uris) {
-                    loadBalancingProxyClient.addHost(url);
+                final LoadBalancingProxyClient loadBalancingProxyClient = new LoadBalancingProxyClient(UndertowClient.getInstance(), null, hostSelector == null ? null : HostSelectors.forName(hostSelector));
+                for (int i = 0; i < uris.size(); ++i) {
+                    loadBalancingProxyClient.addHost(null, uris.get(i), null, null, hostOptions, weights == null ? 1 : weights[i]);
                 }
+                loadBalancingProxyClient.setHealthCheck(healthCheck);
                 proxyClient = loadBalancingProxyClient;
             }
-            return new ProxyHandler(proxyClient, -1, handler, rewriteHostHeader, false);
+            return new ProxyHandler(proxyClient, -1, handler, rewriteHostHeader, false, maxRetries)
+                    .setHedging(hedgePercentile, hedgeMinDelay, TimeUnit.MILLISECONDS);
         }
     }
 }
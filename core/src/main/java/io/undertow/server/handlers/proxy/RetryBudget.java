@@ -0,0 +1,133 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers.proxy;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A budget that limits the number of retried and hedged requests a proxy will send.
+ * <p>
+ * Every request deposits a fraction of a retry into the budget, and every retry withdraws a whole one, so
+ * retries can never be more than a fixed percentage of the request rate. This means that if a backend is failing
+ * because it is overloaded the proxy will not make the problem worse by multiplying the load. A small number of
+ * retries per second is always allowed, so that retries still work when the request rate is low.
+ * <p>
+ * The budget is lock free, and can be shared between multiple proxy handlers.
+ *
+ * @author agent
+ */
+public class RetryBudget {
+
+    /**
+     * The balance is kept in thousandths of a retry, so fractional deposits are not lost
+     */
+    private static final long RETRY_COST = 1000;
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final long deposit;
+    private final long minRetriesPerSecond;
+    private final long maxBalance;
+    private final long start = System.nanoTime();
+
+    private final AtomicLong balance;
+    private final AtomicLong lastRefill = new AtomicLong();
+
+    /**
+     * Creates a budget that allows retries for 20% of requests, with a minimum of 10 retries a second
+     */
+    public RetryBudget() {
+        this(0.2, 10, 100);
+    }
+
+    /**
+     * @param retryRatio          The number of retries that are allowed per request, for example 0.2 allows one retry for every five requests
+     * @param minRetriesPerSecond The number of retries that are always allowed per second, regardless of the request rate
+     * @param maxRetries          The maximum number of retries that can be saved up
+     */
+    public RetryBudget(double retryRatio, int minRetriesPerSecond, int maxRetries) {
+        if (retryRatio < 0 || minRetriesPerSecond < 0 || maxRetries < 0) {
+            throw new IllegalArgumentException("Retry budget parameters cannot be negative");
+        }
+        this.deposit = (long) (retryRatio * RETRY_COST);
+        this.minRetriesPerSecond = minRetriesPerSecond;
+        this.maxBalance = maxRetries * RETRY_COST;
+        this.balance = new AtomicLong(Math.min(maxBalance, minRetriesPerSecond * RETRY_COST));
+    }
+
+    /**
+     * Records that a request has been sent, which adds to the budget
+     */
+    public void requestStarted() {
+        add(deposit);
+    }
+
+    /**
+     * Attempts to withdraw a single retry from the budget.
+     *
+     * @return <code>true</code> if the request can be retried
+     */
+    public boolean tryRetry() {
+        refill();
+        for (;;) {
+            long current = balance.get();
+            if (current < RETRY_COST) {
+                return false;
+            }
+            if (balance.compareAndSet(current, current - RETRY_COST)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return The number of retries that are currently available
+     */
+    public long getAvailableRetries() {
+        refill();
+        return balance.get() / RETRY_COST;
+    }
+
+    private void refill() {
+        if (minRetriesPerSecond == 0) {
+            return;
+        }
+        long second = (System.nanoTime() - start) / SECOND;
+        long last = lastRefill.get();
+        //only the thread that wins the race adds the retries for the elapsed seconds
+        if (second > last && lastRefill.compareAndSet(last, second)) {
+            add(Math.min(maxBalance, (second - last) * minRetriesPerSecond * RETRY_COST));
+        }
+    }
+
+    private void add(long amount) {
+        if (amount == 0) {
+            return;
+        }
+        for (;;) {
+            long current = balance.get();
+            if (current >= maxBalance) {
+                return;
+            }
+            if (balance.compareAndSet(current, Math.min(maxBalance, current + amount))) {
+                return;
+            }
+        }
+    }
+}
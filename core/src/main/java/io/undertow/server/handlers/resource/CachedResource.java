@@ -32,6 +32,7 @@ import io.undertow.io.Sender;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.server.handlers.cache.DirectBufferCache;
 import io.undertow.server.handlers.cache.LimitedBufferSlicePool;
+import io.undertow.server.handlers.cache.MappedFileCache;
 import io.undertow.server.handlers.cache.ResponseCachingSender;
 import io.undertow.util.DateUtils;
 import io.undertow.util.ETag;
@@ -117,6 +118,10 @@ public class CachedResource implements Resource, RangeAwareResource {
         if(dataCache != null) {
             dataCache.remove(cacheKey);
         }
+        final MappedFileCache mappedFileCache = cachingResourceManager.getMappedFileCache();
+        if(mappedFileCache != null) {
+            mappedFileCache.remove(cacheKey);
+        }
     }
 
     public boolean checkStillValid() {
@@ -136,7 +141,9 @@ public class CachedResource implements Resource, RangeAwareResource {
     public void serve(final Sender sender, final HttpServerExchange exchange, final IoCallback completionCallback) {
         final DirectBufferCache dataCache = cachingResourceManager.getDataCache();
         if(dataCache == null) {
-            underlyingResource.serve(sender, exchange, completionCallback);
+            if(!serveMapped(sender, exchange, -1, -1, false, completionCallback)) {
+                underlyingResource.serve(sender, exchange, completionCallback);
+            }
             return;
         }
 
@@ -144,7 +151,9 @@ public class CachedResource implements Resource, RangeAwareResource {
         final Long length = getContentLength();
         //if it is not eligible to be served from the cache
         if (length == null || length > cachingResourceManager.getMaxFileSize()) {
-            underlyingResource.serve(sender, exchange, completionCallback);
+            if(!serveMapped(sender, exchange, -1, -1, false, completionCallback)) {
+                underlyingResource.serve(sender, exchange, completionCallback);
+            }
             return;
         }
         //it is not cached yet, install a wrapper to grab the data
@@ -237,7 +246,9 @@ public class CachedResource implements Resource, RangeAwareResource {
     public void serveRange(Sender sender, HttpServerExchange exchange, long start, long end, IoCallback completionCallback) {
         final DirectBufferCache dataCache = cachingResourceManager.getDataCache();
         if(dataCache == null) {
-            ((RangeAwareResource)underlyingResource).serveRange(sender, exchange, start, end, completionCallback);
+            if(!serveMapped(sender, exchange, start, end, true, completionCallback)) {
+                ((RangeAwareResource) underlyingResource).serveRange(sender, exchange, start, end, completionCallback);
+            }
             return;
         }
 
@@ -245,7 +256,9 @@ public class CachedResource implements Resource, RangeAwareResource {
         final Long length = getContentLength();
         //if it is not eligible to be served from the cache
         if (length == null || length > cachingResourceManager.getMaxFileSize()) {
-            underlyingResource.serve(sender, exchange, completionCallback);
+            if(!serveMapped(sender, exchange, start, end, true, completionCallback)) {
+                underlyingResource.serve(sender, exchange, completionCallback);
+            }
             return;
         }
         //it is not cached yet, just serve it directly
@@ -296,6 +309,71 @@ public class CachedResource implements Resource, RangeAwareResource {
         }
     }
 
+    /**
+     * Attempts to serve the resource from the mapped file cache.
+     *
+     * @return <code>true</code> if this method has taken responsibility for serving the resource
+     */
+    private boolean serveMapped(final Sender sender, final HttpServerExchange exchange, final long start, final long end, final boolean range, final IoCallback completionCallback) {
+        final MappedFileCache mappedFileCache = cachingResourceManager.getMappedFileCache();
+        if (mappedFileCache == null) {
+            return false;
+        }
+        final Long length = underlyingResource.getContentLength();
+        final Path file = underlyingResource.getFilePath();
+        if (length == null || file == null || !mappedFileCache.isEligible(length)) {
+            return false;
+        }
+        final MappedFileCache.MappedEntry existing = mappedFileCache.get(cacheKey, length);
+        if (existing != null) {
+            sendMapped(existing, sender, start, end, range, completionCallback);
+            return true;
+        }
+        //mapping the file requires blocking IO, so it is done in a worker thread
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                MappedFileCache.MappedEntry entry = null;
+                try {
+                    entry = mappedFileCache.map(cacheKey, file, length);
+                } catch (IOException e) {
+                    UndertowLogger.REQUEST_IO_LOGGER.ioException(e);
+                }
+                if (entry != null) {
+                    sendMapped(entry, sender, start, end, range, completionCallback);
+                } else if (range) {
+                    ((RangeAwareResource) underlyingResource).serveRange(sender, exchange, start, end, completionCallback);
+                } else {
+                    underlyingResource.serve(sender, exchange, completionCallback);
+                }
+            }
+        };
+        if (exchange.isInIoThread()) {
+            exchange.dispatch(task);
+        } else {
+            task.run();
+        }
+        return true;
+    }
+
+    private static void sendMapped(final MappedFileCache.MappedEntry entry, final Sender sender, final long start, final long end, final boolean range, final IoCallback completionCallback) {
+        ByteBuffer buffer;
+        boolean ok = false;
+        try {
+            buffer = entry.buffer();
+            if (range) {
+                buffer.limit((int) Math.min(end + 1, buffer.capacity()));
+                buffer.position((int) start);
+            }
+            ok = true;
+        } finally {
+            if (!ok) {
+                entry.dereference();
+            }
+        }
+        sender.send(buffer, new MappedDereferenceCallback(entry, completionCallback));
+    }
+
     @Override
     public boolean isRangeSupported() {
         //we can only handle range requests if the underlying resource supports it
@@ -333,6 +411,35 @@ public class CachedResource implements Resource, RangeAwareResource {
         }
     }
 
+    private static class MappedDereferenceCallback implements IoCallback {
+
+        private final MappedFileCache.MappedEntry entry;
+        private final IoCallback callback;
+
+        MappedDereferenceCallback(MappedFileCache.MappedEntry entry, final IoCallback callback) {
+            this.entry = entry;
+            this.callback = callback;
+        }
+
+        @Override
+        public void onComplete(final HttpServerExchange exchange, final Sender sender) {
+            try {
+                entry.dereference();
+            } finally {
+                callback.onComplete(exchange, sender);
+            }
+        }
+
+        @Override
+        public void onException(final HttpServerExchange exchange, final Sender sender, final IOException exception) {
+            UndertowLogger.REQUEST_IO_LOGGER.ioException(exception);
+            try {
+                entry.dereference();
+            } finally {
+                callback.onException(exchange, sender, exception);
+            }
+        }
+    }
 
     static final class CacheKey {
         final CachingResourceManager manager;
@@ -25,6 +25,7 @@ import java.util.Set;
 import io.undertow.UndertowLogger;
 import io.undertow.server.handlers.cache.DirectBufferCache;
 import io.undertow.server.handlers.cache.LRUCache;
+import io.undertow.server.handlers.cache.MappedFileCache;
 
 /**
  * @author Stuart Douglas
@@ -46,6 +47,11 @@ public class CachingResourceManager implements ResourceManager {
      */
     private final DirectBufferCache dataCache;
 
+    /**
+     * A cache of memory mapped files, used for files that are too large for the data cache
+     */
+    private final MappedFileCache mappedFileCache;
+
     /**
      * A cache of file metadata, such as if a file exists or not
      */
@@ -54,9 +60,14 @@ public class CachingResourceManager implements ResourceManager {
     private final int maxAge;
 
     public CachingResourceManager(final int metadataCacheSize, final long maxFileSize, final DirectBufferCache dataCache, final ResourceManager underlyingResourceManager, final int maxAge) {
+        this(metadataCacheSize, maxFileSize, dataCache, null, underlyingResourceManager, maxAge);
+    }
+
+    public CachingResourceManager(final int metadataCacheSize, final long maxFileSize, final DirectBufferCache dataCache, final MappedFileCache mappedFileCache, final ResourceManager underlyingResourceManager, final int maxAge) {
         this.maxFileSize = maxFileSize;
         this.underlyingResourceManager = underlyingResourceManager;
         this.dataCache = dataCache;
+        this.mappedFileCache = mappedFileCache;
         this.cache = new LRUCache<>(metadataCacheSize, maxAge);
         this.maxAge = maxAge;
         if(underlyingResourceManager.isResourceChangeListenerSupported()) {
@@ -140,6 +151,10 @@ public class CachingResourceManager implements ResourceManager {
         return dataCache;
     }
 
+    MappedFileCache getMappedFileCache() {
+        return mappedFileCache;
+    }
+
     public long getMaxFileSize() {
         return maxFileSize;
     }
@@ -162,6 +177,15 @@ public class CachingResourceManager implements ResourceManager {
                     }
                 }
             }
+            if(mappedFileCache != null) {
+                for(final Object key : mappedFileCache.getAllKeys()) {
+                    if(key instanceof CachedResource.CacheKey) {
+                        if(((CachedResource.CacheKey) key).manager == this) {
+                            mappedFileCache.remove(key);
+                        }
+                    }
+                }
+            }
         } finally {
             underlyingResourceManager.close();
         }
@@ -6,10 +6,13 @@ import io.undertow.io.Sender;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.util.DateUtils;
 import io.undertow.util.ETag;
+import io.undertow.util.Headers;
 import io.undertow.util.MimeMappings;
 import io.undertow.util.StatusCodes;
 import org.xnio.IoUtils;
+import io.undertow.connector.ByteBufferPool;
 import io.undertow.connector.PooledByteBuffer;
+import io.undertow.connector.VariableSizeByteBufferPool;
 
 import java.io.File;
 import java.io.IOException;
@@ -140,6 +143,11 @@ public class PathResource implements RangeAwareResource {
 
             long remaining = end - start + 1;
 
+            /**
+             * The number of bytes in the send that is in progress, they are only counted once the send completes
+             */
+            private int sending;
+
             @Override
             public void run() {
                 if(range && remaining == 0) {
@@ -154,7 +162,12 @@ public class PathResource implements RangeAwareResource {
                     if (!openFile()) {
                         return;
                     }
-                    pooled = exchange.getConnection().getByteBufferPool().allocate();
+                    ByteBufferPool pool = exchange.getConnection().getByteBufferPool();
+                    if (pool instanceof VariableSizeByteBufferPool) {
+                        pooled = ((VariableSizeByteBufferPool) pool).allocate(bufferSizeHint());
+                    } else {
+                        pooled = pool.allocate();
+                    }
                 }
                 if (pooled != null) {
                     ByteBuffer buffer = pooled.getBuffer();
@@ -175,6 +188,7 @@ public class PathResource implements RangeAwareResource {
                             }
                             remaining -= buffer.remaining();
                         }
+                        sending = buffer.remaining();
                         sender.send(buffer, this);
                     } catch (IOException e) {
                         onException(exchange, sender, e);
@@ -183,8 +197,25 @@ public class PathResource implements RangeAwareResource {
 
             }
 
+            /**
+             * @return the amount of data we are going to send, so size classed pools can pick an appropriate buffer
+             */
+            private int bufferSizeHint() {
+                long size = remaining;
+                if (!range) {
+                    try {
+                        size = fileChannel.size();
+                    } catch (IOException e) {
+                        return exchange.getConnection().getByteBufferPool().getBufferSize();
+                    }
+                }
+                return (int) Math.min(size, Integer.MAX_VALUE);
+            }
+
             @Override
             public void onComplete(final HttpServerExchange exchange, final Sender sender) {
+                manager.copiedBytesSent(sending);
+                sending = 0;
                 if (exchange.isInIoThread()) {
                     exchange.dispatch(this);
                 } else {
@@ -209,6 +240,12 @@ public class PathResource implements RangeAwareResource {
 
         class TransferTask extends BaseFileTask {
 
+            private final long size;
+
+            TransferTask(long size) {
+                this.size = size;
+            }
+
             @Override
             public void run() {
                 if (!openFile()) {
@@ -218,6 +255,7 @@ public class PathResource implements RangeAwareResource {
                     @Override
                     public void onComplete(HttpServerExchange exchange, Sender sender) {
                         try {
+                            manager.zeroCopyBytesSent(size);
                             IoUtils.safeClose(fileChannel);
                         } finally {
                             callback.onComplete(exchange, sender);
@@ -237,7 +275,12 @@ public class PathResource implements RangeAwareResource {
         }
         BaseFileTask task;
         try {
-            task = manager.getTransferMinSize() > Files.size(file) || range ? new ServerTask() : new TransferTask();
+            long size = Files.size(file);
+            if (range || manager.getTransferMinSize() > size || !isZeroCopyPossible(exchange)) {
+                task = new ServerTask();
+            } else {
+                task = new TransferTask(size);
+            }
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -248,6 +291,18 @@ public class PathResource implements RangeAwareResource {
         }
     }
 
+    /**
+     * The file can only be transferred directly to the socket if there is no TLS or framing layer, no
+     * response wrappers that may transform the data (e.g. compression), and the response is not chunked. Otherwise
+     * the file channel transfer just ends up copying the data, and it is more efficient to read it into pooled
+     * buffers ourselves.
+     */
+    private static boolean isZeroCopyPossible(final HttpServerExchange exchange) {
+        return exchange.getConnection().isZeroCopyTransferSupported()
+                && !exchange.isResponseWrapped()
+                && exchange.getResponseHeaders().contains(Headers.CONTENT_LENGTH);
+    }
+
     @Override
     public Long getContentLength() {
         try {
@@ -19,12 +19,16 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
 /**
  * Serves files from the file system.
  */
 public class PathResourceManager implements ResourceManager  {
 
+    private static final AtomicLongFieldUpdater<PathResourceManager> zeroCopyBytesUpdater = AtomicLongFieldUpdater.newUpdater(PathResourceManager.class, "zeroCopyBytes");
+    private static final AtomicLongFieldUpdater<PathResourceManager> copiedBytesUpdater = AtomicLongFieldUpdater.newUpdater(PathResourceManager.class, "copiedBytes");
+
     private final List<ResourceChangeListener> listeners = new ArrayList<>();
 
     private FileSystemWatcher fileSystemWatcher;
@@ -53,6 +57,9 @@ public class PathResourceManager implements ResourceManager  {
      */
     private final TreeSet<String> safePaths = new TreeSet<>();
 
+    private volatile long zeroCopyBytes;
+    private volatile long copiedBytes;
+
     public PathResourceManager(final Path base, long transferMinSize) {
         this(base, transferMinSize, true, false, null);
     }
@@ -206,6 +213,28 @@ public class PathResourceManager implements ResourceManager  {
         return transferMinSize;
     }
 
+    /**
+     * @return The number of bytes that have been sent using a zero copy file transfer
+     */
+    public long getZeroCopyBytes() {
+        return zeroCopyBytes;
+    }
+
+    /**
+     * @return The number of bytes that have been sent by copying file data through pooled buffers
+     */
+    public long getCopiedBytes() {
+        return copiedBytes;
+    }
+
+    void zeroCopyBytesSent(long bytes) {
+        zeroCopyBytesUpdater.addAndGet(this, bytes);
+    }
+
+    void copiedBytesSent(long bytes) {
+        copiedBytesUpdater.addAndGet(this, bytes);
+    }
+
     @Override
     public synchronized void close() throws IOException {
         if (fileSystemWatcher != null) {
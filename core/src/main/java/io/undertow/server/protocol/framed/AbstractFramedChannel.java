@@ -25,6 +25,7 @@ import java.net.SocketAddress;
 import java.nio.ByteBuffer;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Deque;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -58,6 +59,7 @@ import org.xnio.channels.StreamSourceChannel;
 
 import io.undertow.UndertowMessages;
 import io.undertow.conduits.IdleTimeoutConduit;
+import io.undertow.util.MpscLinkedQueue;
 import io.undertow.util.ReferenceCountedPooled;
 import io.undertow.websockets.core.WebSocketLogger;
 import org.xnio.channels.SuspendableWriteChannel;
@@ -103,8 +105,33 @@ public abstract class AbstractFramedChannel<C extends AbstractFramedChannel<C, R
     /**
      * new frames to be sent. These will be added to either the pending or held frames list
      * depending on the {@link #framePriority} implementation in use.
+     * <p>
+     * Any thread can add frames without taking the channel lock, they are only ever removed by
+     * {@link #flushSenders()} (or when the channel is broken) while holding it.
+     */
+    private final MpscLinkedQueue<S> newFrames = new MpscLinkedQueue<>();
+
+    /**
+     * 1 if a task has been submitted to the IO thread to flush the new frames, so that a burst of frames queued from
+     * other threads only wakes up the IO thread once.
+     */
+    @SuppressWarnings("unused")
+    private volatile int flushScheduled;
+    private static final AtomicIntegerFieldUpdater<AbstractFramedChannel> flushScheduledUpdater = AtomicIntegerFieldUpdater.newUpdater(AbstractFramedChannel.class, "flushScheduled");
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            //this must be cleared before the frames are drained, otherwise a frame added in between could be missed
+            flushScheduled = 0;
+            flushSenders();
+        }
+    };
+
+    /**
+     * The array that is used for gathering writes, reused between flushes. Only accessed in {@link #flushSenders()}.
      */
-    private final Deque<S> newFrames = new LinkedBlockingDeque<>();
+    private ByteBuffer[] writeBuffers = new ByteBuffer[16];
 
     private volatile long frameDataRemaining;
     private volatile R receiver;
@@ -519,8 +546,8 @@ public abstract class AbstractFramedChannel<C extends AbstractFramedChannel<C, R
         flushingSenders = true;
         try {
             int toSend = 0;
-            while (!newFrames.isEmpty()) {
-                S frame = newFrames.poll();
+            S frame;
+            while ((frame = newFrames.poll()) != null) {
                 if (framePriority.insertFrame(frame, pendingFrames)) {
                     if (!heldFrames.isEmpty()) {
                         framePriority.frameAdded(frame, pendingFrames, heldFrames);
@@ -555,28 +582,42 @@ public abstract class AbstractFramedChannel<C extends AbstractFramedChannel<C, R
                 }
                 return;
             }
-            ByteBuffer[] data = new ByteBuffer[toSend * 3];
-            int j = 0;
+            ByteBuffer[] data = writeBuffers;
+            if (data.length < toSend * 3) {
+                data = writeBuffers = new ByteBuffer[Math.max(toSend * 3, data.length * 2)];
+            }
+            int count = 0;
             it = pendingFrames.listIterator();
             try {
-                while (j < toSend) {
+                //all ready frames go out in a single gathering write, empty buffers are left out
+                for (int j = 0; j < toSend; ++j) {
                     S next = it.next();
-                    //todo: rather than adding empty buffers just store the offsets
-                    SendFrameHeader frameHeader = next.getFrameHeader();
-                    PooledByteBuffer frameHeaderByteBuffer = frameHeader.getByteBuffer();
-                    data[j * 3] = frameHeaderByteBuffer != null
-                            ? frameHeaderByteBuffer.getBuffer()
-                            : Buffers.EMPTY_BYTE_BUFFER;
-                    data[(j * 3) + 1] = next.getBuffer() == null ? Buffers.EMPTY_BYTE_BUFFER : next.getBuffer();
-                    data[(j * 3) + 2] = next.getFrameFooter();
-                    ++j;
+                    PooledByteBuffer frameHeaderByteBuffer = next.getFrameHeader().getByteBuffer();
+                    if (frameHeaderByteBuffer != null && frameHeaderByteBuffer.getBuffer().hasRemaining()) {
+                        data[count++] = frameHeaderByteBuffer.getBuffer();
+                    }
+                    ByteBuffer buffer = next.getBuffer();
+                    if (buffer != null && buffer.hasRemaining()) {
+                        data[count++] = buffer;
+                    }
+                    ByteBuffer footer = next.getFrameFooter();
+                    if (footer.hasRemaining()) {
+                        data[count++] = footer;
+                    }
                 }
-                long toWrite = Buffers.remaining(data);
+                long toWrite = Buffers.remaining(data, 0, count);
                 long res;
-                do {
-                    res = channel.getSinkChannel().write(data);
+                int offset = 0;
+                while (toWrite > 0) {
+                    res = channel.getSinkChannel().write(data, offset, count - offset);
+                    if (res <= 0) {
+                        break;
+                    }
                     toWrite -= res;
-                } while (res > 0 && toWrite > 0);
+                    while (offset < count && !data[offset].hasRemaining()) {
+                        ++offset;
+                    }
+                }
                 int max = toSend;
 
                 while (max > 0) {
@@ -608,16 +649,28 @@ public abstract class AbstractFramedChannel<C extends AbstractFramedChannel<C, R
             } catch (IOException e) {
                 safeClose(channel);
                 markWritesBroken(e);
+            } finally {
+                //don't hold on to the buffers until the next flush
+                Arrays.fill(data, 0, count, null);
             }
         } finally {
             flushingSenders = false;
             if(!newFrames.isEmpty()) {
-                runInIoThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        flushSenders();
-                    }
-                });
+                scheduleFlush();
+            }
+        }
+    }
+
+    /**
+     * Submits a task to flush the new frames to the IO thread, unless one is already pending.
+     */
+    private void scheduleFlush() {
+        if (flushScheduledUpdater.compareAndSet(this, 0, 1)) {
+            try {
+                runInIoThread(flushTask);
+            } catch (RejectedExecutionException e) {
+                flushScheduled = 0;
+                throw e;
             }
         }
     }
@@ -634,28 +687,36 @@ public abstract class AbstractFramedChannel<C extends AbstractFramedChannel<C, R
      * Queues a new frame to be sent, and attempts a flush if this is the first frame in the new frame queue.
      * <p>
      * Depending on the {@link FramePriority} implementation in use the channel may or may not be added to the actual
-     * pending queue
+     * pending queue.
+     * <p>
+     * This does not take the channel lock. If it is called from the IO thread the frame is flushed immediately,
+     * otherwise the IO thread is woken up to flush it, along with any other frames that have been queued in the
+     * meantime.
      *
      * @param channel The channel
      */
-    protected synchronized void queueFrame(final S channel) throws IOException {
-        assert !newFrames.contains(channel);
+    protected void queueFrame(final S channel) throws IOException {
         if (isWritesBroken() || !this.channel.getSinkChannel().isOpen() || channel.isBroken() || !channel.isOpen()) {
             IoUtils.safeClose(channel);
             throw UndertowMessages.MESSAGES.channelIsClosed();
         }
-        newFrames.add(channel);
-        if (!flushingSenders) {
-            if(channel.getIoThread() == Thread.currentThread()) {
-                flushSenders();
-            } else {
-                runInIoThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        flushSenders();
-                    }
-                });
-            }
+        newFrames.offer(channel);
+        if (isWritesBroken()) {
+            //the channel broke while the frame was being added, it may have been missed when the queue was cleared
+            breakNewFrames();
+            throw UndertowMessages.MESSAGES.channelIsClosed();
+        }
+        if (channel.getIoThread() == Thread.currentThread() && !flushingSenders) {
+            flushSenders();
+        } else {
+            scheduleFlush();
+        }
+    }
+
+    private synchronized void breakNewFrames() {
+        S frame;
+        while ((frame = newFrames.poll()) != null) {
+            frame.markBroken();
         }
     }
 
@@ -777,10 +838,7 @@ public abstract class AbstractFramedChannel<C extends AbstractFramedChannel<C, R
                     channel.markBroken();
                 }
                 pendingFrames.clear();
-                for (final S channel : newFrames) {
-                    channel.markBroken();
-                }
-                newFrames.clear();
+                breakNewFrames();
                 for (final S channel : heldFrames) {
                     channel.markBroken();
                 }
@@ -936,10 +994,8 @@ public abstract class AbstractFramedChannel<C extends AbstractFramedChannel<C, R
                         //if this was a clean shutdown there should not be any senders
                         channel.markBroken();
                     }
-                    for (final S channel : newFrames) {
-                        //if this was a clean shutdown there should not be any senders
-                        channel.markBroken();
-                    }
+                    //if this was a clean shutdown there should not be any senders
+                    breakNewFrames();
                     for (final S channel : heldFrames) {
                         //if this was a clean shutdown there should not be any senders
                         channel.markBroken();
@@ -179,6 +179,11 @@ public final class HttpServerConnection extends AbstractServerConnection {
         this.sslSessionInfo = sessionInfo;
     }
 
+    @Override
+    public boolean isZeroCopyTransferSupported() {
+        return !(channel instanceof SslChannel);
+    }
+
     public SSLSession getSslSession() {
         if (channel instanceof SslChannel) {
             return ((SslChannel) channel).getSslSession();
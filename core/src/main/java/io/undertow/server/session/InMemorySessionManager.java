@@ -23,26 +23,44 @@ import io.undertow.UndertowMessages;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.util.AttachmentKey;
 import io.undertow.util.ConcurrentDirectDeque;
-
+import io.undertow.util.HashedTimerWheel;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
 import java.math.BigDecimal;
 import java.math.MathContext;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import org.xnio.XnioExecutor;
+import org.xnio.XnioIoThread;
 import org.xnio.XnioWorker;
 
 /**
  * The default in memory session manager. This basically just stores sessions in an in memory hash map.
  * <p>
+ * If a hot set size and an {@link OffHeapSessionStore} are provided then only the most recently used sessions keep
+ * their attributes on the heap. When there are more sessions than the hot set size the attributes of the least
+ * recently used sessions are serialized to the store, and they are deserialized again the next time they are
+ * accessed. Attributes that cannot be serialized are simply kept on the heap.
  *
  * @author Stuart Douglas
  */
@@ -50,6 +68,11 @@ public class InMemorySessionManager implements SessionManager, SessionManagerSta
 
     private final AttachmentKey<SessionImpl> NEW_SESSION = AttachmentKey.create(SessionImpl.class);
 
+    /**
+     * The resolution of session expiry, in milliseconds. A session is invalidated at most two ticks after it expires.
+     */
+    private static final long EXPIRY_TICK = 500;
+
     private final SessionIdGenerator sessionIdGenerator;
 
     private final ConcurrentMap<String, SessionImpl> sessions;
@@ -78,6 +101,54 @@ public class InMemorySessionManager implements SessionManager, SessionManagerSta
 
     private final boolean expireOldestUnusedSessionOnMax;
 
+    /**
+     * The number of sessions that keep their attributes on the heap, or 0 if passivation is disabled
+     */
+    private final int hotSetSize;
+    private final OffHeapSessionStore passivationStore;
+    private final ConcurrentDirectDeque<SessionImpl> hotSessions;
+    private final AtomicInteger hotSessionCount = new AtomicInteger();
+    private final AtomicBoolean passivationScheduled = new AtomicBoolean();
+    /**
+     * Held while the passivation task runs, so that {@link #stop()} can wait for it before clearing the store
+     */
+    private final Object passivationLock = new Object();
+    private volatile boolean stopped;
+    private final AtomicLong passivatedSessionCount = new AtomicLong();
+    private final AtomicLong passivationCount = new AtomicLong();
+    private final AtomicLong activationCount = new AtomicLong();
+
+    /**
+     * The session timeouts. Rather than each session having its own timer task in an IO thread all sessions are
+     * held in a timer wheel, which is advanced once a tick and expires sessions in batches.
+     */
+    private final HashedTimerWheel<SessionImpl> expiryWheel = new HashedTimerWheel<>(EXPIRY_TICK, TimeUnit.MILLISECONDS);
+    private final AtomicBoolean expiryScheduled = new AtomicBoolean();
+    private volatile XnioExecutor.Key expiryKey;
+
+    private final Runnable expiryTask = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                expireSessions();
+            } finally {
+                expiryScheduled.set(false);
+            }
+        }
+    };
+
+    private final Runnable passivationTask = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                synchronized (passivationLock) {
+                    passivateColdSessions();
+                }
+            } finally {
+                passivationScheduled.set(false);
+            }
+        }
+    };
 
     public InMemorySessionManager(String deploymentName, int maxSessions, boolean expireOldestUnusedSessionOnMax) {
         this(new SecureRandomSessionIdGenerator(), deploymentName, maxSessions, expireOldestUnusedSessionOnMax);
@@ -88,6 +159,20 @@ public class InMemorySessionManager implements SessionManager, SessionManagerSta
     }
 
     public InMemorySessionManager(SessionIdGenerator sessionIdGenerator, String deploymentName, int maxSessions, boolean expireOldestUnusedSessionOnMax, boolean statisticsEnabled) {
+        this(sessionIdGenerator, deploymentName, maxSessions, expireOldestUnusedSessionOnMax, statisticsEnabled, 0, null);
+    }
+
+    /**
+     * @param hotSetSize       The number of recently used sessions that keep their attributes on the heap, or 0 to keep all sessions on the heap
+     * @param passivationStore The store that the attributes of the other sessions are passivated to
+     */
+    public InMemorySessionManager(SessionIdGenerator sessionIdGenerator, String deploymentName, int maxSessions, boolean expireOldestUnusedSessionOnMax, boolean statisticsEnabled, int hotSetSize, OffHeapSessionStore passivationStore) {
+        if (hotSetSize > 0 && passivationStore == null) {
+            throw new IllegalArgumentException("A passivation store is required if a hot set size is specified");
+        }
+        this.hotSetSize = hotSetSize > 0 ? hotSetSize : 0;
+        this.passivationStore = hotSetSize > 0 ? passivationStore : null;
+        this.hotSessions = hotSetSize > 0 ? ConcurrentDirectDeque.<SessionImpl>newInstance() : null;
         this.sessionIdGenerator = sessionIdGenerator;
         this.deploymentName = deploymentName;
         this.statisticsEnabled = statisticsEnabled;
@@ -119,15 +204,33 @@ public class InMemorySessionManager implements SessionManager, SessionManagerSta
         createdSessionCount.set(0);
         expiredSessionCount.set(0);
         startTime = System.currentTimeMillis();
+        stopped = false;
     }
 
     @Override
     public void stop() {
+        stopped = true;
+        synchronized (this) {
+            if (expiryKey != null) {
+                expiryKey.remove();
+                expiryKey = null;
+            }
+        }
         for (Map.Entry<String, SessionImpl> session : sessions.entrySet()) {
             session.getValue().destroy();
             sessionListeners.sessionDestroyed(session.getValue(), null, SessionListener.SessionDestroyedReason.UNDEPLOY);
         }
         sessions.clear();
+        expiryWheel.clear();
+        if (passivationStore != null) {
+            hotSessions.clear();
+            hotSessionCount.set(0);
+            //wait for a running passivation task, it will stop at the next session as stopped has been set
+            synchronized (passivationLock) {
+                passivatedSessionCount.set(0);
+                passivationStore.clear();
+            }
+        }
     }
 
     @Override
@@ -175,11 +278,18 @@ public class InMemorySessionManager implements SessionManager, SessionManagerSta
         if(statisticsEnabled) {
             createdSessionCount.incrementAndGet();
         }
-        final SessionImpl session = new SessionImpl(this, sessionID, config, serverExchange.getIoThread(), serverExchange.getConnection().getWorker(), evictionToken, defaultSessionTimeout);
+        final XnioWorker worker = serverExchange.getConnection().getWorker();
+        if (expiryKey == null) {
+            startExpiryTimer(serverExchange.getIoThread(), worker);
+        }
+        final SessionImpl session = new SessionImpl(this, sessionID, config, worker, evictionToken, defaultSessionTimeout);
         sessions.put(sessionID, session);
         config.setSessionId(serverExchange, session.getId());
         session.lastAccessed = System.currentTimeMillis();
         session.bumpTimeout();
+        if (passivationStore != null) {
+            sessionActivated(session);
+        }
         sessionListeners.sessionCreated(session, serverExchange);
         serverExchange.putAttachment(NEW_SESSION, session);
         return session;
@@ -301,20 +411,169 @@ public class InMemorySessionManager implements SessionManager, SessionManagerSta
         return startTime;
     }
 
+    @Override
+    public long getPassivatedSessionCount() {
+        return passivatedSessionCount.get();
+    }
+
+    @Override
+    public long getSessionPassivationCount() {
+        return passivationCount.get();
+    }
+
+    @Override
+    public long getSessionActivationCount() {
+        return activationCount.get();
+    }
+
+    /**
+     * @return The number of sessions that are counted towards the hot set size
+     */
+    int getHotSessionCount() {
+        return hotSessionCount.get();
+    }
+
+    /**
+     * @return The number of entries in the hot set queue
+     */
+    int getHotSetQueueSize() {
+        return hotSessions == null ? 0 : hotSessions.size();
+    }
+
+    /**
+     * Starts the task that advances the expiry wheel. It runs in the IO thread of the first session that is created,
+     * and hands off to the worker so that session listeners are never run in the IO thread.
+     */
+    private synchronized void startExpiryTimer(final XnioIoThread ioThread, final XnioWorker worker) {
+        if (expiryKey != null) {
+            return;
+        }
+        //the wheel may have been idle for a long time, so catch it up before anything is scheduled
+        expiryWheel.advance(System.currentTimeMillis());
+        expiryKey = ioThread.executeAtInterval(new Runnable() {
+            @Override
+            public void run() {
+                if (expiryScheduled.compareAndSet(false, true)) {
+                    try {
+                        worker.execute(expiryTask);
+                    } catch (RuntimeException e) {
+                        expiryScheduled.set(false);
+                        throw e;
+                    }
+                }
+            }
+        }, EXPIRY_TICK, TimeUnit.MILLISECONDS);
+    }
+
+    void expireSessions() {
+        final long now = System.currentTimeMillis();
+        List<SessionImpl> expired = expiryWheel.advance(now);
+        for (SessionImpl session : expired) {
+            session.timeoutReached(now);
+        }
+    }
+
+    /**
+     * Called when a session's attributes have been loaded onto the heap, either because it is new or because it was
+     * activated. If the hot set is now too large a task is scheduled to passivate the least recently used sessions.
+     */
+    void sessionActivated(SessionImpl session) {
+        session.touch();
+        if (hotSessionCount.incrementAndGet() > hotSetSize && passivationScheduled.compareAndSet(false, true)) {
+            try {
+                session.worker.execute(passivationTask);
+            } catch (RejectedExecutionException e) {
+                //try again when the next session is activated
+                passivationScheduled.set(false);
+            }
+        }
+    }
+
+    void passivateColdSessions() {
+        //every session is looked at at most once, so sessions that are in use or cannot be passivated do not cause a spin
+        for (int i = hotSessionCount.get(); i > 0 && hotSessionCount.get() > hotSetSize && !stopped; --i) {
+            SessionImpl session = hotSessions.poll();
+            if (session == null) {
+                return;
+            }
+            session.passivate();
+        }
+    }
+
+    static byte[] serializeAttributes(Map<String, Object> attributes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ObjectOutputStream stream = new ObjectOutputStream(out)) {
+            stream.writeInt(attributes.size());
+            for (Map.Entry<String, Object> entry : attributes.entrySet()) {
+                stream.writeUTF(entry.getKey());
+                stream.writeObject(entry.getValue());
+            }
+        }
+        return out.toByteArray();
+    }
+
+    static ConcurrentMap<String, Object> deserializeAttributes(byte[] data) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream stream = new SessionObjectInputStream(new ByteArrayInputStream(data), Thread.currentThread().getContextClassLoader())) {
+            int size = stream.readInt();
+            ConcurrentMap<String, Object> attributes = new ConcurrentHashMap<>(Math.max(16, size * 2));
+            for (int i = 0; i < size; ++i) {
+                String name = stream.readUTF();
+                attributes.put(name, stream.readObject());
+            }
+            return attributes;
+        }
+    }
+
+    /**
+     * Resolves the classes of passivated attributes with the context class loader of the thread that activates the
+     * session, which for a servlet deployment is the deployment class loader.
+     */
+    private static final class SessionObjectInputStream extends ObjectInputStream {
+
+        private final ClassLoader classLoader;
+
+        SessionObjectInputStream(InputStream in, ClassLoader classLoader) throws IOException {
+            super(in);
+            this.classLoader = classLoader;
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            if (classLoader != null) {
+                try {
+                    return Class.forName(desc.getName(), false, classLoader);
+                } catch (ClassNotFoundException e) {
+                    //fall back to the default resolution
+                }
+            }
+            return super.resolveClass(desc);
+        }
+    }
+
 
     /**
      * session implementation for the in memory session manager
      */
-    private static class SessionImpl implements Session {
+    private static class SessionImpl extends HashedTimerWheel.Entry implements Session {
 
 
         final InMemorySessionManager sessionManager;
-        final ConcurrentMap<String, Object> attributes = new ConcurrentHashMap<>();
+        /**
+         * The attributes, or <code>null</code> if the session has been passivated
+         */
+        volatile ConcurrentMap<String, Object> attributes = new ConcurrentHashMap<>();
         volatile long lastAccessed;
         final long creationTime;
         volatile int maxInactiveInterval;
 
         static volatile AtomicReferenceFieldUpdater<SessionImpl, Object> evictionTokenUpdater;
+        static volatile AtomicReferenceFieldUpdater<SessionImpl, Object> hotTokenUpdater;
+        static volatile AtomicIntegerFieldUpdater<SessionImpl> pinsUpdater;
+
+        /**
+         * The value of {@link #hotToken} while a thread is moving the session in the hot set queue
+         */
+        private static final Object HOT_TOKEN_IN_TRANSITION = new Object();
         static {
             //this is needed in case there is unprivileged code on the stack
             //it needs to delegate to the createTokenUpdater() method otherwise the creation will fail
@@ -322,13 +581,29 @@ public class InMemorySessionManager implements SessionManager, SessionManagerSta
             evictionTokenUpdater = AccessController.doPrivileged(new PrivilegedAction<AtomicReferenceFieldUpdater<SessionImpl, Object>>() {
                 @Override
                 public AtomicReferenceFieldUpdater<SessionImpl, Object> run() {
-                    return createTokenUpdater();
+                    return createTokenUpdater("evictionToken");
+                }
+            });
+            hotTokenUpdater = AccessController.doPrivileged(new PrivilegedAction<AtomicReferenceFieldUpdater<SessionImpl, Object>>() {
+                @Override
+                public AtomicReferenceFieldUpdater<SessionImpl, Object> run() {
+                    return createTokenUpdater("hotToken");
+                }
+            });
+            pinsUpdater = AccessController.doPrivileged(new PrivilegedAction<AtomicIntegerFieldUpdater<SessionImpl>>() {
+                @Override
+                public AtomicIntegerFieldUpdater<SessionImpl> run() {
+                    return createPinsUpdater();
                 }
             });
         }
 
-        private static AtomicReferenceFieldUpdater<SessionImpl, Object> createTokenUpdater() {
-            return AtomicReferenceFieldUpdater.newUpdater(SessionImpl.class, Object.class, "evictionToken");
+        private static AtomicReferenceFieldUpdater<SessionImpl, Object> createTokenUpdater(String field) {
+            return AtomicReferenceFieldUpdater.newUpdater(SessionImpl.class, Object.class, field);
+        }
+
+        private static AtomicIntegerFieldUpdater<SessionImpl> createPinsUpdater() {
+            return AtomicIntegerFieldUpdater.newUpdater(SessionImpl.class, "pins");
         }
 
 
@@ -339,33 +614,31 @@ public class InMemorySessionManager implements SessionManager, SessionManagerSta
         private volatile boolean invalid = false;
         private volatile boolean invalidationStarted = false;
 
-        final XnioExecutor executor;
-        final XnioWorker worker;
-
-        XnioExecutor.Key timerCancelKey;
+        /**
+         * The token of this session in the hot set queue, {@link #HOT_TOKEN_IN_TRANSITION} while it is being moved
+         * in the queue, or null if it is not in the queue
+         */
+        private volatile Object hotToken;
+        /**
+         * The number of threads that are currently using the attributes, or -1 while the session is being passivated
+         */
+        private volatile int pins;
+        /**
+         * The handle of the passivated attributes in the store, or -1 if the attributes are on the heap
+         */
+        private int passivatedHandle = -1;
+        /**
+         * Set if the attributes could not be serialized, so passivation is not attempted again until they change.
+         * These sessions are not in the hot set queue, and are not counted in the hot set size.
+         */
+        private volatile boolean notSerializable;
 
-        Runnable cancelTask = new Runnable() {
-            @Override
-            public void run() {
-                worker.execute(new Runnable() {
-                    @Override
-                    public void run() {
-                        long currentTime = System.currentTimeMillis();
-                        if(currentTime >= expireTime) {
-                            invalidate(null, SessionListener.SessionDestroyedReason.TIMEOUT);
-                        } else {
-                            timerCancelKey = executor.executeAfter(cancelTask, expireTime - currentTime, TimeUnit.MILLISECONDS);
-                        }
-                    }
-                });
-            }
-        };
+        final XnioWorker worker;
 
-        private SessionImpl(final InMemorySessionManager sessionManager, final String sessionId, final SessionConfig sessionCookieConfig, final XnioExecutor executor, final XnioWorker worker, final Object evictionToken, final int maxInactiveInterval) {
+        private SessionImpl(final InMemorySessionManager sessionManager, final String sessionId, final SessionConfig sessionCookieConfig, final XnioWorker worker, final Object evictionToken, final int maxInactiveInterval) {
             this.sessionManager = sessionManager;
             this.sessionId = sessionId;
             this.sessionCookieConfig = sessionCookieConfig;
-            this.executor = executor;
             this.worker = worker;
             this.evictionToken = evictionToken;
             creationTime = lastAccessed = System.currentTimeMillis();
@@ -380,26 +653,19 @@ public class InMemorySessionManager implements SessionManager, SessionManagerSta
             final int maxInactiveInterval = getMaxInactiveInterval();
             if (maxInactiveInterval > 0) {
                 long newExpireTime = System.currentTimeMillis() + (maxInactiveInterval * 1000L);
-                if(timerCancelKey != null && (newExpireTime < expireTime)) {
-                    // We have to re-schedule as the new maxInactiveInterval is lower than the old one
-                    if (!timerCancelKey.remove()) {
-                        return;
-                    }
-                    timerCancelKey = null;
-                }
+                //the expire time must be set before the scheduled deadline is read, so if the wheel expires
+                //the entry concurrently the expiry task will see the new time and re-schedule it
                 expireTime = newExpireTime;
-                if(timerCancelKey == null) {
-                    //+500ms, to make sure that the time has actually expired
-                    //we don't re-schedule every time, as it is expensive
-                    //instead when it expires we check if the timeout has been bumped, and if so we re-schedule
-                    timerCancelKey = executor.executeAfter(cancelTask, (maxInactiveInterval * 1000L) + 500L, TimeUnit.MILLISECONDS);
+                long scheduled = getScheduledDeadline();
+                if (scheduled == -1 || newExpireTime < scheduled) {
+                    //we don't re-schedule every time, instead when the entry expires we check if the timeout
+                    //has been bumped, and if so we re-schedule. We only have to re-schedule here if the
+                    //new maxInactiveInterval is lower than the old one
+                    sessionManager.expiryWheel.schedule(this, newExpireTime);
                 }
             } else {
                 expireTime = -1;
-                if(timerCancelKey != null) {
-                    timerCancelKey.remove();
-                    timerCancelKey = null;
-                }
+                sessionManager.expiryWheel.cancel(this);
             }
             if (evictionToken != null) {
                 Object token = evictionToken;
@@ -462,7 +728,12 @@ public class InMemorySessionManager implements SessionManager, SessionManagerSta
                 throw UndertowMessages.MESSAGES.sessionNotFound(sessionId);
             }
             bumpTimeout();
-            return attributes.get(name);
+            final ConcurrentMap<String, Object> attributes = pinAttributes();
+            try {
+                return attributes.get(name);
+            } finally {
+                unpinAttributes();
+            }
         }
 
         @Override
@@ -471,7 +742,12 @@ public class InMemorySessionManager implements SessionManager, SessionManagerSta
                 throw UndertowMessages.MESSAGES.sessionNotFound(sessionId);
             }
             bumpTimeout();
-            return attributes.keySet();
+            final ConcurrentMap<String, Object> attributes = pinAttributes();
+            try {
+                return new HashSet<>(attributes.keySet());
+            } finally {
+                unpinAttributes();
+            }
         }
 
         @Override
@@ -479,7 +755,14 @@ public class InMemorySessionManager implements SessionManager, SessionManagerSta
             if (invalid) {
                 throw UndertowMessages.MESSAGES.sessionNotFound(sessionId);
             }
-            final Object existing = attributes.put(name, value);
+            final ConcurrentMap<String, Object> attributes = pinAttributes();
+            final Object existing;
+            try {
+                existing = attributes.put(name, value);
+                attributesChanged();
+            } finally {
+                unpinAttributes();
+            }
             if (existing == null) {
                 sessionManager.sessionListeners.attributeAdded(this, name, value);
             } else {
@@ -494,7 +777,14 @@ public class InMemorySessionManager implements SessionManager, SessionManagerSta
             if (invalid) {
                 throw UndertowMessages.MESSAGES.sessionNotFound(sessionId);
             }
-            final Object existing = attributes.remove(name);
+            final ConcurrentMap<String, Object> attributes = pinAttributes();
+            final Object existing;
+            try {
+                existing = attributes.remove(name);
+                attributesChanged();
+            } finally {
+                unpinAttributes();
+            }
             sessionManager.sessionListeners.attributeRemoved(this, name, existing);
             bumpTimeout();
             return existing;
@@ -510,9 +800,7 @@ public class InMemorySessionManager implements SessionManager, SessionManagerSta
 
         void invalidate(final HttpServerExchange exchange, SessionListener.SessionDestroyedReason reason) {
             synchronized(SessionImpl.this) {
-                if (timerCancelKey != null) {
-                    timerCancelKey.remove();
-                }
+                sessionManager.expiryWheel.cancel(this);
                 SessionImpl sess = sessionManager.sessions.remove(sessionId);
                 if (sess == null) {
                     if (reason == SessionListener.SessionDestroyedReason.INVALIDATED) {
@@ -525,6 +813,9 @@ public class InMemorySessionManager implements SessionManager, SessionManagerSta
 
             sessionManager.sessionListeners.sessionDestroyed(this, exchange, reason);
             invalid = true;
+            if (sessionManager.passivationStore != null) {
+                releasePassivationState();
+            }
 
             if(sessionManager.statisticsEnabled) {
                 long avg, newAvg;
@@ -568,11 +859,202 @@ public class InMemorySessionManager implements SessionManager, SessionManagerSta
             return newId;
         }
 
+        /**
+         * Returns the attributes, activating the session if it has been passivated. The attributes cannot be
+         * passivated until {@link #unpinAttributes()} is called.
+         */
+        private ConcurrentMap<String, Object> pinAttributes() {
+            if (sessionManager.passivationStore == null) {
+                return attributes;
+            }
+            for (;;) {
+                int current = pins;
+                if (current < 0) {
+                    synchronized (this) {
+                        //passivation holds the lock, so once it has been acquired passivation has finished
+                    }
+                } else if (pinsUpdater.compareAndSet(this, current, current + 1)) {
+                    break;
+                }
+            }
+            ConcurrentMap<String, Object> attributes = this.attributes;
+            if (attributes == null) {
+                try {
+                    attributes = activate();
+                } catch (RuntimeException e) {
+                    unpinAttributes();
+                    throw e;
+                }
+            } else if (!notSerializable) {
+                touch();
+            }
+            return attributes;
+        }
+
+        private void unpinAttributes() {
+            if (sessionManager.passivationStore != null) {
+                pinsUpdater.decrementAndGet(this);
+            }
+        }
+
+        /**
+         * Moves the session to the most recently used end of the hot set queue
+         */
+        void touch() {
+            Object token = hotToken;
+            if (token == HOT_TOKEN_IN_TRANSITION) {
+                //another thread is already moving the session
+                return;
+            }
+            if (hotTokenUpdater.compareAndSet(this, token, HOT_TOKEN_IN_TRANSITION)) {
+                if (token != null) {
+                    sessionManager.hotSessions.removeToken(token);
+                }
+                this.hotToken = sessionManager.hotSessions.offerLastAndReturnToken(this);
+            }
+        }
+
+        /**
+         * Removes the session from the hot set queue, waiting for a concurrent {@link #touch()} to finish
+         */
+        private void removeFromHotSet() {
+            for (;;) {
+                Object token = hotToken;
+                if (token == null) {
+                    return;
+                }
+                if (token != HOT_TOKEN_IN_TRANSITION && hotTokenUpdater.compareAndSet(this, token, null)) {
+                    sessionManager.hotSessions.removeToken(token);
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Called when an attribute has been changed. If the attributes could not be serialized before they may be
+         * serializable now, so the session is added back to the hot set.
+         */
+        private void attributesChanged() {
+            if (notSerializable) {
+                synchronized (this) {
+                    if (notSerializable && !invalidationStarted) {
+                        notSerializable = false;
+                        sessionManager.sessionActivated(this);
+                    }
+                }
+            }
+        }
+
+        private synchronized ConcurrentMap<String, Object> activate() {
+            ConcurrentMap<String, Object> attributes = this.attributes;
+            if (attributes != null) {
+                //activated by another thread
+                return attributes;
+            }
+            byte[] data = sessionManager.passivationStore.read(passivatedHandle);
+            try {
+                attributes = deserializeAttributes(data);
+            } catch (IOException | ClassNotFoundException e) {
+                UndertowLogger.REQUEST_LOGGER.failedToActivateSession(sessionId, e);
+                //the attributes have been lost, so the session cannot be used any more. Listeners that are notified
+                //of the invalidation see an empty session, and the stored data is freed by the invalidation.
+                this.attributes = new ConcurrentHashMap<>();
+                if (invalidationStarted) {
+                    return this.attributes;
+                }
+                invalidate(null, SessionListener.SessionDestroyedReason.INVALIDATED);
+                throw UndertowMessages.MESSAGES.sessionNotFound(sessionId);
+            }
+            sessionManager.passivationStore.free(passivatedHandle);
+            passivatedHandle = -1;
+            this.attributes = attributes;
+            sessionManager.passivatedSessionCount.decrementAndGet();
+            sessionManager.activationCount.incrementAndGet();
+            sessionManager.sessionActivated(this);
+            return attributes;
+        }
+
+        /**
+         * Attempts to move the attributes of this session to the passivation store.
+         */
+        synchronized void passivate() {
+            final ConcurrentMap<String, Object> attributes = this.attributes;
+            if (invalidationStarted || attributes == null || notSerializable) {
+                return;
+            }
+            if (!pinsUpdater.compareAndSet(this, 0, -1)) {
+                //the session is in use, so it is not cold after all
+                touch();
+                return;
+            }
+            try {
+                byte[] data;
+                try {
+                    data = serializeAttributes(attributes);
+                } catch (IOException e) {
+                    UndertowLogger.REQUEST_LOGGER.debugf(e, "Could not passivate session %s", sessionId);
+                    //the session leaves the hot set until its attributes change, otherwise it would keep the hot set
+                    //above its size and every other session would be passivated as soon as it is used
+                    notSerializable = true;
+                    removeFromHotSet();
+                    sessionManager.hotSessionCount.decrementAndGet();
+                    return;
+                }
+                int handle = sessionManager.passivationStore.store(data);
+                if (handle == -1) {
+                    //the store is full, try again later
+                    touch();
+                    return;
+                }
+                passivatedHandle = handle;
+                this.attributes = null;
+                //the session may have been touched after it was taken from the queue
+                removeFromHotSet();
+                sessionManager.hotSessionCount.decrementAndGet();
+                sessionManager.passivatedSessionCount.incrementAndGet();
+                sessionManager.passivationCount.incrementAndGet();
+            } finally {
+                pins = 0;
+            }
+        }
+
+        /**
+         * Releases the hot set entry or the stored attributes of a session that has been invalidated
+         */
+        private synchronized void releasePassivationState() {
+            removeFromHotSet();
+            if (passivatedHandle != -1) {
+                sessionManager.passivationStore.free(passivatedHandle);
+                passivatedHandle = -1;
+                sessionManager.passivatedSessionCount.decrementAndGet();
+            } else if (!notSerializable) {
+                sessionManager.hotSessionCount.decrementAndGet();
+            }
+        }
+
         private synchronized void destroy() {
-            if (timerCancelKey != null) {
-                timerCancelKey.remove();
+            sessionManager.expiryWheel.cancel(this);
+        }
+
+        /**
+         * Called by the expiry task when this session's entry in the wheel has expired. The session is only
+         * invalidated if it has not been accessed since the entry was scheduled.
+         */
+        void timeoutReached(long now) {
+            synchronized (this) {
+                if (invalidationStarted || expireTime <= 0) {
+                    return;
+                }
+                if (now < expireTime) {
+                    sessionManager.expiryWheel.schedule(this, expireTime);
+                    return;
+                }
+            }
+            try {
+                invalidate(null, SessionListener.SessionDestroyedReason.TIMEOUT);
+            } catch (RuntimeException e) {
+                UndertowLogger.REQUEST_LOGGER.failedToInvalidateSession(sessionId, e);
             }
-            cancelTask = null;
         }
 
     }
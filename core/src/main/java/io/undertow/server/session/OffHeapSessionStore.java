@@ -0,0 +1,312 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.session;
+
+import io.undertow.UndertowLogger;
+import org.xnio.IoUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Off heap storage for the serialized attributes of passivated sessions.
+ * <p>
+ * The store is made up of regions that are either direct buffers, or mappings of a temporary file. Each region is
+ * divided into fixed size blocks, and a record is stored in a chain of blocks that are linked by a four byte header.
+ * The free list is a lock free stack that is threaded through the free blocks themselves, so a stored record does
+ * not need any heap objects apart from the <code>int</code> handle that refers to its first block.
+ * <p>
+ * Regions are never released until the store is cleared or closed, so the store only grows to the size of the largest number
+ * of sessions that were passivated at the same time.
+ *
+ * @author agent
+ */
+public class OffHeapSessionStore {
+
+    private static final int NEXT_OFFSET = 0;
+    private static final int LENGTH_OFFSET = 4;
+    private static final int HEADER_SIZE = 4;
+    private static final int FIRST_HEADER_SIZE = 8;
+    private static final int END = -1;
+
+    private final int blockSize;
+    private final int blocksPerRegion;
+    private final int maxRegions;
+    private final FileChannel fileChannel;
+
+    private volatile ByteBuffer[] regions = {};
+
+    /**
+     * The head of the free list. The low 32 bits are the index of the first free block, and the high 32 bits are a
+     * stamp that is incremented on every change, so that a block that is removed and re-added between a read of the
+     * head and the CAS does not corrupt the list.
+     */
+    private final AtomicLong freeList = new AtomicLong(END & 0xFFFFFFFFL);
+    private final AtomicInteger usedBlocks = new AtomicInteger();
+
+    /**
+     * Creates a store that is backed by direct buffers
+     *
+     * @param blockSize  The size of each block, a record uses at least one block
+     * @param regionSize The size of each direct buffer that is allocated
+     * @param maxRegions The maximum number of regions, or 0 for unlimited
+     */
+    public OffHeapSessionStore(int blockSize, int regionSize, int maxRegions) {
+        this(blockSize, regionSize, maxRegions, null);
+    }
+
+    /**
+     * Creates a store that is backed by a memory mapped temporary file in the given directory. The file is deleted
+     * when the store is closed.
+     *
+     * @param blockSize  The size of each block, a record uses at least one block
+     * @param regionSize The size of each mapping of the file
+     * @param maxRegions The maximum number of regions, or 0 for unlimited
+     * @param directory  The directory to create the file in, or <code>null</code> to use direct buffers
+     */
+    public OffHeapSessionStore(int blockSize, int regionSize, int maxRegions, Path directory) {
+        if (blockSize <= FIRST_HEADER_SIZE) {
+            throw new IllegalArgumentException("Block size must be larger than " + FIRST_HEADER_SIZE);
+        }
+        if (regionSize < blockSize) {
+            throw new IllegalArgumentException("Region size must be greater than or equal to the block size");
+        }
+        this.blockSize = blockSize;
+        this.blocksPerRegion = regionSize / blockSize;
+        this.maxRegions = maxRegions <= 0 ? Integer.MAX_VALUE / blocksPerRegion : Math.min(maxRegions, Integer.MAX_VALUE / blocksPerRegion);
+        if (directory == null) {
+            fileChannel = null;
+        } else {
+            try {
+                Path file = Files.createTempFile(directory, "undertow-sessions", ".dat");
+                fileChannel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * Stores a record.
+     *
+     * @param data The data to store
+     * @return The handle of the record, or -1 if the store is full
+     */
+    public int store(byte[] data) {
+        final int payload = blockSize - HEADER_SIZE;
+        final int blocks = Math.max(1, (data.length + LENGTH_OFFSET + payload - 1) / payload);
+        int first = END;
+        int previous = END;
+        for (int i = 0; i < blocks; ++i) {
+            int block = allocate();
+            if (block == END) {
+                if (first != END) {
+                    free(first);
+                }
+                return END;
+            }
+            if (previous == END) {
+                first = block;
+            } else {
+                setNext(previous, block);
+            }
+            setNext(block, END);
+            previous = block;
+        }
+        ByteBuffer region = region(first);
+        region.putInt(offset(first) + LENGTH_OFFSET, data.length);
+        int block = first;
+        int written = 0;
+        int headerSize = FIRST_HEADER_SIZE;
+        while (written < data.length) {
+            int length = Math.min(blockSize - headerSize, data.length - written);
+            ByteBuffer buffer = region(block).duplicate();
+            buffer.position(offset(block) + headerSize);
+            buffer.put(data, written, length);
+            written += length;
+            headerSize = HEADER_SIZE;
+            block = next(block);
+        }
+        return first;
+    }
+
+    /**
+     * Reads a record.
+     *
+     * @param handle The handle that was returned from {@link #store(byte[])}
+     * @return The data
+     */
+    public byte[] read(int handle) {
+        byte[] data = new byte[region(handle).getInt(offset(handle) + LENGTH_OFFSET)];
+        int block = handle;
+        int read = 0;
+        int headerSize = FIRST_HEADER_SIZE;
+        while (read < data.length) {
+            int length = Math.min(blockSize - headerSize, data.length - read);
+            ByteBuffer buffer = region(block).duplicate();
+            buffer.position(offset(block) + headerSize);
+            buffer.get(data, read, length);
+            read += length;
+            headerSize = HEADER_SIZE;
+            block = next(block);
+        }
+        return data;
+    }
+
+    /**
+     * Returns the blocks of a record to the free list.
+     *
+     * @param handle The handle that was returned from {@link #store(byte[])}
+     */
+    public void free(int handle) {
+        int last = handle;
+        int count = 1;
+        int next = next(last);
+        while (next != END) {
+            last = next;
+            next = next(last);
+            count++;
+        }
+        //the whole chain is pushed onto the free list in one go
+        push(handle, last);
+        usedBlocks.addAndGet(-count);
+    }
+
+    /**
+     * @return The number of bytes that are in use, including the unused space at the end of each record
+     */
+    public long getUsedBytes() {
+        return (long) usedBlocks.get() * blockSize;
+    }
+
+    /**
+     * @return The total number of bytes that have been allocated
+     */
+    public long getAllocatedBytes() {
+        return (long) regions.length * blocksPerRegion * blockSize;
+    }
+
+    /**
+     * Discards all records and releases the regions. Any handles that were returned before this call are no longer
+     * valid. A file backed store reuses its file, which is never truncated, as a buffer that is still referenced
+     * by a racing read would fault if the file was shortened underneath it.
+     */
+    public synchronized void clear() {
+        regions = new ByteBuffer[0];
+        freeList.set(END & 0xFFFFFFFFL);
+        usedBlocks.set(0);
+    }
+
+    /**
+     * Releases the storage and deletes the backing file, if any. The store must not be used after it has been closed.
+     */
+    public synchronized void close() {
+        clear();
+        IoUtils.safeClose(fileChannel);
+    }
+
+    private int allocate() {
+        for (;;) {
+            long head = freeList.get();
+            int block = (int) head;
+            if (block == END) {
+                if (!grow()) {
+                    return END;
+                }
+                continue;
+            }
+            //if the block has been taken by another thread this may read garbage, but then the CAS will fail
+            int next = next(block);
+            if (freeList.compareAndSet(head, stamp(head) | (next & 0xFFFFFFFFL))) {
+                usedBlocks.incrementAndGet();
+                return block;
+            }
+        }
+    }
+
+    private void push(int first, int last) {
+        for (;;) {
+            long head = freeList.get();
+            setNext(last, (int) head);
+            if (freeList.compareAndSet(head, stamp(head) | (first & 0xFFFFFFFFL))) {
+                return;
+            }
+        }
+    }
+
+    private static long stamp(long head) {
+        return ((head >>> 32) + 1) << 32;
+    }
+
+    private synchronized boolean grow() {
+        if ((int) freeList.get() != END) {
+            //another thread has already grown the store
+            return true;
+        }
+        ByteBuffer[] existing = regions;
+        if (existing.length >= maxRegions) {
+            return false;
+        }
+        final int regionSize = blocksPerRegion * blockSize;
+        ByteBuffer region;
+        try {
+            if (fileChannel == null) {
+                region = ByteBuffer.allocateDirect(regionSize);
+            } else {
+                region = fileChannel.map(FileChannel.MapMode.READ_WRITE, (long) existing.length * regionSize, regionSize);
+            }
+        } catch (IOException | OutOfMemoryError e) {
+            UndertowLogger.REQUEST_LOGGER.debugf(e, "Failed to grow session store");
+            return false;
+        }
+        ByteBuffer[] newRegions = new ByteBuffer[existing.length + 1];
+        System.arraycopy(existing, 0, newRegions, 0, existing.length);
+        newRegions[existing.length] = region;
+        int first = existing.length * blocksPerRegion;
+        for (int i = 0; i < blocksPerRegion - 1; ++i) {
+            region.putInt(i * blockSize + NEXT_OFFSET, first + i + 1);
+        }
+        //the region must be visible before any of its blocks can be taken from the free list
+        this.regions = newRegions;
+        push(first, first + blocksPerRegion - 1);
+        return true;
+    }
+
+    private ByteBuffer region(int block) {
+        return regions[block / blocksPerRegion];
+    }
+
+    private int offset(int block) {
+        return (block % blocksPerRegion) * blockSize;
+    }
+
+    private int next(int block) {
+        return region(block).getInt(offset(block) + NEXT_OFFSET);
+    }
+
+    private void setNext(int block, int next) {
+        region(block).putInt(offset(block) + NEXT_OFFSET, next);
+    }
+}
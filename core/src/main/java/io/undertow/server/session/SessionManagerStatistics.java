@@ -73,4 +73,22 @@ public interface SessionManagerStatistics {
      * @return The timestamp at which the session manager started
      */
     long getStartTime();
+
+    /**
+     *
+     * @return The number of sessions whose attributes are currently passivated to off heap storage
+     */
+    long getPassivatedSessionCount();
+
+    /**
+     *
+     * @return The number of times a session has been passivated
+     */
+    long getSessionPassivationCount();
+
+    /**
+     *
+     * @return The number of times a passivated session has been activated
+     */
+    long getSessionActivationCount();
 }
@@ -44,6 +44,8 @@ public class DateUtils {
 
     private static final AtomicReference<String> cachedDateString = new AtomicReference<>();
 
+    private static volatile CachedDate cachedCommonLogDate;
+
     /**
      * Thread local cache of this date format. This is technically a small memory leak, however
      * in practice it is fine, as it will only be used by server threads.
@@ -112,6 +114,23 @@ public class DateUtils {
         return COMMON_LOG_PATTERN_FORMAT.get().format(date);
     }
 
+    /**
+     * Returns the current time in common log format. The value is cached, so it is only formatted once per second.
+     *
+     * @return The current time in common log format
+     */
+    public static String getCurrentCommonLogFormat() {
+        final long now = System.currentTimeMillis();
+        final long second = now / 1000;
+        CachedDate cached = cachedCommonLogDate;
+        if (cached == null || cached.second != second) {
+            //this is racey, but it does not matter if multiple threads format the same second
+            cached = new CachedDate(second, toCommonLogFormat(new Date(now)));
+            cachedCommonLogDate = cached;
+        }
+        return cached.value;
+    }
+
     /**
      * Attempts to pass a HTTP date.
      *
@@ -255,4 +274,14 @@ public class DateUtils {
 
     }
 
+    private static final class CachedDate {
+        final long second;
+        final String value;
+
+        private CachedDate(long second, String value) {
+            this.second = second;
+            this.value = value;
+        }
+    }
+
 }
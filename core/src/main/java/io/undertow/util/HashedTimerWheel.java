@@ -0,0 +1,261 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A hierarchical hashed timing wheel, for large numbers of long lived timeouts that are mostly cancelled or
+ * pushed back before they expire.
+ * <p>
+ * There are four levels of 64 slots. A slot in the first level covers a single tick, and a slot in each higher level
+ * covers all the slots of the level below, so with a one second tick the wheel covers about six months before
+ * deadlines are clamped. Scheduling and cancelling are constant time. Entries in a higher level are moved down a
+ * level whenever the wheel reaches the start of their slot, so each entry is moved at most three times no matter how
+ * long its timeout is.
+ * <p>
+ * The wheel does not have a thread of its own. {@link #advance(long)} must be called periodically, and returns the
+ * entries that have expired so that the caller can process them without holding the wheel's lock.
+ * <p>
+ * Entries are intrusive, the linkage is held in the {@link Entry} itself so scheduling does not allocate.
+ *
+ * @author agent
+ */
+public class HashedTimerWheel<T extends HashedTimerWheel.Entry> {
+
+    private static final int WHEEL_BITS = 6;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final int LEVELS = 4;
+    private static final long MAX_TICKS = 1L << (WHEEL_BITS * LEVELS);
+
+    private final long tickDuration;
+    private final Entry[][] wheels = new Entry[LEVELS][WHEEL_SIZE];
+
+    /**
+     * The last tick that has been processed
+     */
+    private long currentTick;
+    private int size;
+
+    /**
+     * @param tickDuration The resolution of the wheel, entries expire at most one tick after their deadline
+     * @param unit         The unit of the tick duration
+     */
+    public HashedTimerWheel(long tickDuration, TimeUnit unit) {
+        this.tickDuration = unit.toMillis(tickDuration);
+        if (this.tickDuration <= 0) {
+            throw new IllegalArgumentException("Tick duration must be at least one millisecond");
+        }
+        this.currentTick = System.currentTimeMillis() / this.tickDuration;
+    }
+
+    /**
+     * Schedules an entry, replacing its existing deadline if it is already scheduled.
+     *
+     * @param scheduled The entry
+     * @param deadline  The time at which the entry expires, in milliseconds since the epoch
+     */
+    public synchronized void schedule(T scheduled, long deadline) {
+        final Entry entry = scheduled;
+        if (entry.level != -1) {
+            unlink(entry);
+        } else {
+            size++;
+        }
+        //round up, so an entry never expires before its deadline
+        entry.deadlineTick = (deadline + tickDuration - 1) / tickDuration;
+        entry.deadline = deadline;
+        //the current tick has already been processed
+        insert(entry, currentTick + 1);
+    }
+
+    /**
+     * Cancels an entry.
+     *
+     * @param cancelled The entry
+     * @return <code>true</code> if the entry was scheduled
+     */
+    public synchronized boolean cancel(T cancelled) {
+        final Entry entry = cancelled;
+        if (entry.level == -1) {
+            return false;
+        }
+        unlink(entry);
+        entry.deadline = -1;
+        size--;
+        return true;
+    }
+
+    /**
+     * Advances the wheel to the given time.
+     *
+     * @param now The current time, in milliseconds since the epoch
+     * @return The entries that have expired, which are no longer scheduled
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized List<T> advance(long now) {
+        final long target = now / tickDuration;
+        if (size == 0) {
+            //nothing to cascade, so an idle wheel can skip straight to the target
+            currentTick = Math.max(currentTick, target);
+            return Collections.emptyList();
+        }
+        List<T> expired = null;
+        while (currentTick < target) {
+            long tick = ++currentTick;
+            //higher levels first, so entries that cascade down more than one level are handled in the same tick
+            for (int level = LEVELS - 1; level > 0; --level) {
+                int shift = WHEEL_BITS * level;
+                if ((tick & ((1L << shift) - 1)) == 0) {
+                    cascade(level, (int) ((tick >>> shift) & WHEEL_MASK));
+                }
+            }
+            Entry[] wheel = wheels[0];
+            int slot = (int) (tick & WHEEL_MASK);
+            Entry entry = wheel[slot];
+            wheel[slot] = null;
+            while (entry != null) {
+                Entry next = entry.next;
+                entry.next = entry.prev = null;
+                entry.level = -1;
+                if (entry.deadlineTick <= tick) {
+                    entry.deadline = -1;
+                    size--;
+                    if (expired == null) {
+                        expired = new ArrayList<>();
+                    }
+                    expired.add((T) entry);
+                } else {
+                    //a clamped entry that is still not due
+                    insert(entry, tick + 1);
+                }
+                entry = next;
+            }
+        }
+        if (expired == null) {
+            return Collections.emptyList();
+        }
+        return expired;
+    }
+
+    /**
+     * Removes all entries
+     */
+    public synchronized void clear() {
+        for (Entry[] wheel : wheels) {
+            for (int i = 0; i < WHEEL_SIZE; ++i) {
+                Entry entry = wheel[i];
+                wheel[i] = null;
+                while (entry != null) {
+                    Entry next = entry.next;
+                    entry.next = entry.prev = null;
+                    entry.level = -1;
+                    entry.deadline = -1;
+                    entry = next;
+                }
+            }
+        }
+        size = 0;
+    }
+
+    /**
+     * @return The number of scheduled entries
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    private void cascade(int level, int slot) {
+        Entry[] wheel = wheels[level];
+        Entry entry = wheel[slot];
+        wheel[slot] = null;
+        while (entry != null) {
+            Entry next = entry.next;
+            entry.next = entry.prev = null;
+            //the first level slot for this tick has not been processed yet, so entries that are due now can go there
+            insert(entry, currentTick);
+            entry = next;
+        }
+    }
+
+    private void insert(Entry entry, long minTick) {
+        long tick = Math.max(entry.deadlineTick, minTick);
+        long delta = tick - currentTick;
+        if (delta >= MAX_TICKS) {
+            //too far in the future, it will be moved to the right slot when this one is reached
+            tick = currentTick + MAX_TICKS - 1;
+            delta = MAX_TICKS - 1;
+        }
+        int level = 0;
+        while (delta >= 1L << (WHEEL_BITS * (level + 1))) {
+            level++;
+        }
+        int slot = (int) ((tick >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+        Entry[] wheel = wheels[level];
+        Entry head = wheel[slot];
+        entry.next = head;
+        entry.prev = null;
+        if (head != null) {
+            head.prev = entry;
+        }
+        wheel[slot] = entry;
+        entry.level = level;
+        entry.slot = slot;
+    }
+
+    private void unlink(Entry entry) {
+        if (entry.prev == null) {
+            wheels[entry.level][entry.slot] = entry.next;
+        } else {
+            entry.prev.next = entry.next;
+        }
+        if (entry.next != null) {
+            entry.next.prev = entry.prev;
+        }
+        entry.next = entry.prev = null;
+        entry.level = -1;
+    }
+
+    /**
+     * An entry in the wheel. The linkage is guarded by the wheel's lock.
+     */
+    public static class Entry {
+
+        private Entry next;
+        private Entry prev;
+        private int level = -1;
+        private int slot;
+        private long deadlineTick;
+        private volatile long deadline = -1;
+
+        /**
+         * Returns the deadline the entry is currently scheduled for. As this does not take the wheel's lock it can be
+         * used to avoid rescheduling an entry that is already due to expire earlier.
+         *
+         * @return The deadline, or -1 if the entry is not scheduled
+         */
+        public long getScheduledDeadline() {
+            return deadline;
+        }
+    }
+}
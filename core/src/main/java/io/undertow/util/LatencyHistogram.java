@@ -0,0 +1,366 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A lock free histogram of latencies in nanoseconds.
+ * <p>
+ * Values are stored in log-linear buckets, in the same way as an HDR histogram, so every recorded value is
+ * accurate to within about 6%. Values larger than {@link #MAX_VALUE} are placed in the highest bucket and
+ * counted as overflows, however they are still included in the total and the max at their real value.
+ * <p>
+ * To avoid contention the counters are striped by thread, and a snapshot merges all the stripes. Snapshots
+ * do not block recording threads, and as such they are not an atomic view of the histogram.
+ * <p>
+ * The histogram can optionally be divided into a ring of time slots, in which case only recent values are
+ * retained and snapshots can be taken over a sliding window. Windowed snapshots are estimates: the slot that is
+ * currently being filled is included in full, and the oldest slot that is only partly inside the window is
+ * scaled by the fraction of it that falls inside the window.
+ *
+ * @author agent
+ */
+public class LatencyHistogram {
+
+    /**
+     * The largest value that can be tracked, a bit over 18 minutes
+     */
+    public static final long MAX_VALUE = (1L << 40) - 1;
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int LINEAR_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_BUCKETS = LINEAR_BUCKETS / 2;
+    static final int BUCKET_COUNT = bucketIndex(MAX_VALUE) + 1;
+
+    private static final int TOTAL_INDEX = BUCKET_COUNT;
+    private static final int MAX_INDEX = BUCKET_COUNT + 1;
+    private static final int OVERFLOW_INDEX = BUCKET_COUNT + 2;
+    private static final int STRIPE_LENGTH = BUCKET_COUNT + 3;
+
+    private static final int MAX_STRIPES = 8;
+
+    private final long start = System.nanoTime();
+    private final long slotLength;
+    private final Slot[] slots;
+    private final int stripeMask;
+
+    /**
+     * Creates a histogram that retains all values until it is reset
+     */
+    public LatencyHistogram() {
+        this(Long.MAX_VALUE, TimeUnit.NANOSECONDS, 1);
+    }
+
+    /**
+     * Creates a histogram that only retains recent values. Values are retained for between
+     * <code>slotLength * slots</code> and <code>slotLength * (slots + 1)</code>.
+     *
+     * @param slotLength The length of a time slot
+     * @param unit       The unit of the slot length
+     * @param slots      The number of slots that make up the full window
+     */
+    public LatencyHistogram(long slotLength, TimeUnit unit, int slots) {
+        if (slotLength <= 0 || slots <= 0) {
+            throw new IllegalArgumentException("Slot length and slot count must be positive");
+        }
+        this.slotLength = unit.toNanos(slotLength);
+        //the extra slot is the one that is currently being filled
+        this.slots = new Slot[slots == 1 && this.slotLength == Long.MAX_VALUE ? 1 : slots + 1];
+        int stripes = Integer.highestOneBit(Math.min(MAX_STRIPES, Runtime.getRuntime().availableProcessors()));
+        for (int i = 0; i < this.slots.length; ++i) {
+            this.slots[i] = new Slot(stripes);
+        }
+        this.stripeMask = stripes - 1;
+    }
+
+    /**
+     * Records a value
+     *
+     * @param nanos The value in nanoseconds
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        long epoch = currentEpoch();
+        Slot slot = slots[(int) (epoch % slots.length)];
+        if (slot.epoch != epoch) {
+            slot.rotate(epoch);
+        }
+        AtomicLongArray stripe = slot.stripe(((int) Thread.currentThread().getId()) & stripeMask);
+        if (nanos > MAX_VALUE) {
+            stripe.incrementAndGet(BUCKET_COUNT - 1);
+            stripe.incrementAndGet(OVERFLOW_INDEX);
+        } else {
+            stripe.incrementAndGet(bucketIndex(nanos));
+        }
+        stripe.addAndGet(TOTAL_INDEX, nanos);
+        long max;
+        do {
+            max = stripe.get(MAX_INDEX);
+            if (nanos <= max) {
+                break;
+            }
+        } while (!stripe.compareAndSet(MAX_INDEX, max, nanos));
+    }
+
+    /**
+     * @return A snapshot of all retained values
+     */
+    public Snapshot snapshot() {
+        return snapshot(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns a snapshot of the values recorded in the given window.
+     * <p>
+     * The slot that is currently being filled is always included in full, so a window that is shorter than the
+     * time elapsed in the current slot will return the whole current slot. Older slots are added until the
+     * window is covered, and the oldest of these is scaled by the fraction of the slot that is inside the window.
+     * The result is an estimate that assumes values are spread evenly over that slot. The window is limited to
+     * the number of slots the histogram was created with.
+     *
+     * @param window The window
+     * @param unit   The window unit
+     * @return A snapshot of the values recorded in the window
+     */
+    public Snapshot snapshot(long window, TimeUnit unit) {
+        long[] counts = new long[BUCKET_COUNT];
+        long[] totals = new long[3];
+        if (slotLength == Long.MAX_VALUE) {
+            addSlot(slots[0], 0, 1, counts, totals);
+        } else {
+            long elapsed = System.nanoTime() - start;
+            long current = elapsed / slotLength;
+            long remaining = unit.toNanos(window) - elapsed % slotLength;
+            addSlot(slots[(int) (current % slots.length)], current, 1, counts, totals);
+            for (long epoch = current - 1; remaining > 0 && epoch >= 0 && epoch >= current - (slots.length - 1); --epoch) {
+                double weight = remaining >= slotLength ? 1 : (double) remaining / slotLength;
+                addSlot(slots[(int) (epoch % slots.length)], epoch, weight, counts, totals);
+                remaining -= slotLength;
+            }
+        }
+        long count = 0;
+        for (long c : counts) {
+            count += c;
+        }
+        return new Snapshot(counts, count, totals[0], totals[1], totals[2]);
+    }
+
+    /**
+     * Adds the contents of a slot to a snapshot, scaling the counts and total by the given weight.
+     * The totals array holds the total, the max and the overflow count in that order.
+     */
+    private static void addSlot(Slot slot, long epoch, double weight, long[] counts, long[] totals) {
+        if (slot.epoch != epoch) {
+            //the slot has not been used since it was last rotated out
+            return;
+        }
+        for (int i = 0; i < slot.stripes.length(); ++i) {
+            AtomicLongArray stripe = slot.stripes.get(i);
+            if (stripe == null) {
+                continue;
+            }
+            for (int j = 0; j < BUCKET_COUNT; ++j) {
+                counts[j] += scale(stripe.get(j), weight);
+            }
+            totals[0] += scale(stripe.get(TOTAL_INDEX), weight);
+            totals[1] = Math.max(totals[1], stripe.get(MAX_INDEX));
+            totals[2] += scale(stripe.get(OVERFLOW_INDEX), weight);
+        }
+    }
+
+    private static long scale(long value, double weight) {
+        return weight == 1 ? value : Math.round(value * weight);
+    }
+
+    /**
+     * Clears all recorded values. Values that are recorded concurrently with the reset may or may not be retained.
+     */
+    public void reset() {
+        for (Slot slot : slots) {
+            synchronized (slot) {
+                slot.clear();
+            }
+        }
+    }
+
+    private long currentEpoch() {
+        if (slotLength == Long.MAX_VALUE) {
+            return 0;
+        }
+        return (System.nanoTime() - start) / slotLength;
+    }
+
+    static int bucketIndex(long value) {
+        if (value < LINEAR_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        return LINEAR_BUCKETS + (shift - 1) * HALF_BUCKETS + (int) ((value >>> shift) - HALF_BUCKETS);
+    }
+
+    /**
+     * @return The largest value that will be stored in the given bucket
+     */
+    static long bucketUpperBound(int index) {
+        if (index < LINEAR_BUCKETS) {
+            return index;
+        }
+        int shift = (index - LINEAR_BUCKETS) / HALF_BUCKETS + 1;
+        long sub = (index - LINEAR_BUCKETS) % HALF_BUCKETS + HALF_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    private static final class Slot {
+
+        private final AtomicReferenceArray<AtomicLongArray> stripes;
+        private volatile long epoch;
+
+        Slot(int stripes) {
+            this.stripes = new AtomicReferenceArray<>(stripes);
+        }
+
+        AtomicLongArray stripe(int index) {
+            AtomicLongArray stripe = stripes.get(index);
+            if (stripe == null) {
+                //stripes are allocated lazily, so histograms that are rarely used stay small
+                stripe = new AtomicLongArray(STRIPE_LENGTH);
+                if (!stripes.compareAndSet(index, null, stripe)) {
+                    stripe = stripes.get(index);
+                }
+            }
+            return stripe;
+        }
+
+        synchronized void rotate(long newEpoch) {
+            //this only happens once per slot length, so a lock is fine here
+            if (epoch < newEpoch) {
+                clear();
+                epoch = newEpoch;
+            }
+        }
+
+        void clear() {
+            for (int i = 0; i < stripes.length(); ++i) {
+                AtomicLongArray stripe = stripes.get(i);
+                if (stripe != null) {
+                    for (int j = 0; j < STRIPE_LENGTH; ++j) {
+                        stripe.set(j, 0);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * A point in time copy of a histogram. All values are in nanoseconds.
+     */
+    public static final class Snapshot {
+
+        private final long[] counts;
+        private final long count;
+        private final long total;
+        private final long max;
+        private final long overflowCount;
+
+        Snapshot(long[] counts, long count, long total, long max, long overflowCount) {
+            this.counts = counts;
+            this.count = count;
+            this.total = total;
+            this.max = max;
+            this.overflowCount = overflowCount;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getTotal() {
+            return total;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * @return The number of values that were larger than {@link LatencyHistogram#MAX_VALUE}. These values are
+         * counted in the highest bucket, so percentiles that fall in this range will be too low.
+         */
+        public long getOverflowCount() {
+            return overflowCount;
+        }
+
+        public double getMean() {
+            return count == 0 ? 0 : (double) total / count;
+        }
+
+        /**
+         * @param percentile The percentile, between 0 and 100
+         * @return The highest value that is equivalent to the value at the given percentile
+         */
+        public long getValueAtPercentile(double percentile) {
+            long recorded = 0;
+            for (long c : counts) {
+                recorded += c;
+            }
+            if (recorded == 0) {
+                return 0;
+            }
+            long target = Math.max(1, (long) Math.ceil(Math.min(100, percentile) / 100.0 * recorded));
+            long seen = 0;
+            for (int i = 0; i < counts.length; ++i) {
+                seen += counts[i];
+                if (seen >= target) {
+                    return Math.min(bucketUpperBound(i), max);
+                }
+            }
+            return max;
+        }
+
+        /**
+         * @return The number of values less than or equal to the given value, accurate to the bucket resolution
+         */
+        public long getCountAtOrBelow(long value) {
+            long result = 0;
+            for (int i = 0; i < counts.length && bucketUpperBound(i) <= value; ++i) {
+                result += counts[i];
+            }
+            return result;
+        }
+
+        /**
+         * Merges two snapshots, for example to combine the results for a number of routes
+         *
+         * @param other The snapshot to merge with
+         * @return A new snapshot containing the values from both snapshots
+         */
+        public Snapshot merge(Snapshot other) {
+            long[] merged = new long[counts.length];
+            for (int i = 0; i < merged.length; ++i) {
+                merged[i] = counts[i] + other.counts[i];
+            }
+            return new Snapshot(merged, count + other.count, total + other.total, Math.max(max, other.max), overflowCount + other.overflowCount);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.util;
+
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * An unbounded lock free queue that supports multiple producers but only a single consumer.
+ * <p>
+ * Adding an element is a single atomic exchange, so producers never block each other or the consumer. The consumer
+ * methods ({@link #poll()}, {@link #peek()} and {@link #isEmpty()}) must only be called by one thread at a time,
+ * which is generally either an IO thread or a thread holding a lock that all consumers share.
+ * <p>
+ * An element that is in the process of being added may not be visible to the consumer until {@link #offer(Object)}
+ * returns, so producers that need to wake up the consumer should do so after adding the element.
+ *
+ * @author agent
+ */
+public final class MpscLinkedQueue<E> {
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<MpscLinkedQueue, Node> tailUpdater = AtomicReferenceFieldUpdater.newUpdater(MpscLinkedQueue.class, Node.class, "tail");
+
+    /**
+     * The last node that was consumed. Only accessed by the consumer.
+     */
+    private Node<E> head;
+
+    @SuppressWarnings("unused")
+    private volatile Node<E> tail;
+
+    public MpscLinkedQueue() {
+        Node<E> stub = new Node<>(null);
+        head = stub;
+        tail = stub;
+    }
+
+    /**
+     * Adds an element to the end of the queue. This may be called by any thread.
+     *
+     * @param element The element, which must not be null
+     */
+    @SuppressWarnings("unchecked")
+    public void offer(E element) {
+        if (element == null) {
+            throw new NullPointerException();
+        }
+        Node<E> node = new Node<>(element);
+        Node<E> prev = tailUpdater.getAndSet(this, node);
+        //a volatile write rather than a lazy set, so a consumer woken up by the producer after this is guaranteed to see it
+        prev.next = node;
+    }
+
+    /**
+     * @return The element at the head of the queue, or <code>null</code> if the queue is empty
+     */
+    public E poll() {
+        Node<E> next = head.next;
+        if (next == null) {
+            return null;
+        }
+        E element = next.element;
+        //the node becomes the new stub, clear it so the element is not retained
+        next.element = null;
+        head = next;
+        return element;
+    }
+
+    public E peek() {
+        Node<E> next = head.next;
+        return next == null ? null : next.element;
+    }
+
+    public boolean isEmpty() {
+        return head.next == null;
+    }
+
+    /**
+     * Walks the queue without removing anything. This may be called by any thread, but the result is only a snapshot
+     * if producers and the consumer are active.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        Node<E> node = head.next;
+        while (node != null) {
+            E element = node.element;
+            if (element != null) {
+                if (sb.length() > 1) {
+                    sb.append(", ");
+                }
+                sb.append(element);
+            }
+            node = node.next;
+        }
+        return sb.append(']').toString();
+    }
+
+    private static final class Node<E> {
+
+        volatile Node<E> next;
+        E element;
+
+        private Node(E element) {
+            this.element = element;
+        }
+    }
+}
@@ -200,7 +200,7 @@ public abstract class Handshake {
         for (WebSocketExtension ext : extensionList) {
             for (ExtensionHandshake extHandshake : availableExtensions) {
                 WebSocketExtension negotiated = extHandshake.accept(ext);
-                if (ext != null && !extHandshake.isIncompatible(configured)) {
+                if (negotiated != null && !extHandshake.isIncompatible(configured)) {
                     selected.add(negotiated);
                     configured.add(extHandshake);
                 }
@@ -236,7 +236,7 @@ public abstract class Handshake {
                 for (WebSocketExtension ext : extensions) {
                     for (ExtensionHandshake extHandshake : availableExtensions) {
                         if (extHandshake.getName().equals(ext.getName())) {
-                            negotiated.add(extHandshake.create());
+                            negotiated.add(extHandshake.create(ext));
                         }
                     }
                 }
@@ -21,38 +21,47 @@ import io.undertow.server.protocol.framed.FrameHeaderData;
 import io.undertow.websockets.core.function.ChannelFunction;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 /**
  * @author <a href="mailto:nmaurer@redhat.com">Norman Maurer</a>
  */
 public final class Masker implements ChannelFunction {
 
-    private byte[] maskingKey;
+    private int maskingKey;
+    /**
+     * The index into the masking key of the next byte to be masked
+     */
     int m;
 
-    Masker(int maskingKey) {
-        this.maskingKey = createsMaskingKey(maskingKey);
+    public Masker(int maskingKey) {
+        this.maskingKey = maskingKey;
     }
 
     public void setMaskingKey(int maskingKey) {
-        this.maskingKey = createsMaskingKey(maskingKey);
+        this.maskingKey = maskingKey;
         m = 0;
     }
 
-    private static byte[] createsMaskingKey(int maskingKey) {
-        byte[] key = new byte[4];
-        key[0] = (byte) (maskingKey >> 24 & 0xFF);
-        key[1] = (byte) (maskingKey >> 16 & 0xFF);
-        key[2] = (byte) (maskingKey >> 8 & 0xFF);
-        key[3] = (byte) (maskingKey & 0xFF);
-        return key;
-    }
-
     private void mask(ByteBuffer buf, int position, int length) {
+        int i = position;
         int limit = position + length;
-        for (int i = position ; i < limit; ++i) {
-            buf.put(i, (byte) (buf.get(i) ^ maskingKey[m++]));
-            m %= 4;
+        if (length >= 8) {
+            //mask 8 bytes at a time. The key is rotated so it starts at the current index, as 8 is a multiple
+            //of the key length the index is the same after each long
+            int rotated = Integer.rotateLeft(maskingKey, m * 8);
+            long key = ((long) rotated << 32) | (rotated & 0xFFFFFFFFL);
+            if (buf.order() == ByteOrder.LITTLE_ENDIAN) {
+                key = Long.reverseBytes(key);
+            }
+            int longLimit = limit - 7;
+            for (; i < longLimit; i += 8) {
+                buf.putLong(i, buf.getLong(i) ^ key);
+            }
+        }
+        for (; i < limit; ++i) {
+            buf.put(i, (byte) (buf.get(i) ^ (maskingKey >> (24 - m * 8))));
+            m = (m + 1) & 3;
         }
     }
 
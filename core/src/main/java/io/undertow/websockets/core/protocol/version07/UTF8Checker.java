@@ -38,6 +38,8 @@ public class UTF8Checker implements ChannelFunction {
     private static final int UTF8_ACCEPT = 0;
     private static final int UTF8_REJECT = 12;
 
+    private static final long HIGH_BITS = 0x8080808080808080L;
+
     private static final byte[] TYPES = {0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
             0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
             0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
@@ -76,9 +78,19 @@ public class UTF8Checker implements ChannelFunction {
      * @throws UnsupportedEncodingException     is thrown if non UTF-8 data is found
      */
     private void checkUTF8(ByteBuffer buf, int position, int length) throws UnsupportedEncodingException {
+        int i = position;
         int limit = position + length;
-        for (int i = position; i < limit; i++) {
-            checkUTF8(buf.get(i));
+        while (i < limit) {
+            //ASCII fast path, if we are not in the middle of a multi byte sequence then 8 bytes with the high bit
+            //clear are always valid and leave the state unchanged
+            if (state == UTF8_ACCEPT && limit - i >= 8 && (buf.getLong(i) & HIGH_BITS) == 0) {
+                i += 8;
+                continue;
+            }
+            int end = Math.min(i + 8, limit);
+            for (; i < end; ++i) {
+                checkUTF8(buf.get(i));
+            }
         }
     }
 
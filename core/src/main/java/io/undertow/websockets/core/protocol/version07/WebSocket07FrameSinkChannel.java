@@ -23,7 +23,9 @@ import io.undertow.websockets.core.WebSocketFrameType;
 import io.undertow.websockets.core.WebSocketMessages;
 import io.undertow.websockets.extensions.ExtensionFunction;
 import io.undertow.websockets.extensions.NoopExtensionFunction;
+import io.undertow.connector.ByteBufferPool;
 import io.undertow.connector.PooledByteBuffer;
+import io.undertow.connector.VariableSizeByteBufferPool;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -36,6 +38,11 @@ import java.util.Random;
  */
 public abstract class WebSocket07FrameSinkChannel extends StreamSinkFrameChannel {
 
+    /**
+     * 2 bytes of opcode and length, up to 8 bytes of extended length and 4 bytes of masking key
+     */
+    private static final int MAX_FRAME_HEADER_LENGTH = 14;
+
     private final Masker masker;
     private volatile boolean dataWritten = false;
     protected final ExtensionFunction extensionFunction;
@@ -94,7 +101,8 @@ public abstract class WebSocket07FrameSinkChannel extends StreamSinkFrameChannel
 
     @Override
     protected SendFrameHeader createFrameHeader() {
-        PooledByteBuffer start = getChannel().getBufferPool().allocate();
+        ByteBufferPool pool = getChannel().getBufferPool();
+        PooledByteBuffer start = pool instanceof VariableSizeByteBufferPool ? ((VariableSizeByteBufferPool) pool).allocate(MAX_FRAME_HEADER_LENGTH) : pool.allocate();
         byte b0 = 0;
 
         //if writes are shutdown this is the final fragment
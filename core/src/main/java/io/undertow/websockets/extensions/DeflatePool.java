@@ -0,0 +1,112 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.undertow.websockets.extensions;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A bounded pool of {@link Deflater} and {@link Inflater} instances for {@code permessage-deflate}.
+ * <p>
+ * Each instance holds a significant amount of native zlib memory, so when context takeover is disabled
+ * {@link PerMessageDeflateFunction} only borrows them while a message is being processed rather than
+ * holding them for the life of the connection. If the pool is empty a new instance is created, and if it
+ * is full or has been closed when an instance is returned the instance is ended.
+ *
+ * @author agent
+ */
+public class DeflatePool {
+
+    private final int deflaterLevel;
+    private final ArrayBlockingQueue<Deflater> deflaters;
+    private final ArrayBlockingQueue<Inflater> inflaters;
+    private volatile boolean closed;
+
+    /**
+     * Create a new {@code DeflatePool} instance.
+     *
+     * @param deflaterLevel the level of configuration of DEFLATE algorithm implementation
+     * @param maxPooled     the maximum number of deflaters, and of inflaters, that are kept in the pool
+     */
+    public DeflatePool(int deflaterLevel, int maxPooled) {
+        this.deflaterLevel = deflaterLevel;
+        this.deflaters = new ArrayBlockingQueue<>(maxPooled);
+        this.inflaters = new ArrayBlockingQueue<>(maxPooled);
+    }
+
+    public int getDeflaterLevel() {
+        return deflaterLevel;
+    }
+
+    public Deflater allocateDeflater() {
+        Deflater deflater = deflaters.poll();
+        if (deflater == null) {
+            deflater = new Deflater(deflaterLevel, true);
+        }
+        return deflater;
+    }
+
+    public void freeDeflater(Deflater deflater) {
+        deflater.reset();
+        if (closed || !deflaters.offer(deflater)) {
+            deflater.end();
+        } else if (closed && deflaters.remove(deflater)) {
+            //the pool was closed concurrently
+            deflater.end();
+        }
+    }
+
+    public Inflater allocateInflater() {
+        Inflater inflater = inflaters.poll();
+        if (inflater == null) {
+            inflater = new Inflater(true);
+        }
+        return inflater;
+    }
+
+    public void freeInflater(Inflater inflater) {
+        inflater.reset();
+        if (closed || !inflaters.offer(inflater)) {
+            inflater.end();
+        } else if (closed && inflaters.remove(inflater)) {
+            //the pool was closed concurrently
+            inflater.end();
+        }
+    }
+
+    /**
+     * Ends all pooled instances, releasing their native memory. Instances that are currently in use are ended when
+     * they are returned, rather than being pooled.
+     */
+    public void close() {
+        closed = true;
+        Deflater deflater = deflaters.poll();
+        while (deflater != null) {
+            deflater.end();
+            deflater = deflaters.poll();
+        }
+        Inflater inflater = inflaters.poll();
+        while (inflater != null) {
+            inflater.end();
+            inflater = inflaters.poll();
+        }
+    }
+}
@@ -62,4 +62,13 @@ public interface ExtensionHandshake {
      * @return a new instance {@link ExtensionFunction}
      */
     ExtensionFunction create();
+
+    /**
+     * Create a new instance of the {@link ExtensionFunction} associated to this WebSocket Extension, for a connection
+     * that negotiated the given parameters.
+     *
+     * @param negotiated the negotiated extension, as sent in the handshake response
+     * @return a new instance {@link ExtensionFunction}
+     */
+    ExtensionFunction create(final WebSocketExtension negotiated);
 }
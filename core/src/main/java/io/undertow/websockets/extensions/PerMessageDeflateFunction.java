@@ -38,7 +38,9 @@ import java.util.zip.Inflater;
  * <p/>
  * This implementation does not support parameters: {@code server_max_window_bits, client_max_window_bits} .
  * <p/>
- * It uses the DEFLATE implementation algorithm packaged on {@link Deflater} and {@link Inflater} classes.
+ * It uses the DEFLATE implementation algorithm packaged on {@link Deflater} and {@link Inflater} classes. If a
+ * {@link DeflatePool} is provided and context takeover is disabled then the compressor and decompressor are only
+ * borrowed from the pool while a frame is being processed, rather than being held for the life of the connection.
  *
  * @author Lucas Ponce
  * @see <a href="http://tools.ietf.org/html/draft-ietf-hybi-permessage-compression-18">Compression Extensions for WebSocket</a>
@@ -50,8 +52,15 @@ public class PerMessageDeflateFunction implements ExtensionFunction {
     private final int deflaterLevel;
     private final boolean compressContextTakeover;
     private final boolean decompressContextTakeover;
-    private final Inflater decompress;
+    private final DeflatePool pool;
+    /**
+     * The dedicated compressor, or null if the compressor is borrowed from the pool for each frame
+     */
     private final Deflater compress;
+    /**
+     * The decompressor, if it is borrowed from the pool this will be null between frames
+     */
+    private Inflater decompress;
 
     /**
      * Create a new {@code PerMessageDeflateExtension} instance.
@@ -61,11 +70,30 @@ public class PerMessageDeflateFunction implements ExtensionFunction {
      * @param decompressContextTakeover flag for decompressor context takeover or without decompressor context
      */
     public PerMessageDeflateFunction(final int deflaterLevel, boolean compressContextTakeover, boolean decompressContextTakeover) {
+        this(deflaterLevel, compressContextTakeover, decompressContextTakeover, null);
+    }
+
+    /**
+     * Create a new {@code PerMessageDeflateExtension} instance.
+     *
+     * @param deflaterLevel             the level of configuration of DEFLATE algorithm implementation
+     * @param compressContextTakeover   flag for compressor context takeover or without compressor context
+     * @param decompressContextTakeover flag for decompressor context takeover or without decompressor context
+     * @param pool                      the pool to borrow compressors from when there is no context takeover, may be null
+     */
+    public PerMessageDeflateFunction(final int deflaterLevel, boolean compressContextTakeover, boolean decompressContextTakeover, DeflatePool pool) {
         this.deflaterLevel = deflaterLevel;
-        this.decompress = new Inflater(true);
-        this.compress = new Deflater(this.deflaterLevel, true);
         this.compressContextTakeover = compressContextTakeover;
         this.decompressContextTakeover = decompressContextTakeover;
+        this.pool = pool;
+        if (pool == null || decompressContextTakeover) {
+            this.decompress = new Inflater(true);
+        }
+        if (pool == null || compressContextTakeover) {
+            this.compress = new Deflater(this.deflaterLevel, true);
+        } else {
+            this.compress = null;
+        }
     }
 
     @Override
@@ -80,24 +108,36 @@ public class PerMessageDeflateFunction implements ExtensionFunction {
 
     @Override
     public synchronized PooledByteBuffer transformForWrite(PooledByteBuffer pooledBuffer, WebSocketChannel channel) throws IOException {
+        if (compress != null) {
+            return deflate(compress, pooledBuffer, channel);
+        }
+        Deflater deflater = pool.allocateDeflater();
+        try {
+            return deflate(deflater, pooledBuffer, channel);
+        } finally {
+            pool.freeDeflater(deflater);
+        }
+    }
+
+    private PooledByteBuffer deflate(Deflater deflater, PooledByteBuffer pooledBuffer, WebSocketChannel channel) {
         ByteBuffer buffer = pooledBuffer.getBuffer();
         if (buffer.hasArray()) {
-            compress.setInput(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            deflater.setInput(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
         } else {
-            compress.setInput(Buffers.take(buffer));
+            deflater.setInput(Buffers.take(buffer));
         }
 
         PooledByteBuffer output = allocateBufferWithArray(channel, 0); // first pass
         ByteBuffer outputBuffer = output.getBuffer();
 
         try {
-            while (!compress.needsInput() && !compress.finished()) {
+            while (!deflater.needsInput() && !deflater.finished()) {
                 if (!outputBuffer.hasRemaining()) {
                     output = largerBuffer(output, channel, outputBuffer.capacity() * 2);
                     outputBuffer = output.getBuffer();
                 }
 
-                int n = compress.deflate(
+                int n = deflater.deflate(
                         outputBuffer.array(),
                         outputBuffer.arrayOffset() + outputBuffer.position(),
                         outputBuffer.remaining(),
@@ -117,8 +157,8 @@ public class PerMessageDeflateFunction implements ExtensionFunction {
         outputBuffer.put((byte) 0);
         outputBuffer.flip();
 
-        if (!compressContextTakeover) {
-            compress.reset();
+        if (!compressContextTakeover && deflater == compress) {
+            deflater.reset();
         }
 
         return output;
@@ -155,6 +195,9 @@ public class PerMessageDeflateFunction implements ExtensionFunction {
     @Override
     public synchronized PooledByteBuffer transformForRead(PooledByteBuffer pooledBuffer, WebSocketChannel channel, boolean lastFragmentOfFrame) throws IOException {
         ByteBuffer buffer = pooledBuffer.getBuffer();
+        if (decompress == null) {
+            decompress = pool.allocateInflater();
+        }
 
         if (buffer.hasArray()) {
             decompress.setInput(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
@@ -179,7 +222,12 @@ public class PerMessageDeflateFunction implements ExtensionFunction {
         output.getBuffer().flip();
 
         if (lastFragmentOfFrame && !decompressContextTakeover) {
-            decompress.reset();
+            if (pool != null) {
+                pool.freeInflater(decompress);
+                decompress = null;
+            } else {
+                decompress.reset();
+            }
         }
 
         return output;
@@ -210,10 +258,24 @@ public class PerMessageDeflateFunction implements ExtensionFunction {
         return pooled;
     }
 
+    boolean isCompressContextTakeover() {
+        return compressContextTakeover;
+    }
+
+    boolean isDecompressContextTakeover() {
+        return decompressContextTakeover;
+    }
+
     @Override
     public void dispose() {
         // Call end so that native zlib resources can be immediately released rather than relying on finalizer
-        compress.end();
-        decompress.end();
+        if (compress != null) {
+            compress.end();
+        }
+        //a pooled decompressor is only held here if the connection was closed part way through a frame, its state
+        //is unknown so it is not returned to the pool
+        if (decompress != null) {
+            decompress.end();
+        }
     }
 }
@@ -18,6 +18,7 @@
 
 package io.undertow.websockets.extensions;
 
+import java.io.Closeable;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -31,27 +32,35 @@ import io.undertow.websockets.core.WebSocketLogger;
  * <p>
  * This implementation supports parameters: {@code server_no_context_takeover, client_no_context_takeover} .
  * <p>
- * This implementation does not support parameters: {@code server_max_window_bits, client_max_window_bits} .
+ * {@link Deflater} always uses a 15 bit window, so an offer with a {@code server_max_window_bits} value lower than
+ * 15 is declined. The {@code client_max_window_bits} parameter is accepted, but the client window is not limited.
+ * <p>
+ * If context takeover is disabled for this endpoint, it is requested from the peer in the response. Combined with
+ * a {@link DeflatePool} this means a connection only holds a compressor while a message is being processed, rather
+ * than holding both a compressor and a decompressor for its whole life.
  *
  * @see <a href="http://tools.ietf.org/html/draft-ietf-hybi-permessage-compression-18">Compression Extensions for WebSocket</a>
  *
  * @author Lucas Ponce
  */
-public class PerMessageDeflateHandshake implements ExtensionHandshake {
+public class PerMessageDeflateHandshake implements ExtensionHandshake, Closeable {
 
     private static final String PERMESSAGE_DEFLATE = "permessage-deflate";
     private static final String SERVER_NO_CONTEXT_TAKEOVER = "server_no_context_takeover";
     private static final String CLIENT_NO_CONTEXT_TAKEOVER = "client_no_context_takeover";
     private static final String SERVER_MAX_WINDOW_BITS = "server_max_window_bits";
     private static final String CLIENT_MAX_WINDOW_BITS = "client_max_window_bits";
+    private static final int MAX_WINDOW_BITS = 15;
+    private static final int MIN_WINDOW_BITS = 8;
 
     private final Set<String> incompatibleExtensions = new HashSet<>();
 
-    private boolean compressContextTakeover;
-    private boolean decompressContextTakeover;
+    private final boolean compressContextTakeover;
+    private final boolean decompressContextTakeover;
 
     private final boolean client;
     private final int deflaterLevel;
+    private final DeflatePool pool;
 
     /**
      * Default configuration for DEFLATE algorithm implementation
@@ -101,8 +110,25 @@ public class PerMessageDeflateHandshake implements ExtensionHandshake {
      * @param decompressContextTakeover flag for decompressor context takeover or without decompressor context
      */
     public PerMessageDeflateHandshake(final boolean client, final int deflaterLevel, boolean compressContextTakeover, boolean decompressContextTakeover) {
+        this(client, deflaterLevel, compressContextTakeover, decompressContextTakeover, 0);
+    }
+
+    /**
+     * Create a new {@code PerMessageDeflateHandshake} instance.
+     * <p>
+     * If {@code maxPooled} is greater than zero, connections without context takeover borrow their compressor
+     * and decompressor from a pool shared by all connections of this endpoint.
+     *
+     * @param client                    flag for client ({@code true }) context or server ({@code false }) context
+     * @param deflaterLevel             the level of configuration of DEFLATE algorithm implementation
+     * @param compressContextTakeover   flag for compressor context takeover or without compressor context
+     * @param decompressContextTakeover flag for decompressor context takeover or without decompressor context
+     * @param maxPooled                 the maximum number of idle compressors and decompressors to pool, or 0 to disable pooling
+     */
+    public PerMessageDeflateHandshake(final boolean client, final int deflaterLevel, boolean compressContextTakeover, boolean decompressContextTakeover, int maxPooled) {
         this.client = client;
         this.deflaterLevel = deflaterLevel;
+        this.pool = maxPooled > 0 ? new DeflatePool(deflaterLevel, maxPooled) : null;
         /*
             This extension is incompatible with multiple instances of same extension in the same Endpoint.
          */
@@ -121,39 +147,68 @@ public class PerMessageDeflateHandshake implements ExtensionHandshake {
         if (extension == null || !extension.getName().equals(getName())) return null;
 
         WebSocketExtension negotiated = new WebSocketExtension(extension.getName());
+        boolean serverContextTakeover = client ? decompressContextTakeover : compressContextTakeover;
+        boolean clientContextTakeover = client ? compressContextTakeover : decompressContextTakeover;
 
-        if (extension.getParameters() == null || extension.getParameters().size() == 0) return negotiated;
-        for (WebSocketExtension.Parameter parameter : extension.getParameters()) {
-            if (parameter.getName().equals(SERVER_MAX_WINDOW_BITS)) {
-                /*
-                    Not supported
-                 */
-            } else if (parameter.getName().equals(CLIENT_MAX_WINDOW_BITS)) {
-                /*
-                    Not supported
-                 */
-            } else if (parameter.getName().equals(SERVER_NO_CONTEXT_TAKEOVER)) {
-                negotiated.getParameters().add(parameter);
-                if (client) {
-                    decompressContextTakeover = false;
+        if (extension.getParameters() != null) {
+            for (WebSocketExtension.Parameter parameter : extension.getParameters()) {
+                if (parameter.getName().equals(SERVER_MAX_WINDOW_BITS)) {
+                    int windowBits = parseWindowBits(parameter);
+                    if (windowBits == -1) {
+                        WebSocketLogger.EXTENSION_LOGGER.incorrectExtensionParameter(parameter);
+                        return null;
+                    } else if (windowBits < MAX_WINDOW_BITS) {
+                        //Deflater always uses the maximum window, so we cannot honour a smaller one
+                        return null;
+                    }
+                    negotiated.getParameters().add(parameter);
+                } else if (parameter.getName().equals(CLIENT_MAX_WINDOW_BITS)) {
+                    /*
+                        The client window is not limited, so this is not included in the response
+                     */
+                    if (parameter.getValue() != null && !parameter.getValue().isEmpty() && parseWindowBits(parameter) == -1) {
+                        WebSocketLogger.EXTENSION_LOGGER.incorrectExtensionParameter(parameter);
+                        return null;
+                    }
+                } else if (parameter.getName().equals(SERVER_NO_CONTEXT_TAKEOVER)) {
+                    serverContextTakeover = false;
+                } else if (parameter.getName().equals(CLIENT_NO_CONTEXT_TAKEOVER)) {
+                    clientContextTakeover = false;
                 } else {
-                    compressContextTakeover = false;
+                    WebSocketLogger.EXTENSION_LOGGER.incorrectExtensionParameter(parameter);
+                    return null;
                 }
-            } else if (parameter.getName().equals(CLIENT_NO_CONTEXT_TAKEOVER)) {
-                negotiated.getParameters().add(parameter);
-                if (client) {
-                    compressContextTakeover = false;
-                } else {
-                    decompressContextTakeover = false;
-                }
-            } else {
-                WebSocketLogger.EXTENSION_LOGGER.incorrectExtensionParameter(parameter);
-                return null;
             }
         }
+        if (!serverContextTakeover) {
+            negotiated.getParameters().add(new WebSocketExtension.Parameter(SERVER_NO_CONTEXT_TAKEOVER, null));
+        }
+        if (!clientContextTakeover) {
+            negotiated.getParameters().add(new WebSocketExtension.Parameter(CLIENT_NO_CONTEXT_TAKEOVER, null));
+        }
         return negotiated;
     }
 
+    private static int parseWindowBits(WebSocketExtension.Parameter parameter) {
+        String value = parameter.getValue();
+        if (value == null) {
+            return -1;
+        }
+        //the value may be a quoted string
+        if (value.length() > 1 && value.charAt(0) == '"' && value.charAt(value.length() - 1) == '"') {
+            value = value.substring(1, value.length() - 1);
+        }
+        try {
+            int bits = Integer.parseInt(value);
+            if (bits >= MIN_WINDOW_BITS && bits <= MAX_WINDOW_BITS) {
+                return bits;
+            }
+        } catch (NumberFormatException e) {
+            //invalid value
+        }
+        return -1;
+    }
+
     @Override
     public boolean isIncompatible(List<ExtensionHandshake> extensions) {
         for (ExtensionHandshake extension : extensions) {
@@ -166,6 +221,40 @@ public class PerMessageDeflateHandshake implements ExtensionHandshake {
 
     @Override
     public ExtensionFunction create() {
-        return new PerMessageDeflateFunction(deflaterLevel, compressContextTakeover, decompressContextTakeover);
+        return new PerMessageDeflateFunction(deflaterLevel, compressContextTakeover, decompressContextTakeover, pool);
+    }
+
+    /**
+     * The context takeover mode is read from the negotiated parameters rather than kept in this handshake, as
+     * the same handshake instance is used for every connection of an endpoint. The decompressor always follows
+     * the mode declared for the peer, while the compressor may still drop its context if configured to.
+     */
+    @Override
+    public ExtensionFunction create(final WebSocketExtension negotiated) {
+        boolean serverContextTakeover = true;
+        boolean clientContextTakeover = true;
+        if (negotiated != null && negotiated.getParameters() != null) {
+            for (WebSocketExtension.Parameter parameter : negotiated.getParameters()) {
+                if (parameter.getName().equals(SERVER_NO_CONTEXT_TAKEOVER)) {
+                    serverContextTakeover = false;
+                } else if (parameter.getName().equals(CLIENT_NO_CONTEXT_TAKEOVER)) {
+                    clientContextTakeover = false;
+                }
+            }
+        }
+        boolean compress = compressContextTakeover && (client ? clientContextTakeover : serverContextTakeover);
+        boolean decompress = client ? serverContextTakeover : clientContextTakeover;
+        return new PerMessageDeflateFunction(deflaterLevel, compress, decompress, pool);
+    }
+
+    /**
+     * Releases the native memory held by the pooled compressors and decompressors. This should be called once
+     * the endpoint is shut down, connections that are still open continue to work but no longer use the pool.
+     */
+    @Override
+    public void close() {
+        if (pool != null) {
+            pool.close();
+        }
     }
 }
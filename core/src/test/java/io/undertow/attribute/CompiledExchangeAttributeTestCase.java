@@ -0,0 +1,58 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.attribute;
+
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import io.undertow.util.Methods;
+import io.undertow.util.Protocols;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author agent
+ */
+public class CompiledExchangeAttributeTestCase {
+
+    @Test
+    public void testCompiledMatchesParsed() {
+        HttpServerExchange exchange = new HttpServerExchange(null);
+        exchange.setRequestMethod(Methods.GET);
+        exchange.setRequestURI("/path");
+        exchange.setQueryString("a=b");
+        exchange.setProtocol(Protocols.HTTP_1_1);
+        exchange.setStatusCode(404);
+        exchange.getRequestHeaders().put(Headers.USER_AGENT, "test-agent");
+
+        ExchangeAttribute parsed = ExchangeAttributes.parser(getClass().getClassLoader(), new SubstituteEmptyWrapper("-"))
+                .parse("\"%r\" %s %b %B %{i,User-Agent} %{i,missing} %q 100%%");
+        CompiledExchangeAttribute compiled = ExchangeAttributes.compile(parsed);
+
+        String expected = "\"GET /path?a=b HTTP/1.1\" 404 - 0 test-agent - ?a=b 100%";
+        Assert.assertEquals(expected, parsed.readAttribute(exchange));
+        Assert.assertEquals(expected, compiled.readAttribute(exchange));
+
+        StringBuilder builder = new StringBuilder("prefix ");
+        compiled.appendAttribute(exchange, builder);
+        Assert.assertEquals("prefix " + expected, builder.toString());
+
+        //compiling a compiled attribute gives the same result
+        Assert.assertEquals(expected, ExchangeAttributes.compile(compiled).readAttribute(exchange));
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.protocols.http2;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author agent
+ */
+public class FlowControlPolicyUnitTestCase {
+
+    @Test
+    public void testUpdatesAreCoalesced() {
+        FixedWindowFlowControlPolicy policy = new FixedWindowFlowControlPolicy(1000, 100, 0.25f);
+        Assert.assertEquals(0, policy.getWindowUpdate(0, 999));
+        Assert.assertEquals(0, policy.getWindowUpdate(0, 250));
+        Assert.assertEquals(751, policy.getWindowUpdate(0, 249));
+        Assert.assertEquals(0, policy.getWindowUpdate(1, 25));
+        Assert.assertEquals(76, policy.getWindowUpdate(1, 24));
+        //a window that has been overrun is restored to its full size
+        Assert.assertEquals(110, policy.getWindowUpdate(3, -10));
+    }
+
+    @Test
+    public void testAutoTuningStartsAtInitialSize() {
+        AutoTuningFlowControlPolicy policy = new AutoTuningFlowControlPolicy(1000, 1000);
+        Assert.assertEquals(1000, policy.getStreamWindowSize());
+        Assert.assertEquals(501, policy.getWindowUpdate(1, 499));
+        //no ping is sent when the window is already at the maximum size
+        policy.dataReceived(null, 1000);
+        policy.pingAcknowledged(null, new byte[8]);
+        Assert.assertEquals(-1, policy.getRoundTripTime());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMaxSmallerThanInitial() {
+        new AutoTuningFlowControlPolicy(1000, 500);
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.protocols.http2;
+
+import io.undertow.util.HeaderMap;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests that header blocks produced by the encoder decode to the original headers, while the dynamic table
+ * is filled, grown, evicted and resized.
+ *
+ * @author agent
+ */
+public class HpackEncoderUnitTestCase {
+
+    private static final HttpString STATUS = new HttpString(":status");
+    private static final HttpString CUSTOM = new HttpString("X-Custom-Header");
+
+    @Test
+    public void testSmallTable() throws HpackException {
+        runTest(new HpackEncoder(256), 500);
+    }
+
+    @Test
+    public void testLargeTable() throws HpackException {
+        runTest(new HpackEncoder(Hpack.DEFAULT_TABLE_SIZE), 500);
+    }
+
+    @Test
+    public void testTableSizeChange() throws HpackException {
+        HpackEncoder encoder = new HpackEncoder(Hpack.DEFAULT_TABLE_SIZE);
+        HpackDecoder decoder = new HpackDecoder(Hpack.DEFAULT_TABLE_SIZE);
+        for (int i = 0; i < 100; ++i) {
+            if (i == 50) {
+                encoder.setMaxTableSize(100);
+            }
+            roundTrip(encoder, decoder, createHeaders(i));
+        }
+    }
+
+    @Test
+    public void testHuffmanCacheAfterBufferFull() {
+        HpackEncoder.HuffmanCache cache = new HpackEncoder.HuffmanCache();
+        String value = "application/json";
+        //not enough space, this must not be remembered as a value that cannot be huffman encoded
+        Assert.assertFalse(cache.encode(ByteBuffer.allocate(4), value, false));
+
+        ByteBuffer expected = ByteBuffer.allocate(64);
+        Assert.assertTrue(HPackHuffman.encode(expected, value, false));
+        expected.flip();
+        for (int i = 0; i < 2; ++i) {
+            ByteBuffer buffer = ByteBuffer.allocate(64);
+            Assert.assertTrue(cache.encode(buffer, value, false));
+            buffer.flip();
+            Assert.assertEquals(expected, buffer);
+        }
+        //a cached encoding that does not fit is not written
+        Assert.assertFalse(cache.encode(ByteBuffer.allocate(4), value, false));
+    }
+
+    private void runTest(HpackEncoder encoder, int responses) throws HpackException {
+        HpackDecoder decoder = new HpackDecoder(Hpack.DEFAULT_TABLE_SIZE);
+        for (int i = 0; i < responses; ++i) {
+            roundTrip(encoder, decoder, createHeaders(i));
+        }
+    }
+
+    private static HeaderMap createHeaders(int i) {
+        HeaderMap headers = new HeaderMap();
+        headers.put(STATUS, i % 7 == 0 ? "404" : "200");
+        headers.put(Headers.CONTENT_TYPE, "application/json");
+        headers.put(Headers.CONTENT_LENGTH, i);
+        headers.put(Headers.SERVER, "Undertow");
+        //a mix of values that are reused and values that churn the table
+        headers.put(CUSTOM, "a fairly long custom header value " + (i % 40));
+        headers.add(Headers.SET_COOKIE, "JSESSIONID=" + i + "abcdefghijklmnop; path=/");
+        headers.add(Headers.SET_COOKIE, "other=" + (i % 3));
+        return headers;
+    }
+
+    private static void roundTrip(HpackEncoder encoder, HpackDecoder decoder, HeaderMap headers) throws HpackException {
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        Assert.assertEquals(HpackEncoder.State.COMPLETE, encoder.encode(headers, buffer));
+        buffer.flip();
+
+        final HeaderMap decoded = new HeaderMap();
+        final List<HttpString> order = new ArrayList<>();
+        decoder.setHeaderEmitter(new HpackDecoder.HeaderEmitter() {
+            @Override
+            public void emitHeader(HttpString name, String value, boolean neverIndex) {
+                decoded.add(name, value);
+                order.add(name);
+            }
+        });
+        decoder.decode(buffer);
+        Assert.assertFalse(buffer.hasRemaining());
+
+        Assert.assertEquals(headers.size(), decoded.size());
+        for (HttpString name : headers.getHeaderNames()) {
+            Assert.assertEquals(name.toString(), new ArrayList<>(headers.get(name)), new ArrayList<>(decoded.get(name)));
+        }
+        //pseudo headers must come first
+        Assert.assertEquals(STATUS, order.get(0));
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.protocols.http2;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author agent
+ */
+public class Http2PriorityTreeUnitTestCase {
+
+    private static final int FRAME = 16384;
+
+    @Test
+    public void testWeightedSharing() {
+        Http2PriorityTree tree = new Http2PriorityTree();
+        tree.registerStream(1, 0, 16, false);
+        tree.registerStream(3, 0, 48, false);
+        int[] sent = simulate(tree, new int[]{1, 3}, 400);
+        //stream 3 has three times the weight, so should get three times as many frames
+        Assert.assertEquals(100, sent[0], 2);
+        Assert.assertEquals(300, sent[1], 2);
+    }
+
+    @Test
+    public void testSmallStreamIsNotStarved() {
+        Http2PriorityTree tree = new Http2PriorityTree();
+        tree.registerStream(1, 0, 16, false);
+        long virtualTime = 0;
+        //a large download has been running for a while
+        for (int i = 0; i < 1000; ++i) {
+            virtualTime = tree.scheduleData(1, FRAME, virtualTime);
+        }
+        long nextBulk = tree.scheduleData(1, FRAME, virtualTime);
+        tree.registerStream(3, 0, 16, false);
+        Assert.assertTrue(tree.scheduleData(3, 1000, virtualTime) < nextBulk);
+    }
+
+    @Test
+    public void testDependentWaitsForParent() {
+        Http2PriorityTree tree = new Http2PriorityTree();
+        tree.registerStream(1, 0, 16, false);
+        tree.registerStream(3, 1, 16, false);
+        long parent = tree.scheduleData(1, FRAME, 0);
+        long child = tree.scheduleData(3, FRAME, 0);
+        Assert.assertTrue(child > parent);
+        //the parent has more data, so the dependent is held back again
+        long nextParent = tree.scheduleData(1, FRAME, parent);
+        Assert.assertTrue(tree.scheduleData(3, FRAME, child) > nextParent);
+    }
+
+    @Test
+    public void testReprioritisation() {
+        Http2PriorityTree tree = new Http2PriorityTree();
+        tree.registerStream(1, 0, 16, false);
+        tree.registerStream(3, 1, 16, false);
+        tree.registerStream(5, 3, 16, false);
+        //make 1 depend on its own dependent, 5 should be moved up to take the place of 1 rather than creating a loop
+        tree.priorityFrame(1, 5, 16, true);
+        Assert.assertEquals(0, tree.getDependency(5));
+        Assert.assertEquals(5, tree.getDependency(1));
+        Assert.assertEquals(1, tree.getDependency(3));
+
+        //an exclusive dependency on the root adopts all of the existing streams
+        tree.registerStream(7, 0, 16, true);
+        Assert.assertEquals(0, tree.getDependency(7));
+        Assert.assertEquals(7, tree.getDependency(5));
+
+        //3 is a dependent of 7, so it is moved up to the root and 7 becomes its dependent
+        tree.priorityFrame(7, 3, 32, false);
+        Assert.assertEquals(0, tree.getDependency(3));
+        Assert.assertEquals(3, tree.getDependency(7));
+        Assert.assertEquals(7, tree.getDependency(5));
+        Assert.assertEquals(5, tree.getDependency(1));
+
+        //with every stream always having data to send, the head of the chain holds back all the others
+        long head = tree.scheduleData(3, FRAME, 0);
+        for (int stream : new int[]{7, 5, 1}) {
+            Assert.assertTrue(tree.scheduleData(stream, FRAME, 0) > head);
+        }
+    }
+
+    /**
+     * Simulates all the streams always having a frame to send, and returns the number of frames sent by each one.
+     */
+    private static int[] simulate(Http2PriorityTree tree, int[] streams, int frames) {
+        long[] starts = new long[streams.length];
+        long virtualTime = 0;
+        for (int i = 0; i < streams.length; ++i) {
+            starts[i] = tree.scheduleData(streams[i], FRAME, virtualTime);
+        }
+        int[] sent = new int[streams.length];
+        for (int i = 0; i < frames; ++i) {
+            int next = 0;
+            for (int j = 1; j < streams.length; ++j) {
+                if (starts[j] < starts[next]) {
+                    next = j;
+                }
+            }
+            sent[next]++;
+            virtualTime = starts[next];
+            starts[next] = tree.scheduleData(streams[next], FRAME, virtualTime);
+        }
+        return sent;
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.protocols.ssl;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author agent
+ */
+public class SslHandshakeStatisticsTestCase {
+
+    @Test
+    public void testCounters() {
+        SslHandshakeStatisticsImpl statistics = new SslHandshakeStatisticsImpl();
+        for (int i = 0; i < 4; ++i) {
+            statistics.handshakeStarted();
+        }
+        statistics.handshakeCompleted(10, false);
+        statistics.handshakeCompleted(30, true);
+        statistics.handshakeCompleted(5, true);
+        statistics.handshakeFailed();
+        statistics.delegatedTaskRun(7);
+        statistics.delegatedTaskRun(3);
+        statistics.delegatedTaskRejected();
+
+        Assert.assertEquals(4, statistics.getHandshakesStarted());
+        Assert.assertEquals(3, statistics.getHandshakesCompleted());
+        Assert.assertEquals(2, statistics.getSessionsResumed());
+        Assert.assertEquals(1, statistics.getHandshakesFailed());
+        Assert.assertEquals(45, statistics.getHandshakeTime());
+        Assert.assertEquals(30, statistics.getMaxHandshakeTime());
+        Assert.assertEquals(2, statistics.getDelegatedTaskCount());
+        Assert.assertEquals(10, statistics.getDelegatedTaskTime());
+        Assert.assertEquals(1, statistics.getRejectedTaskCount());
+
+        statistics.reset();
+        Assert.assertEquals(0, statistics.getHandshakesStarted());
+        Assert.assertEquals(0, statistics.getHandshakesCompleted());
+        Assert.assertEquals(0, statistics.getSessionsResumed());
+        Assert.assertEquals(0, statistics.getHandshakesFailed());
+        Assert.assertEquals(0, statistics.getHandshakeTime());
+        Assert.assertEquals(0, statistics.getMaxHandshakeTime());
+        Assert.assertEquals(0, statistics.getDelegatedTaskCount());
+        Assert.assertEquals(0, statistics.getDelegatedTaskTime());
+        Assert.assertEquals(0, statistics.getRejectedTaskCount());
+    }
+}
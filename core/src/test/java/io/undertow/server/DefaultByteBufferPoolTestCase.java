@@ -0,0 +1,123 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.undertow.connector.PooledByteBuffer;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author agent
+ */
+public class DefaultByteBufferPoolTestCase {
+
+    @Test
+    public void testThreadLocalReuse() {
+        DefaultByteBufferPool pool = new DefaultByteBufferPool(true, 1024, -1, 4);
+        try {
+            PooledByteBuffer first = pool.allocate();
+            ByteBuffer buffer = first.getBuffer();
+            first.close();
+            PooledByteBuffer second = pool.allocate();
+            Assert.assertSame(buffer, second.getBuffer());
+            second.close();
+
+            ByteBufferPoolStatistics stats = pool.getStatistics();
+            Assert.assertEquals(2, stats.getAllocations());
+            Assert.assertEquals(1, stats.getThreadLocalHits());
+            Assert.assertEquals(1, stats.getMisses());
+            Assert.assertEquals(1024, stats.getDirectBytesOutstanding());
+            Assert.assertEquals(1, stats.getThreadLocalCacheCount());
+        } finally {
+            pool.close();
+        }
+        Assert.assertEquals(0, pool.getStatistics().getDirectBytesOutstanding());
+    }
+
+    @Test
+    public void testBufferReturnedToOwningThread() throws InterruptedException {
+        final DefaultByteBufferPool pool = new DefaultByteBufferPool(false, 1024, -1, 4);
+        try {
+            final PooledByteBuffer pooled = pool.allocate();
+            ByteBuffer buffer = pooled.getBuffer();
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    pooled.close();
+                }
+            });
+            thread.start();
+            thread.join();
+
+            PooledByteBuffer second = pool.allocate();
+            Assert.assertSame(buffer, second.getBuffer());
+            second.close();
+            Assert.assertEquals(1, pool.getStatistics().getReturnedHits());
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testDeadThreadCacheEvicted() throws InterruptedException {
+        final DefaultByteBufferPool pool = new DefaultByteBufferPool(false, 1024, -1, 4);
+        try {
+            final AtomicReference<ByteBuffer> ref = new AtomicReference<>();
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    PooledByteBuffer pooled = pool.allocate();
+                    ref.set(pooled.getBuffer());
+                    pooled.close();
+                }
+            });
+            thread.start();
+            thread.join();
+            Assert.assertEquals(1, pool.getStatistics().getThreadLocalCacheCount());
+
+            //allocating on a new thread evicts the dead thread's cache
+            PooledByteBuffer pooled = pool.allocate();
+            Assert.assertSame(ref.get(), pooled.getBuffer());
+            pooled.close();
+            Assert.assertEquals(1, pool.getStatistics().getThreadLocalCacheCount());
+            Assert.assertEquals(2, pool.getStatistics().getAllocations());
+            Assert.assertEquals(1, pool.getStatistics().getQueueHits());
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testMaximumPoolSize() {
+        DefaultByteBufferPool pool = new DefaultByteBufferPool(true, 1024, 1, 0);
+        try {
+            PooledByteBuffer first = pool.allocate();
+            PooledByteBuffer second = pool.allocate();
+            first.close();
+            second.close();
+            Assert.assertEquals(1, pool.getStatistics().getQueueSize());
+            Assert.assertEquals(1024, pool.getStatistics().getDirectBytesOutstanding());
+        } finally {
+            pool.close();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server;
+
+import io.undertow.connector.PooledByteBuffer;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author agent
+ */
+public class SizeClassedByteBufferPoolTestCase {
+
+    @Test
+    public void testSizeClassSelection() {
+        SizeClassedByteBufferPool pool = new SizeClassedByteBufferPool(false, 1024 * 16);
+        try {
+            Assert.assertEquals(1024 * 16, pool.getBufferSize());
+            assertCapacity(pool.allocate(), 1024 * 16);
+            assertCapacity(pool.allocate(1), 512);
+            assertCapacity(pool.allocate(512), 512);
+            assertCapacity(pool.allocate(513), 1024 * 4);
+            assertCapacity(pool.allocate(1024 * 10), 1024 * 16);
+            assertCapacity(pool.allocate(1024 * 64), 1024 * 64);
+            //larger than any class, gets the largest
+            assertCapacity(pool.allocate(1024 * 1024), 1024 * 64);
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testBuffersAreReused() {
+        SizeClassedByteBufferPool pool = new SizeClassedByteBufferPool(true, new int[]{128, 1024}, 1024, 4096, -1, 4);
+        try {
+            PooledByteBuffer first = pool.allocate(100);
+            first.getBuffer().put((byte) 1);
+            Object buffer = first.getBuffer();
+            first.close();
+            Assert.assertFalse(first.isOpen());
+
+            PooledByteBuffer second = pool.allocate(100);
+            Assert.assertSame(buffer, second.getBuffer());
+            Assert.assertEquals(0, second.getBuffer().position());
+            Assert.assertEquals(128, second.getBuffer().limit());
+            second.close();
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testSlicesDoNotOverlap() {
+        SizeClassedByteBufferPool pool = new SizeClassedByteBufferPool(true, new int[]{64}, 64, 256, -1, 0);
+        try {
+            PooledByteBuffer[] buffers = new PooledByteBuffer[8];
+            for (int i = 0; i < buffers.length; ++i) {
+                buffers[i] = pool.allocate();
+                while (buffers[i].getBuffer().hasRemaining()) {
+                    buffers[i].getBuffer().put((byte) i);
+                }
+            }
+            for (int i = 0; i < buffers.length; ++i) {
+                buffers[i].getBuffer().flip();
+                while (buffers[i].getBuffer().hasRemaining()) {
+                    Assert.assertEquals(i, buffers[i].getBuffer().get());
+                }
+                buffers[i].close();
+            }
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testArenaIsLimitedByMaximumPoolSize() {
+        SizeClassedByteBufferPool pool = new SizeClassedByteBufferPool(false, new int[]{64}, 64, 1024, 2, 0);
+        try {
+            //one buffer for the caller and two for the queue, rather than the sixteen that fit in the arena
+            PooledByteBuffer buffer = pool.allocate();
+            Assert.assertEquals(3 * 64, buffer.getBuffer().array().length);
+            buffer.close();
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDefaultMustBeSizeClass() {
+        new SizeClassedByteBufferPool(true, new int[]{512, 1024}, 2048, 4096, -1, 4);
+    }
+
+    private static void assertCapacity(PooledByteBuffer buffer, int capacity) {
+        try {
+            Assert.assertEquals(capacity, buffer.getBuffer().capacity());
+            Assert.assertEquals(capacity, buffer.getBuffer().remaining());
+        } finally {
+            buffer.close();
+        }
+    }
+}
@@ -33,6 +33,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author Stuart Douglas
@@ -80,6 +81,11 @@ public class MetricsHandlerTestCase {
             metrics = metricsHandler.getMetrics();
             Assert.assertEquals(2, metrics.getTotalRequests());
 
+            Assert.assertEquals(2, metricsHandler.getHistogram().snapshot(1, TimeUnit.MINUTES).getCount());
+            Assert.assertEquals(2, metricsHandler.getStatusClassHistogram(2).snapshot().getCount());
+            Assert.assertEquals(0, metricsHandler.getStatusClassHistogram(5).snapshot().getCount());
+            Assert.assertTrue(metricsHandler.getHistogram().snapshot().getValueAtPercentile(99) >= TimeUnit.MILLISECONDS.toNanos(90));
+
         } finally {
 
             client.getConnectionManager().shutdown();
@@ -0,0 +1,139 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers;
+
+import io.undertow.server.ConnectorStatistics;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.testutils.DefaultServer;
+import io.undertow.testutils.HttpClientUtils;
+import io.undertow.testutils.TestHttpClient;
+import io.undertow.util.CompletionLatchHandler;
+import io.undertow.util.Headers;
+import io.undertow.util.StatusCodes;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+
+/**
+ * @author agent
+ */
+@RunWith(DefaultServer.class)
+public class OpenMetricsHandlerTestCase {
+
+    private static CompletionLatchHandler latchHandler;
+
+    @BeforeClass
+    public static void setup() {
+        MetricsHandler metricsHandler = new MetricsHandler(new HttpHandler() {
+            @Override
+            public void handleRequest(HttpServerExchange exchange) throws Exception {
+                exchange.getResponseSender().send("Hello");
+            }
+        });
+        OpenMetricsHandler openMetrics = new OpenMetricsHandler()
+                .addMetricsHandler("app", metricsHandler)
+                .addConnectorStatistics("default", new TestConnectorStatistics(1234567));
+        //enough sources to need more than one buffer
+        for (int i = 0; i < 500; ++i) {
+            openMetrics.addConnectorStatistics("connector \"" + i + "\"", new TestConnectorStatistics(i));
+        }
+        latchHandler = new CompletionLatchHandler(metricsHandler);
+        DefaultServer.setRootHandler(new PathHandler(latchHandler)
+                .addExactPath("/metrics", openMetrics));
+    }
+
+    @Test
+    public void testMetrics() throws IOException, InterruptedException {
+        TestHttpClient client = new TestHttpClient();
+        try {
+            HttpResponse result = client.execute(new HttpGet(DefaultServer.getDefaultServerURL() + "/path"));
+            Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+            HttpClientUtils.readResponse(result);
+            latchHandler.await();
+
+            result = client.execute(new HttpGet(DefaultServer.getDefaultServerURL() + "/metrics"));
+            Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+            Assert.assertEquals(OpenMetricsHandler.CONTENT_TYPE, result.getFirstHeader(Headers.CONTENT_TYPE_STRING).getValue());
+            String response = HttpClientUtils.readResponse(result);
+
+            Assert.assertTrue(response.endsWith("# EOF\n"));
+            Assert.assertTrue(response.contains("# TYPE undertow_connector_requests counter\n"));
+            Assert.assertTrue(response.contains("undertow_connector_requests_total{connector=\"default\"} 1234567\n"));
+            Assert.assertTrue(response.contains("undertow_connector_requests_total{connector=\"connector \\\"499\\\"\"} 499\n"));
+            Assert.assertTrue(response.contains("undertow_connector_max_processing_seconds{connector=\"default\"} 1234.567\n"));
+            Assert.assertTrue(response.contains("undertow_handler_requests_total{handler=\"app\"} 1\n"));
+            Assert.assertTrue(response.contains("# TYPE undertow_request_duration_seconds gaugehistogram\n"));
+            Assert.assertTrue(response.contains("undertow_request_duration_seconds_bucket{handler=\"app\",le=\"+Inf\"} 1\n"));
+            Assert.assertTrue(response.contains("undertow_request_duration_seconds_gcount{handler=\"app\"} 1\n"));
+            Assert.assertTrue(response.contains("undertow_status_class_duration_seconds_gcount{handler=\"app\",status_class=\"2xx\"} 1\n"));
+            Assert.assertTrue(response.contains("undertow_status_class_duration_seconds_bucket{handler=\"app\",status_class=\"5xx\",le=\"0.0005\"} 0\n"));
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    private static final class TestConnectorStatistics implements ConnectorStatistics {
+
+        private final long value;
+
+        private TestConnectorStatistics(long value) {
+            this.value = value;
+        }
+
+        @Override
+        public long getRequestCount() {
+            return value;
+        }
+
+        @Override
+        public long getBytesSent() {
+            return value;
+        }
+
+        @Override
+        public long getBytesReceived() {
+            return value;
+        }
+
+        @Override
+        public long getErrorCount() {
+            return value;
+        }
+
+        @Override
+        public long getProcessingTime() {
+            return value;
+        }
+
+        @Override
+        public long getMaxProcessingTime() {
+            return value;
+        }
+
+        @Override
+        public void reset() {
+        }
+    }
+}
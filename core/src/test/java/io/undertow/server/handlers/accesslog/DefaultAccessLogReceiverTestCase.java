@@ -0,0 +1,203 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers.accesslog;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author agent
+ */
+public class DefaultAccessLogReceiverTestCase {
+
+    private static final int NUM_THREADS = 8;
+    private static final int NUM_MESSAGES = 200;
+
+    @Test
+    public void testBatchedWithSizeRotation() throws Exception {
+        Path directory = Files.createTempDirectory("undertow-access-log");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final DefaultAccessLogReceiver receiver = DefaultAccessLogReceiver.builder()
+                    .setLogWriteExecutor(executor)
+                    .setOutputDirectory(directory)
+                    .setLogBaseName("batched")
+                    .setBatched(true)
+                    .setBatchBufferSize(256)
+                    .setBatchQueueSize(4)
+                    .setBlockWhenQueueFull(true)
+                    .setMaxFileSize(2000)
+                    .build();
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < NUM_THREADS; ++i) {
+                final int threadNo = i;
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int j = 0; j < NUM_MESSAGES; ++j) {
+                            receiver.logMessage("thread-" + threadNo + " message-" + j + " \u00e9\u20ac");
+                        }
+                    }
+                });
+                thread.start();
+                threads.add(thread);
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            receiver.awaitWrittenForTest();
+            Assert.assertEquals(0, receiver.getDroppedMessages());
+
+            //read the rotated files in the order they were written
+            String date = new SimpleDateFormat("yyyy-MM-dd").format(new Date());
+            StringBuilder log = new StringBuilder();
+            Path rotated = directory.resolve("batched_" + date + ".log");
+            int files = 0;
+            while (Files.exists(rotated)) {
+                Assert.assertTrue(Files.size(rotated) >= 2000);
+                log.append(new String(Files.readAllBytes(rotated), StandardCharsets.UTF_8));
+                rotated = directory.resolve("batched_" + date + "-" + ++files + ".log");
+            }
+            Assert.assertTrue(files > 1);
+            Path current = directory.resolve("batched.log");
+            if (Files.exists(current)) {
+                log.append(new String(Files.readAllBytes(current), StandardCharsets.UTF_8));
+            }
+
+            int[] next = new int[NUM_THREADS];
+            String[] lines = log.toString().split("\n");
+            Assert.assertEquals(NUM_THREADS * NUM_MESSAGES, lines.length);
+            for (String line : lines) {
+                Assert.assertTrue(line, line.endsWith(" \u00e9\u20ac"));
+                int threadNo = Integer.parseInt(line.substring("thread-".length(), line.indexOf(' ')));
+                int message = Integer.parseInt(line.substring(line.indexOf("message-") + "message-".length(), line.lastIndexOf(' ')));
+                //messages from a single thread are always written in order
+                Assert.assertEquals(next[threadNo]++, message);
+            }
+            receiver.close();
+        } finally {
+            executor.shutdown();
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void testMessagesDroppedWhenQueueFull() throws Exception {
+        Path directory = Files.createTempDirectory("undertow-access-log");
+        final List<Runnable> tasks = new ArrayList<>();
+        try {
+            DefaultAccessLogReceiver receiver = DefaultAccessLogReceiver.builder()
+                    .setLogWriteExecutor(new Executor() {
+                        @Override
+                        public void execute(Runnable command) {
+                            //the writer never runs until we let it
+                            tasks.add(command);
+                        }
+                    })
+                    .setOutputDirectory(directory)
+                    .setLogBaseName("dropped")
+                    .setBatched(true)
+                    .setBatchBufferSize(100)
+                    .setBatchQueueSize(2)
+                    .build();
+            for (int i = 0; i < 100; ++i) {
+                receiver.logMessage("message " + i);
+            }
+            Assert.assertTrue(receiver.getDroppedMessages() > 0);
+            while (!tasks.isEmpty()) {
+                tasks.remove(0).run();
+            }
+            String[] lines = new String(Files.readAllBytes(directory.resolve("dropped.log")), StandardCharsets.UTF_8).split("\n");
+            Assert.assertEquals(100 - receiver.getDroppedMessages(), lines.length);
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void testPartialBuffersWrittenAfterFlushInterval() throws Exception {
+        Path directory = Files.createTempDirectory("undertow-access-log");
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        try {
+            DefaultAccessLogReceiver receiver = DefaultAccessLogReceiver.builder()
+                    .setLogWriteExecutor(executor)
+                    .setOutputDirectory(directory)
+                    .setLogBaseName("flush")
+                    .setBatched(true)
+                    .setFlushInterval(200)
+                    .build();
+            receiver.logMessage("first");
+            receiver.logMessage("second");
+            //the buffer is not full, so nothing is written until the flush interval expires
+            Thread.sleep(50);
+            Assert.assertFalse(Files.exists(directory.resolve("flush.log")));
+            receiver.awaitWrittenForTest();
+            Assert.assertEquals("first\nsecond\n", new String(Files.readAllBytes(directory.resolve("flush.log")), StandardCharsets.UTF_8));
+
+            //closing writes partially filled buffers straight away
+            receiver.logMessage("third");
+            receiver.close();
+            receiver.awaitWrittenForTest();
+            Assert.assertEquals("first\nsecond\nthird\n", new String(Files.readAllBytes(directory.resolve("flush.log")), StandardCharsets.UTF_8));
+        } finally {
+            executor.shutdown();
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void testEncoding() {
+        String message = "a\u00e9\u20ac\ud83d\ude00\ud83d";
+        ByteBuffer buffer = ByteBuffer.allocate(20);
+        Assert.assertTrue(DefaultAccessLogReceiver.encode(message, buffer));
+        buffer.flip();
+        byte[] encoded = new byte[buffer.remaining()];
+        buffer.get(encoded);
+        Assert.assertEquals("a\u00e9\u20ac\ud83d\ude00?\n", new String(encoded, StandardCharsets.UTF_8));
+        Assert.assertEquals(encoded.length - 1, DefaultAccessLogReceiver.encodedLength(message));
+
+        buffer = ByteBuffer.allocate(encoded.length - 1);
+        Assert.assertFalse(DefaultAccessLogReceiver.encode(message, buffer));
+        Assert.assertEquals(0, buffer.position());
+    }
+
+    private static void deleteDirectory(Path directory) throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path file : stream) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+}
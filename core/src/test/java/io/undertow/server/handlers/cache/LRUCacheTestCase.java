@@ -0,0 +1,89 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers.cache;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author agent
+ */
+public class LRUCacheTestCase {
+
+    @Test
+    public void testDefaultPolicyEvictsOldest() {
+        LRUCache<String, String> cache = new LRUCache<>(3, -1);
+        cache.add("a", "a");
+        cache.add("b", "b");
+        cache.add("c", "c");
+        cache.add("d", "d");
+        Assert.assertNull(cache.get("a"));
+        Assert.assertEquals("b", cache.get("b"));
+        Assert.assertEquals("c", cache.get("c"));
+        Assert.assertEquals("d", cache.get("d"));
+    }
+
+    @Test
+    public void testWindowTinyLFUSurvivesScan() {
+        LRUCache<Integer, Integer> cache = new LRUCache<>(100, -1, new WindowTinyLFUEvictionPolicy<Integer>(100));
+        for (int i = 0; i < 50; ++i) {
+            cache.add(i, i);
+        }
+        for (int j = 0; j < 10; ++j) {
+            for (int i = 0; i < 50; ++i) {
+                Assert.assertEquals(Integer.valueOf(i), cache.get(i));
+            }
+        }
+        //a scan of entries that are only used once should not flush the frequently used entries
+        for (int i = 1000; i < 11000; ++i) {
+            cache.add(i, i);
+        }
+        int hits = 0;
+        for (int i = 0; i < 50; ++i) {
+            if (cache.get(i) != null) {
+                hits++;
+            }
+        }
+        Assert.assertTrue("Only " + hits + " hot entries survived the scan", hits >= 45);
+    }
+
+    @Test
+    public void testWindowTinyLFURemoveAndClear() {
+        LRUCache<Integer, Integer> cache = new LRUCache<>(10, -1, new WindowTinyLFUEvictionPolicy<Integer>(10));
+        for (int i = 0; i < 10; ++i) {
+            cache.add(i, i);
+        }
+        Assert.assertEquals(Integer.valueOf(5), cache.remove(5));
+        Assert.assertNull(cache.get(5));
+        cache.clear();
+        for (int i = 0; i < 10; ++i) {
+            Assert.assertNull(cache.get(i));
+        }
+        for (int i = 0; i < 20; ++i) {
+            cache.add(i, i);
+        }
+        int size = 0;
+        for (int i = 0; i < 20; ++i) {
+            if (cache.get(i) != null) {
+                size++;
+            }
+        }
+        Assert.assertEquals(10, size);
+    }
+}
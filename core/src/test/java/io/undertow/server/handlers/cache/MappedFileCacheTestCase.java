@@ -0,0 +1,107 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers.cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author agent
+ */
+public class MappedFileCacheTestCase {
+
+    @Test
+    public void testMappingSharedAndReleased() throws IOException {
+        Path file = createFile(100, (byte) 1);
+        try {
+            MappedFileCache cache = new MappedFileCache(10, 1000, 1000);
+            Assert.assertNull(cache.get("a", 100));
+            MappedFileCache.MappedEntry first = cache.map("a", file, 100);
+            MappedFileCache.MappedEntry second = cache.get("a", 100);
+            Assert.assertSame(first, second);
+            ByteBuffer buffer = first.buffer();
+            Assert.assertEquals(100, buffer.remaining());
+            Assert.assertEquals(1, buffer.get(50));
+            Assert.assertEquals(100, cache.getMappedBytes());
+
+            cache.remove("a");
+            Assert.assertNull(cache.get("a", 100));
+            //still referenced by the exchanges
+            Assert.assertEquals(100, cache.getMappedBytes());
+            first.dereference();
+            second.dereference();
+            Assert.assertEquals(0, cache.getMappedBytes());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testSizeChangeDiscardsMapping() throws IOException {
+        Path file = createFile(100, (byte) 1);
+        try {
+            MappedFileCache cache = new MappedFileCache(10, 1000, 1000);
+            cache.map("a", file, 100).dereference();
+            Assert.assertNull(cache.get("a", 200));
+            Assert.assertEquals(0, cache.getMappedBytes());
+            //the file on disk does not match the expected size
+            Assert.assertNull(cache.map("a", file, 200));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testEviction() throws IOException {
+        Path a = createFile(100, (byte) 1);
+        Path b = createFile(100, (byte) 2);
+        Path c = createFile(100, (byte) 3);
+        try {
+            MappedFileCache cache = new MappedFileCache(10, 200, 200);
+            Assert.assertFalse(cache.isEligible(5));
+            Assert.assertFalse(cache.isEligible(300));
+            cache.map("a", a, 100).dereference();
+            cache.map("b", b, 100).dereference();
+            MappedFileCache.MappedEntry entry = cache.map("c", c, 100);
+            Assert.assertEquals(3, entry.buffer().get(0));
+            entry.dereference();
+            Assert.assertEquals(200, cache.getMappedBytes());
+            Assert.assertNull(cache.get("a", 100));
+        } finally {
+            Files.delete(a);
+            Files.delete(b);
+            Files.delete(c);
+        }
+    }
+
+    private static Path createFile(int size, byte value) throws IOException {
+        Path file = Files.createTempFile("undertow", ".txt");
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; ++i) {
+            data[i] = value;
+        }
+        Files.write(file, data);
+        return file;
+    }
+}
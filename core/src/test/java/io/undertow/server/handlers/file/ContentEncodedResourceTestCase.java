@@ -18,9 +18,11 @@
 
 package io.undertow.server.handlers.file;
 
+import io.undertow.server.handlers.PathHandler;
 import io.undertow.server.handlers.encoding.ContentEncodedResourceManager;
 import io.undertow.server.handlers.encoding.ContentEncodingRepository;
 import io.undertow.server.handlers.encoding.DeflateEncodingProvider;
+import io.undertow.server.handlers.encoding.GzipEncodingProvider;
 import io.undertow.server.handlers.resource.CachingResourceManager;
 import io.undertow.server.handlers.resource.PathResourceManager;
 import io.undertow.server.handlers.resource.ResourceHandler;
@@ -38,10 +40,14 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * @author Stuart Douglas
@@ -52,6 +58,8 @@ public class ContentEncodedResourceTestCase {
     public static final String DIR_NAME = "contentEncodingTestCase";
 
     static Path tmpDir;
+    static ExecutorService compressionExecutor;
+    static ContentEncodedResourceManager backgroundManager;
 
 
     @BeforeClass
@@ -60,14 +68,20 @@ public class ContentEncodedResourceTestCase {
         tmpDir = Files.createTempDirectory(Paths.get(System.getProperty("java.io.tmpdir")), DIR_NAME);
 
         final PathResourceManager resourceManager = new PathResourceManager(tmpDir, 10485760);
-        DefaultServer.setRootHandler(new ResourceHandler(resourceManager)
+        compressionExecutor = Executors.newSingleThreadExecutor();
+        backgroundManager = new ContentEncodedResourceManager(tmpDir, new CachingResourceManager(100, 10000, null, resourceManager, -1), new ContentEncodingRepository()
+                .addEncodingHandler("gzip", new GzipEncodingProvider(), 50, null), 0, 100000, null, compressionExecutor, 10);
+        DefaultServer.setRootHandler(new PathHandler(new ResourceHandler(resourceManager)
                 .setContentEncodedResourceManager(
                         new ContentEncodedResourceManager(tmpDir, new CachingResourceManager(100, 10000, null, resourceManager, -1), new ContentEncodingRepository()
-                                .addEncodingHandler("deflate", new DeflateEncodingProvider(), 50, null), 0, 100000, null)));
+                                .addEncodingHandler("deflate", new DeflateEncodingProvider(), 50, null), 0, 100000, null)))
+                .addPrefixPath("/background", new ResourceHandler(resourceManager)
+                        .setContentEncodedResourceManager(backgroundManager)));
     }
 
     @AfterClass
     public static void after() throws IOException {
+        compressionExecutor.shutdownNow();
         FileUtils.deleteRecursive(tmpDir);
     }
 
@@ -100,4 +114,53 @@ public class ContentEncodedResourceTestCase {
             client.getConnectionManager().shutdown();
         }
     }
+
+    @Test
+    public void testBackgroundCompression() throws IOException, InterruptedException {
+        ContentEncodingHttpClient client = new ContentEncodingHttpClient();
+        String fileName = "background.html";
+        Path f = tmpDir.resolve(fileName);
+        Files.write(f, "hello background".getBytes());
+        try {
+            boolean compressed = false;
+            for (int i = 0; i < 50 && !compressed; ++i) {
+                HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/background/" + fileName);
+                HttpResponse result = client.execute(get);
+                Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+                String response = HttpClientUtils.readResponse(result);
+                Assert.assertEquals("hello background", response);
+                compressed = result.getHeaders(Headers.CONTENT_ENCODING_STRING).length > 0;
+                if (!compressed) {
+                    //the first request is served uncompressed while the compressed version is created
+                    Thread.sleep(100);
+                }
+            }
+            Assert.assertTrue(compressed);
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testPrecompressedFileIsUsed() throws IOException {
+        ContentEncodingHttpClient client = new ContentEncodingHttpClient();
+        String fileName = "precompressed.js";
+        Files.write(tmpDir.resolve(fileName), "original".getBytes());
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(data)) {
+            out.write("precompressed".getBytes());
+        }
+        Files.write(tmpDir.resolve(fileName + ".gz"), data.toByteArray());
+        try {
+            Assert.assertTrue(backgroundManager.registerPrecompressedFiles(tmpDir) >= 1);
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/background/" + fileName);
+            HttpResponse result = client.execute(get);
+            Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+            String response = HttpClientUtils.readResponse(result);
+            Assert.assertEquals("precompressed", response);
+            Assert.assertEquals("gzip", result.getHeaders(Headers.CONTENT_ENCODING_STRING)[0].getValue());
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
 }
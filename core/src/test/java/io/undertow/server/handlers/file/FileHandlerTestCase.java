@@ -124,7 +124,7 @@ public class FileHandlerTestCase {
     }
 
     @Test
-    public void testFileTransferLargeFile() throws IOException, URISyntaxException {
+    public void testFileTransferLargeFile() throws IOException, URISyntaxException, InterruptedException {
         TestHttpClient client = new TestHttpClient();
         Path tmp = Paths.get(System.getProperty("java.io.tmpdir"));
         StringBuilder message = new StringBuilder();
@@ -134,9 +134,10 @@ public class FileHandlerTestCase {
         Path large = Files.createTempFile(null, ".txt");
         try {
             Files.copy(new ByteArrayInputStream(message.toString().getBytes(StandardCharsets.UTF_8)), large, StandardCopyOption.REPLACE_EXISTING);
+            PathResourceManager resourceManager = new PathResourceManager(tmp, 1);
             DefaultServer.setRootHandler(new CanonicalPathHandler()
                     .setNext(new PathHandler()
-                            .addPrefixPath("/path", new ResourceHandler(new PathResourceManager(tmp, 1))
+                            .addPrefixPath("/path", new ResourceHandler(resourceManager)
                                     // 1 byte = force transfer
                                     .setDirectoryListingEnabled(true))));
 
@@ -147,6 +148,13 @@ public class FileHandlerTestCase {
             Header[] headers = result.getHeaders("Content-Type");
             Assert.assertEquals("text/plain", headers[0].getValue());
             Assert.assertTrue(response, response.equals(message.toString()));
+            //depending on the connection the file is either transferred directly or copied, the bytes are
+            //counted once the server side send completes, which may be after the client has read the response
+            long end = System.currentTimeMillis() + 10000;
+            while (resourceManager.getZeroCopyBytes() + resourceManager.getCopiedBytes() < Files.size(large) && System.currentTimeMillis() < end) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(Files.size(large), resourceManager.getZeroCopyBytes() + resourceManager.getCopiedBytes());
 
         } finally {
             client.getConnectionManager().shutdown();
@@ -0,0 +1,120 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers.proxy;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author agent
+ */
+public class HostSelectorsTestCase {
+
+    @Test
+    public void testLeastOutstandingRequests() throws Exception {
+        LoadBalancingProxyClient.Host[] hosts = createHosts(1, 1, 1);
+        hosts[0].requestStarted();
+        hosts[0].requestStarted();
+        hosts[1].requestStarted();
+        LoadBalancingProxyClient.HostSelector selector = HostSelectors.leastOutstandingRequests();
+        for (int i = 0; i < 10; ++i) {
+            Assert.assertEquals(2, selector.selectHost(hosts));
+        }
+        hosts[2].requestStarted();
+        hosts[2].requestStarted();
+        Assert.assertEquals(1, selector.selectHost(hosts));
+        hosts[0].requestCompleted();
+        hosts[0].requestCompleted();
+        Assert.assertEquals(0, hosts[0].getOutstandingRequests());
+        Assert.assertEquals(0, selector.selectHost(hosts));
+    }
+
+    @Test
+    public void testPeakEwmaAvoidsSlowHost() throws Exception {
+        LoadBalancingProxyClient.Host[] hosts = createHosts(1, 1);
+        hosts[0].recordLatency(TimeUnit.MILLISECONDS.toNanos(1));
+        hosts[1].recordLatency(TimeUnit.MILLISECONDS.toNanos(100));
+        LoadBalancingProxyClient.HostSelector selector = HostSelectors.peakEwma(1, TimeUnit.HOURS);
+        for (int i = 0; i < 100; ++i) {
+            Assert.assertEquals(0, selector.selectHost(hosts));
+        }
+        //enough requests in progress on the fast host make the slow one the better choice
+        for (int i = 0; i < 200; ++i) {
+            hosts[0].requestStarted();
+        }
+        Assert.assertEquals(1, selector.selectHost(hosts));
+    }
+
+    @Test
+    public void testPeakEwmaReactsToSlowResponse() throws Exception {
+        LoadBalancingProxyClient.Host[] hosts = createHosts(1, 1);
+        for (int i = 0; i < 10; ++i) {
+            hosts[0].recordLatency(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        hosts[1].recordLatency(TimeUnit.MILLISECONDS.toNanos(10));
+        LoadBalancingProxyClient.HostSelector selector = HostSelectors.peakEwma(1, TimeUnit.HOURS);
+        Assert.assertEquals(0, selector.selectHost(hosts));
+
+        //a single slow response is enough to move the traffic away
+        hosts[0].recordLatency(TimeUnit.MILLISECONDS.toNanos(100));
+        Assert.assertTrue(hosts[0].getLatencyEwma(TimeUnit.HOURS.toNanos(1)) > TimeUnit.MILLISECONDS.toNanos(99));
+        Assert.assertEquals(1, selector.selectHost(hosts));
+
+        //but faster responses only bring the average down gradually
+        hosts[0].recordLatency(TimeUnit.MILLISECONDS.toNanos(1));
+        Assert.assertTrue(hosts[0].getLatencyEwma(TimeUnit.HOURS.toNanos(1)) > TimeUnit.MILLISECONDS.toNanos(10));
+    }
+
+    @Test
+    public void testWeighted() throws Exception {
+        LoadBalancingProxyClient.Host[] hosts = createHosts(6, 2);
+        LoadBalancingProxyClient.HostSelector selector = HostSelectors.weighted();
+        int[] counts = new int[hosts.length];
+        int run = 0;
+        int maxRun = 0;
+        int last = -1;
+        for (int i = 0; i < 400; ++i) {
+            int selected = selector.selectHost(hosts);
+            counts[selected]++;
+            run = selected == last ? run + 1 : 1;
+            maxRun = Math.max(maxRun, run);
+            last = selected;
+        }
+        Assert.assertEquals(300, counts[0]);
+        Assert.assertEquals(100, counts[1]);
+        //the hosts are interleaved, rather than selected in runs
+        Assert.assertTrue(maxRun <= 3);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownSelector() {
+        HostSelectors.forName("random");
+    }
+
+    private static LoadBalancingProxyClient.Host[] createHosts(int... weights) throws Exception {
+        LoadBalancingProxyClient client = new LoadBalancingProxyClient();
+        for (int i = 0; i < weights.length; ++i) {
+            client.addHost(new URI("http://localhost:" + (8081 + i)), weights[i]);
+        }
+        return client.getHosts();
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers.proxy;
+
+import io.undertow.Undertow;
+import io.undertow.UndertowOptions;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.ResponseCodeHandler;
+import io.undertow.server.protocol.http2.Http2ServerConnection;
+import io.undertow.testutils.DefaultServer;
+import io.undertow.testutils.HttpClientUtils;
+import io.undertow.testutils.ProxyIgnore;
+import io.undertow.testutils.TestHttpClient;
+import io.undertow.util.SameThreadExecutor;
+import io.undertow.util.StatusCodes;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.xnio.Options;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests that concurrent proxied requests share a multiplexed HTTP/2 backend connection.
+ *
+ * @author agent
+ */
+@RunWith(DefaultServer.class)
+@ProxyIgnore
+public class LoadBalancingProxyHTTP2MultiplexingTestCase {
+
+    private static final int REQUESTS = 20;
+
+    private static Undertow server;
+    private static LoadBalancingProxyClient proxyClient;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        int port = DefaultServer.getHostPort("default");
+        server = Undertow.builder()
+                .addHttpListener(port + 1, DefaultServer.getHostAddress("default"))
+                .setServerOption(UndertowOptions.ENABLE_HTTP2, true)
+                .setSocketOption(Options.REUSE_ADDRESSES, true)
+                .setHandler(new HttpHandler() {
+                    @Override
+                    public void handleRequest(final HttpServerExchange exchange) throws Exception {
+                        if (!(exchange.getConnection() instanceof Http2ServerConnection)) {
+                            throw new RuntimeException("Not HTTP2");
+                        }
+                        //delay the response so the requests overlap
+                        exchange.dispatch(SameThreadExecutor.INSTANCE, new Runnable() {
+                            @Override
+                            public void run() {
+                                exchange.getIoThread().executeAfter(new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        exchange.getResponseSender().send("multiplexed");
+                                    }
+                                }, 200, TimeUnit.MILLISECONDS);
+                            }
+                        });
+                    }
+                })
+                .build();
+        server.start();
+
+        proxyClient = new LoadBalancingProxyClient()
+                .setConnectionsPerThread(REQUESTS)
+                .setSoftMaxConnectionsPerThread(0)
+                .setTtl(1000)
+                .addHost(new URI("h2c-prior", null, DefaultServer.getHostAddress("default"), port + 1, null, null, null));
+        DefaultServer.setRootHandler(new ProxyHandler(proxyClient, 10000, ResponseCodeHandler.HANDLE_404));
+    }
+
+    @AfterClass
+    public static void teardown() {
+        server.stop();
+    }
+
+    @Test
+    public void testRequestsShareConnections() throws Exception {
+        //the first request establishes that the backend supports multiplexing
+        Assert.assertEquals("multiplexed", sendRequest());
+
+        ExecutorService executor = Executors.newFixedThreadPool(REQUESTS);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < REQUESTS; ++i) {
+                results.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        return sendRequest();
+                    }
+                }));
+            }
+            for (Future<String> result : results) {
+                Assert.assertEquals("multiplexed", result.get(20, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdown();
+        }
+        //without multiplexing every concurrent request would need its own connection
+        int ioThreads = DefaultServer.getWorker().getIoThreadCount();
+        int open = proxyClient.getHosts()[0].getConnectionPool().getOpenConnections();
+        Assert.assertTrue("Open connections " + open, open <= ioThreads);
+    }
+
+    @Test
+    public void testIdleConnectionsAreClosed() throws Exception {
+        Assert.assertEquals("multiplexed", sendRequest());
+        //the connection has no active requests, so it is closed once the time to live expires
+        ProxyConnectionPool pool = proxyClient.getHosts()[0].getConnectionPool();
+        for (int i = 0; i < 50 && pool.getOpenConnections() > 0; ++i) {
+            Thread.sleep(100);
+        }
+        Assert.assertEquals(0, pool.getOpenConnections());
+    }
+
+    private static String sendRequest() throws Exception {
+        TestHttpClient client = new TestHttpClient();
+        try {
+            HttpResponse result = client.execute(new HttpGet(DefaultServer.getDefaultServerURL() + "/name"));
+            Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+            return HttpClientUtils.readResponse(result);
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+}
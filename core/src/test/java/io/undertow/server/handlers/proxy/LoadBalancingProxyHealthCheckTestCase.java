@@ -0,0 +1,140 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers.proxy;
+
+import io.undertow.Undertow;
+import io.undertow.client.UndertowClient;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.ResponseCodeHandler;
+import io.undertow.testutils.DefaultServer;
+import io.undertow.testutils.HttpClientUtils;
+import io.undertow.testutils.ProxyIgnore;
+import io.undertow.testutils.TestHttpClient;
+import io.undertow.util.StatusCodes;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.xnio.Options;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests that failing hosts are taken out of service by the active health check and by passive outlier ejection.
+ *
+ * @author agent
+ */
+@RunWith(DefaultServer.class)
+@ProxyIgnore
+public class LoadBalancingProxyHealthCheckTestCase {
+
+    private static Undertow server1;
+    private static Undertow server2;
+    private static URI uri1;
+    private static URI uri2;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        int port = DefaultServer.getHostPort("default");
+        server1 = Undertow.builder()
+                .addHttpListener(port + 1, DefaultServer.getHostAddress("default"))
+                .setSocketOption(Options.REUSE_ADDRESSES, true)
+                .setHandler(new HttpHandler() {
+                    @Override
+                    public void handleRequest(HttpServerExchange exchange) throws Exception {
+                        //a backend that is up, but failing
+                        exchange.setStatusCode(StatusCodes.SERVICE_UNAVAILABLE);
+                        exchange.getResponseSender().send("server1");
+                    }
+                })
+                .build();
+        server2 = Undertow.builder()
+                .addHttpListener(port + 2, DefaultServer.getHostAddress("default"))
+                .setSocketOption(Options.REUSE_ADDRESSES, true)
+                .setHandler(new AbstractLoadBalancingProxyTestCase.StringSendHandler("server2"))
+                .build();
+        server1.start();
+        server2.start();
+        uri1 = new URI("http", null, DefaultServer.getHostAddress("default"), port + 1, null, null, null);
+        uri2 = new URI("http", null, DefaultServer.getHostAddress("default"), port + 2, null, null, null);
+    }
+
+    @AfterClass
+    public static void teardown() {
+        server1.stop();
+        server2.stop();
+    }
+
+    @Test
+    public void testActiveHealthCheck() throws Exception {
+        LoadBalancingProxyClient proxyClient = createClient()
+                .setHealthCheck(HostHealthCheck.http("/health", 50, TimeUnit.MILLISECONDS).setUnhealthyThreshold(1));
+        DefaultServer.setRootHandler(new ProxyHandler(proxyClient, 10000, ResponseCodeHandler.HANDLE_404));
+
+        //the first request starts the health check on its IO thread
+        sendRequest();
+        long end = System.currentTimeMillis() + 5000;
+        while (proxyClient.getHosts()[0].isHealthy() && System.currentTimeMillis() < end) {
+            Thread.sleep(20);
+        }
+        Assert.assertFalse(proxyClient.getHosts()[0].isHealthy());
+        Assert.assertTrue(proxyClient.getHosts()[1].isHealthy());
+        for (int i = 0; i < 10; ++i) {
+            Assert.assertEquals("server2", sendRequest());
+        }
+    }
+
+    @Test
+    public void testOutlierEjection() throws Exception {
+        LoadBalancingProxyClient proxyClient = createClient()
+                .setOutlierEjection(2, 0, 1, TimeUnit.HOURS);
+        DefaultServer.setRootHandler(new ProxyHandler(proxyClient, 10000, ResponseCodeHandler.HANDLE_404));
+
+        //round robin means the failing host gets two of the first four requests
+        for (int i = 0; i < 4; ++i) {
+            sendRequest();
+        }
+        Assert.assertFalse(proxyClient.getHosts()[0].isHealthy());
+        for (int i = 0; i < 10; ++i) {
+            Assert.assertEquals("server2", sendRequest());
+        }
+    }
+
+    private static LoadBalancingProxyClient createClient() {
+        return new LoadBalancingProxyClient(UndertowClient.getInstance(), null, HostSelectors.roundRobin())
+                .setConnectionsPerThread(4)
+                .addHost(uri1)
+                .addHost(uri2);
+    }
+
+    private static String sendRequest() throws Exception {
+        TestHttpClient client = new TestHttpClient();
+        try {
+            HttpResponse result = client.execute(new HttpGet(DefaultServer.getDefaultServerURL() + "/name"));
+            return HttpClientUtils.readResponse(result);
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+}
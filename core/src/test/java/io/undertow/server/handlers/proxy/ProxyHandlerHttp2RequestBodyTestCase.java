@@ -0,0 +1,186 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers.proxy;
+
+import io.undertow.Undertow;
+import io.undertow.UndertowOptions;
+import io.undertow.client.ClientCallback;
+import io.undertow.client.ClientConnection;
+import io.undertow.client.ClientExchange;
+import io.undertow.client.ClientRequest;
+import io.undertow.client.UndertowClient;
+import io.undertow.io.Receiver;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.ResponseCodeHandler;
+import io.undertow.testutils.DefaultServer;
+import io.undertow.testutils.ProxyIgnore;
+import io.undertow.util.Headers;
+import io.undertow.util.Methods;
+import io.undertow.util.StringReadChannelListener;
+import io.undertow.util.StringWriteChannelListener;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.xnio.IoUtils;
+import org.xnio.OptionMap;
+import org.xnio.Options;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tests that the body of a HTTP/2 request without a content length is proxied, whether or not the request could be
+ * retried or hedged.
+ *
+ * @author agent
+ */
+@RunWith(DefaultServer.class)
+@ProxyIgnore
+public class ProxyHandlerHttp2RequestBodyTestCase {
+
+    private static final String BODY = "a request body that is sent without a content length";
+
+    private static Undertow backend;
+    private static Undertow proxy;
+    private static Undertow retryingProxy;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        int port = DefaultServer.getHostPort("default");
+        String host = DefaultServer.getHostAddress("default");
+        backend = Undertow.builder()
+                .addHttpListener(port + 1, host)
+                .setSocketOption(Options.REUSE_ADDRESSES, true)
+                .setHandler(new HttpHandler() {
+                    @Override
+                    public void handleRequest(HttpServerExchange exchange) throws Exception {
+                        exchange.getRequestReceiver().receiveFullString(new Receiver.FullStringCallback() {
+                            @Override
+                            public void handle(HttpServerExchange exchange, String message) {
+                                exchange.getResponseSender().send(message);
+                            }
+                        });
+                    }
+                })
+                .build();
+        backend.start();
+
+        URI backendUri = new URI("http", null, host, port + 1, null, null, null);
+        proxy = Undertow.builder()
+                .addHttpListener(port + 2, host)
+                .setServerOption(UndertowOptions.ENABLE_HTTP2, true)
+                .setSocketOption(Options.REUSE_ADDRESSES, true)
+                .setHandler(new ProxyHandler(new LoadBalancingProxyClient().addHost(backendUri), 10000, ResponseCodeHandler.HANDLE_404))
+                .build();
+        proxy.start();
+
+        ProxyHandler retryingHandler = new ProxyHandler(new LoadBalancingProxyClient().addHost(backendUri), 10000, ResponseCodeHandler.HANDLE_404, false, false, 2);
+        retryingHandler.setHedging(50, 1, TimeUnit.MILLISECONDS);
+        retryingProxy = Undertow.builder()
+                .addHttpListener(port + 3, host)
+                .setServerOption(UndertowOptions.ENABLE_HTTP2, true)
+                .setSocketOption(Options.REUSE_ADDRESSES, true)
+                .setHandler(retryingHandler)
+                .build();
+        retryingProxy.start();
+    }
+
+    @AfterClass
+    public static void teardown() {
+        retryingProxy.stop();
+        proxy.stop();
+        backend.stop();
+    }
+
+    @Test
+    public void testPutBodyWithoutContentLength() throws Exception {
+        Assert.assertEquals(BODY, sendPut(DefaultServer.getHostPort("default") + 2));
+    }
+
+    @Test
+    public void testPutBodyWithoutContentLengthWithRetries() throws Exception {
+        Assert.assertEquals(BODY, sendPut(DefaultServer.getHostPort("default") + 3));
+    }
+
+    private static String sendPut(int port) throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<String> response = new AtomicReference<>();
+        final AtomicReference<IOException> failure = new AtomicReference<>();
+        URI uri = new URI("h2c-prior", null, DefaultServer.getHostAddress("default"), port, null, null, null);
+        final ClientConnection connection = UndertowClient.getInstance().connect(uri, DefaultServer.getWorker(), DefaultServer.getBufferPool(), OptionMap.EMPTY).get();
+        try {
+            final ClientRequest request = new ClientRequest().setMethod(Methods.PUT).setPath("/");
+            request.getRequestHeaders().put(Headers.HOST, DefaultServer.getHostAddress("default"));
+            connection.getIoThread().execute(new Runnable() {
+                @Override
+                public void run() {
+                    connection.sendRequest(request, new ClientCallback<ClientExchange>() {
+                        @Override
+                        public void completed(ClientExchange result) {
+                            result.setResponseListener(new ClientCallback<ClientExchange>() {
+                                @Override
+                                public void completed(ClientExchange result) {
+                                    new StringReadChannelListener(DefaultServer.getBufferPool()) {
+                                        @Override
+                                        protected void stringDone(String string) {
+                                            response.set(string);
+                                            latch.countDown();
+                                        }
+
+                                        @Override
+                                        protected void error(IOException e) {
+                                            failure.set(e);
+                                            latch.countDown();
+                                        }
+                                    }.setup(result.getResponseChannel());
+                                }
+
+                                @Override
+                                public void failed(IOException e) {
+                                    failure.set(e);
+                                    latch.countDown();
+                                }
+                            });
+                            new StringWriteChannelListener(BODY).setup(result.getRequestChannel());
+                        }
+
+                        @Override
+                        public void failed(IOException e) {
+                            failure.set(e);
+                            latch.countDown();
+                        }
+                    });
+                }
+            });
+            Assert.assertTrue("no response received", latch.await(10, TimeUnit.SECONDS));
+            if (failure.get() != null) {
+                throw failure.get();
+            }
+            return response.get();
+        } finally {
+            IoUtils.safeClose(connection);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers.proxy;
+
+import io.undertow.Undertow;
+import io.undertow.client.UndertowClient;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.ResponseCodeHandler;
+import io.undertow.testutils.DefaultServer;
+import io.undertow.testutils.HttpClientUtils;
+import io.undertow.testutils.ProxyIgnore;
+import io.undertow.testutils.TestHttpClient;
+import io.undertow.util.StatusCodes;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.StringEntity;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.xnio.IoUtils;
+import org.xnio.Options;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests that idempotent requests are retried on a different backend when the first backend drops the connection.
+ *
+ * @author agent
+ */
+@RunWith(DefaultServer.class)
+@ProxyIgnore
+public class ProxyHandlerRetryTestCase {
+
+    private static Undertow server1;
+    private static Undertow server2;
+    private static ProxyHandler proxyHandler;
+    private static LoadBalancingProxyClient proxyClient;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        int port = DefaultServer.getHostPort("default");
+        server1 = Undertow.builder()
+                .addHttpListener(port + 1, DefaultServer.getHostAddress("default"))
+                .setSocketOption(Options.REUSE_ADDRESSES, true)
+                .setHandler(new HttpHandler() {
+                    @Override
+                    public void handleRequest(HttpServerExchange exchange) throws Exception {
+                        //simulate a backend that resets the connection
+                        IoUtils.safeClose(exchange.getConnection());
+                    }
+                })
+                .build();
+        server2 = Undertow.builder()
+                .addHttpListener(port + 2, DefaultServer.getHostAddress("default"))
+                .setSocketOption(Options.REUSE_ADDRESSES, true)
+                .setHandler(new AbstractLoadBalancingProxyTestCase.StringSendHandler("server2"))
+                .build();
+        server1.start();
+        server2.start();
+
+        proxyClient = new LoadBalancingProxyClient(UndertowClient.getInstance(), null, HostSelectors.roundRobin())
+                .setConnectionsPerThread(4)
+                .addHost(new URI("http", null, DefaultServer.getHostAddress("default"), port + 1, null, null, null))
+                .addHost(new URI("http", null, DefaultServer.getHostAddress("default"), port + 2, null, null, null));
+        proxyHandler = new ProxyHandler(proxyClient,
+                10000, ResponseCodeHandler.HANDLE_404, false, false, 1)
+                .setRetryBudget(new RetryBudget(0, 1000, 1000))
+                .setHedging(95, 10, TimeUnit.MILLISECONDS);
+        DefaultServer.setRootHandler(proxyHandler);
+    }
+
+    @AfterClass
+    public static void teardown() {
+        server1.stop();
+        server2.stop();
+    }
+
+    @Test
+    public void testIdempotentRequestIsRetried() throws Exception {
+        TestHttpClient client = new TestHttpClient();
+        try {
+            for (int i = 0; i < 10; ++i) {
+                HttpResponse result = client.execute(new HttpGet(DefaultServer.getDefaultServerURL() + "/name"));
+                Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+                Assert.assertEquals("server2", HttpClientUtils.readResponse(result));
+            }
+            //failed attempts must not leave load behind on their hosts
+            for (LoadBalancingProxyClient.Host host : proxyClient.getHosts()) {
+                for (int i = 0; i < 50 && host.getOutstandingRequests() != 0; ++i) {
+                    Thread.sleep(10);
+                }
+                Assert.assertEquals(0, host.getOutstandingRequests());
+            }
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testRequestWithBodyIsNotRetried() throws Exception {
+        TestHttpClient client = new TestHttpClient();
+        try {
+            boolean failed = false;
+            for (int i = 0; i < 4; ++i) {
+                HttpPost post = new HttpPost(DefaultServer.getDefaultServerURL() + "/name");
+                post.setEntity(new StringEntity("body"));
+                HttpResponse result = client.execute(post);
+                HttpClientUtils.readResponse(result);
+                if (result.getStatusLine().getStatusCode() != StatusCodes.OK) {
+                    failed = true;
+                }
+            }
+            //round robin means at least one of the requests went to the failing backend
+            Assert.assertTrue(failed);
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testRetryBudget() {
+        RetryBudget budget = new RetryBudget(0.5, 0, 10);
+        Assert.assertFalse(budget.tryRetry());
+        budget.requestStarted();
+        Assert.assertFalse(budget.tryRetry());
+        budget.requestStarted();
+        Assert.assertTrue(budget.tryRetry());
+        Assert.assertFalse(budget.tryRetry());
+        for (int i = 0; i < 100; ++i) {
+            budget.requestStarted();
+        }
+        //the balance is capped
+        Assert.assertEquals(10, budget.getAvailableRetries());
+    }
+}
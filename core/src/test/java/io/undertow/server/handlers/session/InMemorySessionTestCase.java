@@ -23,6 +23,8 @@ import java.io.IOException;
 import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.server.session.InMemorySessionManager;
+import io.undertow.server.session.OffHeapSessionStore;
+import io.undertow.server.session.SecureRandomSessionIdGenerator;
 import io.undertow.server.session.Session;
 import io.undertow.server.session.SessionAttachmentHandler;
 import io.undertow.server.session.SessionCookieConfig;
@@ -166,4 +168,55 @@ public class InMemorySessionTestCase {
         }
     }
 
+    @Test
+    public void inMemoryPassivationTest() throws Exception {
+        TestHttpClient client1 = new TestHttpClient();
+        client1.setCookieStore(new BasicCookieStore());
+        TestHttpClient client2 = new TestHttpClient();
+        client2.setCookieStore(new BasicCookieStore());
+
+        try {
+            final SessionCookieConfig sessionConfig = new SessionCookieConfig();
+            final InMemorySessionManager sessionManager = new InMemorySessionManager(new SecureRandomSessionIdGenerator(), "", -1, false, true, 1, new OffHeapSessionStore(64, 1024, 0));
+            final SessionAttachmentHandler handler = new SessionAttachmentHandler(sessionManager, sessionConfig);
+            handler.setNext(new HttpHandler() {
+                @Override
+                public void handleRequest(final HttpServerExchange exchange) throws Exception {
+                    final SessionManager manager = exchange.getAttachment(SessionManager.ATTACHMENT_KEY);
+                    Session session = manager.getSession(exchange, sessionConfig);
+                    if (session == null) {
+                        session = manager.createSession(exchange, sessionConfig);
+                        session.setAttribute(COUNT, 0);
+                    }
+                    Integer count = (Integer) session.getAttribute(COUNT);
+                    exchange.getResponseHeaders().add(new HttpString(COUNT), count.toString());
+                    session.setAttribute(COUNT, ++count);
+                }
+            });
+            DefaultServer.setRootHandler(handler);
+
+            //only one session fits in the hot set, so alternating between the clients passivates and activates them
+            for (int i = 0; i < 5; ++i) {
+                for (TestHttpClient client : new TestHttpClient[]{client1, client2}) {
+                    HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/notamatchingpath");
+                    HttpResponse result = client.execute(get);
+                    Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+                    HttpClientUtils.readResponse(result);
+                    Assert.assertEquals(Integer.toString(i), result.getHeaders(COUNT)[0].getValue());
+                }
+                //passivation happens in the background
+                long end = System.currentTimeMillis() + 5000;
+                while (sessionManager.getPassivatedSessionCount() == 0 && System.currentTimeMillis() < end) {
+                    Thread.sleep(10);
+                }
+            }
+            Assert.assertEquals(2, sessionManager.getActiveSessionCount());
+            Assert.assertTrue(sessionManager.getSessionPassivationCount() > 0);
+            Assert.assertTrue(sessionManager.getSessionActivationCount() > 0);
+        } finally {
+            client1.getConnectionManager().shutdown();
+            client2.getConnectionManager().shutdown();
+        }
+    }
+
 }
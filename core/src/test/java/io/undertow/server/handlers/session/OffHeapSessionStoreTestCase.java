@@ -0,0 +1,79 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers.session;
+
+import io.undertow.server.session.OffHeapSessionStore;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * @author agent
+ */
+public class OffHeapSessionStoreTestCase {
+
+    @Test
+    public void testDirectStore() {
+        runStoreTest(new OffHeapSessionStore(64, 1024, 4));
+    }
+
+    @Test
+    public void testMappedStore() throws Exception {
+        Path dir = Files.createTempDirectory("session-store");
+        try {
+            runStoreTest(new OffHeapSessionStore(64, 1024, 4, dir));
+        } finally {
+            Files.delete(dir);
+        }
+    }
+
+    private void runStoreTest(OffHeapSessionStore store) {
+        try {
+            Random random = new Random(1);
+            byte[][] records = new byte[20][];
+            int[] handles = new int[records.length];
+            for (int i = 0; i < records.length; ++i) {
+                //a mix of records that fit in a single block and ones that span several
+                records[i] = new byte[random.nextInt(200)];
+                random.nextBytes(records[i]);
+                handles[i] = store.store(records[i]);
+                Assert.assertNotEquals(-1, handles[i]);
+            }
+            for (int i = 0; i < records.length; i += 2) {
+                store.free(handles[i]);
+            }
+            for (int i = 1; i < records.length; i += 2) {
+                Assert.assertTrue(Arrays.equals(records[i], store.read(handles[i])));
+            }
+            for (int i = 1; i < records.length; i += 2) {
+                store.free(handles[i]);
+            }
+            Assert.assertEquals(0, store.getUsedBytes());
+            //the store is limited to 4KB, so a record that is larger can never be stored
+            Assert.assertEquals(-1, store.store(new byte[5000]));
+            Assert.assertEquals(0, store.getUsedBytes());
+        } finally {
+            store.close();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.session;
+
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.testutils.DefaultServer;
+import io.undertow.testutils.HttpClientUtils;
+import io.undertow.testutils.TestHttpClient;
+import io.undertow.util.StatusCodes;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.BasicCookieStore;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tests the bookkeeping of the hot set of an {@link InMemorySessionManager} that passivates sessions.
+ *
+ * @author agent
+ */
+@RunWith(DefaultServer.class)
+public class InMemorySessionHotSetTestCase {
+
+    private static final String ATTRIBUTE = "attribute";
+    private static final String UNSERIALIZABLE = "unserializable";
+
+    @Test
+    public void testConcurrentTouchesKeepOneQueueEntry() throws Exception {
+        final InMemorySessionManager manager = new InMemorySessionManager(new SecureRandomSessionIdGenerator(), "", -1, false, true, 10, new OffHeapSessionStore(64, 1024, 0));
+        final AtomicReference<Session> created = new AtomicReference<>();
+        setRootHandler(manager, created);
+        createSession(false);
+        final Session session = created.get();
+        Assert.assertEquals(1, manager.getHotSetQueueSize());
+
+        final int threadCount = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; ++i) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int j = 0; j < 10000; ++j) {
+                            //every attribute access moves the session to the tail of the hot set queue
+                            session.getAttribute(ATTRIBUTE);
+                        }
+                    } catch (Throwable t) {
+                        failure.set(t);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertNull(failure.get());
+        Assert.assertEquals(1, manager.getHotSetQueueSize());
+        Assert.assertEquals(1, manager.getHotSessionCount());
+        manager.stop();
+    }
+
+    @Test
+    public void testUnserializableSessionLeavesHotSet() throws Exception {
+        final InMemorySessionManager manager = new InMemorySessionManager(new SecureRandomSessionIdGenerator(), "", -1, false, true, 1, new OffHeapSessionStore(64, 1024, 0));
+        setRootHandler(manager, new AtomicReference<Session>());
+        createSession(true);
+        createSession(false);
+        createSession(false);
+
+        //passivation runs in the background, and stops once the hot set is small enough
+        long end = System.currentTimeMillis() + 10000;
+        while (manager.getHotSessionCount() > 1 && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(1, manager.getHotSessionCount());
+        //the unserializable session no longer takes up a place in the hot set, so only one of the others is passivated
+        Assert.assertEquals(1, manager.getPassivatedSessionCount());
+        Assert.assertEquals(1, manager.getHotSetQueueSize());
+        manager.stop();
+    }
+
+    private static void setRootHandler(InMemorySessionManager manager, final AtomicReference<Session> created) {
+        final SessionCookieConfig sessionConfig = new SessionCookieConfig();
+        SessionAttachmentHandler handler = new SessionAttachmentHandler(manager, sessionConfig);
+        handler.setNext(new HttpHandler() {
+            @Override
+            public void handleRequest(HttpServerExchange exchange) throws Exception {
+                SessionManager manager = exchange.getAttachment(SessionManager.ATTACHMENT_KEY);
+                Session session = manager.createSession(exchange, sessionConfig);
+                if (exchange.getQueryParameters().containsKey(UNSERIALIZABLE)) {
+                    session.setAttribute(ATTRIBUTE, new Object());
+                } else {
+                    session.setAttribute(ATTRIBUTE, 0);
+                }
+                created.set(session);
+            }
+        });
+        DefaultServer.setRootHandler(handler);
+    }
+
+    private static void createSession(boolean unserializable) throws IOException {
+        TestHttpClient client = new TestHttpClient();
+        client.setCookieStore(new BasicCookieStore());
+        try {
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/path" + (unserializable ? "?" + UNSERIALIZABLE : ""));
+            HttpResponse result = client.execute(get);
+            Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+            HttpClientUtils.readResponse(result);
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.ssl;
+
+import io.undertow.protocols.ssl.SslHandshakeStatistics;
+import io.undertow.protocols.ssl.UndertowXnioSsl;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.protocol.http.HttpOpenListener;
+import io.undertow.testutils.DefaultServer;
+import io.undertow.testutils.HttpClientUtils;
+import io.undertow.testutils.TestHttpClient;
+import io.undertow.util.StatusCodes;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.xnio.ChannelListener;
+import org.xnio.ChannelListeners;
+import org.xnio.IoUtils;
+import org.xnio.OptionMap;
+import org.xnio.Options;
+import org.xnio.StreamConnection;
+import org.xnio.channels.AcceptingChannel;
+import org.xnio.ssl.SslConnection;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLHandshakeException;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests that delegated SSLEngine tasks are run in the configured handshake executor, and that the handshake
+ * statistics are updated.
+ *
+ * @author agent
+ */
+@RunWith(DefaultServer.class)
+public class SslHandshakeExecutorTestCase {
+
+    private static final String HANDSHAKE_THREAD = "test-ssl-handshake";
+
+    @Test
+    public void testTasksRunInHandshakeExecutor() throws Exception {
+        final AtomicInteger executed = new AtomicInteger();
+        final Set<String> threads = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, HANDSHAKE_THREAD);
+            }
+        });
+        try {
+            final Executor countingExecutor = new Executor() {
+                @Override
+                public void execute(final Runnable command) {
+                    executed.incrementAndGet();
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            threads.add(Thread.currentThread().getName());
+                            command.run();
+                        }
+                    });
+                }
+            };
+            SslHandshakeStatistics statistics = runRequests(countingExecutor, 1);
+            Assert.assertTrue("no delegated tasks were run", executed.get() > 0);
+            Assert.assertEquals(executed.get(), statistics.getDelegatedTaskCount());
+            Assert.assertEquals(0, statistics.getRejectedTaskCount());
+            Assert.assertEquals(1, threads.size());
+            Assert.assertTrue(threads.contains(HANDSHAKE_THREAD));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testRejectedTasksRunInWorker() throws Exception {
+        final AtomicInteger rejected = new AtomicInteger();
+        Executor rejectingExecutor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                rejected.incrementAndGet();
+                throw new RejectedExecutionException();
+            }
+        };
+        //the handshake must still complete, with every task run in the worker instead
+        SslHandshakeStatistics statistics = runRequests(rejectingExecutor, 1);
+        Assert.assertTrue("no delegated tasks were submitted", rejected.get() > 0);
+        Assert.assertEquals(rejected.get(), statistics.getRejectedTaskCount());
+        Assert.assertEquals(rejected.get(), statistics.getDelegatedTaskCount());
+    }
+
+    @Test
+    public void testHandshakeCounters() throws Exception {
+        SslHandshakeStatistics statistics = runRequests(null, 3);
+        Assert.assertEquals(3, statistics.getHandshakesStarted());
+        Assert.assertEquals(3, statistics.getHandshakesCompleted());
+        Assert.assertEquals(0, statistics.getHandshakesFailed());
+        Assert.assertTrue(statistics.getSessionsResumed() <= statistics.getHandshakesCompleted());
+        Assert.assertTrue(statistics.getMaxHandshakeTime() <= statistics.getHandshakeTime());
+    }
+
+    @Test
+    public void testFailedHandshakeCounter() throws Exception {
+        UndertowXnioSsl ssl = new UndertowXnioSsl(DefaultServer.getWorker().getXnio(), OptionMap.EMPTY, DefaultServer.SSL_BUFFER_POOL, DefaultServer.getServerSslContext());
+        AcceptingChannel<SslConnection> server = startServer(ssl);
+        try {
+            //a client that only trusts an unrelated certificate rejects the server during the handshake
+            SSLContext untrusted = SSLContext.getInstance("TLS");
+            untrusted.init(null, new TrustManager[]{new RejectingTrustManager()}, null);
+            TestHttpClient client = new TestHttpClient();
+            client.setSSLContext(untrusted);
+            try {
+                client.execute(new HttpGet(DefaultServer.getDefaultServerSSLAddress()));
+                Assert.fail("handshake did not fail");
+            } catch (SSLHandshakeException expected) {
+            } finally {
+                client.getConnectionManager().shutdown();
+            }
+            SslHandshakeStatistics statistics = ssl.getHandshakeStatistics();
+            //the server notices the failure asynchronously
+            long end = System.currentTimeMillis() + 10000;
+            while (statistics.getHandshakesFailed() == 0 && System.currentTimeMillis() < end) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(1, statistics.getHandshakesStarted());
+            Assert.assertEquals(0, statistics.getHandshakesCompleted());
+            Assert.assertEquals(1, statistics.getHandshakesFailed());
+        } finally {
+            IoUtils.safeClose(server);
+        }
+    }
+
+    /**
+     * Starts a HTTPS server with the given handshake executor, and sends the given number of requests, each on
+     * a new connection.
+     */
+    private static SslHandshakeStatistics runRequests(Executor executor, int connections) throws IOException {
+        UndertowXnioSsl ssl = new UndertowXnioSsl(DefaultServer.getWorker().getXnio(), OptionMap.EMPTY, DefaultServer.SSL_BUFFER_POOL, DefaultServer.getServerSslContext());
+        ssl.setDelegatedTaskExecutor(executor);
+        AcceptingChannel<SslConnection> server = startServer(ssl);
+        try {
+            SSLContext clientContext = DefaultServer.createClientSslContext();
+            for (int i = 0; i < connections; ++i) {
+                TestHttpClient client = new TestHttpClient();
+                client.setSSLContext(clientContext);
+                try {
+                    HttpResponse result = client.execute(new HttpGet(DefaultServer.getDefaultServerSSLAddress()));
+                    Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+                    HttpClientUtils.readResponse(result);
+                } finally {
+                    client.getConnectionManager().shutdown();
+                }
+            }
+            return ssl.getHandshakeStatistics();
+        } finally {
+            IoUtils.safeClose(server);
+        }
+    }
+
+    private static AcceptingChannel<SslConnection> startServer(UndertowXnioSsl ssl) throws IOException {
+        HttpOpenListener openListener = new HttpOpenListener(DefaultServer.getBufferPool(), OptionMap.EMPTY);
+        openListener.setRootHandler(new HttpHandler() {
+            @Override
+            public void handleRequest(HttpServerExchange exchange) throws Exception {
+                exchange.getResponseSender().send("ok");
+            }
+        });
+        ChannelListener<AcceptingChannel<StreamConnection>> acceptListener = ChannelListeners.openListenerAdapter(openListener);
+        AcceptingChannel<SslConnection> server = ssl.createSslConnectionServer(DefaultServer.getWorker(), new InetSocketAddress(DefaultServer.getHostAddress("default"), DefaultServer.getHostSSLPort("default")), (ChannelListener) acceptListener, OptionMap.create(Options.USE_DIRECT_BUFFERS, true));
+        server.resumeAccepts();
+        return server;
+    }
+
+    private static final class RejectingTrustManager implements X509TrustManager {
+
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+            throw new CertificateException();
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+            throw new CertificateException();
+        }
+
+        @Override
+        public X509Certificate[] getAcceptedIssuers() {
+            return new X509Certificate[0];
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author agent
+ */
+public class HashedTimerWheelTestCase {
+
+    private static final long TICK = 1000;
+
+    @Test
+    public void testEntriesExpireInOrder() {
+        HashedTimerWheel<TestEntry> wheel = new HashedTimerWheel<>(TICK, TimeUnit.MILLISECONDS);
+        long start = System.currentTimeMillis();
+        List<TestEntry> entries = new ArrayList<>();
+        //deadlines in every level of the wheel
+        long[] deadlines = {1500, 10000, 63000, 65000, 4000000, 300000000};
+        for (long deadline : deadlines) {
+            TestEntry entry = new TestEntry(start + deadline);
+            wheel.schedule(entry, entry.deadline);
+            entries.add(entry);
+        }
+        Assert.assertEquals(deadlines.length, wheel.size());
+
+        int expired = 0;
+        for (long time = start; expired < entries.size(); time += TICK) {
+            for (TestEntry entry : wheel.advance(time)) {
+                Assert.assertSame(entries.get(expired++), entry);
+                Assert.assertTrue(time >= entry.deadline);
+                //never more than a tick late
+                Assert.assertTrue(time < entry.deadline + 2 * TICK);
+                Assert.assertEquals(-1, entry.getScheduledDeadline());
+            }
+        }
+        Assert.assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testCancelAndReschedule() {
+        HashedTimerWheel<TestEntry> wheel = new HashedTimerWheel<>(TICK, TimeUnit.MILLISECONDS);
+        long start = System.currentTimeMillis();
+        TestEntry cancelled = new TestEntry(start + 5000);
+        TestEntry moved = new TestEntry(start + 5000);
+        TestEntry other = new TestEntry(start + 5000);
+        wheel.schedule(cancelled, cancelled.deadline);
+        wheel.schedule(moved, moved.deadline);
+        wheel.schedule(other, other.deadline);
+
+        Assert.assertTrue(wheel.cancel(cancelled));
+        Assert.assertFalse(wheel.cancel(cancelled));
+        wheel.schedule(moved, start + 200000);
+        Assert.assertEquals(start + 200000, moved.getScheduledDeadline());
+        Assert.assertEquals(2, wheel.size());
+
+        List<TestEntry> result = wheel.advance(start + 10000);
+        Assert.assertEquals(1, result.size());
+        Assert.assertSame(other, result.get(0));
+
+        Assert.assertTrue(wheel.advance(start + 199000).isEmpty());
+        result = wheel.advance(start + 201000);
+        Assert.assertEquals(1, result.size());
+        Assert.assertSame(moved, result.get(0));
+
+        wheel.schedule(cancelled, start + 500000);
+        wheel.clear();
+        Assert.assertEquals(0, wheel.size());
+        Assert.assertEquals(-1, cancelled.getScheduledDeadline());
+        Assert.assertTrue(wheel.advance(start + 600000).isEmpty());
+    }
+
+    private static final class TestEntry extends HashedTimerWheel.Entry {
+
+        final long deadline;
+
+        private TestEntry(long deadline) {
+            this.deadline = deadline;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.util;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author agent
+ */
+public class LatencyHistogramTestCase {
+
+    @Test
+    public void testBucketBoundaries() {
+        for (long value = 0; value < 100000; value += 7) {
+            int index = LatencyHistogram.bucketIndex(value);
+            Assert.assertTrue(value <= LatencyHistogram.bucketUpperBound(index));
+            if (index > 0) {
+                Assert.assertTrue(value > LatencyHistogram.bucketUpperBound(index - 1));
+            }
+        }
+        Assert.assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.bucketIndex(LatencyHistogram.MAX_VALUE));
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; ++i) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(i));
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        Assert.assertEquals(1000, snapshot.getCount());
+        Assert.assertEquals(TimeUnit.MICROSECONDS.toNanos(1000), snapshot.getMax());
+        assertWithinPrecision(TimeUnit.MICROSECONDS.toNanos(500), snapshot.getValueAtPercentile(50));
+        assertWithinPrecision(TimeUnit.MICROSECONDS.toNanos(990), snapshot.getValueAtPercentile(99));
+        Assert.assertEquals(snapshot.getMax(), snapshot.getValueAtPercentile(100));
+
+        histogram.reset();
+        Assert.assertEquals(0, histogram.snapshot().getCount());
+    }
+
+    @Test
+    public void testWindow() throws InterruptedException {
+        LatencyHistogram histogram = new LatencyHistogram(50, TimeUnit.MILLISECONDS, 2);
+        histogram.record(100);
+        Assert.assertEquals(1, histogram.snapshot(50, TimeUnit.MILLISECONDS).getCount());
+        Thread.sleep(200);
+        histogram.record(200);
+        Assert.assertEquals(1, histogram.snapshot().getCount());
+        Assert.assertEquals(200, histogram.snapshot().getMax());
+    }
+
+    @Test
+    public void testOverflow() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(100);
+        histogram.record(LatencyHistogram.MAX_VALUE + 1000);
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        Assert.assertEquals(2, snapshot.getCount());
+        Assert.assertEquals(1, snapshot.getOverflowCount());
+        Assert.assertEquals(LatencyHistogram.MAX_VALUE + 1000, snapshot.getMax());
+        Assert.assertEquals(LatencyHistogram.MAX_VALUE + 1100, snapshot.getTotal());
+        Assert.assertEquals(LatencyHistogram.MAX_VALUE, snapshot.getValueAtPercentile(100));
+        Assert.assertEquals(2, snapshot.merge(snapshot).getOverflowCount());
+    }
+
+    private static void assertWithinPrecision(long expected, long actual) {
+        Assert.assertTrue("Expected " + expected + " got " + actual, Math.abs(expected - actual) <= expected / 16);
+    }
+}
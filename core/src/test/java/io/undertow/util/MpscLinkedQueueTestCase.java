@@ -0,0 +1,93 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * @author agent
+ */
+public class MpscLinkedQueueTestCase {
+
+    private static final int PRODUCERS = 4;
+    private static final int ELEMENTS = 100000;
+
+    @Test
+    public void testSingleThreaded() {
+        MpscLinkedQueue<String> queue = new MpscLinkedQueue<>();
+        Assert.assertTrue(queue.isEmpty());
+        Assert.assertNull(queue.poll());
+        queue.offer("a");
+        queue.offer("b");
+        Assert.assertFalse(queue.isEmpty());
+        Assert.assertEquals("[a, b]", queue.toString());
+        Assert.assertEquals("a", queue.peek());
+        Assert.assertEquals("a", queue.poll());
+        queue.offer("c");
+        Assert.assertEquals("b", queue.poll());
+        Assert.assertEquals("c", queue.poll());
+        Assert.assertNull(queue.poll());
+        Assert.assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testConcurrentProducers() throws InterruptedException {
+        final MpscLinkedQueue<int[]> queue = new MpscLinkedQueue<>();
+        final CountDownLatch latch = new CountDownLatch(1);
+        Thread[] producers = new Thread[PRODUCERS];
+        for (int i = 0; i < PRODUCERS; ++i) {
+            final int producer = i;
+            producers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        latch.await();
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                    for (int j = 0; j < ELEMENTS; ++j) {
+                        queue.offer(new int[]{producer, j});
+                    }
+                }
+            });
+            producers[i].start();
+        }
+        latch.countDown();
+
+        //elements from each producer must be received exactly once and in order
+        int[] next = new int[PRODUCERS];
+        int received = 0;
+        while (received < PRODUCERS * ELEMENTS) {
+            int[] element = queue.poll();
+            if (element == null) {
+                Thread.yield();
+                continue;
+            }
+            Assert.assertEquals(next[element[0]]++, element[1]);
+            ++received;
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        Assert.assertTrue(queue.isEmpty());
+    }
+}
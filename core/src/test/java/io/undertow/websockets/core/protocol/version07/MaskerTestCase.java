@@ -0,0 +1,61 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.undertow.websockets.core.protocol.version07;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+/**
+ * @author agent
+ */
+public class MaskerTestCase {
+
+    @Test
+    public void testMaskingMatchesByteAtATime() {
+        Random random = new Random(1);
+        for (ByteOrder order : new ByteOrder[]{ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+            for (int i = 0; i < 100; ++i) {
+                int key = random.nextInt();
+                byte[] data = new byte[random.nextInt(200)];
+                random.nextBytes(data);
+                ByteBuffer buffer = ByteBuffer.allocateDirect(data.length + 3).order(order);
+                buffer.position(3);
+                buffer.put(data);
+
+                //mask the data in randomly sized chunks, so the key index is different at the start of each call
+                Masker masker = new Masker(key);
+                int position = 3;
+                while (position < buffer.limit()) {
+                    int length = Math.min(random.nextInt(20), buffer.limit() - position);
+                    masker.afterRead(buffer, position, length);
+                    position += length;
+                }
+                for (int j = 0; j < data.length; ++j) {
+                    byte expected = (byte) (data[j] ^ (key >> (24 - (j % 4) * 8)));
+                    Assert.assertEquals(expected, buffer.get(j + 3));
+                }
+            }
+        }
+    }
+}
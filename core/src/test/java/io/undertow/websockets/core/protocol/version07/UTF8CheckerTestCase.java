@@ -0,0 +1,76 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.undertow.websockets.core.protocol.version07;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+
+/**
+ * @author agent
+ */
+public class UTF8CheckerTestCase {
+
+    @Test
+    public void testValidText() throws Exception {
+        check("plain ascii text that is longer than eight bytes");
+        check("mixed \u00e9\u00e8 ascii and \u4e2d\u6587 multi byte \ud83d\ude00 text, with ascii after it");
+        //a multi byte character that spans the boundary between two calls
+        byte[] data = "1234567\u4e2d1234567890".getBytes("UTF-8");
+        UTF8Checker checker = new UTF8Checker();
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        checker.afterRead(buffer, 0, 8);
+        checker.afterRead(buffer, 8, data.length - 8);
+        checker.complete();
+    }
+
+    @Test
+    public void testInvalidText() throws Exception {
+        byte[] data = "12345678abcdefgh12345678".getBytes("UTF-8");
+        for (int i = 0; i < data.length; ++i) {
+            byte[] invalid = data.clone();
+            invalid[i] = (byte) 0xFF;
+            UTF8Checker checker = new UTF8Checker();
+            try {
+                checker.afterRead(ByteBuffer.wrap(invalid), 0, invalid.length);
+                Assert.fail("invalid byte at " + i + " was not detected");
+            } catch (UnsupportedEncodingException expected) {
+            }
+        }
+        //a truncated multi byte character at the end of the message
+        byte[] truncated = "12345678\u4e2d".getBytes("UTF-8");
+        UTF8Checker checker = new UTF8Checker();
+        checker.afterRead(ByteBuffer.wrap(truncated), 0, truncated.length - 1);
+        try {
+            checker.complete();
+            Assert.fail();
+        } catch (UnsupportedEncodingException expected) {
+        }
+    }
+
+    private static void check(String text) throws Exception {
+        byte[] data = text.getBytes("UTF-8");
+        UTF8Checker checker = new UTF8Checker();
+        checker.afterRead(ByteBuffer.wrap(data), 0, data.length);
+        checker.complete();
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.undertow.websockets.extensions;
+
+import io.undertow.websockets.WebSocketExtension;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.zip.Deflater;
+
+/**
+ * @author agent
+ */
+public class PerMessageDeflateHandshakeTestCase {
+
+    @Test
+    public void testWindowBitsNegotiation() {
+        PerMessageDeflateHandshake handshake = new PerMessageDeflateHandshake();
+        Assert.assertEquals("permessage-deflate", negotiate(handshake, "permessage-deflate; client_max_window_bits"));
+        Assert.assertEquals("permessage-deflate; server_max_window_bits=15", negotiate(handshake, "permessage-deflate; server_max_window_bits=15"));
+        //the JDK deflater cannot use a smaller window, so the offer is declined
+        Assert.assertNull(handshake.accept(WebSocketExtension.parse("permessage-deflate; server_max_window_bits=10").get(0)));
+        Assert.assertNull(handshake.accept(WebSocketExtension.parse("permessage-deflate; server_max_window_bits=16").get(0)));
+    }
+
+    @Test
+    public void testNoContextTakeover() {
+        PerMessageDeflateHandshake handshake = new PerMessageDeflateHandshake(false, Deflater.BEST_SPEED, false, false, 10);
+        //the configured values are requested even if the client did not offer them
+        Assert.assertEquals("permessage-deflate; server_no_context_takeover; client_no_context_takeover", negotiate(handshake, "permessage-deflate"));
+
+        handshake = new PerMessageDeflateHandshake();
+        Assert.assertEquals("permessage-deflate; client_no_context_takeover", negotiate(handshake, "permessage-deflate; client_no_context_takeover"));
+        //parameters from an earlier offer do not apply to the next one
+        Assert.assertEquals("permessage-deflate", negotiate(handshake, "permessage-deflate"));
+    }
+
+    @Test
+    public void testCreateUsesNegotiatedParameters() {
+        PerMessageDeflateHandshake handshake = new PerMessageDeflateHandshake();
+        //the connections negotiate in turn before either creates its function, as concurrent handshakes may
+        WebSocketExtension first = handshake.accept(WebSocketExtension.parse("permessage-deflate; server_no_context_takeover").get(0));
+        WebSocketExtension second = handshake.accept(WebSocketExtension.parse("permessage-deflate; client_no_context_takeover").get(0));
+
+        PerMessageDeflateFunction function = (PerMessageDeflateFunction) handshake.create(first);
+        Assert.assertFalse(function.isCompressContextTakeover());
+        Assert.assertTrue(function.isDecompressContextTakeover());
+        function.dispose();
+        function = (PerMessageDeflateFunction) handshake.create(second);
+        Assert.assertTrue(function.isCompressContextTakeover());
+        Assert.assertFalse(function.isDecompressContextTakeover());
+        function.dispose();
+
+        //a client reads the modes from the server response the other way around
+        PerMessageDeflateHandshake client = new PerMessageDeflateHandshake(true);
+        function = (PerMessageDeflateFunction) client.create(WebSocketExtension.parse("permessage-deflate; server_no_context_takeover").get(0));
+        Assert.assertTrue(function.isCompressContextTakeover());
+        Assert.assertFalse(function.isDecompressContextTakeover());
+        function.dispose();
+    }
+
+    @Test
+    public void testPoolClose() {
+        DeflatePool pool = new DeflatePool(Deflater.BEST_SPEED, 2);
+        Deflater deflater = pool.allocateDeflater();
+        pool.freeDeflater(deflater);
+        Assert.assertSame(deflater, pool.allocateDeflater());
+        Deflater inUse = pool.allocateDeflater();
+        pool.freeDeflater(deflater);
+
+        pool.close();
+        //a pooled instance has been ended, and is not handed out again
+        Assert.assertNotSame(deflater, pool.allocateDeflater());
+        //an instance that was in use when the pool was closed is not pooled when it is returned
+        pool.freeDeflater(inUse);
+        Assert.assertNotSame(inUse, pool.allocateDeflater());
+    }
+
+    private static String negotiate(PerMessageDeflateHandshake handshake, String offer) {
+        WebSocketExtension negotiated = handshake.accept(WebSocketExtension.parse(offer).get(0));
+        return WebSocketExtension.toExtensionHeader(Collections.singletonList(negotiated));
+    }
+}
@@ -96,4 +96,8 @@ public interface UndertowServletLogger extends BasicLogger {
     @Message(id = 15012, value = "Failed to generate error page %s for original exception: %s. Generating error page resulted in a %s.")
     void errorGeneratingErrorPage(String originalErrorPage, Object originalException, int code,  @Cause Throwable cause);
 
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 15013, value = "Failed to load persistent session attribute %s for session %s")
+    void failedToLoadPersistentSessionAttribute(String attributeName, String sessionID, @Cause Exception e);
+
 }
@@ -19,6 +19,7 @@
 package io.undertow.servlet.core;
 
 import io.undertow.server.session.InMemorySessionManager;
+import io.undertow.server.session.OffHeapSessionStore;
 import io.undertow.server.session.SessionManager;
 import io.undertow.servlet.api.Deployment;
 import io.undertow.servlet.api.SessionManagerFactory;
@@ -29,18 +30,33 @@ import io.undertow.servlet.api.SessionManagerFactory;
  */
 public class InMemorySessionManagerFactory implements SessionManagerFactory {
 
+    private static final int PASSIVATION_BLOCK_SIZE = 512;
+    private static final int PASSIVATION_REGION_SIZE = 16 * 1024 * 1024;
+
     private final int maxSessions;
+    private final int hotSetSize;
 
     public InMemorySessionManagerFactory() {
         this(-1);
     }
 
     public InMemorySessionManagerFactory(int maxSessions) {
+        this(maxSessions, 0);
+    }
+
+    /**
+     * @param maxSessions The maximum number of sessions
+     * @param hotSetSize  The number of recently used sessions that are kept on the heap, the attributes of other
+     *                    sessions are passivated to direct memory. 0 disables passivation.
+     */
+    public InMemorySessionManagerFactory(int maxSessions, int hotSetSize) {
         this.maxSessions = maxSessions;
+        this.hotSetSize = hotSetSize;
     }
 
     @Override
     public SessionManager createSessionManager(Deployment deployment) {
-        return new InMemorySessionManager(deployment.getDeploymentInfo().getSessionIdGenerator(), deployment.getDeploymentInfo().getDeploymentName(), maxSessions, deployment.getDeploymentInfo().getMetricsCollector() != null);
+        OffHeapSessionStore store = hotSetSize > 0 ? new OffHeapSessionStore(PASSIVATION_BLOCK_SIZE, PASSIVATION_REGION_SIZE, 0) : null;
+        return new InMemorySessionManager(deployment.getDeploymentInfo().getSessionIdGenerator(), deployment.getDeploymentInfo().getDeploymentName(), maxSessions, deployment.getDeploymentInfo().getMetricsCollector() != null, true, hotSetSize, store);
     }
 }
@@ -105,6 +105,13 @@ public class SessionRestoringHandler implements HttpHandler, Lifecycle {
                     objectData.put(sessionId, new PersistentSession(new Date(session.getLastAccessedTime() + (session.getMaxInactiveInterval() * 1000)), sessionData));
                 }
             }
+            //sessions that were loaded at startup but have not been used since are kept until the next start
+            final long time = System.currentTimeMillis();
+            for (Map.Entry<String, PersistentSession> entry : data.entrySet()) {
+                if (!objectData.containsKey(entry.getKey()) && entry.getValue().getExpiration().getTime() > time) {
+                    objectData.put(entry.getKey(), entry.getValue());
+                }
+            }
             sessionPersistenceManager.persistSessions(deploymentName, objectData);
             this.data.clear();
         } finally {
@@ -0,0 +1,398 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.servlet.util;
+
+import io.undertow.servlet.UndertowServletLogger;
+import io.undertow.servlet.api.SessionPersistenceManager;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Session persistence implementation that stores sessions in a file, so they survive a restart of the JVM.
+ * <p>
+ * Each deployment has its own file, which is a header followed by a sequence of length prefixed records, one per
+ * session. When the deployment is stopped the sessions are serialized in parallel and appended to a new file, which
+ * then replaces the old one. When the deployment is started the file is memory mapped and only the session ids and
+ * expiry times are read, the attributes of a session are not deserialized until the session is first accessed. A
+ * session that is not accessed before the next shutdown is written out again without being deserialized at all.
+ * <p>
+ * The file is deleted once it has been loaded, so sessions that are invalidated after a restart cannot be resurrected
+ * if the JVM is not shut down cleanly.
+ *
+ * @author agent
+ */
+public class FileSessionPersistence implements SessionPersistenceManager {
+
+    private static final int MAGIC = 0x55545350;
+    private static final int VERSION = 1;
+    private static final String SUFFIX = ".sessions";
+
+    /**
+     * Below this many sessions they are just serialized in the calling thread
+     */
+    private static final int PARALLEL_THRESHOLD = 64;
+
+    private final Path directory;
+    private final int serializationThreads;
+
+    public FileSessionPersistence(Path directory) {
+        this(directory, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param directory            The directory that the session files are stored in
+     * @param serializationThreads The number of threads that are used to serialize sessions on shutdown
+     */
+    public FileSessionPersistence(Path directory, int serializationThreads) {
+        if (directory == null) {
+            throw new IllegalArgumentException("Directory cannot be null");
+        }
+        this.directory = directory;
+        this.serializationThreads = Math.max(1, serializationThreads);
+    }
+
+    @Override
+    public void persistSessions(String deploymentName, Map<String, PersistentSession> sessionData) {
+        try {
+            final List<Map.Entry<String, PersistentSession>> sessions = new ArrayList<>(sessionData.entrySet());
+            final ByteBuffer[] records = new ByteBuffer[sessions.size() + 1];
+            records[0] = header(deploymentName);
+            int threads = Math.min(serializationThreads, sessions.size() / PARALLEL_THRESHOLD);
+            if (threads <= 1) {
+                serializeRecords(sessions, records, 0, 1);
+            } else {
+                serializeInParallel(sessions, records, threads);
+            }
+
+            Files.createDirectories(directory);
+            final Path file = file(deploymentName);
+            final Path temp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+            try {
+                try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    long remaining = 0;
+                    for (ByteBuffer record : records) {
+                        remaining += record.remaining();
+                    }
+                    while (remaining > 0) {
+                        remaining -= channel.write(records);
+                    }
+                    channel.force(false);
+                }
+                //the old file is only replaced once the new one is complete
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (Exception e) {
+            UndertowServletLogger.ROOT_LOGGER.failedToPersistSessions(e);
+        }
+    }
+
+    @Override
+    public Map<String, PersistentSession> loadSessionAttributes(String deploymentName, final ClassLoader classLoader) {
+        final Path file = file(deploymentName);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try {
+            final MappedByteBuffer buffer;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                //the mapping remains valid after the channel is closed and the file is deleted
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            try {
+                Files.delete(file);
+            } catch (IOException e) {
+                UndertowServletLogger.ROOT_LOGGER.debugf(e, "Could not delete session file %s", file);
+            }
+            if (buffer.remaining() < 8 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION || !deploymentName.equals(readString(buffer))) {
+                UndertowServletLogger.ROOT_LOGGER.debugf("Ignoring session file %s as it is not valid for deployment %s", file, deploymentName);
+                return null;
+            }
+            final long time = System.currentTimeMillis();
+            final Map<String, PersistentSession> ret = new HashMap<>();
+            while (buffer.remaining() >= 4) {
+                int length = buffer.getInt();
+                if (length < 0 || length > buffer.remaining()) {
+                    //a truncated file, the sessions that were read are still valid
+                    UndertowServletLogger.ROOT_LOGGER.debugf("Session file %s is truncated", file);
+                    break;
+                }
+                ByteBuffer record = buffer.slice();
+                record.limit(length);
+                buffer.position(buffer.position() + length);
+
+                String sessionId = readString(record);
+                long expiry = record.getLong();
+                if (expiry > time) {
+                    ret.put(sessionId, new StoredSession(sessionId, new Date(expiry), record.slice(), classLoader));
+                }
+            }
+            return ret;
+        } catch (Exception e) {
+            UndertowServletLogger.ROOT_LOGGER.failedtoLoadPersistentSessions(e);
+        }
+        return null;
+    }
+
+    @Override
+    public void clear(String deploymentName) {
+        try {
+            Files.deleteIfExists(file(deploymentName));
+        } catch (IOException e) {
+            UndertowServletLogger.ROOT_LOGGER.debugf(e, "Could not delete session file for deployment %s", deploymentName);
+        }
+    }
+
+    private Path file(String deploymentName) {
+        StringBuilder name = new StringBuilder(deploymentName.length() + SUFFIX.length());
+        for (int i = 0; i < deploymentName.length(); ++i) {
+            char c = deploymentName.charAt(i);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '.' || c == '-') {
+                name.append(c);
+            } else {
+                name.append('_');
+            }
+        }
+        name.append(SUFFIX);
+        return directory.resolve(name.toString());
+    }
+
+    private void serializeInParallel(final List<Map.Entry<String, PersistentSession>> sessions, final ByteBuffer[] records, final int threads) throws Exception {
+        //serialization may need to load classes, so the threads use the deployment's class loader
+        final ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "session-persistence");
+                thread.setDaemon(true);
+                thread.setContextClassLoader(classLoader);
+                return thread;
+            }
+        });
+        try {
+            List<Future<Void>> results = new ArrayList<>(threads);
+            for (int i = 0; i < threads; ++i) {
+                final int start = i;
+                results.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        serializeRecords(sessions, records, start, threads);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Serializes every <code>stride</code>th session, starting at <code>start</code>. The record for each session is
+     * placed after the header in <code>records</code>, so the file layout does not depend on the number of threads.
+     */
+    private static void serializeRecords(List<Map.Entry<String, PersistentSession>> sessions, ByteBuffer[] records, int start, int stride) throws IOException {
+        for (int i = start; i < sessions.size(); i += stride) {
+            Map.Entry<String, PersistentSession> entry = sessions.get(i);
+            records[i + 1] = record(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private static ByteBuffer header(String deploymentName) {
+        byte[] name = deploymentName.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer header = ByteBuffer.allocate(10 + name.length);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putShort((short) name.length);
+        header.put(name);
+        header.flip();
+        return header;
+    }
+
+    private static ByteBuffer record(String sessionId, PersistentSession session) throws IOException {
+        ByteBuffer attributes;
+        if (session instanceof StoredSession && ((StoredSession) session).isRaw()) {
+            //never accessed since it was loaded, so it does not need to be deserialized just to be written out again
+            attributes = ((StoredSession) session).rawAttributes();
+        } else {
+            attributes = serializeAttributes(sessionId, session.getSessionData());
+        }
+        byte[] id = sessionId.getBytes(StandardCharsets.UTF_8);
+        int length = 2 + id.length + 8 + attributes.remaining();
+        ByteBuffer record = ByteBuffer.allocate(4 + length);
+        record.putInt(length);
+        record.putShort((short) id.length);
+        record.put(id);
+        record.putLong(session.getExpiration().getTime());
+        record.put(attributes);
+        record.flip();
+        return record;
+    }
+
+    private static ByteBuffer serializeAttributes(String sessionId, Map<String, Object> sessionData) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final ByteArrayOutputStream attribute = new ByteArrayOutputStream();
+        int count = 0;
+        for (Map.Entry<String, Object> sessionAttribute : sessionData.entrySet()) {
+            //each attribute is serialized separately, so one that cannot be serialized does not affect the others
+            attribute.reset();
+            try {
+                final ObjectOutputStream objectOutputStream = new ObjectOutputStream(attribute);
+                objectOutputStream.writeObject(sessionAttribute.getValue());
+                objectOutputStream.close();
+            } catch (Exception e) {
+                UndertowServletLogger.ROOT_LOGGER.failedToPersistSessionAttribute(sessionAttribute.getKey(), sessionAttribute.getValue(), sessionId, e);
+                continue;
+            }
+            byte[] name = sessionAttribute.getKey().getBytes(StandardCharsets.UTF_8);
+            writeShort(out, name.length);
+            out.write(name);
+            writeInt(out, attribute.size());
+            attribute.writeTo(out);
+            count++;
+        }
+        byte[] data = out.toByteArray();
+        ByteBuffer ret = ByteBuffer.allocate(4 + data.length);
+        ret.putInt(count);
+        ret.put(data);
+        ret.flip();
+        return ret;
+    }
+
+    private static void writeShort(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] data = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(data);
+        return new String(data, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A session that was loaded from the file. Its attributes are deserialized from the mapped file the first time
+     * they are requested.
+     */
+    private static final class StoredSession extends PersistentSession {
+
+        private final String sessionId;
+        private final ClassLoader classLoader;
+        private ByteBuffer raw;
+        private Map<String, Object> sessionData;
+
+        private StoredSession(String sessionId, Date expiration, ByteBuffer raw, ClassLoader classLoader) {
+            super(expiration, Collections.<String, Object>emptyMap());
+            this.sessionId = sessionId;
+            this.raw = raw;
+            this.classLoader = classLoader;
+        }
+
+        synchronized boolean isRaw() {
+            return sessionData == null;
+        }
+
+        synchronized ByteBuffer rawAttributes() {
+            return raw.duplicate();
+        }
+
+        @Override
+        public synchronized Map<String, Object> getSessionData() {
+            if (sessionData == null) {
+                sessionData = deserializeAttributes();
+                raw = null;
+            }
+            return Collections.unmodifiableMap(sessionData);
+        }
+
+        private Map<String, Object> deserializeAttributes() {
+            final ByteBuffer buffer = raw.duplicate();
+            final Map<String, Object> ret = new HashMap<>();
+            int count = buffer.getInt();
+            for (int i = 0; i < count; ++i) {
+                String name = readString(buffer);
+                byte[] data = new byte[buffer.getInt()];
+                buffer.get(data);
+                try (ObjectInputStream in = new ClassLoaderObjectInputStream(new ByteArrayInputStream(data), classLoader)) {
+                    ret.put(name, in.readObject());
+                } catch (Exception e) {
+                    UndertowServletLogger.ROOT_LOGGER.failedToLoadPersistentSessionAttribute(name, sessionId, e);
+                }
+            }
+            return ret;
+        }
+    }
+
+    private static final class ClassLoaderObjectInputStream extends ObjectInputStream {
+
+        private final ClassLoader classLoader;
+
+        private ClassLoaderObjectInputStream(InputStream in, ClassLoader classLoader) throws IOException {
+            super(in);
+            this.classLoader = classLoader;
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            if (classLoader != null) {
+                try {
+                    return Class.forName(desc.getName(), false, classLoader);
+                } catch (ClassNotFoundException e) {
+                    //fall back to the default resolution
+                }
+            }
+            return super.resolveClass(desc);
+        }
+    }
+}
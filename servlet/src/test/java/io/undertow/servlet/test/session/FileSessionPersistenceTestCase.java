@@ -0,0 +1,108 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2015 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.servlet.test.session;
+
+import io.undertow.server.handlers.PathHandler;
+import io.undertow.servlet.api.DeploymentInfo;
+import io.undertow.servlet.api.DeploymentManager;
+import io.undertow.servlet.api.ServletContainer;
+import io.undertow.servlet.api.ServletInfo;
+import io.undertow.servlet.test.SimpleServletTestCase;
+import io.undertow.servlet.test.util.TestClassIntrospector;
+import io.undertow.servlet.util.FileSessionPersistence;
+import io.undertow.testutils.DefaultServer;
+import io.undertow.testutils.HttpClientUtils;
+import io.undertow.testutils.TestHttpClient;
+import io.undertow.util.StatusCodes;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * @author agent
+ */
+@RunWith(DefaultServer.class)
+public class FileSessionPersistenceTestCase {
+
+    @Test
+    public void testSessionsSurviveRestarts() throws Exception {
+        Path directory = Files.createTempDirectory("undertow-sessions");
+        final PathHandler pathHandler = new PathHandler();
+        final ServletContainer container = ServletContainer.Factory.newInstance();
+        DeploymentInfo builder = new DeploymentInfo()
+                .setClassLoader(SimpleServletTestCase.class.getClassLoader())
+                .setContextPath("/servletContext")
+                .setClassIntrospecter(TestClassIntrospector.INSTANCE)
+                .setDeploymentName("servletContext.war")
+                .setSessionPersistenceManager(new FileSessionPersistence(directory))
+                .addServlets(new ServletInfo("servlet", SessionServlet.class)
+                        .addMapping("/aa/b"));
+        DeploymentManager manager = container.addDeployment(builder);
+        manager.deploy();
+        pathHandler.addPrefixPath(builder.getContextPath(), manager.start());
+        DefaultServer.setRootHandler(pathHandler);
+        TestHttpClient client1 = new TestHttpClient();
+        TestHttpClient client2 = new TestHttpClient();
+        try {
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/servletContext/aa/b");
+            Assert.assertEquals("1", sendRequest(client1, get));
+            Assert.assertEquals("2", sendRequest(client1, get));
+            Assert.assertEquals("1", sendRequest(client2, get));
+
+            restart(manager, pathHandler, builder);
+            Assert.assertEquals("3", sendRequest(client1, get));
+
+            //the second session was not used after the last restart, so it must be carried over to the next one
+            restart(manager, pathHandler, builder);
+            Assert.assertEquals("4", sendRequest(client1, get));
+            Assert.assertEquals("2", sendRequest(client2, get));
+        } finally {
+            client1.getConnectionManager().shutdown();
+            client2.getConnectionManager().shutdown();
+            manager.stop();
+            manager.undeploy();
+            File[] files = directory.toFile().listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    private static void restart(DeploymentManager manager, PathHandler pathHandler, DeploymentInfo builder) throws Exception {
+        manager.stop();
+        manager.undeploy();
+        manager.deploy();
+        pathHandler.addPrefixPath(builder.getContextPath(), manager.start());
+    }
+
+    private static String sendRequest(TestHttpClient client, HttpGet get) throws Exception {
+        HttpResponse result = client.execute(get);
+        Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+        return HttpClientUtils.readResponse(result);
+    }
+}
@@ -32,6 +32,7 @@ import io.undertow.websockets.jsr.handshake.HandshakeUtil;
 import io.undertow.websockets.jsr.handshake.JsrHybi07Handshake;
 import io.undertow.websockets.jsr.handshake.JsrHybi08Handshake;
 import io.undertow.websockets.jsr.handshake.JsrHybi13Handshake;
+import org.xnio.IoUtils;
 import org.xnio.StreamConnection;
 
 import javax.servlet.Filter;
@@ -43,6 +44,7 @@ import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.websocket.server.ServerContainer;
+import java.io.Closeable;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -65,6 +67,7 @@ public class JsrWebSocketFilter implements Filter {
     private PathTemplateMatcher<WebSocketHandshakeHolder> pathTemplateMatcher;
     private Set<WebSocketChannel> peerConnections;
     private ServerWebSocketContainer container;
+    private WebSocketDeploymentInfo info;
 
     protected WebSocketHandshakeHolder handshakes(ConfiguredServerEndpoint config) {
         List<Handshake> handshakes = new ArrayList<>();
@@ -96,7 +99,7 @@ public class JsrWebSocketFilter implements Filter {
         container = (ServerWebSocketContainer) filterConfig.getServletContext().getAttribute(ServerContainer.class.getName());
         container.deploymentComplete();
         pathTemplateMatcher = new PathTemplateMatcher<>();
-        WebSocketDeploymentInfo info = (WebSocketDeploymentInfo)filterConfig.getServletContext().getAttribute(WebSocketDeploymentInfo.ATTRIBUTE_NAME);
+        info = (WebSocketDeploymentInfo)filterConfig.getServletContext().getAttribute(WebSocketDeploymentInfo.ATTRIBUTE_NAME);
         for (ConfiguredServerEndpoint endpoint : container.getConfiguredServerEndpoints()) {
             if (info == null || info.getExtensions().isEmpty()) {
                 pathTemplateMatcher.add(endpoint.getPathTemplate(), handshakes(endpoint));
@@ -158,7 +161,14 @@ public class JsrWebSocketFilter implements Filter {
 
     @Override
     public void destroy() {
-
+        if (info != null) {
+            //release any resources held by the extensions, such as pooled compressors
+            for (ExtensionHandshake extension : info.getExtensions()) {
+                if (extension instanceof Closeable) {
+                    IoUtils.safeClose((Closeable) extension);
+                }
+            }
+        }
     }
 
     private static final class WebSocketHandshakeHolder {